@@ -0,0 +1,91 @@
+package com.ooc.config;
+
+import com.ooc.entity.ChatMessage;
+import com.ooc.entity.ChatRoom;
+import com.ooc.repository.ChatMessageRepository;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+/**
+ * 将旧版 chat_rooms 文档中内嵌的 messages 迁移到 chat_messages 集合
+ * 在上下文刷新阶段执行（Web 服务器启动前），避免房间被整体保存时覆盖未迁移的消息
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class ChatMessageMigration {
+
+    private static final String CHAT_ROOMS = "chat_rooms";
+
+    private final MongoTemplate mongoTemplate;
+    private final ChatMessageRepository chatMessageRepository;
+
+    @PostConstruct
+    public void migrateEmbeddedMessages() {
+        Query query = new Query(Criteria.where("messages").exists(true));
+        query.fields().include("messages");
+
+        int rooms = 0;
+        int messages = 0;
+        try (Stream<Document> stream = mongoTemplate.stream(query, Document.class, CHAT_ROOMS)) {
+            for (Document roomDoc : (Iterable<Document>) stream::iterator) {
+                String roomId = String.valueOf(roomDoc.get("_id"));
+                List<Document> embedded = roomDoc.getList("messages", Document.class, List.of());
+
+                List<ChatMessage> documents = toDocuments(roomId, embedded);
+                // save 按 _id 覆盖写入，中途失败后重新执行也不会产生重复消息
+                chatMessageRepository.saveAll(documents);
+                mongoTemplate.updateFirst(new Query(Criteria.where("_id").is(roomDoc.get("_id"))),
+                        new Update().unset("messages"), CHAT_ROOMS);
+
+                rooms++;
+                messages += documents.size();
+                log.info("[ChatMessageMigration] Migrated {} messages of room {}", documents.size(), roomId);
+            }
+        }
+
+        if (rooms > 0) {
+            log.info("[ChatMessageMigration] Migrated {} messages from {} rooms", messages, rooms);
+        }
+    }
+
+    /**
+     * 转换内嵌消息。内嵌列表的顺序即写入顺序，而流式消息完成时会刷新 timestamp，
+     * 所以从后往前取最小值作为排序时间戳，保证迁移后的顺序与原列表一致
+     */
+    private List<ChatMessage> toDocuments(String roomId, List<Document> embedded) {
+        List<ChatMessage> documents = new ArrayList<>(embedded.size());
+        for (Document doc : embedded) {
+            ChatRoom.Message message = mongoTemplate.getConverter().read(ChatRoom.Message.class, doc);
+            if (message.getId() == null) {
+                message.setId(UUID.randomUUID().toString());
+            }
+            documents.add(ChatMessage.of(roomId, message));
+        }
+
+        Instant next = null;
+        for (int i = documents.size() - 1; i >= 0; i--) {
+            ChatMessage document = documents.get(i);
+            Instant timestamp = document.getMessage().getTimestamp();
+            if (timestamp == null || (next != null && timestamp.isAfter(next))) {
+                timestamp = next != null ? next : Instant.now();
+            }
+            document.setTimestamp(timestamp);
+            next = timestamp;
+        }
+        return documents;
+    }
+}
@@ -0,0 +1,328 @@
+package com.ooc.config;
+
+import com.ooc.entity.BotTaskQueue;
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * 聊天相关配置
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "chat")
+public class ChatProperties {
+
+    /**
+     * 每个房间的最近消息内存缓存（用于加入房间和重连时发送历史消息）
+     */
+    private RecentMessages recentMessages = new RecentMessages();
+
+    /**
+     * 流式增量合并（stream_delta 帧）
+     */
+    private StreamDeltas streamDeltas = new StreamDeltas();
+
+    /**
+     * 每个 WebSocket 会话的发送队列
+     */
+    private Outbound outbound = new Outbound();
+
+    /**
+     * 机器人任务队列
+     */
+    private TaskQueue taskQueue = new TaskQueue();
+
+    /**
+     * 已结束任务记录的保留与压缩
+     */
+    private TaskRetention taskRetention = new TaskRetention();
+
+    /**
+     * Kimi、Claude 会话上下文窗口
+     */
+    private SessionContext sessionContext = new SessionContext();
+
+    /**
+     * 流式回复的定期落库和中断恢复
+     */
+    private StreamCheckpoint streamCheckpoint = new StreamCheckpoint();
+
+    /**
+     * 机器人注册表的内存缓存
+     */
+    private BotRegistry botRegistry = new BotRegistry();
+
+    @Data
+    public static class RecentMessages {
+        /**
+         * 每个房间缓存的最近消息条数
+         */
+        private int size = 50;
+
+        /**
+         * 房间无访问超过该时间后从内存移除（毫秒）
+         */
+        private long idleEvictMs = 1800000;
+
+        /**
+         * 最多缓存的房间数，超出时优先移除最久未访问的房间
+         */
+        private int maxRooms = 10000;
+    }
+
+    @Data
+    public static class StreamDeltas {
+        /**
+         * 合并间隔（毫秒），每个流在该间隔内最多发送一帧增量；0 表示不合并
+         */
+        private long flushIntervalMs = 50;
+
+        /**
+         * 合并的增量达到该字符数时立即发送
+         */
+        private int flushChars = 4096;
+
+        /**
+         * 每个流为重连客户端保留的最近增量帧数
+         */
+        private int replayFrames = 256;
+
+        /**
+         * 每个流保留的增量帧总字符数上限，缺口超出保留范围时发送内容快照
+         */
+        private int replayChars = 65536;
+    }
+
+    @Data
+    public static class Outbound {
+        /**
+         * 单次发送超过该时间（毫秒）视为慢客户端，按 overflowPolicy 处理后续消息
+         */
+        private long sendTimeLimitMs = 10000;
+
+        /**
+         * 每个会话队列中待发送消息的最大字符数
+         */
+        private int bufferSizeLimit = 1024 * 1024;
+
+        /**
+         * 慢客户端处理策略
+         */
+        private OverflowPolicy overflowPolicy = OverflowPolicy.COALESCE;
+    }
+
+    @Data
+    public static class TaskQueue {
+        /**
+         * 任务队列调度线程数（延迟触发下一个任务、启动恢复等）
+         */
+        private int schedulerThreads = 2;
+
+        /**
+         * 关闭时等待已排期任务执行完毕的最长时间（毫秒）
+         */
+        private long shutdownTimeoutMs = 10000;
+
+        /**
+         * 任务完成后触发下一个任务前的延迟（毫秒），确保资源释放
+         */
+        private long nextTaskDelayMs = 300;
+
+        /**
+         * 取消正在执行的任务后触发下一个任务前的延迟（毫秒），给流一点时间完全停止
+         */
+        private long cancelNextTaskDelayMs = 500;
+
+        /**
+         * 所有房间、所有机器人同时执行的任务上限
+         */
+        private int maxConcurrent = 64;
+
+        /**
+         * 每种机器人同时执行的任务上限，未配置的机器人只受 maxConcurrent 限制
+         */
+        private Map<BotTaskQueue.BotType, Integer> maxConcurrentPerBot = new EnumMap<>(BotTaskQueue.BotType.class);
+
+        /**
+         * 流程图任务在房间间公平调度中的代价（对话任务为 1），代价越高越不容易挤占其他房间
+         */
+        private int flowchartTaskCost = 4;
+
+        /**
+         * 当前实例ID，用于任务租约；为空时使用主机名加随机后缀
+         */
+        private String instanceId = "";
+
+        /**
+         * 任务执行租约时长（毫秒），执行中每 1/3 时长续约一次；实例崩溃后任务最迟在该时间后被其他实例接管
+         */
+        private long leaseMs = 30000;
+
+        /**
+         * 与数据库同步队列的间隔（毫秒）：回收过期租约、加载其他实例写入的任务；0 表示不同步
+         */
+        private long syncIntervalMs = 5000;
+
+        /**
+         * 各任务类型的默认优先级，入队时可为单个任务指定
+         */
+        private Map<BotTaskQueue.TaskType, BotTaskQueue.TaskPriority> defaultPriority = new EnumMap<>(Map.of(
+                BotTaskQueue.TaskType.CHAT, BotTaskQueue.TaskPriority.NORMAL,
+                BotTaskQueue.TaskType.FLOWCHART, BotTaskQueue.TaskPriority.LOW));
+
+        /**
+         * 优先级老化时间（毫秒）：每低一个优先级，任务排队时视为晚入队这么久；
+         * 低优先级任务等待超过该时间后排在新入队的高一级任务前面，不会被无限期推迟
+         */
+        private long agingMs = 120000;
+
+        /**
+         * 任务遇到会话繁忙或临时故障时的最大重试次数，超过后标记为失败
+         */
+        private int retryMaxAttempts = 5;
+
+        /**
+         * 首次重试的等待时间（毫秒），之后每次翻倍，并加入 ±20% 随机抖动
+         */
+        private long retryInitialBackoffMs = 1000;
+
+        /**
+         * 重试等待时间上限（毫秒）
+         */
+        private long retryMaxBackoffMs = 30000;
+    }
+
+    @Data
+    public static class TaskRetention {
+        /**
+         * 是否在后台压缩已结束的任务记录
+         */
+        private boolean enabled = true;
+
+        /**
+         * 任务结束后保留完整内容和附件的时间（毫秒），之后只保留摘要
+         */
+        private long payloadRetentionMs = 3600000;
+
+        /**
+         * 任务结束后保留摘要记录的时间（毫秒），到期由 TTL 索引删除；0 表示永久保留
+         * 只影响之后结束的任务，已写入的过期时间不会随配置变化
+         */
+        private long recordRetentionMs = 2592000000L;
+
+        /**
+         * 摘要中保留的内容字符数
+         */
+        private int summaryChars = 200;
+
+        /**
+         * 后台压缩间隔（毫秒）
+         */
+        private long intervalMs = 60000;
+
+        /**
+         * 每批压缩的记录数
+         */
+        private int batchSize = 500;
+
+        /**
+         * 每次最多执行的批数，积压较多时分多次处理，避免长时间占用数据库
+         */
+        private int maxBatchesPerRun = 20;
+    }
+
+    @Data
+    public static class SessionContext {
+        /**
+         * 每次请求发送的上下文估算 token 上限（含系统提示词和摘要）
+         */
+        private int maxTokens = 24000;
+
+        /**
+         * 超出预算时至少原样保留的最近消息条数，更早的消息折叠进摘要
+         * （保留的历史需从用户消息开始，可能少保留一条；最近消息本身超出预算时继续折叠）
+         */
+        private int keepRecentMessages = 8;
+
+        /**
+         * 摘要的估算 token 上限，超出时丢弃最早的摘要内容
+         */
+        private int summaryMaxTokens = 2000;
+
+        /**
+         * 每条被折叠的消息在摘要中保留的字符数
+         */
+        private int summaryLineChars = 200;
+
+        /**
+         * 会话无活动超过该时间（毫秒）后从内存移除
+         */
+        private long idleEvictMs = 1800000;
+
+        /**
+         * 空闲会话清理间隔（毫秒）
+         */
+        private long evictIntervalMs = 60000;
+    }
+
+    @Data
+    public static class StreamCheckpoint {
+        /**
+         * 是否定期将流式回复的已生成内容写入数据库
+         */
+        private boolean enabled = true;
+
+        /**
+         * 检查点间隔（毫秒），每条流在每个间隔内最多写入一次，只追加新增的内容
+         */
+        private long intervalMs = 2000;
+
+        /**
+         * 没有新内容时刷新检查点时间的间隔（毫秒），表明该流仍在进行
+         */
+        private long heartbeatMs = 30000;
+
+        /**
+         * 检查点超过该时间（毫秒）未刷新的流式消息视为已中断（实例重启或崩溃），应大于 heartbeatMs
+         */
+        private long staleMs = 120000;
+
+        /**
+         * 中断消息检查间隔（毫秒）
+         */
+        private long reconcileIntervalMs = 60000;
+
+        /**
+         * 每次最多处理的中断消息数
+         */
+        private int reconcileBatchSize = 200;
+    }
+
+    @Data
+    public static class BotRegistry {
+        /**
+         * 缓存的最长有效时间（毫秒），到期后重新加载；
+         * 其他实例修改机器人后，本实例最迟在该时间后看到变化。0 表示只在本实例修改时重新加载
+         */
+        private long ttlMs = 30000;
+    }
+
+    public enum OverflowPolicy {
+        /**
+         * 丢弃流式增量（stream_delta），其他消息照常排队；客户端内容在下一个完整状态帧时恢复
+         */
+        DROP_DELTAS,
+        /**
+         * 先移除已被后续完整状态帧（tool_start/tool_result/stream_end）覆盖的增量，仍然超限时丢弃增量
+         */
+        COALESCE,
+        /**
+         * 直接断开慢客户端，由客户端重连后重新获取历史
+         */
+        DISCONNECT
+    }
+}
@@ -0,0 +1,111 @@
+package com.ooc.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 大模型 HTTP 客户端配置（OpenClaw、Kimi、Claude 等）
+ * 每个提供方一个连接池，providers 中的配置覆盖默认值，未配置的字段使用默认值。
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "llm-client")
+public class LlmClientProperties {
+
+    /**
+     * 默认连接池与超时配置
+     */
+    private Settings defaults = new Settings();
+
+    /**
+     * 按提供方覆盖（key 为提供方名称，如 openclaw、kimi、claude）
+     */
+    private Map<String, Settings> providers = new HashMap<>();
+
+    /**
+     * 提供方实际使用的配置
+     */
+    public Settings resolve(String provider) {
+        Settings override = providers.get(provider);
+        return override != null ? override.withDefaults(defaults) : defaults;
+    }
+
+    @Data
+    public static class Settings {
+        /**
+         * 每个目标地址的最大连接数
+         */
+        private Integer maxConnections;
+
+        /**
+         * 等待获取连接的最大请求数，超出时请求立即失败
+         */
+        private Integer pendingAcquireMaxCount;
+
+        /**
+         * 等待获取连接的超时时间（毫秒）
+         */
+        private Long pendingAcquireTimeoutMs;
+
+        /**
+         * 连接空闲超过该时间后关闭（毫秒），应小于服务端的 keep-alive 时间，避免复用已被服务端关闭的连接
+         */
+        private Long maxIdleTimeMs;
+
+        /**
+         * 连接最长存活时间（毫秒）
+         */
+        private Long maxLifeTimeMs;
+
+        /**
+         * 后台清理空闲和过期连接的间隔（毫秒），0 表示只在获取连接时清理
+         */
+        private Long evictInBackgroundMs;
+
+        private Long connectTimeoutMs;
+
+        /**
+         * 两次读取之间的最长等待时间（毫秒），流式响应中工具调用可能需要较长时间
+         */
+        private Long responseTimeoutMs;
+
+        private Long writeTimeoutMs;
+
+        /**
+         * 是否启用 HTTP/2（HTTPS 地址通过 ALPN 协商，服务端不支持或明文地址时使用 HTTP/1.1）
+         */
+        private Boolean http2;
+
+        Settings withDefaults(Settings defaults) {
+            Settings merged = new Settings();
+            merged.maxConnections = maxConnections != null ? maxConnections : defaults.maxConnections;
+            merged.pendingAcquireMaxCount = pendingAcquireMaxCount != null ? pendingAcquireMaxCount : defaults.pendingAcquireMaxCount;
+            merged.pendingAcquireTimeoutMs = pendingAcquireTimeoutMs != null ? pendingAcquireTimeoutMs : defaults.pendingAcquireTimeoutMs;
+            merged.maxIdleTimeMs = maxIdleTimeMs != null ? maxIdleTimeMs : defaults.maxIdleTimeMs;
+            merged.maxLifeTimeMs = maxLifeTimeMs != null ? maxLifeTimeMs : defaults.maxLifeTimeMs;
+            merged.evictInBackgroundMs = evictInBackgroundMs != null ? evictInBackgroundMs : defaults.evictInBackgroundMs;
+            merged.connectTimeoutMs = connectTimeoutMs != null ? connectTimeoutMs : defaults.connectTimeoutMs;
+            merged.responseTimeoutMs = responseTimeoutMs != null ? responseTimeoutMs : defaults.responseTimeoutMs;
+            merged.writeTimeoutMs = writeTimeoutMs != null ? writeTimeoutMs : defaults.writeTimeoutMs;
+            merged.http2 = http2 != null ? http2 : defaults.http2;
+            return merged;
+        }
+    }
+
+    public LlmClientProperties() {
+        defaults.setMaxConnections(64);
+        defaults.setPendingAcquireMaxCount(256);
+        defaults.setPendingAcquireTimeoutMs(30000L);
+        defaults.setMaxIdleTimeMs(20000L);
+        defaults.setMaxLifeTimeMs(300000L);
+        defaults.setEvictInBackgroundMs(10000L);
+        defaults.setConnectTimeoutMs(30000L);
+        defaults.setResponseTimeoutMs(600000L);
+        defaults.setWriteTimeoutMs(60000L);
+        defaults.setHttp2(true);
+    }
+}
@@ -0,0 +1,87 @@
+package com.ooc.config;
+
+import io.netty.channel.ChannelOption;
+import io.netty.handler.timeout.WriteTimeoutHandler;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.netty.http.HttpProtocol;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 大模型提供方共享的 WebClient
+ * 每个提供方一个连接池（池内按目标地址分别维护连接），每个提供方-基础地址组合缓存一个 WebClient，
+ * 请求复用已建立的 TCP/TLS 连接。连接池指标以 reactor.netty.connection.provider.* 导出，name 标签为 llm-{提供方}。
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class LlmWebClients {
+
+    private final LlmClientProperties properties;
+
+    private final Map<String, ConnectionProvider> connectionProviders = new ConcurrentHashMap<>();
+    private final Map<String, HttpClient> httpClients = new ConcurrentHashMap<>();
+    private final Map<String, WebClient> webClients = new ConcurrentHashMap<>();
+
+    /**
+     * 获取提供方指定基础地址的 WebClient（基础地址变化时创建新的 WebClient，共用同一连接池）
+     */
+    public WebClient get(String provider, String baseUrl) {
+        return webClients.computeIfAbsent(provider + "|" + baseUrl,
+                key -> WebClient.builder()
+                        .baseUrl(baseUrl)
+                        .clientConnector(new ReactorClientHttpConnector(httpClient(provider)))
+                        .build());
+    }
+
+    /**
+     * 提供方的 HTTP 客户端（连接池和超时按提供方配置）
+     */
+    public HttpClient httpClient(String provider) {
+        return httpClients.computeIfAbsent(provider, this::createHttpClient);
+    }
+
+    private HttpClient createHttpClient(String provider) {
+        LlmClientProperties.Settings settings = properties.resolve(provider);
+        ConnectionProvider pool = connectionProviders.computeIfAbsent(provider, name -> ConnectionProvider.builder("llm-" + name)
+                .maxConnections(settings.getMaxConnections())
+                .pendingAcquireMaxCount(settings.getPendingAcquireMaxCount())
+                .pendingAcquireTimeout(Duration.ofMillis(settings.getPendingAcquireTimeoutMs()))
+                .maxIdleTime(Duration.ofMillis(settings.getMaxIdleTimeMs()))
+                .maxLifeTime(Duration.ofMillis(settings.getMaxLifeTimeMs()))
+                .evictInBackground(Duration.ofMillis(settings.getEvictInBackgroundMs()))
+                .metrics(true)
+                .build());
+
+        // 读取超时使用按请求生效的 responseTimeout，不在连接上挂 ReadTimeoutHandler（连接复用时会作用于空闲连接）
+        HttpClient client = HttpClient.create(pool)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, (int) (long) settings.getConnectTimeoutMs())
+                .option(ChannelOption.SO_KEEPALIVE, true)
+                .responseTimeout(Duration.ofMillis(settings.getResponseTimeoutMs()))
+                .doOnConnected(conn -> conn
+                        .addHandlerLast(new WriteTimeoutHandler(settings.getWriteTimeoutMs(), TimeUnit.MILLISECONDS)));
+        if (Boolean.TRUE.equals(settings.getHttp2())) {
+            client = client.protocol(HttpProtocol.H2, HttpProtocol.HTTP11);
+        }
+
+        log.info("LLM HTTP client for {} created: maxConnections={}, pendingAcquireMax={}, maxIdle={}ms, responseTimeout={}ms, http2={}",
+                provider, settings.getMaxConnections(), settings.getPendingAcquireMaxCount(),
+                settings.getMaxIdleTimeMs(), settings.getResponseTimeoutMs(), settings.getHttp2());
+        return client;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        connectionProviders.values().forEach(ConnectionProvider::dispose);
+    }
+}
@@ -2,8 +2,15 @@ package com.ooc.controller;
 
 import com.ooc.entity.BotUserConfig;
 import com.ooc.entity.User;
+import com.ooc.openclaw.OpenClawWebSocketClient;
 import com.ooc.repository.UserRepository;
+import com.ooc.service.BotRegistryService;
+import com.ooc.service.PersistentTaskQueueService;
+import com.ooc.service.TaskQueueRetentionService;
+import com.ooc.service.TaskQueueScheduler;
 import com.ooc.websocket.ChatWebSocketHandler;
+import com.ooc.websocket.SessionOutbox;
+import com.ooc.websocket.SessionOutboxRegistry;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.http.ResponseEntity;
@@ -28,6 +35,12 @@ public class AdminController {
     private final UserRepository userRepository;
     private final PasswordEncoder passwordEncoder;
     private final ChatWebSocketHandler chatWebSocketHandler;
+    private final BotRegistryService botRegistryService;
+    private final SessionOutboxRegistry outboxRegistry;
+    private final OpenClawWebSocketClient openClawWebSocketClient;
+    private final TaskQueueScheduler taskQueueScheduler;
+    private final PersistentTaskQueueService taskQueueService;
+    private final TaskQueueRetentionService taskQueueRetentionService;
 
     @GetMapping("/users")
     public ResponseEntity<List<UserDto>> getAllUsers() {
@@ -93,6 +106,7 @@ public class AdminController {
         user.setUpdatedAt(Instant.now());
 
         User saved = userRepository.save(user);
+        invalidateIfBot(saved);
         return ResponseEntity.ok(toDto(saved));
     }
 
@@ -107,6 +121,7 @@ public class AdminController {
         }
 
         userRepository.delete(user);
+        invalidateIfBot(user);
         return ResponseEntity.ok().build();
     }
 
@@ -125,10 +140,20 @@ public class AdminController {
         
         user.setEnabled(request.get("enabled"));
         userRepository.save(user);
+        invalidateIfBot(user);
         
         return ResponseEntity.ok().build();
     }
 
+    /**
+     * 通过通用用户接口修改了机器人用户时，刷新机器人注册表
+     */
+    private void invalidateIfBot(User user) {
+        if (user.isBot()) {
+            botRegistryService.invalidate();
+        }
+    }
+
     private UserDto toDto(User user) {
         return new UserDto(
                 user.getId(),
@@ -140,6 +165,51 @@ public class AdminController {
         );
     }
 
+    /**
+     * 获取 WebSocket 会话发送队列统计（被限流的会话排在前面）
+     */
+    @GetMapping("/websocket/outbound")
+    public ResponseEntity<List<SessionOutbox.Stats>> getOutboundStats(
+            @RequestParam(defaultValue = "false") boolean throttledOnly) {
+        List<SessionOutbox.Stats> stats = outboxRegistry.getStats();
+        if (throttledOnly) {
+            stats = stats.stream().filter(SessionOutbox.Stats::isThrottled).toList();
+        }
+        return ResponseEntity.ok(stats);
+    }
+
+    /**
+     * 获取 OpenClaw Gateway 连接池状态
+     */
+    @GetMapping("/openclaw/pool")
+    public ResponseEntity<OpenClawWebSocketClient.PoolStats> getOpenClawPoolStats() {
+        return ResponseEntity.ok(openClawWebSocketClient.getPoolStats());
+    }
+
+    /**
+     * 获取任务队列调度器状态（排期深度和执行延迟）
+     */
+    @GetMapping("/task-queue/scheduler")
+    public ResponseEntity<TaskQueueScheduler.Stats> getTaskQueueSchedulerStats() {
+        return ResponseEntity.ok(taskQueueScheduler.getStats());
+    }
+
+    /**
+     * 获取机器人任务调度状态（并发名额占用和排队等待时间）
+     */
+    @GetMapping("/task-queue/dispatcher")
+    public ResponseEntity<PersistentTaskQueueService.DispatcherStats> getTaskDispatcherStats() {
+        return ResponseEntity.ok(taskQueueService.getDispatcherStats());
+    }
+
+    /**
+     * 获取已结束任务记录的压缩状态
+     */
+    @GetMapping("/task-queue/retention")
+    public ResponseEntity<TaskQueueRetentionService.Stats> getTaskRetentionStats() {
+        return ResponseEntity.ok(taskQueueRetentionService.getStats());
+    }
+
     /**
      * 发送测试消息到指定房间
      */
@@ -339,6 +409,7 @@ public class AdminController {
         }
         
         User saved = userRepository.save(bot);
+        botRegistryService.invalidate();
         log.info("OpenClaw bot saved: username={}, gatewayUrl={}", saved.getUsername(), 
                 saved.getBotConfig() != null ? saved.getBotConfig().getGatewayUrl() : null);
         return ResponseEntity.ok(toBotDto(saved));
@@ -390,6 +461,7 @@ public class AdminController {
                 .build();
         
         User saved = userRepository.save(bot);
+        botRegistryService.invalidate();
         log.info("Bot created: username={}, type={}", saved.getUsername(), saved.getBotType());
         return ResponseEntity.ok(toBotDto(saved));
     }
@@ -452,6 +524,7 @@ public class AdminController {
         bot.setUpdatedAt(Instant.now());
         
         User saved = userRepository.save(bot);
+        botRegistryService.invalidate();
         log.info("Bot updated: username={}, type={}, enabled={}", saved.getUsername(), saved.getBotType(), saved.isEnabled());
         return ResponseEntity.ok(toBotDto(saved));
     }
@@ -469,6 +542,7 @@ public class AdminController {
         }
         
         userRepository.delete(bot);
+        botRegistryService.invalidate();
         log.info("Bot deleted: {} ({})", bot.getUsername(), bot.getBotType());
         return ResponseEntity.ok().build();
     }
@@ -550,6 +624,7 @@ public class AdminController {
         }
 
         User saved = userRepository.save(bot);
+        botRegistryService.invalidate();
         log.info("Kimi bot saved: username={}, gatewayUrl={}", saved.getUsername(),
                 saved.getBotConfig() != null ? saved.getBotConfig().getGatewayUrl() : null);
         return ResponseEntity.ok(toBotDto(saved));
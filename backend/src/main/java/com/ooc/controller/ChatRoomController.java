@@ -3,7 +3,9 @@ package com.ooc.controller;
 import com.ooc.dto.ChatRoomCreateRequest;
 import com.ooc.dto.ChatRoomDto;
 import com.ooc.dto.MemberDto;
+import com.ooc.dto.MessagePage;
 import com.ooc.dto.SendMessageRequest;
+import com.ooc.entity.BotTaskQueue;
 import com.ooc.entity.ChatRoom;
 import com.ooc.entity.OocSession;
 import com.ooc.entity.User;
@@ -201,12 +203,8 @@ public class ChatRoomController {
             @RequestParam(defaultValue = "0") int page,
             @RequestParam(defaultValue = "20") int size,
             @RequestParam(required = false) String before) {
-        ChatRoom room = chatRoomService.getChatRoom(roomId)
-                .orElseThrow(() -> new RuntimeException("Chat room not found"));
-
-        List<ChatRoom.Message> messages = room.getMessages();
-        if (messages == null || messages.isEmpty()) {
-            return ResponseEntity.ok(List.of());
+        if (chatRoomService.getChatRoom(roomId).isEmpty()) {
+            throw new RuntimeException("Chat room not found");
         }
 
         List<ChatRoom.Message> pagedMessages;
@@ -215,45 +213,25 @@ public class ChatRoomController {
         if (before != null && !before.isEmpty()) {
             try {
                 Instant beforeTimestamp = Instant.parse(before);
-                // 找到第一个 timestamp < before 的消息索引
-                int startIndex = -1;
-                for (int i = messages.size() - 1; i >= 0; i--) {
-                    if (messages.get(i).getTimestamp() != null &&
-                        messages.get(i).getTimestamp().isBefore(beforeTimestamp)) {
-                        startIndex = i;
-                        break;
-                    }
-                }
-
-                if (startIndex < 0) {
-                    return ResponseEntity.ok(List.of());
-                }
-
-                // 从 startIndex 往前取 size 条（更旧的消息）
-                int endIndex = Math.max(0, startIndex - size + 1);
-                pagedMessages = messages.subList(endIndex, startIndex + 1);
+                // 取 timestamp < before 的 size 条（更旧的消息）
+                pagedMessages = chatRoomService.getMessagesBefore(roomId, beforeTimestamp, size);
             } catch (Exception e) {
                 log.error("Failed to parse before timestamp: {}", before, e);
                 return ResponseEntity.ok(List.of());
             }
         } else {
-            // 默认分页（简单的内存分页，返回最新的消息）
-            int start = page * size;
-            int end = Math.min(start + size, messages.size());
-
-            if (start >= messages.size()) {
-                return ResponseEntity.ok(List.of());
-            }
-
-            // 返回倒序（最新消息在前）
-            pagedMessages = messages.subList(
-                    Math.max(0, messages.size() - end),
-                    Math.max(0, messages.size() - start)
-            );
+            // 默认分页（page 0 为最新的消息）
+            pagedMessages = chatRoomService.getMessages(roomId, page, size);
         }
 
-        // 为消息补充头像信息（旧消息可能没有保存 senderAvatar）
-        List<ChatRoom.Message> enrichedMessages = pagedMessages.stream()
+        return ResponseEntity.ok(enrichAvatars(pagedMessages));
+    }
+
+    /**
+     * 为消息补充头像信息（旧消息可能没有保存 senderAvatar）
+     */
+    private List<ChatRoom.Message> enrichAvatars(List<ChatRoom.Message> messages) {
+        return messages.stream()
                 .map(msg -> {
                     if (msg.getSenderAvatar() == null || msg.getSenderAvatar().isEmpty()) {
                         try {
@@ -269,50 +247,37 @@ public class ChatRoomController {
                     return msg;
                 })
                 .collect(Collectors.toList());
-
-        return ResponseEntity.ok(enrichedMessages);
     }
 
-    @GetMapping("/{roomId}/queue")
-    public ResponseEntity<Map<String, Object>> getTaskQueue(@PathVariable String roomId) {
-        // 获取所有机器人类型的任务队列
-        Map<String, List<ChatWebSocketHandler.OpenClawTask>> allQueues = webSocketHandler.getRoomAllTaskQueues(roomId);
-        boolean isProcessing = webSocketHandler.isRoomProcessing(roomId);
-
-        List<Map<String, Object>> taskList = new ArrayList<>();
-
-        // 合并所有机器人类型的任务
-        for (Map.Entry<String, List<ChatWebSocketHandler.OpenClawTask>> entry : allQueues.entrySet()) {
-            String botType = entry.getKey();
-            for (ChatWebSocketHandler.OpenClawTask task : entry.getValue()) {
-                Map<String, Object> taskMap = new HashMap<>();
-                taskMap.put("taskId", task.getTaskId());
-                taskMap.put("status", task.getStatus().name());
-                taskMap.put("createdAt", task.getCreatedAt());
-                taskMap.put("senderName", task.getUserInfo() != null ? task.getUserInfo().getUserName() : "Unknown");
-                taskMap.put("content", task.getContent() != null ?
-                        task.getContent().substring(0, Math.min(50, task.getContent().length())) + "..." : "");
-                taskMap.put("botType", botType);
-                taskList.add(taskMap);
-            }
+    /**
+     * 基于游标的消息历史（按 roomId+timestamp+id 索引，每次只读取一页）
+     *
+     * @param cursor    上一页返回的 olderCursor / newerCursor，为空时返回最新一页
+     * @param direction before（更早）或 after（更新）
+     */
+    @GetMapping("/{roomId}/messages/history")
+    public ResponseEntity<MessagePage> getChatRoomMessageHistory(
+            @PathVariable String roomId,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(defaultValue = "before") String direction,
+            @RequestParam(defaultValue = "20") int size) {
+        int pageSize = Math.max(1, Math.min(size, 100));
+        MessagePage page;
+        try {
+            page = chatRoomService.getMessageHistory(roomId, cursor, direction, pageSize);
+        } catch (IllegalArgumentException e) {
+            log.warn("Invalid history cursor for room {}: {}", roomId, cursor);
+            return ResponseEntity.badRequest().build();
         }
 
-        // 按状态排序：PROCESSING 在前，然后 PENDING
-        taskList.sort((a, b) -> {
-            String statusA = (String) a.get("status");
-            String statusB = (String) b.get("status");
-            if (statusA.equals("PROCESSING") && !statusB.equals("PROCESSING")) return -1;
-            if (!statusA.equals("PROCESSING") && statusB.equals("PROCESSING")) return 1;
-            return 0;
-        });
-
-        Map<String, Object> result = new HashMap<>();
-        result.put("roomId", roomId);
-        result.put("isProcessing", isProcessing);
-        result.put("queueSize", taskList.size());
-        result.put("tasks", taskList);
+        page.setMessages(enrichAvatars(page.getMessages()));
+        return ResponseEntity.ok(page);
+    }
 
-        return ResponseEntity.ok(result);
+    @GetMapping("/{roomId}/queue")
+    public ResponseEntity<Map<String, Object>> getTaskQueue(@PathVariable String roomId) {
+        // 队列视图从内存快照读取，实时变化可通过 WebSocket queue_subscribe 订阅
+        return ResponseEntity.ok(webSocketHandler.getRoomQueueView(roomId));
     }
 
     @PostMapping("/{roomId}/queue/reorder")
@@ -336,6 +301,32 @@ public class ChatRoomController {
         return ResponseEntity.ok(result);
     }
 
+    @PostMapping("/{roomId}/queue/{taskId}/priority")
+    public ResponseEntity<Map<String, Object>> setTaskPriority(
+            @PathVariable String roomId,
+            @PathVariable String taskId,
+            @RequestBody Map<String, String> request) {
+        BotTaskQueue.TaskPriority priority;
+        try {
+            priority = BotTaskQueue.TaskPriority.valueOf(String.valueOf(request.get("priority")));
+        } catch (IllegalArgumentException e) {
+            Map<String, Object> error = new HashMap<>();
+            error.put("error", "priority must be one of HIGH, NORMAL, LOW");
+            return ResponseEntity.badRequest().body(error);
+        }
+
+        boolean success = webSocketHandler.setTaskPriority(roomId, taskId, priority);
+
+        Map<String, Object> result = new HashMap<>();
+        result.put("success", success);
+        result.put("roomId", roomId);
+        result.put("taskId", taskId);
+        result.put("priority", priority.name());
+        result.put("message", success ? "Task priority updated" : "Task is not pending in this room");
+
+        return ResponseEntity.ok(result);
+    }
+
     @DeleteMapping("/{roomId}/queue/{taskId}")
     public ResponseEntity<Map<String, Object>> cancelTask(
             @PathVariable String roomId,
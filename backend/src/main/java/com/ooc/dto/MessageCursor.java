@@ -0,0 +1,40 @@
+package com.ooc.dto;
+
+import com.ooc.entity.ChatMessage;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Base64;
+
+/**
+ * 消息历史游标：(timestamp, id) 对应 chat_messages 的 (roomId, timestamp, _id) 索引
+ * 对客户端是不透明的字符串
+ */
+public record MessageCursor(Instant timestamp, String id) {
+
+    public static MessageCursor of(ChatMessage message) {
+        return new MessageCursor(message.getTimestamp(), message.getId());
+    }
+
+    public String encode() {
+        String raw = timestamp.toEpochMilli() + ":" + id;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 解析游标，格式不合法时抛出 IllegalArgumentException
+     */
+    public static MessageCursor decode(String cursor) {
+        String raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+        int separator = raw.indexOf(':');
+        if (separator <= 0 || separator == raw.length() - 1) {
+            throw new IllegalArgumentException("Invalid message cursor: " + cursor);
+        }
+        try {
+            long epochMilli = Long.parseLong(raw.substring(0, separator));
+            return new MessageCursor(Instant.ofEpochMilli(epochMilli), raw.substring(separator + 1));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid message cursor: " + cursor, e);
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package com.ooc.dto;
+
+import com.ooc.entity.ChatRoom;
+import lombok.Builder;
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * 消息历史分页结果（游标分页）
+ */
+@Data
+@Builder
+public class MessagePage {
+    /**
+     * 本页消息，按时间正序
+     */
+    private List<ChatRoom.Message> messages;
+
+    /**
+     * 用于加载更早消息的游标（本页最早一条）
+     */
+    private String olderCursor;
+
+    /**
+     * 用于加载更新消息的游标（本页最新一条）
+     */
+    private String newerCursor;
+
+    /**
+     * 请求方向上是否还有更多消息
+     */
+    private boolean hasMore;
+}
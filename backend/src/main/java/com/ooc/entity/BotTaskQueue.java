@@ -25,6 +25,10 @@ import java.util.List;
 @AllArgsConstructor
 @Document(collection = "bot_task_queues")
 @CompoundIndex(name = "room_bot_status_idx", def = "{'roomId': 1, 'botType': 1, 'status': 1}")
+@CompoundIndex(name = "status_room_bot_position_created_idx",
+        def = "{'status': 1, 'roomId': 1, 'botType': 1, 'position': 1, 'createdAt': 1}")
+@CompoundIndex(name = "status_lease_expiry_idx", def = "{'status': 1, 'leaseExpiresAt': 1}")
+@CompoundIndex(name = "status_compacted_updated_idx", def = "{'status': 1, 'compactedAt': 1, 'updatedAt': 1}")
 public class BotTaskQueue {
 
     @JsonProperty("id")
@@ -66,9 +70,51 @@ public class BotTaskQueue {
     @JsonProperty("flowchartInstanceId")
     private String flowchartInstanceId;
 
+    /**
+     * 优先级，为空时按任务类型取默认优先级
+     */
+    @JsonProperty("priority")
+    private TaskPriority priority;
+
+    /**
+     * 有效排队时间：入队时间加上优先级对应的偏移，同一房间的待处理任务按该时间先后执行
+     */
+    @JsonProperty("effectiveAt")
+    private Instant effectiveAt;
+
     @JsonProperty("position")
     private Integer position;
 
+    /**
+     * 执行该任务的实例ID（处理中时有效）
+     */
+    @JsonProperty("leaseOwner")
+    private String leaseOwner;
+
+    /**
+     * 执行租约到期时间，执行实例定期续约；过期后任务被重新置为待处理
+     */
+    @JsonProperty("leaseExpiresAt")
+    private Instant leaseExpiresAt;
+
+    /**
+     * 已重试次数
+     */
+    @JsonProperty("attempts")
+    private Integer attempts;
+
+    /**
+     * 重试等待截止时间，之前不会被调度
+     */
+    @JsonProperty("retryAt")
+    private Instant retryAt;
+
+    /**
+     * 最近一次失败原因
+     */
+    @JsonProperty("lastError")
+    private String lastError;
+
     @JsonProperty("createdAt")
     @CreatedDate
     private Instant createdAt;
@@ -77,6 +123,31 @@ public class BotTaskQueue {
     @LastModifiedDate
     private Instant updatedAt;
 
+    /**
+     * 任务结束时间（已完成、失败或取消）
+     */
+    @JsonProperty("finishedAt")
+    private Instant finishedAt;
+
+    /**
+     * 压缩时间：结束的任务在保留期后只保留摘要，内容截断，附件数据移除
+     */
+    @JsonProperty("compactedAt")
+    private Instant compactedAt;
+
+    /**
+     * 压缩前的附件数量
+     */
+    @JsonProperty("attachmentCount")
+    private Integer attachmentCount;
+
+    /**
+     * 记录过期时间，到期后由 TTL 索引自动删除；未结束的任务没有该字段，不会过期
+     */
+    @JsonProperty("expireAt")
+    @Indexed(name = "expire_at_ttl_idx", expireAfter = "0s")
+    private Instant expireAt;
+
     /**
      * 机器人类型
      */
@@ -105,6 +176,15 @@ public class BotTaskQueue {
         FLOWCHART     // 流程图任务
     }
 
+    /**
+     * 任务优先级
+     */
+    public enum TaskPriority {
+        HIGH,         // 高优先级（手动提升）
+        NORMAL,       // 普通（交互式对话）
+        LOW           // 低优先级（批量任务，如流程图）
+    }
+
     /**
      * 附件信息
      */
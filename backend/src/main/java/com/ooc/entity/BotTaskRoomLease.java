@@ -0,0 +1,55 @@
+package com.ooc.entity;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.Indexed;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.Instant;
+
+/**
+ * 房间-机器人任务执行租约
+ * 多个后端实例共享同一个任务队列时，持有租约的实例才能执行该房间该机器人的任务，
+ * 保证同一房间的任务在所有实例之间仍然串行执行。实例崩溃后租约过期即可被其他实例获取。
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Document(collection = "bot_task_room_leases")
+public class BotTaskRoomLease {
+
+    /**
+     * roomId#botType
+     */
+    @JsonProperty("id")
+    @Id
+    private String id;
+
+    @JsonProperty("roomId")
+    private String roomId;
+
+    @JsonProperty("botType")
+    private BotTaskQueue.BotType botType;
+
+    /**
+     * 持有租约的实例ID
+     */
+    @JsonProperty("owner")
+    private String owner;
+
+    /**
+     * 租约到期时间，过期的租约文档由 TTL 索引自动清理
+     */
+    @JsonProperty("expiresAt")
+    @Indexed(name = "lease_expiry_ttl_idx", expireAfter = "0s")
+    private Instant expiresAt;
+
+    public static String idOf(String roomId, BotTaskQueue.BotType botType) {
+        return roomId + "#" + botType.name();
+    }
+}
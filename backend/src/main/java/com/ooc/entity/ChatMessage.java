@@ -0,0 +1,66 @@
+package com.ooc.entity;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.Instant;
+
+/**
+ * 聊天消息实体 - 每条消息单独存储为一个文档（只追加）
+ * 房间文档 chat_rooms 只保存元数据，不再内嵌消息列表
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Document(collection = "chat_messages")
+@CompoundIndex(name = "room_timestamp_id_idx", def = "{'roomId': 1, 'timestamp': 1, '_id': 1}")
+@CompoundIndex(name = "streaming_checkpoint_idx", def = "{'message.isStreaming': 1, 'checkpointedAt': 1}")
+public class ChatMessage {
+
+    /**
+     * 与 message.id 相同
+     */
+    @JsonProperty("id")
+    @Id
+    private String id;
+
+    @JsonProperty("roomId")
+    private String roomId;
+
+    /**
+     * 消息写入时间，作为房间内的排序键；更新消息内容时保持不变
+     */
+    @JsonProperty("timestamp")
+    private Instant timestamp;
+
+    @JsonProperty("message")
+    private ChatRoom.Message message;
+
+    /**
+     * 流式回复已写入 message.content 的字符数（检查点偏移），追加时作为条件防止重复写入
+     */
+    @JsonProperty("checkpointedChars")
+    private Integer checkpointedChars;
+
+    /**
+     * 最近一次检查点时间，长时间未刷新的流式消息视为已中断
+     */
+    @JsonProperty("checkpointedAt")
+    private Instant checkpointedAt;
+
+    public static ChatMessage of(String roomId, ChatRoom.Message message) {
+        return ChatMessage.builder()
+                .id(message.getId())
+                .roomId(roomId)
+                .timestamp(message.getTimestamp() != null ? message.getTimestamp() : Instant.now())
+                .message(message)
+                .build();
+    }
+}
@@ -42,10 +42,6 @@ public class ChatRoom {
     @JsonProperty("creatorId")
     private String creatorId;
 
-    @JsonProperty("messages")
-    @Builder.Default
-    private List<Message> messages = new ArrayList<>();
-
     @JsonProperty("openClawSessions")
     @Builder.Default
     private List<OpenClawSession> openClawSessions = new ArrayList<>();
@@ -119,6 +115,12 @@ public class ChatRoom {
         @JsonProperty("isStreaming")
         private boolean isStreaming;
 
+        /**
+         * 流式回复未正常完成（实例重启或任务取消），content 为中断前已生成的部分
+         */
+        @JsonProperty("interrupted")
+        private boolean interrupted;
+
         @JsonProperty("delta")
         private boolean delta;
 
@@ -0,0 +1,219 @@
+package com.ooc.openclaw;
+
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 连接池中的一条 Gateway 连接
+ * 一条连接同时承载多个聊天会话（通过请求中的 sessionKey 区分），
+ * 这里只保存连接状态和统计，事件路由由 OpenClawWebSocketClient 负责。
+ */
+class OpenClawGatewayConnection {
+
+    enum State {
+        /** 尚未建立过连接 */
+        IDLE,
+        /** 正在握手 */
+        CONNECTING,
+        /** 已完成 connect 握手，可发送请求 */
+        READY,
+        /** 连接失败或断开，等待退避后重连 */
+        BACKOFF
+    }
+
+    private final int index;
+
+    private volatile WebSocketSession session;
+    private volatile CompletableFuture<Void> ready = new CompletableFuture<>();
+    private volatile String connectRequestId;
+
+    // 是否需要维持该连接（预热或曾经使用过），健康检查只重连需要维持的连接
+    private volatile boolean wanted;
+    private final AtomicBoolean connecting = new AtomicBoolean(false);
+    private final AtomicInteger reconnectAttempts = new AtomicInteger(0);
+    private volatile long nextConnectAt;
+    private volatile Instant connectedAt;
+    private volatile long lastInboundAt;
+    private volatile String lastError;
+
+    // 当前在该连接上有请求进行中的会话
+    private final Set<String> activeSessions = ConcurrentHashMap.newKeySet();
+
+    // Gateway 的 seq 缺失时使用的本地序列号，跨重连保持递增
+    private final AtomicInteger localSeqCounter = new AtomicInteger(0);
+
+    private final AtomicLong framesReceived = new AtomicLong();
+    private final AtomicLong framesSent = new AtomicLong();
+    private final AtomicLong reconnects = new AtomicLong();
+
+    OpenClawGatewayConnection(int index) {
+        this.index = index;
+    }
+
+    int getIndex() {
+        return index;
+    }
+
+    WebSocketSession getSession() {
+        return session;
+    }
+
+    /**
+     * 开始一次新的连接尝试
+     *
+     * @return 是否成功占用（同一时间只允许一个连接尝试）
+     */
+    boolean beginConnect() {
+        if (!connecting.compareAndSet(false, true)) {
+            return false;
+        }
+        wanted = true;
+        ready = new CompletableFuture<>();
+        return true;
+    }
+
+    void attach(WebSocketSession session, String connectRequestId) {
+        this.session = session;
+        this.connectRequestId = connectRequestId;
+        this.lastInboundAt = System.currentTimeMillis();
+    }
+
+    void connectSucceeded() {
+        if (connectedAt != null || reconnectAttempts.get() > 0) {
+            reconnects.incrementAndGet();
+        }
+        reconnectAttempts.set(0);
+        connectedAt = Instant.now();
+        lastError = null;
+        connecting.set(false);
+    }
+
+    /**
+     * 连接尝试失败，设置下一次重连时间
+     */
+    void connectFailed(String error, long backoffMs) {
+        reconnectAttempts.incrementAndGet();
+        nextConnectAt = System.currentTimeMillis() + backoffMs;
+        lastError = error;
+        session = null;
+        connecting.set(false);
+    }
+
+    /**
+     * 已建立的连接断开
+     *
+     * @return 断开的是否是当前连接（旧连接或握手失败的连接返回 false）
+     */
+    boolean disconnected(WebSocketSession closed, String error, long backoffMs) {
+        if (closed != session) {
+            return false;
+        }
+        session = null;
+        connectedAt = null;
+        lastError = error;
+        nextConnectAt = System.currentTimeMillis() + backoffMs;
+        ready.completeExceptionally(new IOException(error));
+        return true;
+    }
+
+    CompletableFuture<Void> getReady() {
+        return ready;
+    }
+
+    String getConnectRequestId() {
+        return connectRequestId;
+    }
+
+    boolean isReady() {
+        WebSocketSession s = session;
+        return s != null && s.isOpen() && ready.isDone() && !ready.isCompletedExceptionally();
+    }
+
+    boolean isConnecting() {
+        return connecting.get();
+    }
+
+    boolean isWanted() {
+        return wanted;
+    }
+
+    boolean canConnectNow() {
+        return !connecting.get() && System.currentTimeMillis() >= nextConnectAt;
+    }
+
+    State getState() {
+        if (connecting.get()) {
+            return State.CONNECTING;
+        }
+        if (isReady()) {
+            return State.READY;
+        }
+        return wanted ? State.BACKOFF : State.IDLE;
+    }
+
+    int getReconnectAttempts() {
+        return reconnectAttempts.get();
+    }
+
+    /**
+     * 同一连接上的多个会话可能并发发送，底层 WebSocketSession 不允许并发 sendMessage
+     */
+    synchronized void send(WebSocketMessage<?> message) throws IOException {
+        WebSocketSession s = session;
+        if (s == null || !s.isOpen()) {
+            throw new IOException("Gateway connection " + index + " is not open");
+        }
+        s.sendMessage(message);
+        framesSent.incrementAndGet();
+    }
+
+    void send(String payload) throws IOException {
+        send(new TextMessage(payload));
+    }
+
+    void onInbound() {
+        lastInboundAt = System.currentTimeMillis();
+        framesReceived.incrementAndGet();
+    }
+
+    void onPong() {
+        lastInboundAt = System.currentTimeMillis();
+    }
+
+    long getLastInboundAt() {
+        return lastInboundAt;
+    }
+
+    Set<String> getActiveSessions() {
+        return activeSessions;
+    }
+
+    int nextLocalSeq() {
+        return localSeqCounter.getAndIncrement();
+    }
+
+    OpenClawWebSocketClient.ConnectionStats getStats() {
+        return new OpenClawWebSocketClient.ConnectionStats(
+                index,
+                getState().name(),
+                activeSessions.size(),
+                reconnectAttempts.get(),
+                reconnects.get(),
+                connectedAt,
+                lastInboundAt > 0 ? Instant.ofEpochMilli(lastInboundAt) : null,
+                framesReceived.get(),
+                framesSent.get(),
+                lastError
+        );
+    }
+}
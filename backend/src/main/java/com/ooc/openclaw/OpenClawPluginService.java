@@ -3,11 +3,15 @@ package com.ooc.openclaw;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.ooc.config.FileProperties;
+import com.ooc.config.LlmWebClients;
 import com.ooc.storage.S3Config;
+import com.ooc.entity.BotTaskQueue;
 import com.ooc.entity.BotUserConfig;
 import com.ooc.entity.ChatRoom;
 import com.ooc.entity.User;
-import com.ooc.repository.UserRepository;
+import com.ooc.service.BotRegistryService;
+import com.ooc.service.BotReplyProvider;
+import com.ooc.service.BotStreamEvent;
 import com.ooc.storage.StorageProvider;
 import com.ooc.websocket.Attachment;
 import com.ooc.websocket.ChatWebSocketHandler;
@@ -38,7 +42,9 @@ import java.util.concurrent.ConcurrentHashMap;
 @Slf4j
 @Service
 @RequiredArgsConstructor
-public class OpenClawPluginService {
+public class OpenClawPluginService implements BotReplyProvider {
+
+    private static final String BOT_TYPE = "openclaw";
 
     // 图片压缩配置 - 限制最大尺寸以减少请求体大小
     private static final int MAX_IMAGE_WIDTH = 1024;
@@ -47,8 +53,8 @@ public class OpenClawPluginService {
     private static final float JPEG_QUALITY = 0.85f;
 
     private final OpenClawProperties properties;
-    private final UserRepository userRepository;
-    private final WebClient.Builder webClientBuilder;
+    private final BotRegistryService botRegistryService;
+    private final LlmWebClients llmWebClients;
     private final ObjectMapper objectMapper;
     private final OpenClawWebSocketClient webSocketClient;
     private final FileProperties fileProperties;
@@ -61,24 +67,14 @@ public class OpenClawPluginService {
      * 获取 OpenClaw 机器人用户配置
      */
     private Optional<BotUserConfig> getBotConfig() {
-        return userRepository.findAll().stream()
-                .filter(User::isBot)
-                .filter(User::isEnabled)
-                .filter(u -> "openclaw".equals(u.getBotType()))
-                .map(User::getBotConfig)
-                .filter(Objects::nonNull)
-                .findFirst();
+        return botRegistryService.getEnabledBotConfig(BOT_TYPE);
     }
 
     /**
      * 获取 OpenClaw 机器人用户
      */
     private Optional<User> getBotUser() {
-        return userRepository.findAll().stream()
-                .filter(User::isBot)
-                .filter(User::isEnabled)
-                .filter(u -> "openclaw".equals(u.getBotType()))
-                .findFirst();
+        return botRegistryService.getEnabledBot(BOT_TYPE);
     }
 
     /**
@@ -101,9 +97,20 @@ public class OpenClawPluginService {
                 .orElse(properties.getApiKey());
     }
 
+    @Override
+    public BotTaskQueue.BotType getBotType() {
+        return BotTaskQueue.BotType.OPENCLAW;
+    }
+
+    @Override
+    public String getDisplayName() {
+        return "OpenClaw";
+    }
+
     /**
      * 获取机器人用户名
      */
+    @Override
     public String getBotUsername() {
         return getBotUser()
                 .map(User::getUsername)
@@ -114,6 +121,7 @@ public class OpenClawPluginService {
     /**
      * 获取机器人头像 URL
      */
+    @Override
     public String getBotAvatarUrl() {
         return getBotUser()
                 .map(User::getAvatar)
@@ -123,6 +131,7 @@ public class OpenClawPluginService {
     /**
      * 检查机器人是否启用
      */
+    @Override
     public boolean isBotEnabled() {
         return getBotUser().isPresent();
     }
@@ -138,12 +147,13 @@ public class OpenClawPluginService {
     }
 
     private WebClient getWebClient() {
-        return webClientBuilder.baseUrl(getGatewayUrl()).build();
+        return llmWebClients.get("openclaw", getGatewayUrl());
     }
 
     /**
      * 检查会话是否存活
      */
+    @Override
     public boolean isSessionAlive(String sessionId) {
         OpenClawSessionState state = sessionStates.get(sessionId);
         if (state == null) return false;
@@ -1082,6 +1092,51 @@ public class OpenClawPluginService {
         }
     }
 
+    /**
+     * 会话ID固定为 ooc-{roomId}
+     */
+    @Override
+    public Mono<String> openSession(String roomId, List<Map<String, Object>> context) {
+        return createSession("ooc-" + roomId, context).map(OpenClawSession::sessionId);
+    }
+
+    @Override
+    public Flux<BotStreamEvent> streamReply(String sessionId, ReplyRequest request) {
+        return sendMessageStreamInternal(sessionId, request.content(), request.attachments(),
+                request.userId(), request.userName(), request.roomName(), request.projects())
+                .map(event -> new BotStreamEvent(event.type(), event.content(), event.toolName(),
+                        event.toolInput(), event.messageId(), event.isError(), event.seq()));
+    }
+
+    /**
+     * 会话繁忙（SESSION_BUSY）或连接类临时故障可以重试
+     */
+    @Override
+    public boolean isRetryable(Throwable error) {
+        for (Throwable t = error; t != null; t = t.getCause()) {
+            if (t.getMessage() != null && t.getMessage().contains("SESSION_BUSY")) {
+                return true;
+            }
+            if (t instanceof java.io.IOException || t instanceof java.util.concurrent.TimeoutException) {
+                return true;
+            }
+            if (t.getCause() == t) {
+                break;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public boolean parsesToolCallsFromContent() {
+        return true;
+    }
+
+    @Override
+    public boolean sendsOverMessage() {
+        return true;
+    }
+
     /**
      * 发送消息到 OpenClaw 并获取流式回复（使用 ChatRoom.Message.Attachment）
      */
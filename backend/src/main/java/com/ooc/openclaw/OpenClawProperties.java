@@ -16,4 +16,48 @@ public class OpenClawProperties {
     private boolean autoSummarize = true;
     private int summarizeThreshold = 30;
     private int requestTimeoutSeconds = 1800; // 默认30分钟，可在管理页面配置
+
+    /**
+     * 收到终止事件（agent.run.completed / agent.run.failed / chat final）后，
+     * 等待乱序到达的尾部帧的宽限期（毫秒），之后立即结束请求并释放会话
+     */
+    private long completionGraceMs = 500;
+
+    /**
+     * Gateway 连接池：多个聊天会话复用少量 WebSocket 连接
+     */
+    private Pool pool = new Pool();
+
+    @Data
+    public static class Pool {
+        /**
+         * 最大连接数
+         */
+        private int size = 4;
+
+        /**
+         * 启动时预先建立所有连接，避免首条消息等待握手
+         */
+        private boolean prewarm = true;
+
+        /**
+         * 健康检查（ping）间隔（毫秒）
+         */
+        private long healthCheckIntervalMs = 30000;
+
+        /**
+         * 超过该时间（毫秒）没有收到任何帧（包括 pong）则认为连接失效并重连
+         */
+        private long healthTimeoutMs = 90000;
+
+        /**
+         * 重连初始退避时间（毫秒），每次失败翻倍
+         */
+        private long reconnectInitialBackoffMs = 1000;
+
+        /**
+         * 重连最大退避时间（毫秒）
+         */
+        private long reconnectMaxBackoffMs = 60000;
+    }
 }
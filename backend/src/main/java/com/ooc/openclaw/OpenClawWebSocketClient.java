@@ -3,9 +3,10 @@ package com.ooc.openclaw;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import jakarta.websocket.ContainerProvider;
 import jakarta.websocket.WebSocketContainer;
-import lombok.Data;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Component;
@@ -15,6 +16,7 @@ import org.springframework.web.socket.handler.TextWebSocketHandler;
 import org.springframework.util.concurrent.ListenableFuture;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.time.Instant;
 import java.util.*;
 import java.util.concurrent.*;
@@ -23,7 +25,9 @@ import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * OpenClaw Gateway WebSocket 客户端
- * 用于建立与 OpenClaw Gateway 的 WebSocket 连接，接收原生工具事件
+ * 用于建立与 OpenClaw Gateway 的 WebSocket 连接，接收原生工具事件。
+ * 所有聊天会话复用一个有上限的连接池，请求通过 sessionKey 区分，
+ * 事件按 sessionKey / runId 路由回对应会话的 handler。
  */
 @Slf4j
 @Component
@@ -36,8 +40,17 @@ public class OpenClawWebSocketClient {
     // 消息ID生成器
     private final AtomicInteger messageIdGenerator = new AtomicInteger(0);
 
-    // 会话管理: sessionId -> WebSocketSession
-    private final Map<String, WebSocketSession> sessions = new ConcurrentHashMap<>();
+    // 连接池，@PostConstruct 中按配置大小创建
+    private final List<OpenClawGatewayConnection> pool = new CopyOnWriteArrayList<>();
+
+    // 会话当前请求所在的连接: sessionId -> connection
+    private final Map<String, OpenClawGatewayConnection> sessionConnections = new ConcurrentHashMap<>();
+
+    // 未收到响应的 chat.send 请求: requestId -> sessionId，用于路由错误响应和记录 runId
+    private final Map<String, String> pendingRequests = new ConcurrentHashMap<>();
+
+    // runId -> sessionId，用于路由不带 sessionKey 的事件
+    private final Map<String, String> runSessions = new ConcurrentHashMap<>();
 
     // 响应处理器: sessionId -> ResponseHandler
     private final Map<String, ResponseHandler> responseHandlers = new ConcurrentHashMap<>();
@@ -48,12 +61,16 @@ public class OpenClawWebSocketClient {
     // 请求超时管理: sessionId -> ScheduledFuture
     private final Map<String, ScheduledFuture<?>> requestTimeouts = new ConcurrentHashMap<>();
 
-    // 超时调度器
+    // 超时与健康检查调度器
     private final ScheduledExecutorService timeoutScheduler = Executors.newScheduledThreadPool(1);
 
+    // 后台建连（预热、扩容、重连）使用虚拟线程，握手阻塞不占用调度线程
+    private final ExecutorService connectExecutor = Executors.newVirtualThreadPerTaskExecutor();
+
+    private volatile boolean shuttingDown = false;
+
     // 连接配置
     private static final int CONNECT_TIMEOUT_MS = 10000;
-    private static final int MAX_RECONNECT_ATTEMPTS = 3;
 
     // 已处理的事件序列号，用于防止重复处理
     // key: runId, value: 最后处理的 seq 号
@@ -61,10 +78,15 @@ public class OpenClawWebSocketClient {
     // 事件去重缓存过期时间（毫秒）
     private static final long EVENT_DEDUP_EXPIRY_MS = 300000; // 5分钟
 
-    // 延迟清理的调度器
-    private final Map<String, ScheduledFuture<?>> delayedCleanups = new ConcurrentHashMap<>();
-    // 延迟清理时间（毫秒）- 给子代理足够的时间发送事件
-    private static final long DELAYED_CLEANUP_MS = 15000; // 15秒
+    // 已收到终止事件、等待宽限期结束的请求: sessionId -> 终止结果
+    private final Map<String, PendingCompletion> pendingCompletions = new ConcurrentHashMap<>();
+
+    /**
+     * 等待宽限期结束的终止结果
+     *
+     * @param error 为 null 表示正常完成
+     */
+    private record PendingCompletion(ScheduledFuture<?> future, String error) {}
 
     // 每个会话的序列号计数器（当 OpenClaw Gateway 的 seq 缺失时使用）
     // key: sessionId, value: 下一个序列号
@@ -82,6 +104,68 @@ public class OpenClawWebSocketClient {
         void onError(String error);
     }
 
+    /**
+     * 单条连接的统计
+     */
+    public record ConnectionStats(
+            int index,
+            String state,
+            int activeSessions,
+            int reconnectAttempts,
+            long reconnects,
+            Instant connectedAt,
+            Instant lastInboundAt,
+            long framesReceived,
+            long framesSent,
+            String lastError
+    ) {}
+
+    /**
+     * 连接池统计
+     *
+     * @param utilization 有请求进行中的连接占连接池大小的比例
+     */
+    public record PoolStats(
+            int size,
+            int ready,
+            int busy,
+            int activeSessions,
+            double utilization,
+            List<ConnectionStats> connections
+    ) {}
+
+    @PostConstruct
+    public void initPool() {
+        OpenClawProperties.Pool config = properties.getPool();
+        int size = Math.max(1, config.getSize());
+        for (int i = 0; i < size; i++) {
+            pool.add(new OpenClawGatewayConnection(i));
+        }
+        if (config.isPrewarm()) {
+            pool.forEach(this::connectAsync);
+        }
+        long interval = Math.max(1000, config.getHealthCheckIntervalMs());
+        timeoutScheduler.scheduleWithFixedDelay(this::checkHealth, interval, interval, TimeUnit.MILLISECONDS);
+        log.info("[OpenClaw WS] Gateway connection pool initialized: size={}, prewarm={}", size, config.isPrewarm());
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        shuttingDown = true;
+        timeoutScheduler.shutdownNow();
+        connectExecutor.shutdownNow();
+        for (OpenClawGatewayConnection connection : pool) {
+            WebSocketSession session = connection.getSession();
+            if (session != null && session.isOpen()) {
+                try {
+                    session.close(CloseStatus.GOING_AWAY);
+                } catch (IOException e) {
+                    log.debug("[OpenClaw WS] Error closing pooled connection {}", connection.getIndex(), e);
+                }
+            }
+        }
+    }
+
     /**
      * 发送消息到 OpenClaw Gateway
      */
@@ -99,25 +183,29 @@ public class OpenClawWebSocketClient {
         log.info("[OpenClaw WS] Acquired lock for session {}, proceeding with request", sessionId);
 
         try {
-            // 检查或创建连接
-            WebSocketSession session = getOrCreateSession(sessionId);
-            if (session == null) {
+            // 从连接池选取连接
+            OpenClawGatewayConnection connection = acquireConnection();
+            if (connection == null) {
                 lock.set(false); // 释放锁
                 handler.onError("Failed to establish WebSocket connection to OpenClaw Gateway");
                 return;
             }
 
-            // 注册响应处理器
+            // 注册响应处理器，并将会话绑定到该连接
             responseHandlers.put(sessionId, handler);
-            log.info("[OpenClaw WS] Registered handler for session: {}, current handlers count: {}", 
-                    sessionId, responseHandlers.size());
+            sessionConnections.put(sessionId, connection);
+            connection.getActiveSessions().add(sessionId);
+            log.info("[OpenClaw WS] Registered handler for session: {} on connection {}, current handlers count: {}",
+                    sessionId, connection.getIndex(), responseHandlers.size());
 
             // 构建并发送 chat.send 请求
+            String requestId = "msg-" + messageIdGenerator.incrementAndGet();
             try {
-                String request = buildChatSendRequest(sessionId, message, contentBlocks);
+                String request = buildChatSendRequest(requestId, sessionId, message, contentBlocks);
                 log.info("[OpenClaw WS] Sending chat.send: sessionId={}, messageLength={}",
                         sessionId, message != null ? message.length() : 0);
-                session.sendMessage(new TextMessage(request));
+                pendingRequests.put(requestId, sessionId);
+                connection.send(request);
 
                 // 启动超时定时器（仅当超时时间 > 0 时）
                 int timeoutSeconds = properties.getRequestTimeoutSeconds();
@@ -130,11 +218,7 @@ public class OpenClawWebSocketClient {
                             try {
                                 timeoutHandler.onError("REQUEST_TIMEOUT: Request timed out after " + timeoutSeconds + "s");
                             } finally {
-                                AtomicBoolean timeoutLock = requestLocks.get(sessionId);
-                                if (timeoutLock != null) {
-                                    timeoutLock.set(false);
-                                    log.info("[OpenClaw WS] Lock released for session {} after timeout", sessionId);
-                                }
+                                releaseSession(sessionId, "timeout");
                             }
                         }
                         requestTimeouts.remove(sessionId);
@@ -146,32 +230,104 @@ public class OpenClawWebSocketClient {
 
             } catch (IOException e) {
                 log.error("[OpenClaw WS] Failed to send message", e);
+                pendingRequests.remove(requestId);
                 responseHandlers.remove(sessionId);
-                lock.set(false); // 释放锁
+                releaseSession(sessionId, "send failure"); // 释放锁
                 handler.onError("Failed to send message: " + e.getMessage());
             }
         } catch (Exception e) {
-            lock.set(false); // 确保异常时释放锁
+            releaseSession(sessionId, "exception"); // 确保异常时释放锁
             throw e;
         }
     }
 
     /**
-     * 获取或创建 WebSocket 会话
+     * 释放会话的请求锁，并解除与连接、runId 的绑定
+     */
+    private void releaseSession(String sessionId, String reason) {
+        OpenClawGatewayConnection connection = sessionConnections.remove(sessionId);
+        if (connection != null) {
+            connection.getActiveSessions().remove(sessionId);
+        }
+        runSessions.values().removeIf(sessionId::equals);
+        pendingRequests.values().removeIf(sessionId::equals);
+        sessionSeqCounters.remove(sessionId);
+
+        AtomicBoolean lock = requestLocks.get(sessionId);
+        if (lock != null) {
+            lock.set(false);
+            log.info("[OpenClaw WS] Lock released for session {} after {}", sessionId, reason);
+        }
+    }
+
+    /**
+     * 从连接池选取连接：优先选择进行中会话最少的可用连接；
+     * 没有可用连接时在当前线程建立一条，已有连接都在忙时在后台扩容。
      */
-    private WebSocketSession getOrCreateSession(String sessionId) {
-        WebSocketSession existing = sessions.get(sessionId);
-        if (existing != null && existing.isOpen()) {
-            return existing;
+    private OpenClawGatewayConnection acquireConnection() {
+        OpenClawGatewayConnection best = null;
+        OpenClawGatewayConnection idle = null;
+        OpenClawGatewayConnection pending = null;
+        for (OpenClawGatewayConnection connection : pool) {
+            if (connection.isReady()) {
+                if (best == null || connection.getActiveSessions().size() < best.getActiveSessions().size()) {
+                    best = connection;
+                }
+            } else if (connection.isConnecting()) {
+                pending = connection;
+            } else if (idle == null && connection.canConnectNow()) {
+                idle = connection;
+            }
         }
 
-        return createNewSession(sessionId);
+        if (best != null) {
+            // 所有可用连接都有请求在进行，且还有空位时，在后台补充一条连接
+            if (!best.getActiveSessions().isEmpty() && idle != null) {
+                connectAsync(idle);
+            }
+            return best;
+        }
+        if (idle != null && connect(idle)) {
+            return idle;
+        }
+        if (pending != null) {
+            try {
+                pending.getReady().get(CONNECT_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+                return pending.isReady() ? pending : null;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (Exception e) {
+                log.warn("[OpenClaw WS] Waiting for gateway connection {} failed: {}", pending.getIndex(), e.getMessage());
+            }
+        }
+        log.error("[OpenClaw WS] No gateway connection available (pool size={})", pool.size());
+        return null;
+    }
+
+    private void connectAsync(OpenClawGatewayConnection connection) {
+        if (shuttingDown || connection.isConnecting()) {
+            return;
+        }
+        try {
+            connectExecutor.execute(() -> connect(connection));
+        } catch (RejectedExecutionException e) {
+            log.debug("[OpenClaw WS] Connect executor is shut down");
+        }
     }
 
     /**
-     * 创建新的 WebSocket 连接
+     * 建立连接并完成 connect 握手
+     *
+     * @return 连接是否可用
      */
-    private WebSocketSession createNewSession(String sessionId) {
+    private boolean connect(OpenClawGatewayConnection connection) {
+        if (connection.isReady()) {
+            return true;
+        }
+        if (shuttingDown || !connection.beginConnect()) {
+            return connection.isReady();
+        }
+        WebSocketSession session = null;
         try {
             // 配置 WebSocket 容器以支持大消息 (16MB 缓冲区)
             WebSocketContainer container = ContainerProvider.getWebSocketContainer();
@@ -180,7 +336,7 @@ public class OpenClawWebSocketClient {
 
             StandardWebSocketClient client = new StandardWebSocketClient(container);
 
-            WebSocketHandler handler = new OpenClawGatewayHandler(sessionId);
+            WebSocketHandler handler = newGatewayHandler(connection);
 
             WebSocketHttpHeaders headers = new WebSocketHttpHeaders();
             headers.add("Origin", properties.getGatewayUrl().replace("ws://", "http://").replace("wss://", "https://"));
@@ -196,34 +352,116 @@ public class OpenClawWebSocketClient {
             // 配置任务执行器
             client.setTaskExecutor(new org.springframework.core.task.SimpleAsyncTaskExecutor("openclaw-ws-"));
 
-            log.info("[OpenClaw WS] Connecting to {}...", wsUrl);
+            log.info("[OpenClaw WS] Connecting pooled connection {} to {}...", connection.getIndex(), wsUrl);
 
             ListenableFuture<WebSocketSession> future = client.doHandshake(handler, headers,
                     new org.springframework.web.util.UriTemplate(wsUrl).expand());
 
-            WebSocketSession session = future.get(CONNECT_TIMEOUT_MS, TimeUnit.MILLISECONDS);
-
-            // 发送 connect handshake
-            sendConnectHandshake(session, sessionId);
+            session = future.get(CONNECT_TIMEOUT_MS, TimeUnit.MILLISECONDS);
 
-            sessions.put(sessionId, session);
-            log.info("[OpenClaw WS] Session created: {}", sessionId);
+            // 发送 connect handshake，等待 Gateway 确认后才对外可用
+            String connectRequestId = "conn-" + messageIdGenerator.incrementAndGet();
+            connection.attach(session, connectRequestId);
+            sendConnectHandshake(connection, connectRequestId);
+            connection.getReady().get(CONNECT_TIMEOUT_MS, TimeUnit.MILLISECONDS);
 
-            return session;
+            connection.connectSucceeded();
+            log.info("[OpenClaw WS] Pooled connection {} ready", connection.getIndex());
+            return true;
 
         } catch (Exception e) {
-            log.error("[OpenClaw WS] Failed to create session: {}", sessionId, e);
-            return null;
+            if (e instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            }
+            Throwable cause = e instanceof ExecutionException && e.getCause() != null ? e.getCause() : e;
+            long backoffMs = nextBackoffMs(connection.getReconnectAttempts() + 1);
+            log.error("[OpenClaw WS] Failed to connect pooled connection {} (attempt {}), retrying in {}ms: {}",
+                    connection.getIndex(), connection.getReconnectAttempts() + 1, backoffMs, cause.toString());
+            if (session != null && session.isOpen()) {
+                try {
+                    session.close(CloseStatus.SERVER_ERROR);
+                } catch (IOException ignored) {
+                    // 连接已不可用
+                }
+            }
+            connection.connectFailed(cause.getMessage(), backoffMs);
+            scheduleReconnect(connection, backoffMs);
+            return false;
+        }
+    }
+
+    private void scheduleReconnect(OpenClawGatewayConnection connection, long delayMs) {
+        if (shuttingDown) {
+            return;
+        }
+        try {
+            timeoutScheduler.schedule(() -> connectAsync(connection), delayMs, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            log.debug("[OpenClaw WS] Scheduler is shut down, skipping reconnect of connection {}", connection.getIndex());
         }
     }
 
+    /**
+     * 指数退避，带 ±20% 抖动，避免多条连接同时重连
+     */
+    private long nextBackoffMs(int attempt) {
+        OpenClawProperties.Pool config = properties.getPool();
+        long initial = Math.max(1, config.getReconnectInitialBackoffMs());
+        long max = Math.max(initial, config.getReconnectMaxBackoffMs());
+        long backoff = initial << Math.min(Math.max(attempt - 1, 0), 20);
+        backoff = Math.min(backoff, max);
+        double jitter = 0.8 + ThreadLocalRandom.current().nextDouble() * 0.4;
+        return (long) (backoff * jitter);
+    }
+
+    /**
+     * 健康检查：对可用连接发送 ping，长时间没有收到任何帧的连接主动关闭；
+     * 需要维持的连接断开后按退避时间重连
+     */
+    private void checkHealth() {
+        long now = System.currentTimeMillis();
+        long healthTimeoutMs = properties.getPool().getHealthTimeoutMs();
+        for (OpenClawGatewayConnection connection : pool) {
+            try {
+                if (connection.isReady()) {
+                    if (now - connection.getLastInboundAt() > healthTimeoutMs) {
+                        log.warn("[OpenClaw WS] Pooled connection {} unresponsive for {}ms, closing",
+                                connection.getIndex(), now - connection.getLastInboundAt());
+                        connection.getSession().close(CloseStatus.SESSION_NOT_RELIABLE);
+                    } else {
+                        connection.send(new PingMessage(ByteBuffer.allocate(0)));
+                    }
+                } else if (connection.isWanted() && connection.canConnectNow()) {
+                    connectAsync(connection);
+                }
+            } catch (Exception e) {
+                log.warn("[OpenClaw WS] Health check failed for pooled connection {}: {}",
+                        connection.getIndex(), e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * 连接池统计
+     */
+    public PoolStats getPoolStats() {
+        List<ConnectionStats> connections = pool.stream()
+                .map(OpenClawGatewayConnection::getStats)
+                .toList();
+        int ready = (int) connections.stream().filter(c -> "READY".equals(c.state())).count();
+        int busy = (int) connections.stream().filter(c -> c.activeSessions() > 0).count();
+        int activeSessions = connections.stream().mapToInt(ConnectionStats::activeSessions).sum();
+        double utilization = connections.isEmpty() ? 0 : (double) busy / connections.size();
+        return new PoolStats(connections.size(), ready, busy, activeSessions, utilization, connections);
+    }
+
     /**
      * 发送连接握手
      */
-    private void sendConnectHandshake(WebSocketSession session, String sessionId) throws IOException {
+    private void sendConnectHandshake(OpenClawGatewayConnection connection, String connectRequestId) throws IOException {
         Map<String, Object> connectReq = new HashMap<>();
         connectReq.put("type", "req");
-        connectReq.put("id", "conn-" + messageIdGenerator.incrementAndGet());
+        connectReq.put("id", connectRequestId);
         connectReq.put("method", "connect");
 
         Map<String, Object> params = new HashMap<>();
@@ -246,18 +484,18 @@ public class OpenClawWebSocketClient {
 
         connectReq.put("params", params);
 
-        session.sendMessage(new TextMessage(objectMapper.writeValueAsString(connectReq)));
-        log.info("[OpenClaw WS] Connect handshake sent for session: {}", sessionId);
+        connection.send(objectMapper.writeValueAsString(connectReq));
+        log.info("[OpenClaw WS] Connect handshake sent for pooled connection: {}", connection.getIndex());
     }
 
     /**
      * 构建 chat.send 请求
      */
-    private String buildChatSendRequest(String sessionId, String message,
+    private String buildChatSendRequest(String requestId, String sessionId, String message,
                                        List<Map<String, Object>> contentBlocks) throws JsonProcessingException {
         Map<String, Object> request = new HashMap<>();
         request.put("type", "req");
-        request.put("id", "msg-" + messageIdGenerator.incrementAndGet());
+        request.put("id", requestId);
         request.put("method", "chat.send");
 
         Map<String, Object> params = new HashMap<>();
@@ -343,18 +581,70 @@ public class OpenClawWebSocketClient {
 
     /**
      * 关闭会话
+     * 连接由连接池共享，这里只释放该会话的 handler 和请求状态，不关闭连接
      */
     public void closeSession(String sessionId) {
-        WebSocketSession session = sessions.remove(sessionId);
-        if (session != null) {
-            try {
-                session.close();
-                log.info("[OpenClaw WS] Session closed: {}", sessionId);
-            } catch (IOException e) {
-                log.warn("[OpenClaw WS] Error closing session: {}", sessionId, e);
-            }
+        ScheduledFuture<?> timeout = requestTimeouts.remove(sessionId);
+        if (timeout != null) {
+            timeout.cancel(false);
+        }
+        PendingCompletion completion = pendingCompletions.remove(sessionId);
+        if (completion != null) {
+            completion.future().cancel(false);
         }
         responseHandlers.remove(sessionId);
+        releaseSession(sessionId, "session closed");
+        log.info("[OpenClaw WS] Session closed: {}", sessionId);
+    }
+
+    /**
+     * 收到终止事件后结束请求
+     * 只等待一个很短的宽限期（completionGraceMs），让乱序到达的尾部帧仍能路由到 handler，
+     * 然后立即回调并释放会话锁，房间队列中的下一个任务不必再空等。
+     *
+     * @param error 为 null 表示正常完成
+     */
+    private void completeAfterGrace(String sessionId, String error, String trigger) {
+        // 检查是否已经有完成或失败事件被处理
+        if (!responseHandlers.containsKey(sessionId)) {
+            log.debug("[OpenClaw WS] Handler already removed for session {}, ignoring {}", sessionId, trigger);
+            return;
+        }
+
+        // 取消超时定时器
+        ScheduledFuture<?> timeout = requestTimeouts.remove(sessionId);
+        if (timeout != null) {
+            timeout.cancel(false);
+        }
+
+        long graceMs = Math.max(0, properties.getCompletionGraceMs());
+        pendingCompletions.computeIfAbsent(sessionId, id -> {
+            log.info("[OpenClaw WS] {} for session {}, completing in {}ms", trigger, id, graceMs);
+            return new PendingCompletion(
+                    timeoutScheduler.schedule(() -> finishRequest(id, error, trigger), graceMs, TimeUnit.MILLISECONDS),
+                    error);
+        });
+    }
+
+    private void finishRequest(String sessionId, String error, String trigger) {
+        pendingCompletions.remove(sessionId);
+        try {
+            notifyFinished(responseHandlers.remove(sessionId), error);
+        } finally {
+            // 释放请求锁（即使 handler 为 null 也要释放）
+            releaseSession(sessionId, trigger);
+        }
+    }
+
+    private static void notifyFinished(ResponseHandler handler, String error) {
+        if (handler == null) {
+            return;
+        }
+        if (error != null) {
+            handler.onError(error);
+        } else {
+            handler.onComplete();
+        }
     }
 
     /**
@@ -438,28 +728,46 @@ public class OpenClawWebSocketClient {
                 .getAndIncrement();
     }
 
+
     /**
-     * WebSocket 消息处理器
+     * 创建池化连接的消息处理器（包内可见，便于测试直接驱动事件）
+     */
+    WebSocketHandler newGatewayHandler(OpenClawGatewayConnection connection) {
+        return new OpenClawGatewayHandler(connection);
+    }
+
+    /**
+     * 连接池中的连接（包内可见，便于测试）
+     */
+    OpenClawGatewayConnection pooledConnection(int index) {
+        return pool.get(index);
+    }
+
+    /**
+     * WebSocket 消息处理器，每条池化连接一个实例
      */
     private class OpenClawGatewayHandler extends TextWebSocketHandler {
-        private final String sessionId;
-        private boolean connected = false;
+        private final OpenClawGatewayConnection connection;
         // 跟踪已发送 start 事件的工具调用（OpenClaw 有时会跳过 start 直接发 update/result）
         private final Set<String> startedToolCalls = ConcurrentHashMap.newKeySet();
-        // 本地序列号计数器（当 Gateway 的 seq 缺失时使用）
-        private final AtomicInteger localSeqCounter = new AtomicInteger(0);
 
-        public OpenClawGatewayHandler(String sessionId) {
-            this.sessionId = sessionId;
+        public OpenClawGatewayHandler(OpenClawGatewayConnection connection) {
+            this.connection = connection;
         }
 
         @Override
         public void afterConnectionEstablished(WebSocketSession session) {
-            log.info("[OpenClaw WS] Connection established: {}", sessionId);
+            log.info("[OpenClaw WS] Connection established: pooled connection {}", connection.getIndex());
+        }
+
+        @Override
+        protected void handlePongMessage(WebSocketSession session, PongMessage message) {
+            connection.onPong();
         }
 
         @Override
         protected void handleTextMessage(WebSocketSession session, TextMessage message) {
+            connection.onInbound();
             try {
                 String payload = message.getPayload();
                 log.debug("[OpenClaw WS] Raw message: {}", payload.substring(0, Math.min(200, payload.length())));
@@ -482,25 +790,66 @@ public class OpenClawWebSocketClient {
             }
         }
 
+        /**
+         * 当事件不带 sessionKey 或 sessionKey 找不到 handler 时，推断事件所属会话：
+         * 1. 通过 chat.send 响应中记录的 runId
+         * 2. 当前连接上只有一个进行中的会话时使用该会话
+         */
+        private String resolveSessionId(String runId) {
+            if (runId != null) {
+                String runSessionId = runSessions.get(runId);
+                if (runSessionId != null && responseHandlers.containsKey(runSessionId)) {
+                    return runSessionId;
+                }
+            }
+            Set<String> active = connection.getActiveSessions();
+            if (active.size() == 1) {
+                Iterator<String> it = active.iterator();
+                if (it.hasNext()) {
+                    return it.next();
+                }
+            }
+            return null;
+        }
+
         private void handleResponse(JsonNode msg) {
             String id = msg.path("id").asText();
             boolean ok = msg.path("ok").asBoolean(false);
 
+            // connect 握手响应
+            if (id.equals(connection.getConnectRequestId())) {
+                if (ok) {
+                    JsonNode payload = msg.path("payload");
+                    if ("hello-ok".equals(payload.path("type").asText())) {
+                        log.info("[OpenClaw WS] Connected successfully: connection={}, protocol={}",
+                                connection.getIndex(), payload.path("protocol").asInt());
+                    }
+                    connection.getReady().complete(null);
+                } else {
+                    String error = msg.path("error").asText("Unknown error");
+                    log.error("[OpenClaw WS] Connect handshake rejected on connection {}: {}", connection.getIndex(), error);
+                    connection.getReady().completeExceptionally(new IOException("Connect rejected: " + error));
+                }
+                return;
+            }
+
+            String requestSessionId = pendingRequests.remove(id);
+
             if (!ok) {
                 String error = msg.path("error").asText("Unknown error");
-                log.error("[OpenClaw WS] Error response: {}", error);
-                ResponseHandler handler = responseHandlers.get(sessionId);
-                if (handler != null) {
-                    handler.onError(error);
+                log.error("[OpenClaw WS] Error response: {} (request={}, session={})", error, id, requestSessionId);
+                // 请求被拒绝同样是终止状态，立即释放会话，而不是等到请求超时
+                if (requestSessionId != null) {
+                    completeAfterGrace(requestSessionId, error, "chat.send rejected");
                 }
                 return;
             }
 
-            JsonNode payload = msg.path("payload");
-            if ("hello-ok".equals(payload.path("type").asText())) {
-                connected = true;
-                log.info("[OpenClaw WS] Connected successfully: protocol={}",
-                        payload.path("protocol").asInt());
+            // 记录 runId -> session，用于路由后续不带 sessionKey 的事件
+            String runId = msg.path("payload").path("runId").asText(null);
+            if (runId != null && requestSessionId != null) {
+                runSessions.put(runId, requestSessionId);
+                log.debug("[OpenClaw WS] Run {} started for session {}", runId, requestSessionId);
             }
         }
 
@@ -508,18 +857,6 @@ public class OpenClawWebSocketClient {
             String event = msg.path("event").asText();
             JsonNode payload = msg.path("payload");
 
-            // 从 payload 中提取 sessionKey，用于查找 handler
-            String sessionKeyFromPayload = payload.path("sessionKey").asText(null);
-            if (sessionKeyFromPayload != null) {
-                // 提取 session ID 从 sessionKey (格式: agent:main:{sessionId})
-                String extractedSessionId = extractSessionIdFromSessionKey(sessionKeyFromPayload);
-                // 如果提取的 session ID 与当前 handler 的 session ID 不同，更新查找
-                if (!extractedSessionId.equals(sessionId)) {
-                    log.debug("[OpenClaw WS] Session mismatch - handler: {}, payload: {}, extracted: {}",
-                            sessionId, sessionKeyFromPayload, extractedSessionId);
-                }
-            }
-
             switch (event) {
                 case "agent":
                     handleAgentEvent(payload);
@@ -530,175 +867,71 @@ public class OpenClawWebSocketClient {
                 case "agent.run.started":
                     log.debug("[OpenClaw WS] Agent run started: {}", payload.path("runId").asText());
                     break;
-                case "agent.run.completed":
+                case "agent.run.completed": {
                     String runId = payload.path("runId").asText();
-                    log.info("[OpenClaw WS] Agent run completed: {}", runId);
-
-                    // 从 payload 中提取 sessionKey
-                    String completedSessionKey = payload.path("sessionKey").asText(null);
-                    String completedSessionId = completedSessionKey != null ?
-                            extractSessionIdFromSessionKey(completedSessionKey) : sessionId;
-
-                    // 注意：不要在这里立即清理 handler，因为可能有子代理还在运行
-                    // 真正的完成应该在 chat 事件的 state=final 时处理
-                    // 这里只记录完成状态，不清理资源
-                    log.debug("[OpenClaw WS] Agent run {} completed for session {}, waiting for chat final event", 
-                            runId, completedSessionId);
+                    String completedSessionId = terminalSessionId(payload);
+                    log.info("[OpenClaw WS] Agent run completed: {} (session={})", runId, completedSessionId);
+                    // 子代理的运行带有自己的 sessionKey，不会匹配到主会话，不会提前结束主请求
+                    if (completedSessionId != null) {
+                        completeAfterGrace(completedSessionId, null, "agent.run.completed");
+                    }
                     break;
-                case "agent.run.failed":
+                }
+                case "agent.run.failed": {
                     String error = payload.path("error").asText("Unknown error");
-                    log.error("[OpenClaw WS] Agent run failed: {}", error);
-
-                    // 从 payload 中提取 sessionKey
-                    String failedSessionKey = payload.path("sessionKey").asText(null);
-                    String failedSessionId = failedSessionKey != null ?
-                            extractSessionIdFromSessionKey(failedSessionKey) : sessionId;
-
-                    // 取消超时定时器
-                    ScheduledFuture<?> failedTimeout = requestTimeouts.remove(failedSessionId);
-                    if (failedTimeout != null) {
-                        failedTimeout.cancel(false);
-                    }
-
-                    // 延迟清理 handler，给子代理足够的时间发送事件（即使失败也可能有子代理输出）
-                    if (!delayedCleanups.containsKey(failedSessionId)) {
-                        ScheduledFuture<?> cleanupTask = timeoutScheduler.schedule(() -> {
-                            ResponseHandler failedHandler = responseHandlers.remove(failedSessionId);
-                            if (failedHandler != null) {
-                                try {
-                                    failedHandler.onError(error);
-                                } finally {
-                                    AtomicBoolean lock = requestLocks.get(failedSessionId);
-                                    if (lock != null) {
-                                        lock.set(false);
-                                        log.info("[OpenClaw WS] Lock released for session {} after delayed agent.run.failed", failedSessionId);
-                                    }
-                                }
-                            }
-                            delayedCleanups.remove(failedSessionId);
-                        }, DELAYED_CLEANUP_MS, java.util.concurrent.TimeUnit.MILLISECONDS);
-                        delayedCleanups.put(failedSessionId, cleanupTask);
-                        log.info("[OpenClaw WS] Scheduled delayed cleanup for failed session {} (delay={}ms)", failedSessionId, DELAYED_CLEANUP_MS);
+                    String failedSessionId = terminalSessionId(payload);
+                    log.error("[OpenClaw WS] Agent run failed: {} (session={})", error, failedSessionId);
+                    if (failedSessionId != null) {
+                        completeAfterGrace(failedSessionId, error, "agent.run.failed");
                     }
                     break;
+                }
                 default:
                     log.debug("[OpenClaw WS] Event: {}", event);
             }
         }
 
         private void handleChatEvent(JsonNode payload) {
-            // 从 payload 中提取 sessionKey 并使用 findHandler 查找 handler
-            String sessionKeyFromPayload = payload.path("sessionKey").asText(null);
-            
-            ResponseHandler handler = null;
-            if (sessionKeyFromPayload != null) {
-                handler = findHandler(sessionKeyFromPayload);
-            }
-            
-            // 如果通过 sessionKey 找不到 handler，尝试使用 WebSocket handler 的 sessionId
-            if (handler == null) {
-                handler = responseHandlers.get(sessionId);
-                if (handler != null) {
-                    log.info("[OpenClaw WS] Found handler for chat event using WebSocket sessionId: {}", sessionId);
-                }
-            }
-            
-            // 如果还找不到，尝试使用所有已注册的 handler（当只有一个时）
-            // 这是因为 OpenClaw 可能返回不同的 session ID
-            if (handler == null && responseHandlers.size() == 1) {
-                Map.Entry<String, ResponseHandler> entry = responseHandlers.entrySet().iterator().next();
-                handler = entry.getValue();
-                log.info("[OpenClaw WS] Found handler for chat event using fallback (only one registered): {}", entry.getKey());
-            }
-            
-            // 如果还是找不到，且是 subagent 事件，尝试使用任何已注册的 handler
-            if (handler == null && sessionKeyFromPayload != null && 
-                    extractSessionIdFromSessionKey(sessionKeyFromPayload).startsWith("subagent:")) {
-                if (!responseHandlers.isEmpty()) {
-                    Map.Entry<String, ResponseHandler> entry = responseHandlers.entrySet().iterator().next();
-                    handler = entry.getValue();
-                    log.info("[OpenClaw WS] Found handler for subagent chat event using main session: {}", entry.getKey());
-                }
-            }
-
-            if (handler == null) {
-                log.debug("[OpenClaw WS] No handler found for chat event, sessionKey: {}, wsSessionId: {}, registered handlers: {}", 
-                        sessionKeyFromPayload, sessionId, responseHandlers.keySet());
-                return;
-            }
-
             // 调试：打印完整的 payload 结构
             log.debug("[OpenClaw WS] Chat event payload: {}", payload);
 
             // 检查是否是完成状态 (state: "final" 表示完成)
             String state = payload.path("state").asText("");
-            boolean isComplete = payload.path("complete").asBoolean(false) || "final".equals(state);
-            if (isComplete) {
-                String targetSessionId = sessionKeyFromPayload != null ?
-                        extractSessionIdFromSessionKey(sessionKeyFromPayload) : sessionId;
-                log.info("[OpenClaw WS] Chat completed event received for session {} (state={})", targetSessionId, state);
+            boolean isComplete = payload.path("complete").asBoolean(false)
+                    || "final".equals(state) || "aborted".equals(state);
+            if (isComplete || "error".equals(state)) {
+                // 子代理的完成事件带有自己的 sessionKey，不会误触发主会话的完成
+                String targetSessionId = terminalSessionId(payload);
+                log.info("[OpenClaw WS] Chat terminal event received for session {} (state={})", targetSessionId, state);
                 // 某些情况下 OpenClaw 不发送 agent.run.completed，但 chat 事件显示完成
                 // 这里也需要触发完成逻辑
-                triggerCompletionIfNotAlreadyDone(targetSessionId);
+                if (targetSessionId != null) {
+                    String error = isComplete ? null
+                            : payload.path("errorMessage").asText(payload.path("error").asText("Chat error"));
+                    completeAfterGrace(targetSessionId, error, "chat " + state);
+                }
             }
 
             // 注意：不处理 chat 事件的内容，因为 agent 事件的 assistant 流已经处理了增量内容
             // 同时处理 chat 事件的内容会导致重复（chat 发送累积内容，agent 发送增量内容）
         }
 
-        private void triggerCompletionIfNotAlreadyDone() {
-            triggerCompletionIfNotAlreadyDone(sessionId);
-        }
-
-        private void triggerCompletionIfNotAlreadyDone(String targetSessionId) {
-            // 检查是否已经有完成或失败事件被处理
-            if (!responseHandlers.containsKey(targetSessionId)) {
-                log.debug("[OpenClaw WS] Handler already removed for session {}, skipping duplicate completion", targetSessionId);
-                return;
-            }
-
-            // 检查是否已经有延迟清理在调度中
-            if (delayedCleanups.containsKey(targetSessionId)) {
-                log.debug("[OpenClaw WS] Delayed cleanup already scheduled for session {}, skipping", targetSessionId);
-                return;
+        /**
+         * 终止事件所属的会话
+         * 优先使用明确的归属：payload 中的 sessionKey，或 chat.send 响应记录的 runId；
+         * 带有未知 runId 的事件（如子代理的运行）不做推断，避免提前结束主请求
+         */
+        private String terminalSessionId(JsonNode payload) {
+            String sessionKey = payload.path("sessionKey").asText(null);
+            if (sessionKey != null) {
+                return extractSessionIdFromSessionKey(sessionKey);
             }
-
-            log.info("[OpenClaw WS] Scheduling delayed completion for session {} (delay={}ms)", targetSessionId, DELAYED_CLEANUP_MS);
-
-            // 取消超时定时器
-            ScheduledFuture<?> chatTimeout = requestTimeouts.remove(targetSessionId);
-            if (chatTimeout != null) {
-                chatTimeout.cancel(false);
+            String runId = payload.path("runId").asText(null);
+            if (runId != null) {
+                return runSessions.get(runId);
             }
-
-            // 延迟清理 handler，给子代理足够的时间发送事件
-            ScheduledFuture<?> cleanupTask = timeoutScheduler.schedule(() -> {
-                log.info("[OpenClaw WS] Executing delayed cleanup for session {}", targetSessionId);
-                
-                ResponseHandler handler = responseHandlers.remove(targetSessionId);
-                if (handler != null) {
-                    try {
-                        handler.onComplete();
-                    } finally {
-                        // 释放请求锁
-                        AtomicBoolean lock = requestLocks.get(targetSessionId);
-                        if (lock != null) {
-                            lock.set(false);
-                            log.info("[OpenClaw WS] Lock released for session {} after delayed completion", targetSessionId);
-                        }
-                    }
-                } else {
-                    // 即使 handler 为 null，也要释放锁
-                    AtomicBoolean lock = requestLocks.get(targetSessionId);
-                    if (lock != null) {
-                        lock.set(false);
-                        log.info("[OpenClaw WS] Lock released for session {} (handler was null)", targetSessionId);
-                    }
-                }
-                delayedCleanups.remove(targetSessionId);
-            }, DELAYED_CLEANUP_MS, java.util.concurrent.TimeUnit.MILLISECONDS);
-            
-            delayedCleanups.put(targetSessionId, cleanupTask);
+            // 既没有 sessionKey 也没有 runId 时，只能归属到该连接上唯一进行中的会话
+            return resolveSessionId(null);
         }
 
         private void handleAgentEvent(JsonNode payload) {
@@ -708,11 +941,10 @@ public class OpenClawWebSocketClient {
             // 从 payload 中提取 sessionKey 并使用 findHandler 查找 handler
             String sessionKeyFromPayload = payload.path("sessionKey").asText(null);
             
-            // 事件去重：基于 runId + seq 防止重复处理
+            // 事件去重：基于 runId + seq 防止重复处理（同一事件可能从多条连接到达）
             String runId = payload.path("runId").asText(null);
             int seq = payload.path("seq").asInt(-1);
             if (runId != null && seq >= 0) {
-                String eventKey = runId + ":" + seq;
                 Integer lastProcessed = processedEvents.get(runId);
                 if (lastProcessed != null && seq <= lastProcessed) {
                     log.debug("[OpenClaw WS] Skipping duplicate event: runId={}, seq={} (last processed: {})", 
@@ -729,9 +961,9 @@ public class OpenClawWebSocketClient {
             log.debug("[OpenClaw WS] Agent event received: stream={}, sessionKeyFromPayload={}, runId={}, seq={}",
                     stream, sessionKeyFromPayload, runId, seq);
 
-            // 如果 seq 缺失或为负数，使用本地递增计数器
+            // 如果 seq 缺失或为负数，使用连接上的本地递增计数器
             if (seq < 0) {
-                seq = localSeqCounter.getAndIncrement();
+                seq = connection.nextLocalSeq();
                 log.debug("[OpenClaw WS] Using local seq: {} (Gateway seq was missing)", seq);
             }
 
@@ -741,53 +973,42 @@ public class OpenClawWebSocketClient {
             if (sessionKeyFromPayload != null) {
                 handler = findHandler(sessionKeyFromPayload);
                 targetSessionId = extractSessionIdFromSessionKey(sessionKeyFromPayload);
-            }
-            
-            // 如果通过 sessionKey 找不到 handler，尝试使用 WebSocket handler 的 sessionId
-            if (handler == null) {
-                handler = responseHandlers.get(sessionId);
-                if (handler != null) {
-                    targetSessionId = sessionId;
-                    log.info("[OpenClaw WS] Found handler using WebSocket sessionId: {}", sessionId);
+                if (handler != null && runId != null) {
+                    runSessions.putIfAbsent(runId, targetSessionId);
                 }
             }
             
-            // 如果还是找不到，且 targetSessionId 是 subagent 格式，尝试从 sessionKey 中提取 room ID
-            // 然后找到对应房间的 handler
-            if (handler == null && targetSessionId != null && targetSessionId.startsWith("subagent:")) {
-                // 从 WebSocket handler 的 sessionId 中提取 room ID（格式: ooc-{roomId}）
-                String webSocketRoomId = extractRoomIdFromSessionId(sessionId);
-                if (webSocketRoomId != null) {
-                    String roomBasedSessionId = "ooc-" + webSocketRoomId;
-                    handler = responseHandlers.get(roomBasedSessionId);
+            // 如果通过 sessionKey 找不到 handler，按 runId / 当前连接上的会话推断
+            // （子代理事件带有自己的 sessionKey，但 runId 或连接会指向发起它的主会话）
+            if (handler == null) {
+                String resolvedSessionId = resolveSessionId(runId);
+                if (resolvedSessionId != null) {
+                    handler = responseHandlers.get(resolvedSessionId);
                     if (handler != null) {
-                        log.info("[OpenClaw WS] Found handler for subagent event using room-based session: room={}, subagent={}", 
-                                webSocketRoomId, targetSessionId);
-                    }
-                }
-                
-                // 如果还找不到，尝试使用任何已注册的 handler（只有当没有其他选择时）
-                if (handler == null && !responseHandlers.isEmpty()) {
-                    // 只有当 handlers 数量很少时才使用 fallback（避免串房间）
-                    if (responseHandlers.size() <= 2) {
-                        Map.Entry<String, ResponseHandler> entry = responseHandlers.entrySet().iterator().next();
-                        handler = entry.getValue();
-                        log.info("[OpenClaw WS] Found handler for subagent using fallback: main={}, subagent={}", 
-                                entry.getKey(), targetSessionId);
-                    } else {
-                        log.warn("[OpenClaw WS] Multiple handlers registered ({}), cannot safely route subagent event. " +
-                                "This may indicate a cross-room issue.", responseHandlers.size());
+                        log.debug("[OpenClaw WS] Routed agent event to session {} (sessionKey={}, runId={})",
+                                resolvedSessionId, sessionKeyFromPayload, runId);
+                        if (targetSessionId == null) {
+                            targetSessionId = resolvedSessionId;
+                        }
                     }
                 }
             }
             
-            if (targetSessionId == null) {
-                targetSessionId = sessionKeyFromPayload != null ? 
-                        extractSessionIdFromSessionKey(sessionKeyFromPayload) : sessionId;
+            // 子代理事件仍找不到时，只有在全局只注册了一个 handler 时才回退使用（避免串房间）
+            if (handler == null && targetSessionId != null && targetSessionId.startsWith("subagent:")) {
+                if (responseHandlers.size() == 1) {
+                    Map.Entry<String, ResponseHandler> entry = responseHandlers.entrySet().iterator().next();
+                    handler = entry.getValue();
+                    log.info("[OpenClaw WS] Found handler for subagent using fallback: main={}, subagent={}", 
+                            entry.getKey(), targetSessionId);
+                } else if (!responseHandlers.isEmpty()) {
+                    log.warn("[OpenClaw WS] Multiple handlers registered ({}), cannot safely route subagent event. " +
+                            "This may indicate a cross-room issue.", responseHandlers.size());
+                }
             }
 
-            log.info("[OpenClaw WS] Agent event: stream={}, hasHandler={}, targetSession={}, sessionKeyFromPayload={}, wsSessionId={}",
-                    stream, handler != null, targetSessionId, sessionKeyFromPayload, sessionId);
+            log.debug("[OpenClaw WS] Agent event: stream={}, hasHandler={}, targetSession={}, sessionKeyFromPayload={}, connection={}",
+                    stream, handler != null, targetSessionId, sessionKeyFromPayload, connection.getIndex());
 
             if (handler == null) {
                 log.warn("[OpenClaw WS] No handler for session {}, dropping agent event (stream={}). Registered handlers: {}", 
@@ -884,63 +1105,58 @@ public class OpenClawWebSocketClient {
 
         @Override
         public void afterConnectionClosed(WebSocketSession session, CloseStatus status) {
-            log.info("[OpenClaw WS] Connection closed: {} (status={})", sessionId, status);
-            sessions.remove(sessionId);
-
-            // 取消超时定时器
-            ScheduledFuture<?> closedTimeout = requestTimeouts.remove(sessionId);
-            if (closedTimeout != null) {
-                closedTimeout.cancel(false);
-            }
-
-            // 清理序列号计数器
-            sessionSeqCounters.remove(sessionId);
-
-            if (!status.equals(CloseStatus.NORMAL)) {
-                ResponseHandler handler = responseHandlers.remove(sessionId);
-                if (handler != null) {
-                    try {
-                        handler.onError("WebSocket connection closed unexpectedly");
-                    } finally {
-                        // 释放请求锁
-                        AtomicBoolean lock = requestLocks.get(sessionId);
-                        if (lock != null) {
-                            lock.set(false);
-                            log.info("[OpenClaw WS] Lock released for session {} after connection closed", sessionId);
-                        }
-                    }
-                }
-            } else {
-                // 正常关闭也需要释放锁
-                AtomicBoolean lock = requestLocks.get(sessionId);
-                if (lock != null) {
-                    lock.set(false);
-                    log.info("[OpenClaw WS] Lock released for session {} after normal close", sessionId);
-                }
+            log.info("[OpenClaw WS] Pooled connection {} closed (status={})", connection.getIndex(), status);
+            long backoffMs = nextBackoffMs(connection.getReconnectAttempts() + 1);
+            boolean wasCurrent = connection.disconnected(session, "Connection closed: " + status, backoffMs);
+            if (!wasCurrent) {
+                // 已被替换的旧连接（如握手超时后放弃的、健康检查关闭的）迟到的关闭，不影响新连接上的请求
+                log.debug("[OpenClaw WS] Ignoring close of replaced socket on pooled connection {}", connection.getIndex());
+                return;
+            }
+            // 连接由多个请求共享，正常关闭（如 Gateway 重启或空闲关闭）同样会中断进行中的请求
+            failActiveSessions(status.equals(CloseStatus.NORMAL)
+                            ? "WebSocket connection closed by gateway: " + status
+                            : "WebSocket connection closed unexpectedly: " + status,
+                    "connection closed");
+            // 握手阶段的失败由 connect() 自己安排重连
+            if (!shuttingDown && !connection.isConnecting()) {
+                log.info("[OpenClaw WS] Pooled connection {} will reconnect in {}ms", connection.getIndex(), backoffMs);
+                scheduleReconnect(connection, backoffMs);
             }
         }
 
         @Override
         public void handleTransportError(WebSocketSession session, Throwable exception) {
-            log.error("[OpenClaw WS] Transport error: {}", sessionId, exception);
-
-            // 取消超时定时器
-            ScheduledFuture<?> errorTimeout = requestTimeouts.remove(sessionId);
-            if (errorTimeout != null) {
-                errorTimeout.cancel(false);
+            log.error("[OpenClaw WS] Transport error on pooled connection {}", connection.getIndex(), exception);
+            if (session != connection.getSession()) {
+                // 旧连接的错误不影响当前连接上的请求
+                return;
             }
+            failActiveSessions("WebSocket transport error: " + exception.getMessage(), "transport error");
+        }
 
-            ResponseHandler handler = responseHandlers.remove(sessionId);
-            if (handler != null) {
+        /**
+         * 连接失效时结束该连接上所有进行中的请求
+         * 已收到终止事件、仍在宽限期内的请求按该终止结果结束，其余请求以 error 失败
+         */
+        private void failActiveSessions(String error, String reason) {
+            for (String activeSessionId : List.copyOf(connection.getActiveSessions())) {
+                // 取消超时定时器和等待中的完成回调
+                ScheduledFuture<?> timeout = requestTimeouts.remove(activeSessionId);
+                if (timeout != null) {
+                    timeout.cancel(false);
+                }
+                PendingCompletion completion = pendingCompletions.remove(activeSessionId);
+                if (completion != null) {
+                    completion.future().cancel(false);
+                }
+
+                ResponseHandler handler = responseHandlers.remove(activeSessionId);
                 try {
-                    handler.onError("WebSocket transport error: " + exception.getMessage());
+                    notifyFinished(handler, completion != null ? completion.error() : error);
                 } finally {
                     // 释放请求锁
-                    AtomicBoolean lock = requestLocks.get(sessionId);
-                    if (lock != null) {
-                        lock.set(false);
-                        log.info("[OpenClaw WS] Lock released for session {} after transport error", sessionId);
-                    }
+                    releaseSession(activeSessionId, reason);
                 }
             }
         }
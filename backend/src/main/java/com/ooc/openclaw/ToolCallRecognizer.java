@@ -0,0 +1,429 @@
+package com.ooc.openclaw;
+
+import com.ooc.entity.ChatRoom;
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * 增量工具调用识别器
+ * 按增量消费回复内容，识别 Tools used 列表、Tool details 详情，以及（没有列表时）正文中出现的常见工具名。
+ * 每个字符只处理常数次，完整行在收到换行时处理一次，总开销与内容长度成正比；
+ * 流结束时只需处理最后一行，不再重新扫描完整内容。
+ * 非线程安全，由流的订阅线程按顺序调用。
+ */
+@Slf4j
+public class ToolCallRecognizer {
+
+    // 常见工具名称列表
+    static final String[] COMMON_TOOLS = {
+        "memory_search", "read", "write", "edit", "exec",
+        "web_search", "web_fetch", "weather", "browser",
+        "canvas", "nodes", "cron", "message", "gateway",
+        "sessions_spawn", "tts", "github", "gh", "ordercli",
+        "openhue", "sonoscli", "eightctl", "gifgrep", "gemini",
+        "blogwatcher", "blucli", "healthcheck", "himalaya",
+        "nano-pdf", "obsidian", "openai-whisper", "skill-creator",
+        "songsee", "video-frames", "wacli", "1password", "gog"
+    };
+
+    private static final Set<String> COMMON_TOOL_SET = Set.of(COMMON_TOOLS);
+    private static final int MAX_TOOL_NAME = 14;
+
+    private static final String TOOLS_MARKER = "Tools used:";
+    private static final String TOOLS_MARKER_ZH = "**使用的工具：**";
+    private static final String DETAILS_MARKER = "Tool details:";
+    private static final String DETAILS_MARKER_ZH = "**工具详情：**";
+
+    private enum Section { SEARCHING, ACTIVE, ENDED }
+
+    // 未完成的行（等待换行）
+    private final StringBuilder line = new StringBuilder();
+
+    // Tools used 列表
+    private Section tools = Section.SEARCHING;
+    private final List<ChatRoom.Message.ToolCall> listed = new ArrayList<>();
+    // 列表中的工具名和流式事件中的工具名，作为详情的标题
+    private final Set<String> knownTools = new HashSet<>();
+
+    // Tool details 详情；没有详情标记时使用 Tools used 之后的内容
+    private final DetailCollector details = new DetailCollector();
+    private final DetailCollector fallbackDetails = new DetailCollector();
+
+    // 正文中出现的常见工具名（当前单词为小写，过长时只保留末尾）
+    private final StringBuilder word = new StringBuilder();
+    private boolean wordTrimmed;
+    private final Set<String> mentioned = new HashSet<>();
+
+    private boolean completed;
+
+    /**
+     * 消费一段增量
+     *
+     * @return 本次新识别出的 Tools used 列表项
+     */
+    public List<ChatRoom.Message.ToolCall> append(String delta) {
+        if (delta == null || delta.isEmpty() || completed) {
+            return List.of();
+        }
+        List<ChatRoom.Message.ToolCall> added = new ArrayList<>(0);
+        for (int i = 0; i < delta.length(); i++) {
+            char c = delta.charAt(i);
+            acceptWordChar(c);
+            if (c == '\n') {
+                processLine(line.toString(), added);
+                line.setLength(0);
+            } else {
+                line.append(c);
+            }
+        }
+        return added;
+    }
+
+    /**
+     * 流结束：处理最后一行（可重复调用）
+     *
+     * @return 最后一行中新识别出的列表项
+     */
+    public List<ChatRoom.Message.ToolCall> complete() {
+        if (completed) {
+            return List.of();
+        }
+        List<ChatRoom.Message.ToolCall> added = new ArrayList<>(0);
+        acceptWordChar('\n');
+        processLine(line.toString(), added);
+        line.setLength(0);
+        completed = true;
+        return added;
+    }
+
+    /**
+     * 流式事件中出现的工具名，详情部分中以该名称开头的行会被识别为它的输出
+     */
+    public void expectTool(String toolName) {
+        if (toolName != null && !toolName.isEmpty()) {
+            knownTools.add(toolName);
+        }
+    }
+
+    /**
+     * 是否出现了 Tools used 列表
+     */
+    public boolean hasToolsSection() {
+        return tools != Section.SEARCHING;
+    }
+
+    /**
+     * 识别到的工具调用：有 Tools used 列表时返回列表项，否则返回正文中检测到的常见工具
+     */
+    public List<ChatRoom.Message.ToolCall> toolCalls() {
+        return hasToolsSection() ? listedToolCalls() : detectedToolCalls();
+    }
+
+    public List<ChatRoom.Message.ToolCall> listedToolCalls() {
+        return new ArrayList<>(listed);
+    }
+
+    /**
+     * 正文中作为独立单词出现的常见工具（备选方案，按常见工具列表的顺序）
+     */
+    public List<ChatRoom.Message.ToolCall> detectedToolCalls() {
+        List<ChatRoom.Message.ToolCall> toolCalls = new ArrayList<>();
+        for (String toolName : COMMON_TOOLS) {
+            if (mentioned.contains(toolName)) {
+                toolCalls.add(ChatRoom.Message.ToolCall.builder()
+                        .id(UUID.randomUUID().toString())
+                        .name(toolName)
+                        .description("从消息内容中检测到的工具调用")
+                        .status("completed")
+                        .timestamp(Instant.now())
+                        .build());
+            }
+        }
+        if (!toolCalls.isEmpty()) {
+            log.info("detectToolsFromContent: total {} tools detected", toolCalls.size());
+        }
+        return toolCalls;
+    }
+
+    /**
+     * 用 Tool details 中的输出填充工具调用结果（没有对应输出的工具保持不变）
+     */
+    public List<ChatRoom.Message.ToolCall> enrich(List<ChatRoom.Message.ToolCall> toolCalls) {
+        if (toolCalls == null || toolCalls.isEmpty()) {
+            return toolCalls;
+        }
+        DetailCollector source = details.started ? details : fallbackDetails;
+        if (!source.started) {
+            log.debug("enrichToolCallsWithDetails: no Tool details section found");
+            return toolCalls;
+        }
+        List<ChatRoom.Message.ToolCall> enriched = new ArrayList<>(toolCalls.size());
+        for (ChatRoom.Message.ToolCall toolCall : toolCalls) {
+            String result = toolCall.getName() != null ? source.result(toolCall.getName()) : null;
+            if (result == null) {
+                enriched.add(toolCall);
+                continue;
+            }
+            log.info("enrichToolCallsWithDetails: set result for tool '{}' (length={})",
+                    toolCall.getName(), result.length());
+            enriched.add(toolCall.toBuilder().result(result).build());
+        }
+        return enriched;
+    }
+
+    // ========== 按行处理 ==========
+
+    private void processLine(String text, List<ChatRoom.Message.ToolCall> added) {
+        boolean detailsWasActive = details.active;
+
+        // Tools used 列表：从标记之后到下一个空行或 ** 为止
+        if (tools == Section.SEARCHING) {
+            int end = markerEnd(text, TOOLS_MARKER, TOOLS_MARKER_ZH);
+            if (end >= 0) {
+                tools = Section.ACTIVE;
+                fallbackDetails.start();
+                String rest = text.substring(end);
+                acceptToolsLine(rest, true, added);
+                fallbackDetails.accept(rest);
+            }
+        } else {
+            if (tools == Section.ACTIVE) {
+                acceptToolsLine(text, false, added);
+            }
+            fallbackDetails.accept(text);
+        }
+
+        // Tool details：从标记之后到下一个 ** 为止（与列表可能在同一行）
+        if (detailsWasActive) {
+            details.accept(text);
+        } else if (!details.started) {
+            int end = markerEnd(text, DETAILS_MARKER, DETAILS_MARKER_ZH);
+            if (end >= 0) {
+                details.start();
+                details.accept(text.substring(end));
+            }
+        }
+    }
+
+    private void acceptToolsLine(String text, boolean markerLine, List<ChatRoom.Message.ToolCall> added) {
+        if (!markerLine && text.isEmpty()) {
+            tools = Section.ENDED;
+            return;
+        }
+        int bold = text.indexOf("**");
+        if (bold >= 0) {
+            text = text.substring(0, bold);
+            tools = Section.ENDED;
+        }
+        ChatRoom.Message.ToolCall toolCall = parseToolLine(text.trim());
+        if (toolCall != null) {
+            log.info("parseToolCalls: found tool '{}' with description '{}'", toolCall.getName(), toolCall.getDescription());
+            listed.add(toolCall);
+            knownTools.add(toolCall.getName());
+            added.add(toolCall);
+        }
+    }
+
+    /**
+     * 行内标记结束的位置，没有标记时返回 -1
+     * 英文标记可能带 ** 加粗，结束位置在加粗之后
+     */
+    private static int markerEnd(String text, String marker, String zhMarker) {
+        int index = text.indexOf(marker);
+        if (index >= 0) {
+            int end = index + marker.length();
+            boolean bold = index >= 2 && text.startsWith("**", index - 2) && text.startsWith("**", end);
+            return bold ? end + 2 : end;
+        }
+        index = text.indexOf(zhMarker);
+        return index >= 0 ? index + zhMarker.length() : -1;
+    }
+
+    /**
+     * 解析列表项：- `tool_name`: description 或 - tool_name: description
+     */
+    static ChatRoom.Message.ToolCall parseToolLine(String line) {
+        if (!(line.startsWith("- ") || line.startsWith("• ") || line.startsWith("* "))) {
+            return null;
+        }
+        String toolName = null;
+        String description = "";
+
+        if (line.contains("`")) {
+            int nameStart = line.indexOf("`") + 1;
+            int nameEnd = line.indexOf("`", nameStart);
+            if (nameEnd > nameStart) {
+                toolName = line.substring(nameStart, nameEnd);
+                int descStart = line.indexOf(":", nameEnd);
+                if (descStart != -1 && descStart + 1 < line.length()) {
+                    description = line.substring(descStart + 1).trim();
+                }
+            }
+        } else {
+            int colonIndex = line.indexOf(":");
+            int spaceAfterPrefix = line.indexOf(" ");
+            if (spaceAfterPrefix > 0 && colonIndex > spaceAfterPrefix) {
+                toolName = line.substring(spaceAfterPrefix + 1, colonIndex).trim();
+                if (toolName.contains(" ") && !toolName.matches("[a-z_]+")) {
+                    // 如果名称包含空格且不像工具名，可能不是有效的工具名
+                    toolName = null;
+                } else {
+                    description = line.substring(colonIndex + 1).trim();
+                }
+            }
+        }
+
+        if (toolName == null) {
+            return null;
+        }
+        // 清理工具名（去除可能的标点符号）
+        toolName = toolName.replaceAll("[：:]$", "").trim();
+        if (toolName.isEmpty()) {
+            return null;
+        }
+        return ChatRoom.Message.ToolCall.builder()
+                .id(UUID.randomUUID().toString())
+                .name(toolName)
+                .description(description)
+                .status("completed")
+                .timestamp(Instant.now())
+                .build();
+    }
+
+    /**
+     * 详情部分：以已知工具名开头的行开始该工具的输出，直到下一个已知工具或部分结束
+     */
+    private final class DetailCollector {
+        boolean started;
+        boolean active;
+        private final Map<String, StringBuilder> results = new LinkedHashMap<>();
+        private StringBuilder current;
+
+        void start() {
+            started = true;
+            active = true;
+        }
+
+        void accept(String text) {
+            if (!active) {
+                return;
+            }
+            int bold = text.indexOf("**");
+            if (bold >= 0) {
+                text = text.substring(0, bold);
+                active = false;
+            }
+            String[] header = header(text.stripLeading());
+            if (header != null && knownTools.contains(header[0])) {
+                // 同一工具的第一段输出有效
+                current = results.containsKey(header[0]) ? null : new StringBuilder(header[1]);
+                if (current != null) {
+                    results.put(header[0], current);
+                }
+            } else if (current != null) {
+                current.append('\n').append(text);
+            }
+        }
+
+        String result(String toolName) {
+            StringBuilder output = results.get(toolName);
+            if (output == null) {
+                return null;
+            }
+            String result = output.toString().trim();
+            if (result.isEmpty()) {
+                return null;
+            }
+            // 如果结果包含代码块，提取代码块内容（包括语言标识）
+            int codeStart = result.indexOf("```");
+            if (codeStart >= 0) {
+                int codeEnd = result.indexOf("```", codeStart + 3);
+                if (codeEnd > codeStart) {
+                    return result.substring(codeStart, codeEnd + 3);
+                }
+            }
+            return result;
+        }
+    }
+
+    /**
+     * 解析详情标题：[- |• |* ]`name`[:] 或 [- |• |* ]name:
+     *
+     * @return [工具名, 标题之后的内容]，不是标题时返回 null
+     */
+    private static String[] header(String text) {
+        int start = text.startsWith("- ") || text.startsWith("• ") || text.startsWith("* ") ? 2 : 0;
+        String name;
+        int rest;
+        if (start < text.length() && text.charAt(start) == '`') {
+            int end = text.indexOf('`', start + 1);
+            if (end < 0) {
+                return null;
+            }
+            name = text.substring(start + 1, end);
+            rest = end + 1;
+        } else {
+            int colon = text.indexOf(':', start);
+            if (colon < 0) {
+                return null;
+            }
+            name = text.substring(start, colon).trim();
+            rest = colon;
+        }
+        // 跳过冒号和空白
+        while (rest < text.length() && (text.charAt(rest) == ':' || Character.isWhitespace(text.charAt(rest)))) {
+            rest++;
+        }
+        return new String[]{name, text.substring(rest)};
+    }
+
+    // ========== 常见工具名检测 ==========
+
+    /**
+     * 工具名只由字母、数字、_ 和 - 组成；在 _、- 和单词结束处检查以单词边界开始、长度不超过最长工具名的片段
+     * （与之前按 !isLetterOrDigit 判断单词边界的规则一致）
+     */
+    private void acceptWordChar(char c) {
+        boolean separator = c == '_' || c == '-';
+        if (Character.isLetterOrDigit(c) || separator) {
+            if (separator) {
+                matchWordEnd();
+            }
+            word.append(Character.toLowerCase(c));
+            if (word.length() > 4 * MAX_TOOL_NAME) {
+                // 只保留末尾，开头不再是单词边界
+                word.delete(0, word.length() - MAX_TOOL_NAME - 1);
+                wordTrimmed = true;
+            }
+        } else if (!word.isEmpty()) {
+            matchWordEnd();
+            word.setLength(0);
+            wordTrimmed = false;
+        }
+    }
+
+    private void matchWordEnd() {
+        int end = word.length();
+        for (int start = Math.max(0, end - MAX_TOOL_NAME); start < end; start++) {
+            boolean boundary = start == 0 ? !wordTrimmed : isSeparator(word.charAt(start - 1));
+            if (boundary) {
+                String candidate = word.substring(start, end);
+                if (COMMON_TOOL_SET.contains(candidate) && mentioned.add(candidate)) {
+                    log.debug("detectToolsFromContent: detected tool '{}' from content", candidate);
+                }
+            }
+        }
+    }
+
+    private static boolean isSeparator(char c) {
+        return c == '_' || c == '-';
+    }
+}
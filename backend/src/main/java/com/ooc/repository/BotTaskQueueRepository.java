@@ -18,6 +18,12 @@ public interface BotTaskQueueRepository extends MongoRepository<BotTaskQueue, St
      */
     List<BotTaskQueue> findByRoomIdAndBotTypeOrderByPositionAsc(String roomId, BotTaskQueue.BotType botType);
 
+    /**
+     * 根据房间ID、机器人类型和状态列表查找任务，按位置排序（使用 room_bot_status_idx，不扫描已结束的任务）
+     */
+    List<BotTaskQueue> findByRoomIdAndBotTypeAndStatusInOrderByPositionAsc(String roomId, BotTaskQueue.BotType botType,
+                                                                           List<BotTaskQueue.TaskStatus> statuses);
+
     /**
      * 根据房间ID、机器人类型和状态查找任务
      */
@@ -0,0 +1,52 @@
+package com.ooc.repository;
+
+import com.ooc.entity.ChatMessage;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.mongodb.repository.MongoRepository;
+import org.springframework.data.mongodb.repository.Query;
+import org.springframework.stereotype.Repository;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * 聊天消息 Repository
+ */
+@Repository
+public interface ChatMessageRepository extends MongoRepository<ChatMessage, String> {
+
+    /**
+     * 根据房间ID和消息ID查找
+     */
+    Optional<ChatMessage> findByIdAndRoomId(String id, String roomId);
+
+    /**
+     * 获取房间最新的消息（按时间倒序）
+     */
+    List<ChatMessage> findByRoomIdOrderByTimestampDescIdDesc(String roomId, Pageable pageable);
+
+    /**
+     * 游标之前（更早）的消息，按 (timestamp, _id) 倒序，走 room_timestamp_id_idx 索引
+     */
+    @Query(value = "{ 'roomId': ?0, $or: [ { 'timestamp': { $lt: ?1 } }, { 'timestamp': ?1, '_id': { $lt: ?2 } } ] }",
+            sort = "{ 'timestamp': -1, '_id': -1 }")
+    List<ChatMessage> findPageBefore(String roomId, Instant timestamp, String id, Pageable pageable);
+
+    /**
+     * 游标之后（更新）的消息，按 (timestamp, _id) 正序，走 room_timestamp_id_idx 索引
+     */
+    @Query(value = "{ 'roomId': ?0, $or: [ { 'timestamp': { $gt: ?1 } }, { 'timestamp': ?1, '_id': { $gt: ?2 } } ] }",
+            sort = "{ 'timestamp': 1, '_id': 1 }")
+    List<ChatMessage> findPageAfter(String roomId, Instant timestamp, String id, Pageable pageable);
+
+    /**
+     * 获取房间指定时间之前的消息（按时间倒序）
+     */
+    List<ChatMessage> findByRoomIdAndTimestampBeforeOrderByTimestampDescIdDesc(String roomId, Instant before, Pageable pageable);
+
+    /**
+     * 删除房间的所有消息
+     */
+    void deleteByRoomId(String roomId);
+}
@@ -0,0 +1,111 @@
+package com.ooc.service;
+
+import com.ooc.config.ChatProperties;
+import com.ooc.entity.BotUserConfig;
+import com.ooc.entity.User;
+import com.ooc.repository.UserRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 机器人注册表
+ * 在内存中按 botType 索引已启用的机器人用户，避免每次查询机器人配置都全表扫描 users 集合。
+ * 管理端创建、修改、删除机器人后需要调用 {@link #invalidate()}，下次访问时重新加载；
+ * 其他实例的修改在缓存到期（chat.bot-registry.ttl-ms）后生效。
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class BotRegistryService {
+
+    private final UserRepository userRepository;
+    private final ChatProperties chatProperties;
+
+    // 每次 invalidate 递增；快照记录加载时的代数，代数变化后的快照不再使用
+    private final AtomicLong generation = new AtomicLong();
+
+    private volatile Snapshot snapshot;
+
+    /**
+     * 获取指定类型的已启用机器人
+     */
+    public Optional<User> getEnabledBot(String botType) {
+        return Optional.ofNullable(snapshot().enabledByType.get(botType));
+    }
+
+    /**
+     * 获取指定类型的已启用机器人配置（第一个配置不为空的已启用机器人）
+     */
+    public Optional<BotUserConfig> getEnabledBotConfig(String botType) {
+        return Optional.ofNullable(snapshot().enabledConfigByType.get(botType));
+    }
+
+    /**
+     * 机器人数据变更后调用，丢弃当前缓存
+     * 正在进行的加载开始于变更之前，其结果不会被发布
+     */
+    public void invalidate() {
+        generation.incrementAndGet();
+        snapshot = null;
+        log.debug("[BotRegistry] Invalidated");
+    }
+
+    private Snapshot snapshot() {
+        Snapshot current = snapshot;
+        if (isValid(current)) {
+            return current;
+        }
+        synchronized (this) {
+            current = snapshot;
+            if (isValid(current)) {
+                return current;
+            }
+            long loadGeneration = generation.get();
+            current = load(loadGeneration);
+            if (generation.get() == loadGeneration) {
+                snapshot = current;
+            }
+            return current;
+        }
+    }
+
+    private boolean isValid(Snapshot current) {
+        return current != null
+                && current.generation == generation.get()
+                && (current.expiresAt == 0 || System.currentTimeMillis() < current.expiresAt);
+    }
+
+    private Snapshot load(long loadGeneration) {
+        List<User> bots = userRepository.findByIsBotTrue();
+        Map<String, User> enabledByType = new HashMap<>();
+        Map<String, BotUserConfig> enabledConfigByType = new HashMap<>();
+        for (User bot : bots) {
+            if (!bot.isEnabled() || bot.getBotType() == null) {
+                continue;
+            }
+            // 同一类型有多个启用的机器人时取第一个，与原先 findFirst 的行为一致
+            enabledByType.putIfAbsent(bot.getBotType(), bot);
+            if (bot.getBotConfig() != null) {
+                enabledConfigByType.putIfAbsent(bot.getBotType(), bot.getBotConfig());
+            }
+        }
+        log.info("[BotRegistry] Loaded {} bots, enabled types: {}", bots.size(), enabledByType.keySet());
+        long ttlMs = chatProperties.getBotRegistry().getTtlMs();
+        return new Snapshot(Map.copyOf(enabledByType), Map.copyOf(enabledConfigByType), loadGeneration,
+                ttlMs > 0 ? System.currentTimeMillis() + ttlMs : 0);
+    }
+
+    /**
+     * @param expiresAt 到期时间（毫秒时间戳），0 表示不过期
+     */
+    private record Snapshot(Map<String, User> enabledByType, Map<String, BotUserConfig> enabledConfigByType,
+                            long generation, long expiresAt) {
+    }
+}
@@ -0,0 +1,74 @@
+package com.ooc.service;
+
+import com.ooc.entity.BotTaskQueue;
+import com.ooc.websocket.Attachment;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 聊天室机器人的回复提供者
+ * 只负责会话和上游流式接口；消息持久化、广播、取消和收尾由 ChatWebSocketHandler 的统一流水线处理。
+ * 新增机器人类型只需实现该接口（Spring Bean）并在 {@link BotTaskQueue.BotType} 中增加对应值。
+ */
+public interface BotReplyProvider {
+
+    BotTaskQueue.BotType getBotType();
+
+    /**
+     * 在排队、重试等提示中显示的名称
+     */
+    String getDisplayName();
+
+    String getBotUsername();
+
+    String getBotAvatarUrl();
+
+    boolean isBotEnabled();
+
+    boolean isSessionAlive(String sessionId);
+
+    /**
+     * 为房间创建会话并载入历史上下文
+     *
+     * @return 后续请求使用的会话ID
+     */
+    Mono<String> openSession(String roomId, List<Map<String, Object>> context);
+
+    /**
+     * 发送用户消息并返回流式回复；流正常结束表示回复完成
+     */
+    Flux<BotStreamEvent> streamReply(String sessionId, ReplyRequest request);
+
+    /**
+     * 尚未输出任何内容时失败，是否重新排队重试
+     */
+    default boolean isRetryable(Throwable error) {
+        return false;
+    }
+
+    /**
+     * 没有流式工具事件时，是否从回复内容的 Tools used 部分解析工具调用
+     */
+    default boolean parsesToolCallsFromContent() {
+        return false;
+    }
+
+    /**
+     * 回复完成后是否发送 over 标记消息
+     */
+    default boolean sendsOverMessage() {
+        return false;
+    }
+
+    record ReplyRequest(
+            String content,
+            List<Attachment> attachments,
+            String userId,
+            String userName,
+            String roomName,
+            List<String> projects
+    ) {}
+}
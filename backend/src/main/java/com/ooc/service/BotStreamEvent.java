@@ -0,0 +1,35 @@
+package com.ooc.service;
+
+/**
+ * 机器人流式回复事件（各 {@link BotReplyProvider} 统一输出的事件格式）
+ *
+ * @param type       message / tool_start / tool_delta / tool_result / done / error
+ * @param content    文本增量、工具结果或错误信息
+ * @param toolName   工具名称（tool_start）
+ * @param toolInput  工具参数（tool_start）
+ * @param toolCallId 工具调用ID（tool_start / tool_result）
+ * @param isError    工具执行是否出错（tool_result）
+ * @param seq        上游序列号，没有时为 null
+ */
+public record BotStreamEvent(
+        String type,
+        String content,
+        String toolName,
+        String toolInput,
+        String toolCallId,
+        boolean isError,
+        Integer seq
+) {
+
+    public static BotStreamEvent message(String content) {
+        return new BotStreamEvent("message", content, null, null, null, false, null);
+    }
+
+    public static BotStreamEvent done() {
+        return new BotStreamEvent("done", null, null, null, null, false, null);
+    }
+
+    public static BotStreamEvent error(String message) {
+        return new BotStreamEvent("error", message, null, null, null, false, null);
+    }
+}
@@ -1,18 +1,28 @@
 package com.ooc.service;
 
+import com.ooc.dto.MessageCursor;
+import com.ooc.dto.MessagePage;
+import com.ooc.entity.ChatMessage;
 import com.ooc.entity.ChatRoom;
+import com.ooc.repository.ChatMessageRepository;
 import com.ooc.repository.ChatRoomRepository;
 import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.stereotype.Service;
 
 import java.time.Instant;
 import java.util.*;
+import java.util.stream.Collectors;
 
+@Slf4j
 @Service
 @RequiredArgsConstructor
 public class ChatRoomService {
 
     private final ChatRoomRepository chatRoomRepository;
+    private final ChatMessageRepository chatMessageRepository;
+    private final RecentMessageCache recentMessageCache;
     private final FileStorageService fileStorageService;
 
     public ChatRoom createChatRoom(String name, String description, String creatorId) {
@@ -64,39 +74,105 @@ public class ChatRoomService {
         }).orElseThrow(() -> new RuntimeException("Chat room not found"));
     }
 
-    public ChatRoom addMessage(String roomId, ChatRoom.Message message) {
-        return chatRoomRepository.findById(roomId).map(room -> {
-            room.getMessages().add(message);
-            // 限制历史消息数量，保留最新的 1000 条
-            if (room.getMessages().size() > 1000) {
-                room.setMessages(room.getMessages().subList(room.getMessages().size() - 1000, room.getMessages().size()));
-            }
-            return chatRoomRepository.save(room);
-        }).orElseThrow(() -> new RuntimeException("Chat room not found"));
+    /**
+     * 追加一条消息（单独写入 chat_messages，不会重写房间文档）
+     */
+    public ChatRoom.Message addMessage(String roomId, ChatRoom.Message message) {
+        if (!chatRoomRepository.existsById(roomId)) {
+            throw new RuntimeException("Chat room not found");
+        }
+        ChatMessage saved = chatMessageRepository.save(ChatMessage.of(roomId, message));
+        recentMessageCache.onMessageAdded(saved);
+        return message;
     }
 
     /**
-     * 更新消息（用于流式消息更新）
+     * 更新消息（用于流式消息更新），只写入该条消息
      */
-    public ChatRoom updateMessage(String roomId, ChatRoom.Message updatedMessage) {
-        return chatRoomRepository.findById(roomId).map(room -> {
-            List<ChatRoom.Message> messages = room.getMessages();
-            boolean found = false;
-            for (int i = 0; i < messages.size(); i++) {
-                if (messages.get(i).getId().equals(updatedMessage.getId())) {
-                    messages.set(i, updatedMessage);
-                    found = true;
-                    break;
-                }
+    public ChatRoom.Message updateMessage(String roomId, ChatRoom.Message updatedMessage) {
+        ChatMessage stored = chatMessageRepository.findByIdAndRoomId(updatedMessage.getId(), roomId)
+                .orElse(null);
+        if (stored == null) {
+            if (!chatRoomRepository.existsById(roomId)) {
+                throw new RuntimeException("Chat room not found: " + roomId);
             }
-            if (!found) {
-                System.err.println("WARNING: Message not found for update: " + updatedMessage.getId() + " in room: " + roomId);
-            }
-            ChatRoom saved = chatRoomRepository.save(room);
-            System.out.println("DEBUG: Updated message " + updatedMessage.getId() + " with content length: " + 
-                (updatedMessage.getContent() != null ? updatedMessage.getContent().length() : -1));
-            return saved;
-        }).orElseThrow(() -> new RuntimeException("Chat room not found: " + roomId));
+            log.warn("Message not found for update: {} in room: {}", updatedMessage.getId(), roomId);
+            return updatedMessage;
+        }
+        // 保持原有的排序时间戳，只替换消息内容
+        stored.setMessage(updatedMessage);
+        chatMessageRepository.save(stored);
+        recentMessageCache.onMessageUpdated(roomId, updatedMessage);
+        log.debug("Updated message {} with content length: {}", updatedMessage.getId(),
+                updatedMessage.getContent() != null ? updatedMessage.getContent().length() : -1);
+        return updatedMessage;
+    }
+
+    /**
+     * 获取房间最近的消息（加入房间/重连时使用），优先从内存缓存返回
+     */
+    public MessagePage getRecentHistory(String roomId, int limit) {
+        return recentMessageCache.getRecent(roomId, limit,
+                count -> chatMessageRepository.findByRoomIdOrderByTimestampDescIdDesc(roomId, PageRequest.of(0, count)));
+    }
+
+    /**
+     * 分页获取房间消息（page 0 为最新一页，每页按时间正序返回）
+     */
+    public List<ChatRoom.Message> getMessages(String roomId, int page, int size) {
+        return toChronological(chatMessageRepository
+                .findByRoomIdOrderByTimestampDescIdDesc(roomId, PageRequest.of(page, size)));
+    }
+
+    /**
+     * 获取指定时间之前的消息（按时间正序返回）
+     */
+    public List<ChatRoom.Message> getMessagesBefore(String roomId, Instant before, int size) {
+        return toChronological(chatMessageRepository
+                .findByRoomIdAndTimestampBeforeOrderByTimestampDescIdDesc(roomId, before, PageRequest.of(0, size)));
+    }
+
+    /**
+     * 基于游标的消息历史分页，每次只从存储读取一页（多取一条用于判断 hasMore）
+     *
+     * @param cursor    不透明游标，为空时从最新消息开始
+     * @param direction before 加载更早的消息，after 加载更新的消息
+     */
+    public MessagePage getMessageHistory(String roomId, String cursor, String direction, int size) {
+        boolean after = "after".equalsIgnoreCase(direction);
+        PageRequest limit = PageRequest.of(0, size + 1);
+
+        List<ChatMessage> fetched;
+        if (cursor == null || cursor.isEmpty()) {
+            fetched = chatMessageRepository.findByRoomIdOrderByTimestampDescIdDesc(roomId, limit);
+            after = false;
+        } else {
+            MessageCursor position = MessageCursor.decode(cursor);
+            fetched = after
+                    ? chatMessageRepository.findPageAfter(roomId, position.timestamp(), position.id(), limit)
+                    : chatMessageRepository.findPageBefore(roomId, position.timestamp(), position.id(), limit);
+        }
+
+        boolean hasMore = fetched.size() > size;
+        List<ChatMessage> page = new ArrayList<>(hasMore ? fetched.subList(0, size) : fetched);
+        if (!after) {
+            Collections.reverse(page);
+        }
+
+        return MessagePage.builder()
+                .messages(page.stream().map(ChatMessage::getMessage).collect(Collectors.toList()))
+                .olderCursor(page.isEmpty() ? null : MessageCursor.of(page.get(0)).encode())
+                .newerCursor(page.isEmpty() ? null : MessageCursor.of(page.get(page.size() - 1)).encode())
+                .hasMore(hasMore)
+                .build();
+    }
+
+    private List<ChatRoom.Message> toChronological(List<ChatMessage> newestFirst) {
+        List<ChatRoom.Message> messages = newestFirst.stream()
+                .map(ChatMessage::getMessage)
+                .collect(Collectors.toCollection(ArrayList::new));
+        Collections.reverse(messages);
+        return messages;
     }
 
     public void updateOpenClawSession(String roomId, String sessionId) {
@@ -121,16 +197,16 @@ public class ChatRoomService {
 
     public void deleteChatRoom(String roomId) {
         chatRoomRepository.deleteById(roomId);
+        chatMessageRepository.deleteByRoomId(roomId);
+        recentMessageCache.evictRoom(roomId);
     }
 
     /**
      * 根据ID获取消息
      */
     public ChatRoom.Message getMessageById(String roomId, String messageId) {
-        return chatRoomRepository.findById(roomId)
-            .flatMap(room -> room.getMessages().stream()
-                .filter(m -> m.getId().equals(messageId))
-                .findFirst())
+        return chatMessageRepository.findByIdAndRoomId(messageId, roomId)
+            .map(ChatMessage::getMessage)
             .orElse(null);
     }
 
@@ -1,21 +1,26 @@
 package com.ooc.service;
 
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.ooc.config.ChatProperties;
+import com.ooc.config.LlmWebClients;
+import com.ooc.entity.BotTaskQueue;
 import com.ooc.entity.BotUserConfig;
 import com.ooc.entity.ChatRoom;
 import com.ooc.entity.User;
-import com.ooc.repository.UserRepository;
 import com.ooc.websocket.Attachment;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.buffer.DataBuffer;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 import org.springframework.web.reactive.function.client.WebClient;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.time.Instant;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
@@ -27,11 +32,18 @@ import java.util.concurrent.ConcurrentHashMap;
 @Slf4j
 @Service
 @RequiredArgsConstructor
-public class ClaudeCodePluginService {
+public class ClaudeCodePluginService implements BotReplyProvider {
 
-    private final UserRepository userRepository;
-    private final WebClient.Builder webClientBuilder;
-    private final ObjectMapper objectMapper;
+    private final BotRegistryService botRegistryService;
+    private final LlmWebClients llmWebClients;
+    private final ChatProperties chatProperties;
+
+    private static final String BOT_TYPE = "claude-code";
+
+    // 流式响应的结束标记和需要的字段
+    private static final byte[] SSE_DONE = "[DONE]".getBytes(StandardCharsets.US_ASCII);
+    private static final StreamingJsonExtractor TYPE_AND_TEXT =
+            new StreamingJsonExtractor(new JsonFactory(), "type", "delta.text");
 
     // Claude API 默认配置
     private static final String CLAUDE_API_BASE_URL = "https://api.anthropic.com";
@@ -51,31 +63,21 @@ public class ClaudeCodePluginService {
         private String instanceName;
         private Instant createdAt;
         private Instant lastActivity;
-        private List<Map<String, Object>> messageHistory;
+        private SessionContextWindow context;
     }
 
     /**
      * 获取 Claude Code 机器人用户配置
      */
     private Optional<BotUserConfig> getBotConfig() {
-        return userRepository.findAll().stream()
-                .filter(User::isBot)
-                .filter(User::isEnabled)
-                .filter(u -> "claude-code".equals(u.getBotType()))
-                .map(User::getBotConfig)
-                .filter(Objects::nonNull)
-                .findFirst();
+        return botRegistryService.getEnabledBotConfig(BOT_TYPE);
     }
 
     /**
      * 获取 Claude Code 机器人用户
      */
     private Optional<User> getBotUser() {
-        return userRepository.findAll().stream()
-                .filter(User::isBot)
-                .filter(User::isEnabled)
-                .filter(u -> "claude-code".equals(u.getBotType()))
-                .findFirst();
+        return botRegistryService.getEnabledBot(BOT_TYPE);
     }
 
     /**
@@ -108,9 +110,20 @@ public class ClaudeCodePluginService {
                 .orElse("You are Claude, a helpful AI assistant made by Anthropic.");
     }
 
+    @Override
+    public BotTaskQueue.BotType getBotType() {
+        return BotTaskQueue.BotType.CLAUDE;
+    }
+
+    @Override
+    public String getDisplayName() {
+        return "Claude";
+    }
+
     /**
      * 获取机器人用户名
      */
+    @Override
     public String getBotUsername() {
         return getBotUser()
                 .map(User::getUsername)
@@ -121,6 +134,7 @@ public class ClaudeCodePluginService {
     /**
      * 获取机器人头像 URL
      */
+    @Override
     public String getBotAvatarUrl() {
         return getBotUser()
                 .map(User::getAvatar)
@@ -130,6 +144,7 @@ public class ClaudeCodePluginService {
     /**
      * 检查机器人是否启用
      */
+    @Override
     public boolean isBotEnabled() {
         return getBotUser().isPresent();
     }
@@ -137,17 +152,39 @@ public class ClaudeCodePluginService {
     /**
      * 检查会话是否存活
      */
+    @Override
     public boolean isSessionAlive(String sessionId) {
         ClaudeSessionState state = sessionStates.get(sessionId);
         if (state == null) return false;
 
-        // 检查是否超时（30分钟）
         long inactiveDuration = Instant.now().toEpochMilli() - state.getLastActivity().toEpochMilli();
-        return inactiveDuration < 30 * 60 * 1000; // 30 minutes
+        return inactiveDuration < chatProperties.getSessionContext().getIdleEvictMs();
+    }
+
+    /**
+     * 移除长时间无活动的会话（流程图节点等创建后不再使用的会话不会被显式关闭）
+     */
+    @Scheduled(fixedDelayString = "${chat.session-context.evict-interval-ms:60000}")
+    public void evictIdleSessions() {
+        long cutoff = Instant.now().toEpochMilli() - chatProperties.getSessionContext().getIdleEvictMs();
+        int before = sessionStates.size();
+        sessionStates.values().removeIf(state -> state.getLastActivity().toEpochMilli() < cutoff);
+        int evicted = before - sessionStates.size();
+        if (evicted > 0) {
+            log.info("Evicted {} idle Claude sessions, {} remaining", evicted, sessionStates.size());
+        }
     }
 
     private WebClient getWebClient() {
-        return webClientBuilder.baseUrl(getGatewayUrl()).build();
+        return llmWebClients.get("claude", getGatewayUrl());
+    }
+
+    /**
+     * 系统提示词；较早的对话已折叠时附上摘要（Claude 接口的 messages 只接受 user/assistant）
+     */
+    private String systemPromptWithSummary(ClaudeSessionState state) {
+        String summary = state.getContext().summary();
+        return summary != null ? getSystemPrompt() + "\n\n" + summary : getSystemPrompt();
     }
 
     /**
@@ -161,12 +198,12 @@ public class ClaudeCodePluginService {
                 .instanceName(instanceName)
                 .createdAt(Instant.now())
                 .lastActivity(Instant.now())
-                .messageHistory(new ArrayList<>())
+                .context(new SessionContextWindow(chatProperties.getSessionContext()))
                 .build();
 
-        // 添加上下文消息
+        // 添加上下文消息（超出预算时较早的消息折叠进摘要）
         if (context != null) {
-            state.getMessageHistory().addAll(context);
+            state.getContext().addAll(context);
         }
 
         sessionStates.put(sessionId, state);
@@ -175,10 +212,21 @@ public class ClaudeCodePluginService {
         return Mono.just(new ClaudeSession(sessionId, instanceName, Instant.now()));
     }
 
+    @Override
+    public Mono<String> openSession(String roomId, List<Map<String, Object>> context) {
+        return createSession("ooc-" + roomId, context).map(ClaudeSession::sessionId);
+    }
+
+    @Override
+    public Flux<BotStreamEvent> streamReply(String sessionId, ReplyRequest request) {
+        return sendMessageStream(sessionId, request.content(), request.attachments(),
+                request.userId(), request.userName(), request.roomName());
+    }
+
     /**
      * 发送消息到 Claude 并获取流式回复
      */
-    public Flux<StreamEvent> sendMessageStream(String sessionId, String message,
+    public Flux<BotStreamEvent> sendMessageStream(String sessionId, String message,
             List<com.ooc.websocket.Attachment> attachments,
             String userId, String userName, String roomName) {
 
@@ -201,7 +249,7 @@ public class ClaudeCodePluginService {
         Map<String, Object> userMsg = new HashMap<>();
         userMsg.put("role", "user");
         userMsg.put("content", formattedMessage);
-        state.getMessageHistory().add(userMsg);
+        state.getContext().add(userMsg);
 
         // 更新最后活动时间
         state.setLastActivity(Instant.now());
@@ -209,13 +257,13 @@ public class ClaudeCodePluginService {
         // 构建 Anthropic API 请求
         Map<String, Object> request = new HashMap<>();
         request.put("model", CLAUDE_MODEL);
-        request.put("system", getSystemPrompt());
-        request.put("messages", state.getMessageHistory());
+        request.put("system", systemPromptWithSummary(state));
+        request.put("messages", state.getContext().recentMessages());
         request.put("stream", true);
         request.put("max_tokens", 4096);
 
-        log.info("Sending streaming request to Claude API: sessionId={}, messageLength={}",
-                sessionId, formattedMessage.length());
+        log.info("Sending streaming request to Claude API: sessionId={}, messageLength={}, contextTokens={}",
+                sessionId, formattedMessage.length(), state.getContext().estimatedTokens());
 
         // 存储完整响应以便添加到历史
         StringBuilder fullResponse = new StringBuilder();
@@ -227,51 +275,41 @@ public class ClaudeCodePluginService {
                 .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
                 .bodyValue(request)
                 .retrieve()
-                .bodyToFlux(String.class)
-                .flatMap(line -> {
-                    log.debug("Claude SSE line: {}", line);
-
-                    if (line.startsWith("data: ")) {
-                        String data = line.substring(6);
-
-                        if ("[DONE]".equals(data)) {
-                            // 流结束，添加助手回复到历史
-                            if (fullResponse.length() > 0) {
-                                Map<String, Object> assistantMsg = new HashMap<>();
-                                assistantMsg.put("role", "assistant");
-                                assistantMsg.put("content", fullResponse.toString());
-                                state.getMessageHistory().add(assistantMsg);
-                            }
-                            return Flux.just(new StreamEvent("done", null, null, null, null, true));
-                        }
-
+                .bodyToFlux(DataBuffer.class)
+                .transform(body -> SseEventDecoder.<BotStreamEvent>decode(body, (data, offset, length, out) -> {
+                    String type = null;
+                    if (!SseEventDecoder.dataEquals(data, offset, length, SSE_DONE)) {
                         try {
-                            JsonNode jsonNode = objectMapper.readTree(data);
-                            String type = jsonNode.has("type") ? jsonNode.get("type").asText() : "";
-
+                            String[] fields = TYPE_AND_TEXT.extract(data, offset, length);
+                            type = fields[0];
                             // 处理内容块增量
-                            if ("content_block_delta".equals(type)) {
-                                JsonNode delta = jsonNode.get("delta");
-                                if (delta != null && delta.has("text")) {
-                                    String content = delta.get("text").asText();
-                                    if (content != null && !content.isEmpty()) {
-                                        fullResponse.append(content);
-                                        return Flux.just(new StreamEvent("message", content, null, null, null, false));
-                                    }
-                                }
+                            if ("content_block_delta".equals(type) && fields[1] != null && !fields[1].isEmpty()) {
+                                fullResponse.append(fields[1]);
+                                out.add(BotStreamEvent.message(fields[1]));
                             }
-                        } catch (Exception e) {
-                            log.error("Failed to parse Claude SSE data: {}", data, e);
+                        } catch (IOException e) {
+                            log.error("Failed to parse Claude SSE data: {}", new String(data, offset, length, StandardCharsets.UTF_8), e);
+                        }
+                        if (!"message_stop".equals(type)) {
+                            return;
                         }
                     }
 
-                    return Flux.empty();
-                })
+                    // 流结束（Anthropic 接口为 message_stop，兼容网关为 [DONE]），添加助手回复到历史
+                    if (fullResponse.length() > 0) {
+                        Map<String, Object> assistantMsg = new HashMap<>();
+                        assistantMsg.put("role", "assistant");
+                        assistantMsg.put("content", fullResponse.toString());
+                        state.getContext().add(assistantMsg);
+                        fullResponse.setLength(0);
+                    }
+                    out.add(BotStreamEvent.done());
+                }))
                 .onErrorResume(error -> {
                     log.error("Claude API error", error);
-                    return Flux.just(new StreamEvent("error", error.getMessage(), null, null, null, true));
+                    return Flux.just(BotStreamEvent.error(error.getMessage()));
                 })
-                .concatWith(Flux.just(new StreamEvent("done", null, null, null, null, true)));
+                .concatWith(Flux.just(BotStreamEvent.done()));
     }
 
     /**
@@ -295,7 +333,7 @@ public class ClaudeCodePluginService {
         Map<String, Object> userMsg = new HashMap<>();
         userMsg.put("role", "user");
         userMsg.put("content", userName + ": " + message);
-        state.getMessageHistory().add(userMsg);
+        state.getContext().add(userMsg);
 
         // 更新最后活动时间
         state.setLastActivity(Instant.now());
@@ -303,13 +341,13 @@ public class ClaudeCodePluginService {
         // 构建 Anthropic API 请求
         Map<String, Object> request = new HashMap<>();
         request.put("model", CLAUDE_MODEL);
-        request.put("system", getSystemPrompt());
-        request.put("messages", state.getMessageHistory());
+        request.put("system", systemPromptWithSummary(state));
+        request.put("messages", state.getContext().recentMessages());
         request.put("stream", false);
         request.put("max_tokens", 4096);
 
-        log.info("Sending request to Claude API: sessionId={}, messageLength={}",
-                sessionId, message.length());
+        log.info("Sending request to Claude API: sessionId={}, messageLength={}, contextTokens={}",
+                sessionId, message.length(), state.getContext().estimatedTokens());
 
         return getWebClient().post()
                 .uri("/v1/messages")
@@ -331,7 +369,7 @@ public class ClaudeCodePluginService {
                     Map<String, Object> assistantMsg = new HashMap<>();
                     assistantMsg.put("role", "assistant");
                     assistantMsg.put("content", content);
-                    state.getMessageHistory().add(assistantMsg);
+                    state.getContext().add(assistantMsg);
 
                     log.info("Received Claude response ({} chars)", content.length());
 
@@ -383,16 +421,4 @@ public class ClaudeCodePluginService {
 
     public record ClaudeSession(String sessionId, String instanceName, Instant createdAt) {}
     public record ClaudeResponse(String messageId, String content, Instant timestamp, boolean completed) {}
-
-    /**
-     * 流式响应事件
-     */
-    public record StreamEvent(
-            String type,
-            String content,
-            String toolName,
-            String toolInput,
-            String messageId,
-            boolean completed
-    ) {}
 }
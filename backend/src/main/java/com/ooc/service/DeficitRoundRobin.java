@@ -0,0 +1,79 @@
+package com.ooc.service;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+import java.util.function.ToIntFunction;
+
+/**
+ * 赤字轮询（Deficit Round Robin）
+ * 在多个队列（这里是房间）之间公平地选择下一个可执行的队列：
+ * 每轮访问给队列增加一个 quantum 的额度，额度足够支付队首任务的代价时才被选中，
+ * 代价高的任务（如流程图）需要等待更多轮，不会挤占其他房间的交互式任务。
+ * <p>
+ * 非线程安全，由调用方加锁。
+ */
+class DeficitRoundRobin<K> {
+
+    private final int quantum;
+    private final ArrayDeque<K> active = new ArrayDeque<>();
+    private final Set<K> members = new HashSet<>();
+    private final Map<K, Integer> deficits = new HashMap<>();
+
+    DeficitRoundRobin(int quantum) {
+        this.quantum = Math.max(1, quantum);
+    }
+
+    /**
+     * 队列有任务可执行时加入轮询（已在轮询中则忽略）
+     */
+    void activate(K key) {
+        if (members.add(key)) {
+            active.addLast(key);
+        }
+    }
+
+    /**
+     * 选择下一个执行的队列，被选中的队列离开轮询，任务结束后由调用方重新 activate
+     *
+     * @param eligible 当前是否允许执行（如并发上限），不允许的队列保留位置但不累积额度
+     * @param headCost 队首任务的代价；返回负数表示队列已空或不可调度，将移出轮询并清空额度
+     * @return 被选中的队列，没有可执行的返回 null
+     */
+    K select(Predicate<K> eligible, ToIntFunction<K> headCost) {
+        int ineligibleInARow = 0;
+        while (!active.isEmpty() && ineligibleInARow < active.size()) {
+            K key = active.pollFirst();
+            int cost = headCost.applyAsInt(key);
+            if (cost < 0) {
+                members.remove(key);
+                deficits.remove(key);
+                continue;
+            }
+            if (!eligible.test(key)) {
+                active.addLast(key);
+                ineligibleInARow++;
+                continue;
+            }
+            ineligibleInARow = 0;
+            int deficit = deficits.merge(key, quantum, Integer::sum);
+            if (deficit >= cost) {
+                deficits.put(key, deficit - cost);
+                members.remove(key);
+                return key;
+            }
+            active.addLast(key);
+        }
+        return null;
+    }
+
+    /**
+     * 等待调度的队列数
+     */
+    int size() {
+        return active.size();
+    }
+}
@@ -1,22 +1,27 @@
 package com.ooc.service;
 
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.ooc.config.ChatProperties;
+import com.ooc.config.LlmWebClients;
+import com.ooc.entity.BotTaskQueue;
 import com.ooc.entity.BotUserConfig;
 import com.ooc.entity.ChatRoom;
 import com.ooc.entity.User;
-import com.ooc.repository.UserRepository;
 import com.ooc.websocket.Attachment;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.buffer.DataBuffer;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 import org.springframework.web.reactive.function.client.WebClient;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.time.Instant;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
@@ -28,11 +33,11 @@ import java.util.concurrent.ConcurrentHashMap;
 @Slf4j
 @Service
 @RequiredArgsConstructor
-public class KimiPluginService {
+public class KimiPluginService implements BotReplyProvider {
 
-    private final UserRepository userRepository;
-    private final WebClient.Builder webClientBuilder;
-    private final ObjectMapper objectMapper;
+    private final BotRegistryService botRegistryService;
+    private final LlmWebClients llmWebClients;
+    private final ChatProperties chatProperties;
 
     // 从配置文件注入配置（优先级高于数据库配置）
     @Value("${kimi.api-key:}")
@@ -44,6 +49,13 @@ public class KimiPluginService {
     @Value("${kimi.gateway-url:https://api.moonshot.cn}")
     private String configGatewayUrl;
 
+    private static final String BOT_TYPE = "kimi";
+
+    // 流式响应的结束标记和增量字段
+    private static final byte[] SSE_DONE = "[DONE]".getBytes(StandardCharsets.US_ASCII);
+    private static final StreamingJsonExtractor DELTA_CONTENT =
+            new StreamingJsonExtractor(new JsonFactory(), "choices[0].delta.content");
+
     // Kimi API 默认配置
     private static final String KIMI_API_BASE_URL = "https://api.moonshot.cn";
     private static final String KIMI_MODEL = "kimi-k2.5";
@@ -61,31 +73,21 @@ public class KimiPluginService {
         private String instanceName;
         private Instant createdAt;
         private Instant lastActivity;
-        private List<Map<String, Object>> messageHistory;
+        private SessionContextWindow context;
     }
 
     /**
      * 获取 Kimi 机器人用户配置
      */
     private Optional<BotUserConfig> getBotConfig() {
-        return userRepository.findAll().stream()
-                .filter(User::isBot)
-                .filter(User::isEnabled)
-                .filter(u -> "kimi".equals(u.getBotType()))
-                .map(User::getBotConfig)
-                .filter(Objects::nonNull)
-                .findFirst();
+        return botRegistryService.getEnabledBotConfig(BOT_TYPE);
     }
 
     /**
      * 获取 Kimi 机器人用户
      */
     private Optional<User> getBotUser() {
-        return userRepository.findAll().stream()
-                .filter(User::isBot)
-                .filter(User::isEnabled)
-                .filter(u -> "kimi".equals(u.getBotType()))
-                .findFirst();
+        return botRegistryService.getEnabledBot(BOT_TYPE);
     }
 
     /**
@@ -139,9 +141,20 @@ public class KimiPluginService {
                 .orElse("你是 Kimi，一个由 Moonshot AI 训练的大型语言模型。");
     }
 
+    @Override
+    public BotTaskQueue.BotType getBotType() {
+        return BotTaskQueue.BotType.KIMI;
+    }
+
+    @Override
+    public String getDisplayName() {
+        return "Kimi";
+    }
+
     /**
      * 获取机器人用户名
      */
+    @Override
     public String getBotUsername() {
         return getBotUser()
                 .map(User::getUsername)
@@ -152,6 +165,7 @@ public class KimiPluginService {
     /**
      * 获取机器人头像 URL
      */
+    @Override
     public String getBotAvatarUrl() {
         return getBotUser()
                 .map(User::getAvatar)
@@ -161,6 +175,7 @@ public class KimiPluginService {
     /**
      * 检查机器人是否启用
      */
+    @Override
     public boolean isBotEnabled() {
         return getBotUser().isPresent();
     }
@@ -168,17 +183,31 @@ public class KimiPluginService {
     /**
      * 检查会话是否存活
      */
+    @Override
     public boolean isSessionAlive(String sessionId) {
         KimiSessionState state = sessionStates.get(sessionId);
         if (state == null) return false;
 
-        // 检查是否超时（30分钟）
         long inactiveDuration = Instant.now().toEpochMilli() - state.getLastActivity().toEpochMilli();
-        return inactiveDuration < 30 * 60 * 1000; // 30 minutes
+        return inactiveDuration < chatProperties.getSessionContext().getIdleEvictMs();
+    }
+
+    /**
+     * 移除长时间无活动的会话（流程图节点等创建后不再使用的会话不会被显式关闭）
+     */
+    @Scheduled(fixedDelayString = "${chat.session-context.evict-interval-ms:60000}")
+    public void evictIdleSessions() {
+        long cutoff = Instant.now().toEpochMilli() - chatProperties.getSessionContext().getIdleEvictMs();
+        int before = sessionStates.size();
+        sessionStates.values().removeIf(state -> state.getLastActivity().toEpochMilli() < cutoff);
+        int evicted = before - sessionStates.size();
+        if (evicted > 0) {
+            log.info("Evicted {} idle Kimi sessions, {} remaining", evicted, sessionStates.size());
+        }
     }
 
     private WebClient getWebClient() {
-        return webClientBuilder.baseUrl(getGatewayUrl()).build();
+        return llmWebClients.get("kimi", getGatewayUrl());
     }
 
     /**
@@ -192,18 +221,18 @@ public class KimiPluginService {
                 .instanceName(instanceName)
                 .createdAt(Instant.now())
                 .lastActivity(Instant.now())
-                .messageHistory(new ArrayList<>())
+                .context(new SessionContextWindow(chatProperties.getSessionContext()))
                 .build();
 
         // 添加系统提示词作为第一条消息
         Map<String, Object> systemMsg = new HashMap<>();
         systemMsg.put("role", "system");
         systemMsg.put("content", getSystemPrompt());
-        state.getMessageHistory().add(systemMsg);
+        state.getContext().pin(systemMsg);
 
-        // 添加上下文消息
+        // 添加上下文消息（超出预算时较早的消息折叠进摘要）
         if (context != null) {
-            state.getMessageHistory().addAll(context);
+            state.getContext().addAll(context);
         }
 
         sessionStates.put(sessionId, state);
@@ -212,10 +241,21 @@ public class KimiPluginService {
         return Mono.just(new KimiSession(sessionId, instanceName, Instant.now()));
     }
 
+    @Override
+    public Mono<String> openSession(String roomId, List<Map<String, Object>> context) {
+        return createSession("ooc-" + roomId, context).map(KimiSession::sessionId);
+    }
+
+    @Override
+    public Flux<BotStreamEvent> streamReply(String sessionId, ReplyRequest request) {
+        return sendMessageStream(sessionId, request.content(), request.attachments(),
+                request.userId(), request.userName(), request.roomName());
+    }
+
     /**
      * 发送消息到 Kimi 并获取流式回复
      */
-    public Flux<StreamEvent> sendMessageStream(String sessionId, String message,
+    public Flux<BotStreamEvent> sendMessageStream(String sessionId, String message,
             List<com.ooc.websocket.Attachment> attachments,
             String userId, String userName, String roomName) {
 
@@ -246,7 +286,7 @@ public class KimiPluginService {
         Map<String, Object> userMsg = new HashMap<>();
         userMsg.put("role", "user");
         userMsg.put("content", formattedMessage);
-        state.getMessageHistory().add(userMsg);
+        state.getContext().add(userMsg);
 
         // 更新最后活动时间
         state.setLastActivity(Instant.now());
@@ -254,12 +294,12 @@ public class KimiPluginService {
         // 构建请求
         Map<String, Object> request = new HashMap<>();
         request.put("model", getModel());
-        request.put("messages", state.getMessageHistory());
+        request.put("messages", state.getContext().messages());
         request.put("stream", true);
         request.put("temperature", 0.7);
 
-        log.info("Sending streaming request to Kimi API: sessionId={}, messageLength={}",
-                sessionId, formattedMessage.length());
+        log.info("Sending streaming request to Kimi API: sessionId={}, messageLength={}, contextTokens={}",
+                sessionId, formattedMessage.length(), state.getContext().estimatedTokens());
 
         // 存储完整响应以便添加到历史
         StringBuilder fullResponse = new StringBuilder();
@@ -270,51 +310,35 @@ public class KimiPluginService {
                 .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
                 .bodyValue(request)
                 .retrieve()
-                .bodyToFlux(String.class)
-                .flatMap(line -> {
-                    log.debug("Kimi SSE line: {}", line);
-
-                    if (line.startsWith("data: ")) {
-                        String data = line.substring(6);
-
-                        if ("[DONE]".equals(data)) {
-                            // 流结束，添加助手回复到历史
-                            if (fullResponse.length() > 0) {
-                                Map<String, Object> assistantMsg = new HashMap<>();
-                                assistantMsg.put("role", "assistant");
-                                assistantMsg.put("content", fullResponse.toString());
-                                state.getMessageHistory().add(assistantMsg);
-                            }
-                            return Flux.just(new StreamEvent("done", null, null, null, null, true));
+                .bodyToFlux(DataBuffer.class)
+                .transform(body -> SseEventDecoder.<BotStreamEvent>decode(body, (data, offset, length, out) -> {
+                    if (SseEventDecoder.dataEquals(data, offset, length, SSE_DONE)) {
+                        // 流结束，添加助手回复到历史
+                        if (fullResponse.length() > 0) {
+                            Map<String, Object> assistantMsg = new HashMap<>();
+                            assistantMsg.put("role", "assistant");
+                            assistantMsg.put("content", fullResponse.toString());
+                            state.getContext().add(assistantMsg);
                         }
+                        out.add(BotStreamEvent.done());
+                        return;
+                    }
 
-                        try {
-                            JsonNode jsonNode = objectMapper.readTree(data);
-                            JsonNode choices = jsonNode.get("choices");
-
-                            if (choices != null && choices.isArray() && choices.size() > 0) {
-                                JsonNode delta = choices.get(0).get("delta");
-
-                                if (delta != null && delta.has("content")) {
-                                    String content = delta.get("content").asText();
-                                    if (content != null && !content.isEmpty()) {
-                                        fullResponse.append(content);
-                                        return Flux.just(new StreamEvent("message", content, null, null, null, false));
-                                    }
-                                }
-                            }
-                        } catch (Exception e) {
-                            log.error("Failed to parse Kimi SSE data: {}", data, e);
+                    try {
+                        String content = DELTA_CONTENT.extract(data, offset, length)[0];
+                        if (content != null && !content.isEmpty()) {
+                            fullResponse.append(content);
+                            out.add(BotStreamEvent.message(content));
                         }
+                    } catch (IOException e) {
+                        log.error("Failed to parse Kimi SSE data: {}", new String(data, offset, length, StandardCharsets.UTF_8), e);
                     }
-
-                    return Flux.empty();
-                })
+                }))
                 .onErrorResume(error -> {
                     log.error("Kimi API error", error);
-                    return Flux.just(new StreamEvent("error", error.getMessage(), null, null, null, true));
+                    return Flux.just(BotStreamEvent.error(error.getMessage()));
                 })
-                .concatWith(Flux.just(new StreamEvent("done", null, null, null, null, true)));
+                .concatWith(Flux.just(BotStreamEvent.done()));
     }
 
     /**
@@ -338,7 +362,7 @@ public class KimiPluginService {
         Map<String, Object> userMsg = new HashMap<>();
         userMsg.put("role", "user");
         userMsg.put("content", userName + ": " + message);
-        state.getMessageHistory().add(userMsg);
+        state.getContext().add(userMsg);
 
         // 更新最后活动时间
         state.setLastActivity(Instant.now());
@@ -346,12 +370,12 @@ public class KimiPluginService {
         // 构建请求
         Map<String, Object> request = new HashMap<>();
         request.put("model", getModel());
-        request.put("messages", state.getMessageHistory());
+        request.put("messages", state.getContext().messages());
         request.put("stream", false);
         request.put("temperature", 0.7);
 
-        log.info("Sending request to Kimi API: sessionId={}, messageLength={}",
-                sessionId, message.length());
+        log.info("Sending request to Kimi API: sessionId={}, messageLength={}, contextTokens={}",
+                sessionId, message.length(), state.getContext().estimatedTokens());
 
         return getWebClient().post()
                 .uri("/v1/chat/completions")
@@ -367,7 +391,7 @@ public class KimiPluginService {
                     Map<String, Object> assistantMsg = new HashMap<>();
                     assistantMsg.put("role", "assistant");
                     assistantMsg.put("content", content);
-                    state.getMessageHistory().add(assistantMsg);
+                    state.getContext().add(assistantMsg);
 
                     log.info("Received Kimi response ({} chars)", content.length());
 
@@ -426,16 +450,4 @@ public class KimiPluginService {
 
     public record KimiSession(String sessionId, String instanceName, Instant createdAt) {}
     public record KimiResponse(String messageId, String content, Instant timestamp, boolean completed) {}
-
-    /**
-     * 流式响应事件
-     */
-    public record StreamEvent(
-            String type,
-            String content,
-            String toolName,
-            String toolInput,
-            String messageId,
-            boolean completed
-    ) {}
 }
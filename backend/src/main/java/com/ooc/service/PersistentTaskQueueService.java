@@ -1,26 +1,45 @@
 package com.ooc.service;
 
+import com.ooc.config.ChatProperties;
 import com.ooc.entity.BotTaskQueue;
+import com.ooc.entity.BotTaskRoomLease;
 import com.ooc.repository.BotTaskQueueRepository;
 import com.ooc.websocket.Attachment;
 import com.ooc.websocket.ChatWebSocketHandler;
+import com.mongodb.client.result.UpdateResult;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import jakarta.annotation.PostConstruct;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.stereotype.Service;
 
 import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Comparator;
+import java.time.Duration;
+import java.util.EnumMap;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  * 持久化机器人任务队列服务
@@ -31,7 +50,18 @@ import java.util.stream.Collectors;
 @RequiredArgsConstructor
 public class PersistentTaskQueueService {
 
+    // 未结束的任务状态（队列查询只关心这些状态，已结束的记录由 TaskQueueRetentionService 压缩和清理）
+    private static final List<BotTaskQueue.TaskStatus> ACTIVE_STATUSES =
+            List.of(BotTaskQueue.TaskStatus.PENDING, BotTaskQueue.TaskStatus.PROCESSING);
+
     private final BotTaskQueueRepository taskQueueRepository;
+    private final MongoTemplate mongoTemplate;
+    private final TaskQueueScheduler scheduler;
+    private final TaskLeaseManager leaseManager;
+    private final TaskPriorityPolicy priorityPolicy;
+    private final TaskRetryPolicy retryPolicy;
+    private final ChatProperties chatProperties;
+    private final MeterRegistry meterRegistry;
 
     // 内存中的队列缓存（每个机器人独立）
     // OpenClaw
@@ -52,10 +82,93 @@ public class PersistentTaskQueueService {
 
     // 当前正在执行的任务ID (roomId_botType -> taskId)
     private final ConcurrentHashMap<String, String> currentProcessingTasks = new ConcurrentHashMap<>();
+    // 当前正在执行的任务 (roomId_botType -> task)，用于队列快照
+    private final ConcurrentHashMap<String, ChatWebSocketHandler.OpenClawTask> runningTaskViews = new ConcurrentHashMap<>();
 
     // 正在执行的任务流订阅 (taskId -> Disposable) - 用于取消流式响应
     private final ConcurrentHashMap<String, reactor.core.Disposable> taskSubscriptions = new ConcurrentHashMap<>();
 
+    // ===== 全局调度 =====
+    // 以下字段均由 dispatchLock 保护
+    private final Object dispatchLock = new Object();
+    // 房间间公平调度，每个房间-机器人组合同一时间最多执行一个任务（保证对话任务按房间 FIFO）
+    private final DeficitRoundRobin<RoomBotKey> fairQueue = new DeficitRoundRobin<>(1);
+    // 占用执行名额的任务: taskId -> 房间-机器人组合
+    private final Map<String, RoomBotKey> runningTasks = new HashMap<>();
+    private final Map<BotTaskQueue.BotType, Integer> runningPerBot = new EnumMap<>(BotTaskQueue.BotType.class);
+
+    // ===== 队列快照 =====
+    // 每个房间-机器人组合的队列视图，在入队、开始、完成、取消、重排时重建；读取不访问数据库
+    // 只保存有任务的房间，队列为空且没有执行中的任务时移除
+    private final ConcurrentHashMap<RoomBotKey, QueueSnapshot> queueSnapshots = new ConcurrentHashMap<>();
+    private final AtomicLong snapshotVersion = new AtomicLong();
+    private final List<QueueChangeListener> queueListeners = new CopyOnWriteArrayList<>();
+
+    // ===== 启动恢复 =====
+    // 尚未恢复完成的房间-机器人组合
+    private final Set<RoomBotKey> roomsAwaitingRestore = ConcurrentHashMap.newKeySet();
+    private final AtomicLong restoredTasks = new AtomicLong();
+    private volatile RestoreState restoreState = RestoreState.PENDING;
+    private volatile long restoreResetCount;
+    private volatile Instant restoreStartedAt;
+    private volatile Instant restoreFinishedAt;
+    private volatile String restoreError;
+
+    public enum RestoreState {
+        PENDING,
+        RESTORING,
+        COMPLETED,
+        FAILED
+    }
+
+    /**
+     * 启动恢复状态
+     *
+     * @param resetToPending 启动时从 PROCESSING 重置为 PENDING 的任务数（本实例遗留或租约已过期的任务）
+     * @param roomsRemaining 尚未恢复完成的房间-机器人组合数
+     */
+    public record RestoreStatus(
+            RestoreState state,
+            long resetToPending,
+            int roomsRemaining,
+            long restored,
+            Instant startedAt,
+            Instant finishedAt,
+            String error
+    ) {}
+
+    /**
+     * 房间-机器人组合
+     */
+    private record RoomBotKey(String roomId, BotTaskQueue.BotType botType) {}
+
+    /**
+     * 调度器统计
+     *
+     * @param waitingRooms 有任务等待执行名额的房间-机器人组合数
+     */
+    public record DispatcherStats(
+            int running,
+            int maxConcurrent,
+            int waitingRooms,
+            Map<String, BotDispatchStats> bots
+    ) {}
+
+    /**
+     * 单种机器人的调度统计
+     *
+     * @param queueWaitMeanMs 任务从入队到开始执行的平均等待时间
+     * @param queueWaitMaxMs  最近统计窗口内的最大等待时间
+     */
+    public record BotDispatchStats(
+            int running,
+            Integer maxConcurrent,
+            int queued,
+            long started,
+            double queueWaitMeanMs,
+            double queueWaitMaxMs
+    ) {}
+
     /**
      * 任务包装器，关联内存队列和数据库记录
      */
@@ -65,6 +178,25 @@ public class PersistentTaskQueueService {
             BotTaskQueue.BotType botType
     ) {}
 
+    /**
+     * 房间队列快照：正在执行的任务在前，待处理任务按执行顺序排列
+     *
+     * @param version 全局递增的版本号，客户端按版本丢弃过期的更新
+     */
+    public record QueueSnapshot(
+            long version,
+            Instant updatedAt,
+            List<ChatWebSocketHandler.OpenClawTask> tasks
+    ) {}
+
+    /**
+     * 队列变化监听器（在变化发生的线程上调用，不应阻塞）
+     */
+    @FunctionalInterface
+    public interface QueueChangeListener {
+        void onQueueChanged(String roomId, BotTaskQueue.BotType botType, QueueSnapshot snapshot);
+    }
+
     /**
      * 任务处理器接口
      */
@@ -74,73 +206,234 @@ public class PersistentTaskQueueService {
     }
 
     /**
-     * 服务启动时恢复未完成的任务队列
+     * 启动时的准备工作（在上下文刷新阶段执行，只包含少量批量数据库操作）：
+     * 1. 将本实例遗留的和租约已过期的处理中任务重置为待处理；其他存活实例正在执行的任务保持不变
+     * 2. 找出有积压任务的房间-机器人组合，恢复完成前不调度这些房间，避免新任务插到积压任务前面
      */
     @PostConstruct
-    public void restoreQueuesOnStartup() {
-        log.info("Restoring task queues from database...");
+    public void prepareRestore() {
+        restoreResetCount = leaseManager.releaseOwned() + leaseManager.reclaimExpired();
+
+        Aggregation aggregation = Aggregation.newAggregation(
+                Aggregation.match(Criteria.where("status").is(BotTaskQueue.TaskStatus.PENDING)),
+                Aggregation.group("roomId", "botType"));
+        for (Document group : mongoTemplate.aggregate(aggregation, BotTaskQueue.class, Document.class)) {
+            Document id = group.get("_id", Document.class);
+            roomsAwaitingRestore.add(new RoomBotKey(id.getString("roomId"),
+                    BotTaskQueue.BotType.valueOf(id.getString("botType"))));
+        }
 
-        // 查找所有待处理或处理中的任务
-        List<BotTaskQueue> pendingTasks = taskQueueRepository.findByStatusIn(
-                List.of(BotTaskQueue.TaskStatus.PENDING, BotTaskQueue.TaskStatus.PROCESSING)
-        );
+        log.info("Task queue restore prepared: reset {} PROCESSING tasks to PENDING, {} room-bot pairs to restore",
+                restoreResetCount, roomsAwaitingRestore.size());
+    }
 
-        if (pendingTasks.isEmpty()) {
+    /**
+     * 应用就绪后在后台恢复任务队列，不阻塞启动
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void restoreQueuesOnStartup() {
+        startLeaseMaintenance();
+        if (roomsAwaitingRestore.isEmpty()) {
             log.info("No pending tasks found in database");
+            restoreStartedAt = Instant.now();
+            restoreFinishedAt = restoreStartedAt;
+            restoreState = RestoreState.COMPLETED;
             return;
         }
+        scheduler.execute(this::restoreQueues);
+    }
 
-        log.info("Found {} pending tasks to restore", pendingTasks.size());
-
-        // 收集需要触发处理的所有房间和机器人类型组合
-        Set<String> roomBotPairs = new HashSet<>();
+    /**
+     * 按房间、位置顺序流式读取待处理任务，逐个房间重建内存队列，每个房间恢复完成后立即开始调度
+     */
+    void restoreQueues() {
+        restoreState = RestoreState.RESTORING;
+        restoreStartedAt = Instant.now();
+        log.info("Restoring task queues for {} room-bot pairs...", roomsAwaitingRestore.size());
+
+        try {
+            Query query = Query.query(Criteria.where("status").is(BotTaskQueue.TaskStatus.PENDING))
+                    .with(Sort.by("roomId", "botType", "position", "createdAt"));
+
+            RoomBotKey current = null;
+            List<TaskWrapper> batch = new ArrayList<>();
+            try (Stream<BotTaskQueue> stream = mongoTemplate.stream(query, BotTaskQueue.class)) {
+                for (BotTaskQueue dbTask : (Iterable<BotTaskQueue>) stream::iterator) {
+                    RoomBotKey key = new RoomBotKey(dbTask.getRoomId(), dbTask.getBotType());
+                    if (!key.equals(current)) {
+                        if (current != null) {
+                            finishRoomRestore(current, batch);
+                        }
+                        current = key;
+                        batch = new ArrayList<>();
+                    }
+                    batch.add(new TaskWrapper(dbTask.getTaskId(), convertToTask(dbTask), dbTask.getBotType()));
+                }
+            }
+            if (current != null) {
+                finishRoomRestore(current, batch);
+            }
 
-        // 将处理中的任务重置为待处理状态（因为服务重启，需要重新处理）
-        for (BotTaskQueue dbTask : pendingTasks) {
-            if (dbTask.getStatus() == BotTaskQueue.TaskStatus.PROCESSING) {
-                dbTask.setStatus(BotTaskQueue.TaskStatus.PENDING);
-                dbTask.setUpdatedAt(Instant.now());
-                taskQueueRepository.save(dbTask);
-                log.info("Reset PROCESSING task {} to PENDING (room={}, bot={})",
-                        dbTask.getTaskId(), dbTask.getRoomId(), dbTask.getBotType());
+            restoreState = RestoreState.COMPLETED;
+            log.info("Task queues restored successfully: {} tasks", restoredTasks.get());
+        } catch (Exception e) {
+            restoreState = RestoreState.FAILED;
+            restoreError = e.getMessage();
+            log.error("Failed to restore task queues: {}", e.getMessage(), e);
+        } finally {
+            restoreFinishedAt = Instant.now();
+            // 剩余的组合（如准备阶段之后任务已被取消，或恢复失败）不再阻塞调度
+            for (RoomBotKey key : List.copyOf(roomsAwaitingRestore)) {
+                roomsAwaitingRestore.remove(key);
+                tryProcessNext(key.roomId(), key.botType());
             }
+        }
+    }
+
+    /**
+     * 将一个房间恢复的任务放入内存队列并开始调度
+     * 恢复期间新加入的任务已经在队列中，恢复的积压任务排在它们前面
+     */
+    private void finishRoomRestore(RoomBotKey key, List<TaskWrapper> restored) {
+        LinkedBlockingQueue<TaskWrapper> queue = getOrCreateQueue(key.roomId(), key.botType());
+        synchronized (queue) {
+            List<TaskWrapper> addedDuringRestore = new ArrayList<>(queue);
+            Set<String> addedIds = addedDuringRestore.stream()
+                    .map(TaskWrapper::taskId)
+                    .collect(Collectors.toSet());
+            restored.removeIf(wrapper -> addedIds.contains(wrapper.taskId()));
+            queue.clear();
+            queue.addAll(restored);
+            queue.addAll(addedDuringRestore);
+        }
+        restoredTasks.addAndGet(restored.size());
+        log.info("Restored {} tasks to {} queue for room {}", restored.size(), key.botType(), key.roomId());
 
-            // 恢复任务到内存队列
-            restoreTaskToQueue(dbTask);
+        roomsAwaitingRestore.remove(key);
+        publishQueueChange(key.roomId(), key.botType());
+        tryProcessNext(key.roomId(), key.botType());
+    }
 
-            // 记录房间和机器人类型组合
-            roomBotPairs.add(dbTask.getRoomId() + "#" + dbTask.getBotType());
+    /**
+     * 启动租约续约和数据库同步（周期任务随调度器关闭而停止）
+     * 续约在专用线程上执行，不受共享调度线程上的恢复、同步和认领影响
+     */
+    private void startLeaseMaintenance() {
+        long leaseMs = leaseManager.getLeaseMs();
+        scheduler.scheduleLeaseRenewal(this::renewLeases, leaseMs / 3);
+        long syncIntervalMs = chatProperties.getTaskQueue().getSyncIntervalMs();
+        if (syncIntervalMs > 0) {
+            scheduler.scheduleWithFixedDelay(this::syncWithDatabase, syncIntervalMs, syncIntervalMs);
         }
+    }
 
-        log.info("Task queues restored successfully, triggering processing for {} room-bot pairs", roomBotPairs.size());
+    /**
+     * 为本实例正在执行的任务及其房间续约
+     * 租约已丢失（续约不及时导致过期并被其他实例回收）的任务会被其他实例重新执行，本实例立即中止它们
+     */
+    void renewLeases() {
+        Map<String, RoomBotKey> running;
+        synchronized (dispatchLock) {
+            running = new HashMap<>(runningTasks);
+        }
+        if (running.isEmpty()) {
+            return;
+        }
+        Set<String> roomLeaseIds = running.values().stream()
+                .map(key -> BotTaskRoomLease.idOf(key.roomId(), key.botType()))
+                .collect(Collectors.toSet());
+        long renewedTasks = leaseManager.renewTasks(running.keySet());
+        long renewedRooms = leaseManager.renewRooms(roomLeaseIds);
+        if (renewedTasks == running.size() && renewedRooms == roomLeaseIds.size()) {
+            return;
+        }
 
-        // 为每个房间-机器人类型组合触发队列处理
-        // 延迟执行，确保所有处理器已注册
-        Executors.newSingleThreadScheduledExecutor().schedule(() -> {
-            for (String pair : roomBotPairs) {
-                String[] parts = pair.split("#");
-                if (parts.length == 2) {
-                    String roomId = parts[0];
-                    BotTaskQueue.BotType botType = BotTaskQueue.BotType.valueOf(parts[1]);
-                    log.info("Triggering queue processing for room {} bot {}", roomId, botType);
-                    tryProcessNext(roomId, botType);
-                }
+        Set<String> ownedTasks = leaseManager.ownedTasks(running.keySet());
+        Set<String> ownedRooms = leaseManager.ownedRooms(roomLeaseIds);
+        running.forEach((taskId, key) -> {
+            boolean roomOwned = ownedRooms.contains(BotTaskRoomLease.idOf(key.roomId(), key.botType()));
+            if (!ownedTasks.contains(taskId) || !roomOwned) {
+                abortLostTask(key, taskId, roomOwned);
             }
-        }, 5, TimeUnit.SECONDS);
+        });
     }
 
     /**
-     * 恢复单个任务到内存队列
+     * 中止租约已丢失的任务：停止流式响应并归还执行名额
+     * 数据库中的任务记录已属于其他实例，不再修改其状态
      */
-    private void restoreTaskToQueue(BotTaskQueue dbTask) {
-        ChatWebSocketHandler.OpenClawTask task = convertToTask(dbTask);
-        TaskWrapper wrapper = new TaskWrapper(dbTask.getTaskId(), task, dbTask.getBotType());
+    private void abortLostTask(RoomBotKey key, String taskId, boolean roomOwned) {
+        String processingKey = key.roomId() + "_" + key.botType().name();
+        synchronized (dispatchLock) {
+            if (!runningTasks.containsKey(taskId)) {
+                // 续约期间任务已正常结束
+                return;
+            }
+        }
+        log.warn("Lost lease for {} task {} in room {}, aborting (it may be re-run by another instance)",
+                key.botType(), taskId, key.roomId());
+
+        taskCancellationFlags.computeIfAbsent(taskId, k -> new AtomicBoolean(true)).set(true);
+        cancelTaskSubscription(taskId);
+        clearRunning(processingKey, taskId);
+        if (releaseSlot(taskId)) {
+            if (roomOwned) {
+                leaseManager.releaseRoom(key.roomId(), key.botType());
+            }
+            getProcessingFlag(key.roomId(), key.botType()).set(false);
+        }
+        publishQueueChange(key.roomId(), key.botType());
+        scheduler.schedule(() -> tryProcessNext(key.roomId(), key.botType()),
+                chatProperties.getTaskQueue().getCancelNextTaskDelayMs());
+    }
 
-        LinkedBlockingQueue<TaskWrapper> queue = getOrCreateQueue(dbTask.getRoomId(), dbTask.getBotType());
-        queue.offer(wrapper);
+    /**
+     * 与数据库同步：回收崩溃实例的任务，并调度其他实例写入但本实例尚未执行的房间
+     */
+    void syncWithDatabase() {
+        leaseManager.reclaimExpired();
+
+        Aggregation aggregation = Aggregation.newAggregation(
+                Aggregation.match(Criteria.where("status").is(BotTaskQueue.TaskStatus.PENDING)),
+                Aggregation.group("roomId", "botType"));
+        for (Document group : mongoTemplate.aggregate(aggregation, BotTaskQueue.class, Document.class)) {
+            Document id = group.get("_id", Document.class);
+            RoomBotKey key = new RoomBotKey(id.getString("roomId"), BotTaskQueue.BotType.valueOf(id.getString("botType")));
+            if (roomsAwaitingRestore.contains(key) || getProcessingFlag(key.roomId(), key.botType()).get()) {
+                continue;
+            }
+            LinkedBlockingQueue<TaskWrapper> queue = getOrCreateQueue(key.roomId(), key.botType());
+            if (queue.isEmpty()) {
+                refreshRoomQueue(key, queue);
+            }
+            tryProcessNext(key.roomId(), key.botType());
+        }
+    }
+
+    /**
+     * 从数据库加载房间的待处理任务到内存队列
+     */
+    private void refreshRoomQueue(RoomBotKey key, LinkedBlockingQueue<TaskWrapper> queue) {
+        Query query = Query.query(Criteria.where("roomId").is(key.roomId())
+                        .and("botType").is(key.botType())
+                        .and("status").is(BotTaskQueue.TaskStatus.PENDING))
+                .with(Sort.by("position", "createdAt"));
+        List<BotTaskQueue> pending = mongoTemplate.find(query, BotTaskQueue.class);
+        for (BotTaskQueue dbTask : pending) {
+            offerIfAbsent(queue, new TaskWrapper(dbTask.getTaskId(), convertToTask(dbTask), dbTask.getBotType()));
+        }
+        if (!pending.isEmpty()) {
+            log.info("Loaded {} pending {} tasks for room {} from database", pending.size(), key.botType(), key.roomId());
+            publishQueueChange(key.roomId(), key.botType());
+        }
+    }
 
-        log.info("Restored task {} to {} queue for room {} (position={})",
-                dbTask.getTaskId(), dbTask.getBotType(), dbTask.getRoomId(), dbTask.getPosition());
+    /**
+     * 启动恢复状态（用于 actuator 健康检查）
+     */
+    public RestoreStatus getRestoreStatus() {
+        return new RestoreStatus(restoreState, restoreResetCount, roomsAwaitingRestore.size(),
+                restoredTasks.get(), restoreStartedAt, restoreFinishedAt, restoreError);
     }
 
     /**
@@ -152,18 +445,35 @@ public class PersistentTaskQueueService {
     }
 
     /**
-     * 添加任务到队列
+     * 添加任务到队列（使用对话任务的默认优先级）
      */
     public String addTask(String roomId, String content,
                           List<Attachment> attachments,
                           ChatWebSocketHandler.WebSocketUserInfo userInfo,
                           String sourceMessageId,
                           BotTaskQueue.BotType botType) {
+        return addTask(roomId, content, attachments, userInfo, sourceMessageId, botType, null);
+    }
+
+    /**
+     * 添加任务到队列
+     *
+     * @param priority 任务优先级，为空时使用对话任务的默认优先级
+     */
+    public String addTask(String roomId, String content,
+                          List<Attachment> attachments,
+                          ChatWebSocketHandler.WebSocketUserInfo userInfo,
+                          String sourceMessageId,
+                          BotTaskQueue.BotType botType,
+                          BotTaskQueue.TaskPriority priority) {
         String taskId = UUID.randomUUID().toString();
+        Instant now = Instant.now();
+        BotTaskQueue.TaskPriority resolvedPriority = priorityPolicy.resolve(BotTaskQueue.TaskType.CHAT, priority);
+        Instant effectiveAt = priorityPolicy.effectiveAt(now, resolvedPriority);
 
-        // 计算队列位置
+        // 计算队列位置（以数据库为准，多个实例共享同一队列）
         LinkedBlockingQueue<TaskWrapper> queue = getOrCreateQueue(roomId, botType);
-        int position = queue.size();
+        int position = nextPosition(roomId, botType);
 
         // 创建数据库记录
         BotTaskQueue dbTask = BotTaskQueue.builder()
@@ -176,6 +486,8 @@ public class PersistentTaskQueueService {
                 .sourceMessageId(sourceMessageId)
                 .status(BotTaskQueue.TaskStatus.PENDING)
                 .position(position)
+                .priority(resolvedPriority)
+                .effectiveAt(effectiveAt)
                 .build();
 
         taskQueueRepository.save(dbTask);
@@ -197,16 +509,18 @@ public class PersistentTaskQueueService {
                 .attachments(attachments)
                 .userInfo(userInfoCopy)  // 使用拷贝
                 .sourceMessageId(sourceMessageId)
-                .createdAt(Instant.now())
+                .createdAt(now)
                 .status(ChatWebSocketHandler.OpenClawTask.TaskStatus.PENDING)
+                .priority(resolvedPriority)
+                .effectiveAt(effectiveAt)
                 .build();
 
         // 添加到内存队列
-        TaskWrapper wrapper = new TaskWrapper(taskId, task, botType);
-        queue.offer(wrapper);
+        offerIfAbsent(queue, new TaskWrapper(taskId, task, botType));
+        publishQueueChange(roomId, botType);
 
-        log.info("Task {} added to {} queue for room {} (position={})",
-                taskId, botType, roomId, position);
+        log.info("Task {} added to {} queue for room {} (position={}, priority={})",
+                taskId, botType, roomId, position, resolvedPriority);
 
         return taskId;
     }
@@ -221,37 +535,160 @@ public class PersistentTaskQueueService {
 
     /**
      * 尝试处理队列中的下一个任务
+     * 房间加入公平调度后，只要全局和该机器人的执行名额允许就会开始执行；
+     * 名额不足时任务留在房间队列中，等其他任务结束后按轮询顺序获得名额。
      */
     public void tryProcessNext(String roomId, BotTaskQueue.BotType botType) {
-        LinkedBlockingQueue<TaskWrapper> queue = getQueue(roomId, botType);
-        AtomicBoolean isProcessing = getProcessingFlag(roomId, botType);
-
-        if (queue == null || isProcessing == null) {
+        RoomBotKey key = new RoomBotKey(roomId, botType);
+        if (roomsAwaitingRestore.contains(key)) {
+            // 恢复完成后会重新触发
+            log.debug("Room {} {} queue is still being restored, deferring", roomId, botType);
             return;
         }
+        synchronized (dispatchLock) {
+            fairQueue.activate(key);
+        }
+        dispatch();
+    }
 
-        // 使用 CAS 操作确保只有一个线程能开始处理
-        if (!isProcessing.compareAndSet(false, true)) {
-            log.debug("Room {} is already processing a {} task, skipping", roomId, botType);
-            return;
+    /**
+     * 在名额范围内启动尽可能多的任务
+     * 预留名额后在锁外认领房间租约和任务，认领失败（其他实例正在执行该房间或已认领该任务）则归还名额。
+     */
+    private void dispatch() {
+        while (true) {
+            RoomBotKey key;
+            TaskWrapper wrapper;
+            AtomicBoolean isProcessing;
+            synchronized (dispatchLock) {
+                if (runningTasks.size() >= chatProperties.getTaskQueue().getMaxConcurrent()) {
+                    log.debug("Global task limit reached ({} running), waiting", runningTasks.size());
+                    return;
+                }
+                key = fairQueue.select(k -> hasBotCapacity(k.botType()), this::headCost);
+                if (key == null) {
+                    return;
+                }
+
+                // 使用 CAS 操作确保只有一个线程能开始处理
+                isProcessing = getProcessingFlag(key.roomId(), key.botType());
+                if (!isProcessing.compareAndSet(false, true)) {
+                    log.debug("Room {} is already processing a {} task, skipping", key.roomId(), key.botType());
+                    continue;
+                }
+
+                LinkedBlockingQueue<TaskWrapper> queue = getQueue(key.roomId(), key.botType());
+                wrapper = queue != null ? priorityPolicy.next(queue) : null;
+                if (wrapper == null || isWaitingRetry(wrapper)) {
+                    // 队列为空，重置处理标志
+                    isProcessing.set(false);
+                    log.debug("Room {} {} queue is empty, resetting processing flag", key.roomId(), key.botType());
+                    continue;
+                }
+
+                runningTasks.put(wrapper.taskId(), key);
+                runningPerBot.merge(key.botType(), 1, Integer::sum);
+            }
+            if (claim(key, wrapper, isProcessing)) {
+                startTask(key.roomId(), key.botType(), wrapper);
+            }
         }
+    }
 
-        TaskWrapper wrapper = queue.poll();
-        if (wrapper == null) {
-            // 队列为空，重置处理标志
+    /**
+     * 认领房间租约和下一个任务，并将任务移出内存队列
+     * 失败时归还名额并重置处理标志；房间由其他实例执行时等待下一次同步重新尝试
+     */
+    private boolean claim(RoomBotKey key, TaskWrapper wrapper, AtomicBoolean isProcessing) {
+        String taskId = wrapper.taskId();
+        if (!leaseManager.acquireRoom(key.roomId(), key.botType())) {
+            log.debug("Room {} {} queue is held by another instance, deferring", key.roomId(), key.botType());
+            releaseSlot(taskId);
             isProcessing.set(false);
-            log.debug("Room {} {} queue is empty, resetting processing flag", roomId, botType);
-            return;
+            return false;
+        }
+
+        LinkedBlockingQueue<TaskWrapper> queue = getOrCreateQueue(key.roomId(), key.botType());
+        if (!leaseManager.claimTask(taskId)) {
+            // 任务已被其他实例认领或已取消，从本地队列丢弃
+            log.info("Task {} was claimed or cancelled elsewhere, dropping from local {} queue", taskId, key.botType());
+            queue.remove(wrapper);
+        } else if (!queue.remove(wrapper)) {
+            // 认领期间任务在本实例被取消
+            updateTaskStatus(taskId, BotTaskQueue.TaskStatus.CANCELLED);
+            log.info("Task {} was cancelled while being claimed", taskId);
+        } else {
+            return true;
+        }
+
+        releaseSlot(taskId);
+        leaseManager.releaseRoom(key.roomId(), key.botType());
+        isProcessing.set(false);
+        publishQueueChange(key.roomId(), key.botType());
+        synchronized (dispatchLock) {
+            fairQueue.activate(key);
         }
+        return false;
+    }
+
+    /**
+     * 任务是否还在重试等待中（等待期间房间不执行其他任务，保持房间内顺序）
+     */
+    private boolean isWaitingRetry(TaskWrapper wrapper) {
+        Instant retryAt = wrapper.task().getRetryAt();
+        return retryAt != null && retryAt.isAfter(Instant.now());
+    }
+
+    private boolean hasBotCapacity(BotTaskQueue.BotType botType) {
+        Integer limit = chatProperties.getTaskQueue().getMaxConcurrentPerBot().get(botType);
+        return limit == null || runningPerBot.getOrDefault(botType, 0) < limit;
+    }
 
-        // 更新数据库状态为处理中
-        updateTaskStatus(wrapper.taskId(), BotTaskQueue.TaskStatus.PROCESSING);
+    /**
+     * 房间下一个任务（按优先级和老化确定）在公平调度中的代价；房间正在执行或队列为空时返回 -1
+     */
+    private int headCost(RoomBotKey key) {
+        AtomicBoolean isProcessing = getProcessingFlag(key.roomId(), key.botType());
+        LinkedBlockingQueue<TaskWrapper> queue = getQueue(key.roomId(), key.botType());
+        if (queue == null || isProcessing.get()) {
+            return -1;
+        }
+        TaskWrapper head = priorityPolicy.next(queue);
+        if (head == null || isWaitingRetry(head)) {
+            // 重试等待中的任务到期后由调度器重新触发
+            return -1;
+        }
+        return head.task().getTaskType() == ChatWebSocketHandler.OpenClawTask.TaskType.FLOWCHART
+                ? Math.max(1, chatProperties.getTaskQueue().getFlowchartTaskCost())
+                : 1;
+    }
 
-        // 更新内存任务状态
+    /**
+     * 释放任务占用的执行名额
+     *
+     * @return 该任务是否确实占用着名额（重复释放返回 false）
+     */
+    private boolean releaseSlot(String taskId) {
+        synchronized (dispatchLock) {
+            RoomBotKey key = runningTasks.remove(taskId);
+            if (key == null) {
+                return false;
+            }
+            runningPerBot.merge(key.botType(), -1, Integer::sum);
+            return true;
+        }
+    }
+
+    private void startTask(String roomId, BotTaskQueue.BotType botType, TaskWrapper wrapper) {
+        recordQueueWait(botType, wrapper);
+
+        // 数据库状态已在认领时更新为处理中，这里更新内存任务状态
         wrapper.task().setStatus(ChatWebSocketHandler.OpenClawTask.TaskStatus.PROCESSING);
 
         // 记录当前正在执行的任务
         currentProcessingTasks.put(roomId + "_" + botType.name(), wrapper.taskId());
+        runningTaskViews.put(roomId + "_" + botType.name(), wrapper.task());
+        publishQueueChange(roomId, botType);
 
         // 清理之前的取消标志（如果有）
         taskCancellationFlags.remove(wrapper.taskId());
@@ -265,12 +702,50 @@ public class PersistentTaskQueueService {
             } catch (Exception e) {
                 log.error("Error processing {} task {}: {}", botType, wrapper.taskId(), e.getMessage(), e);
                 markTaskFailed(wrapper.taskId());
-                onTaskComplete(roomId, botType);
+                onTaskComplete(roomId, botType, wrapper.taskId());
             }
         } else {
             log.error("No task processor registered for bot type: {}", botType);
             markTaskFailed(wrapper.taskId());
-            onTaskComplete(roomId, botType);
+            onTaskComplete(roomId, botType, wrapper.taskId());
+        }
+    }
+
+    private void recordQueueWait(BotTaskQueue.BotType botType, TaskWrapper wrapper) {
+        Instant createdAt = wrapper.task().getCreatedAt();
+        if (createdAt == null) {
+            return;
+        }
+        Duration wait = Duration.between(createdAt, Instant.now());
+        queueWaitTimer(botType).record(wait.isNegative() ? Duration.ZERO : wait);
+    }
+
+    private Timer queueWaitTimer(BotTaskQueue.BotType botType) {
+        return Timer.builder("ooc.task.queue.wait")
+                .description("Time bot tasks spend queued before they start")
+                .tag("botType", botType.name())
+                .register(meterRegistry);
+    }
+
+    /**
+     * 调度器统计：执行中任务数、等待名额的房间数以及各机器人的排队等待时间
+     */
+    public DispatcherStats getDispatcherStats() {
+        synchronized (dispatchLock) {
+            Map<String, BotDispatchStats> bots = new HashMap<>();
+            for (BotTaskQueue.BotType botType : BotTaskQueue.BotType.values()) {
+                Timer timer = queueWaitTimer(botType);
+                int queued = queues(botType).values().stream().mapToInt(LinkedBlockingQueue::size).sum();
+                bots.put(botType.name(), new BotDispatchStats(
+                        runningPerBot.getOrDefault(botType, 0),
+                        chatProperties.getTaskQueue().getMaxConcurrentPerBot().get(botType),
+                        queued,
+                        timer.count(),
+                        timer.mean(TimeUnit.MILLISECONDS),
+                        timer.max(TimeUnit.MILLISECONDS)));
+            }
+            return new DispatcherStats(runningTasks.size(), chatProperties.getTaskQueue().getMaxConcurrent(),
+                    fairQueue.size(), bots);
         }
     }
 
@@ -289,29 +764,92 @@ public class PersistentTaskQueueService {
 
         // 清理当前任务标记
         String processingKey = roomId + "_" + botType.name();
+        if (taskId == null) {
+            // 如果没有指定taskId，清除该房间当前任务的记录
+            taskId = currentProcessingTasks.get(processingKey);
+        }
+        boolean released = true;
         if (taskId != null) {
-            currentProcessingTasks.remove(processingKey, taskId);
+            clearRunning(processingKey, taskId);
             taskCancellationFlags.remove(taskId);
             taskSubscriptions.remove(taskId); // 清理订阅
-        } else {
-            // 如果没有指定taskId，清除该房间的所有记录
-            String currentTask = currentProcessingTasks.get(processingKey);
-            if (currentTask != null) {
-                currentProcessingTasks.remove(processingKey);
-                taskCancellationFlags.remove(currentTask);
-                taskSubscriptions.remove(currentTask); // 清理订阅
-            }
+            // 释放执行名额；已被取消释放过的任务不再重复释放，避免误清除房间中新任务的处理标志
+            released = releaseSlot(taskId);
         }
 
-        AtomicBoolean isProcessing = getProcessingFlag(roomId, botType);
-        if (isProcessing != null) {
-            isProcessing.set(false);
+        if (released) {
+            leaseManager.releaseRoom(roomId, botType);
+            AtomicBoolean isProcessing = getProcessingFlag(roomId, botType);
+            if (isProcessing != null) {
+                isProcessing.set(false);
+            }
         }
+        publishQueueChange(roomId, botType);
 
         // 延迟一小段时间再处理下一个任务，确保资源释放
-        Executors.newSingleThreadScheduledExecutor().schedule(() -> {
-            tryProcessNext(roomId, botType);
-        }, 300, TimeUnit.MILLISECONDS);
+        scheduler.schedule(() -> tryProcessNext(roomId, botType),
+                chatProperties.getTaskQueue().getNextTaskDelayMs());
+    }
+
+    /**
+     * 执行中的任务遇到会话繁忙或临时故障时安排重试
+     * 任务回到待处理状态并放回房间队列（保持原有排队顺序），释放执行名额，
+     * 在退避时间到期后由调度器重新触发，等待期间不占用任何线程。
+     *
+     * @return 重试前的等待时间（毫秒）；重试次数已用完时返回 -1，由调用方标记失败
+     */
+    public long retryTask(String roomId, BotTaskQueue.BotType botType, ChatWebSocketHandler.OpenClawTask task,
+                          String error) {
+        String taskId = task.getTaskId();
+        int attempt = (task.getAttempts() != null ? task.getAttempts() : 0) + 1;
+        long delayMs = retryPolicy.nextDelayMs(attempt);
+        if (delayMs < 0) {
+            log.warn("Task {} exhausted {} retry attempts: {}", taskId, attempt - 1, error);
+            return -1;
+        }
+
+        Instant now = Instant.now();
+        Instant retryAt = now.plusMillis(delayMs);
+        UpdateResult result = mongoTemplate.updateFirst(
+                Query.query(Criteria.where("taskId").is(taskId).and("status").is(BotTaskQueue.TaskStatus.PROCESSING)),
+                new Update()
+                        .set("status", BotTaskQueue.TaskStatus.PENDING)
+                        .set("attempts", attempt)
+                        .set("retryAt", retryAt)
+                        .set("lastError", error)
+                        .set("updatedAt", now)
+                        .unset("leaseOwner")
+                        .unset("leaseExpiresAt"),
+                BotTaskQueue.class);
+
+        if (result.getModifiedCount() > 0) {
+            task.setStatus(ChatWebSocketHandler.OpenClawTask.TaskStatus.PENDING);
+            task.setAttempts(attempt);
+            task.setRetryAt(retryAt);
+            task.setLastError(error);
+            offerIfAbsent(getOrCreateQueue(roomId, botType), new TaskWrapper(taskId, task, botType));
+            Counter.builder("ooc.task.queue.retries")
+                    .description("Bot tasks requeued with backoff after a busy or transient failure")
+                    .tag("botType", botType.name())
+                    .register(meterRegistry)
+                    .increment();
+            log.info("Task {} will retry in {}ms (attempt {}): {}", taskId, delayMs, attempt, error);
+        } else {
+            // 任务已被取消或已由其他途径结束
+            log.info("Task {} is no longer processing, not retrying", taskId);
+        }
+
+        // 释放执行名额和房间，与任务完成相同，但下一次调度在退避时间之后
+        clearRunning(roomId + "_" + botType.name(), taskId);
+        taskCancellationFlags.remove(taskId);
+        taskSubscriptions.remove(taskId);
+        if (releaseSlot(taskId)) {
+            leaseManager.releaseRoom(roomId, botType);
+            getProcessingFlag(roomId, botType).set(false);
+        }
+        publishQueueChange(roomId, botType);
+        scheduler.schedule(() -> tryProcessNext(roomId, botType), delayMs);
+        return delayMs;
     }
 
     /**
@@ -351,7 +889,10 @@ public class PersistentTaskQueueService {
             log.info("Processing task {} marked for cancellation in room {}", taskId, roomId);
 
             // 清理当前任务标记（让 onTaskComplete 能正确处理下一个任务）
-            currentProcessingTasks.remove(processingKey);
+            clearRunning(processingKey, taskId);
+            if (releaseSlot(taskId)) {
+                leaseManager.releaseRoom(roomId, botType);
+            }
 
             // 重置处理标志并触发下一个任务
             AtomicBoolean isProcessing = getProcessingFlag(roomId, botType);
@@ -359,27 +900,24 @@ public class PersistentTaskQueueService {
                 isProcessing.set(false);
             }
 
+            publishQueueChange(roomId, botType);
+
             // 延迟后触发下一个任务 - 给一点时间让流完全停止
-            Executors.newSingleThreadScheduledExecutor().schedule(() -> {
-                tryProcessNext(roomId, botType);
-            }, 500, TimeUnit.MILLISECONDS);
+            scheduler.schedule(() -> tryProcessNext(roomId, botType),
+                    chatProperties.getTaskQueue().getCancelNextTaskDelayMs());
 
             return true;
         }
 
         // 否则尝试从队列中移除
         LinkedBlockingQueue<TaskWrapper> queue = getQueue(roomId, botType);
-        if (queue == null) {
-            return false;
-        }
+        boolean removed = queue != null && queue.removeIf(wrapper -> wrapper.taskId().equals(taskId));
 
-        // 从内存队列中移除
-        boolean removed = queue.removeIf(wrapper -> wrapper.taskId().equals(taskId));
-
-        if (removed) {
-            // 更新数据库状态
-            updateTaskStatus(taskId, BotTaskQueue.TaskStatus.CANCELLED);
+        // 仅当任务仍未被认领时更新为已取消（任务可能只在其他实例的内存队列中）；
+        // 本地已移除但刚被认领的任务由调度线程发现并标记为已取消
+        if (leaseManager.cancelPending(taskId) || removed) {
             log.info("Pending task {} cancelled in room {}", taskId, roomId);
+            publishQueueChange(roomId, botType);
             return true;
         }
 
@@ -440,6 +978,7 @@ public class PersistentTaskQueueService {
 
     /**
      * 重排序任务队列
+     * 传入的任务按新顺序重新分配它们原有的有效排队时间和位置，其他任务的相对顺序不变。
      */
     public boolean reorderQueue(String roomId, BotTaskQueue.BotType botType, List<String> taskIds) {
         LinkedBlockingQueue<TaskWrapper> queue = getQueue(roomId, botType);
@@ -447,57 +986,205 @@ public class PersistentTaskQueueService {
             return false;
         }
 
-        // 获取当前队列中的所有任务
-        List<TaskWrapper> currentTasks = new ArrayList<>(queue);
-
-        // 过滤出待处理的任务（处理中的不能重排序）
-        List<TaskWrapper> pendingTasks = currentTasks.stream()
-                .filter(w -> w.task().getStatus() == ChatWebSocketHandler.OpenClawTask.TaskStatus.PENDING)
-                .collect(Collectors.toList());
+        synchronized (queue) {
+            Map<String, TaskWrapper> queued = queue.stream()
+                    .collect(Collectors.toMap(TaskWrapper::taskId, w -> w, (a, b) -> a));
+            List<TaskWrapper> reordered = taskIds.stream()
+                    .distinct()
+                    .map(queued::get)
+                    .filter(Objects::nonNull)
+                    .toList();
+            if (reordered.isEmpty()) {
+                return false;
+            }
 
-        // 按新的顺序重建队列
-        LinkedBlockingQueue<TaskWrapper> newQueue = new LinkedBlockingQueue<>();
+            Map<String, BotTaskQueue> dbTasks = taskQueueRepository.findByRoomIdAndBotTypeAndStatusInOrderByPositionAsc(
+                            roomId, botType, ACTIVE_STATUSES)
+                    .stream()
+                    .collect(Collectors.toMap(BotTaskQueue::getTaskId, t -> t, (a, b) -> a));
+
+            // 被重排任务原来占用的排队时间和位置，按先后顺序分配给新顺序
+            List<Instant> slots = reordered.stream()
+                    .map(w -> priorityPolicy.effectiveAt(w.task()))
+                    .sorted()
+                    .toList();
+            List<Integer> positions = reordered.stream()
+                    .map(w -> dbTasks.get(w.taskId()))
+                    .map(t -> t != null && t.getPosition() != null ? t.getPosition() : 0)
+                    .sorted()
+                    .toList();
+
+            for (int i = 0; i < reordered.size(); i++) {
+                TaskWrapper wrapper = reordered.get(i);
+                wrapper.task().setEffectiveAt(slots.get(i));
+                mongoTemplate.updateFirst(
+                        Query.query(Criteria.where("taskId").is(wrapper.taskId())
+                                .and("status").is(BotTaskQueue.TaskStatus.PENDING)),
+                        new Update().set("effectiveAt", slots.get(i)).set("position", positions.get(i)),
+                        BotTaskQueue.class);
+            }
+        }
 
-        // 首先添加正在处理的任务（保持在最前面）
-        currentTasks.stream()
-                .filter(w -> w.task().getStatus() == ChatWebSocketHandler.OpenClawTask.TaskStatus.PROCESSING)
-                .forEach(newQueue::offer);
+        publishQueueChange(roomId, botType);
+        log.info("{} task queue reordered for room {}, {} tasks moved", botType, roomId, taskIds.size());
+        return true;
+    }
 
-        // 然后按传入的顺序添加待处理任务
-        int position = 0;
-        for (String taskId : taskIds) {
-            pendingTasks.stream()
-                    .filter(w -> w.taskId().equals(taskId))
-                    .findFirst()
-                    .ifPresent(wrapper -> {
-                        newQueue.offer(wrapper);
-                        // 更新数据库中的位置
-                        taskQueueRepository.findByTaskId(taskId).ifPresent(dbTask -> {
-                            dbTask.setPosition(position);
-                            taskQueueRepository.save(dbTask);
-                        });
-                    });
+    /**
+     * 修改待处理任务的优先级，有效排队时间按原入队时间和新优先级重新计算
+     */
+    public boolean setTaskPriority(String roomId, BotTaskQueue.BotType botType, String taskId,
+                                   BotTaskQueue.TaskPriority priority) {
+        BotTaskQueue dbTask = taskQueueRepository.findByTaskId(taskId).orElse(null);
+        if (dbTask == null || dbTask.getStatus() != BotTaskQueue.TaskStatus.PENDING
+                || !roomId.equals(dbTask.getRoomId()) || dbTask.getBotType() != botType) {
+            return false;
         }
+        Instant effectiveAt = priorityPolicy.effectiveAt(dbTask.getCreatedAt(), priority);
+        UpdateResult result = mongoTemplate.updateFirst(
+                Query.query(Criteria.where("taskId").is(taskId).and("status").is(BotTaskQueue.TaskStatus.PENDING)),
+                new Update().set("priority", priority).set("effectiveAt", effectiveAt),
+                BotTaskQueue.class);
 
-        // 替换原队列
-        switch (botType) {
-            case OPENCLAW -> openclawQueues.put(roomId, newQueue);
-            case KIMI -> kimiQueues.put(roomId, newQueue);
-            case CLAUDE -> claudeQueues.put(roomId, newQueue);
+        LinkedBlockingQueue<TaskWrapper> queue = getQueue(roomId, botType);
+        if (queue != null) {
+            synchronized (queue) {
+                queue.stream()
+                        .filter(w -> w.taskId().equals(taskId))
+                        .findFirst()
+                        .ifPresent(w -> {
+                            w.task().setPriority(priority);
+                            w.task().setEffectiveAt(effectiveAt);
+                        });
+            }
         }
 
-        log.info("{} task queue reordered for room {}, new size: {}", botType, roomId, newQueue.size());
-        return true;
+        publishQueueChange(roomId, botType);
+        log.info("Task {} priority changed to {} in room {}", taskId, priority, roomId);
+        return result.getModifiedCount() > 0;
     }
 
     /**
      * 获取房间任务队列（包括 PENDING 和 PROCESSING 状态的任务）
+     * 从内存快照读取；房间尚未恢复完成时从数据库读取
      */
     public List<ChatWebSocketHandler.OpenClawTask> getRoomTaskQueue(String roomId, BotTaskQueue.BotType botType) {
+        return getQueueSnapshot(roomId, botType).tasks();
+    }
+
+    /**
+     * 获取房间队列快照
+     */
+    public QueueSnapshot getQueueSnapshot(String roomId, BotTaskQueue.BotType botType) {
+        RoomBotKey key = new RoomBotKey(roomId, botType);
+        if (roomsAwaitingRestore.contains(key)) {
+            return new QueueSnapshot(snapshotVersion.get(), Instant.now(), loadRoomTaskQueue(roomId, botType));
+        }
+        QueueSnapshot snapshot = queueSnapshots.get(key);
+        if (snapshot != null) {
+            return snapshot;
+        }
+        // 没有任何任务的房间不建快照，避免查询过的房间都常驻内存
+        LinkedBlockingQueue<TaskWrapper> queue = getQueue(roomId, botType);
+        if ((queue == null || queue.isEmpty()) && !runningTaskViews.containsKey(roomId + "_" + botType.name())) {
+            return new QueueSnapshot(snapshotVersion.get(), Instant.now(), List.of());
+        }
+        return rebuildSnapshot(key);
+    }
+
+    /**
+     * 内存中保存的队列快照数（只包含有任务的房间）
+     */
+    int cachedSnapshotCount() {
+        return queueSnapshots.size();
+    }
+
+    /**
+     * 注册队列变化监听器
+     */
+    public void registerQueueListener(QueueChangeListener listener) {
+        queueListeners.add(listener);
+    }
+
+    /**
+     * 重建房间队列快照并通知监听器
+     */
+    private void publishQueueChange(String roomId, BotTaskQueue.BotType botType) {
+        QueueSnapshot snapshot = rebuildSnapshot(new RoomBotKey(roomId, botType));
+        for (QueueChangeListener listener : queueListeners) {
+            try {
+                listener.onQueueChanged(roomId, botType, snapshot);
+            } catch (Exception e) {
+                log.warn("Queue change listener failed for room {} {}: {}", roomId, botType, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * 按内存状态重建快照；compute 保证同一房间的重建串行，后一次总是看到最新状态
+     * 空快照仍会返回（用于通知订阅者队列已清空），但不保存
+     */
+    private QueueSnapshot rebuildSnapshot(RoomBotKey key) {
+        QueueSnapshot[] rebuilt = new QueueSnapshot[1];
+        queueSnapshots.compute(key, (k, previous) -> {
+            List<ChatWebSocketHandler.OpenClawTask> tasks = new ArrayList<>();
+            ChatWebSocketHandler.OpenClawTask running = runningTaskViews.get(k.roomId() + "_" + k.botType().name());
+            if (running != null) {
+                tasks.add(snapshotOf(running));
+            }
+            LinkedBlockingQueue<TaskWrapper> queue = getQueue(k.roomId(), k.botType());
+            if (queue != null) {
+                List<ChatWebSocketHandler.OpenClawTask> pending = new ArrayList<>();
+                for (TaskWrapper wrapper : queue) {
+                    pending.add(snapshotOf(wrapper.task()));
+                }
+                // 稳定排序：有效排队时间相同时保持队列顺序
+                pending.sort(Comparator.comparing(task -> priorityPolicy.effectiveAt(task)));
+                tasks.addAll(pending);
+            }
+            rebuilt[0] = new QueueSnapshot(snapshotVersion.incrementAndGet(), Instant.now(), List.copyOf(tasks));
+            return tasks.isEmpty() ? null : rebuilt[0];
+        });
+        return rebuilt[0];
+    }
+
+    /**
+     * 快照中的任务副本（不含附件数据，之后的状态变化不影响已发布的快照）
+     */
+    private ChatWebSocketHandler.OpenClawTask snapshotOf(ChatWebSocketHandler.OpenClawTask task) {
+        return ChatWebSocketHandler.OpenClawTask.builder()
+                .taskId(task.getTaskId())
+                .roomId(task.getRoomId())
+                .content(task.getContent())
+                .userInfo(task.getUserInfo())
+                .sourceMessageId(task.getSourceMessageId())
+                .createdAt(task.getCreatedAt())
+                .status(task.getStatus())
+                .taskType(task.getTaskType())
+                .flowchartInstanceId(task.getFlowchartInstanceId())
+                .priority(task.getPriority())
+                .effectiveAt(task.getEffectiveAt())
+                .attempts(task.getAttempts())
+                .retryAt(task.getRetryAt())
+                .lastError(task.getLastError())
+                .build();
+    }
+
+    private void clearRunning(String processingKey, String taskId) {
+        currentProcessingTasks.remove(processingKey, taskId);
+        runningTaskViews.computeIfPresent(processingKey, (k, task) -> taskId.equals(task.getTaskId()) ? null : task);
+    }
+
+    /**
+     * 从数据库读取房间任务队列（启动恢复完成前使用）
+     * 待处理任务按实际执行顺序（优先级和老化后的有效排队时间）排列
+     */
+    private List<ChatWebSocketHandler.OpenClawTask> loadRoomTaskQueue(String roomId, BotTaskQueue.BotType botType) {
         List<ChatWebSocketHandler.OpenClawTask> result = new ArrayList<>();
 
         // 1. 从数据库获取所有 PENDING 和 PROCESSING 状态的任务
-        List<BotTaskQueue> dbTasks = taskQueueRepository.findByRoomIdAndBotTypeOrderByPositionAsc(roomId, botType);
+        List<BotTaskQueue> dbTasks = taskQueueRepository.findByRoomIdAndBotTypeAndStatusInOrderByPositionAsc(
+                roomId, botType, ACTIVE_STATUSES);
 
         // 2. 获取当前正在执行的任务ID
         String currentTaskId = getCurrentProcessingTask(roomId, botType);
@@ -513,10 +1200,10 @@ public class PersistentTaskQueueService {
                     });
         }
 
-        // 4. 添加所有待处理任务（按位置排序）
+        // 4. 添加所有待处理任务（按执行顺序排序）
         dbTasks.stream()
                 .filter(t -> t.getStatus() == BotTaskQueue.TaskStatus.PENDING)
-                .sorted(Comparator.comparingInt(BotTaskQueue::getPosition))
+                .sorted(priorityPolicy.dbOrder())
                 .forEach(t -> result.add(convertToTask(t)));
 
         return result;
@@ -552,6 +1239,12 @@ public class PersistentTaskQueueService {
      * 保存任务到数据库（用于外部直接保存）
      */
     public void saveTask(BotTaskQueue dbTask) {
+        if (dbTask.getPriority() == null) {
+            dbTask.setPriority(priorityPolicy.resolve(dbTask.getTaskType(), null));
+        }
+        if (dbTask.getEffectiveAt() == null) {
+            dbTask.setEffectiveAt(priorityPolicy.effectiveAt(Instant.now(), dbTask.getPriority()));
+        }
         taskQueueRepository.save(dbTask);
     }
 
@@ -559,12 +1252,40 @@ public class PersistentTaskQueueService {
      * 添加任务包装器到内存队列（用于外部直接添加）
      */
     public void addTaskToMemoryQueue(String roomId, BotTaskQueue.BotType botType, TaskWrapper wrapper) {
-        LinkedBlockingQueue<TaskWrapper> queue = getOrCreateQueue(roomId, botType);
-        queue.offer(wrapper);
+        if (wrapper.task().getPriority() == null) {
+            wrapper.task().setPriority(priorityPolicy.resolve(wrapper.task()));
+        }
+        offerIfAbsent(getOrCreateQueue(roomId, botType), wrapper);
+        publishQueueChange(roomId, botType);
+    }
+
+    /**
+     * 下一个任务在房间队列中的位置：数据库中未完成任务的最大位置 + 1
+     */
+    public int nextPosition(String roomId, BotTaskQueue.BotType botType) {
+        Query query = Query.query(Criteria.where("roomId").is(roomId)
+                        .and("botType").is(botType)
+                        .and("status").in(BotTaskQueue.TaskStatus.PENDING, BotTaskQueue.TaskStatus.PROCESSING))
+                .with(Sort.by(Sort.Direction.DESC, "position"))
+                .limit(1);
+        query.fields().include("position");
+        BotTaskQueue last = mongoTemplate.findOne(query, BotTaskQueue.class);
+        return last != null && last.getPosition() != null ? last.getPosition() + 1 : 0;
     }
 
     // ========== 私有辅助方法 ==========
 
+    /**
+     * 任务不在队列中时加入队尾（同一任务可能同时由本实例添加和从数据库同步）
+     */
+    private void offerIfAbsent(LinkedBlockingQueue<TaskWrapper> queue, TaskWrapper wrapper) {
+        synchronized (queue) {
+            if (queue.stream().noneMatch(w -> w.taskId().equals(wrapper.taskId()))) {
+                queue.offer(wrapper);
+            }
+        }
+    }
+
     private LinkedBlockingQueue<TaskWrapper> getOrCreateQueue(String roomId, BotTaskQueue.BotType botType) {
         return switch (botType) {
             case OPENCLAW -> openclawQueues.computeIfAbsent(roomId, k -> new LinkedBlockingQueue<>());
@@ -573,6 +1294,14 @@ public class PersistentTaskQueueService {
         };
     }
 
+    private ConcurrentHashMap<String, LinkedBlockingQueue<TaskWrapper>> queues(BotTaskQueue.BotType botType) {
+        return switch (botType) {
+            case OPENCLAW -> openclawQueues;
+            case KIMI -> kimiQueues;
+            case CLAUDE -> claudeQueues;
+        };
+    }
+
     private LinkedBlockingQueue<TaskWrapper> getQueue(String roomId, BotTaskQueue.BotType botType) {
         return switch (botType) {
             case OPENCLAW -> openclawQueues.get(roomId);
@@ -590,11 +1319,13 @@ public class PersistentTaskQueueService {
     }
 
     private void updateTaskStatus(String taskId, BotTaskQueue.TaskStatus status) {
-        taskQueueRepository.findByTaskId(taskId).ifPresent(dbTask -> {
-            dbTask.setStatus(status);
-            dbTask.setUpdatedAt(Instant.now());
-            taskQueueRepository.save(dbTask);
-        });
+        Instant now = Instant.now();
+        Update update = new Update().set("status", status).set("updatedAt", now);
+        if (status != BotTaskQueue.TaskStatus.PROCESSING) {
+            // 结束的任务不再持有执行租约，结束时间用于保留期计算
+            update.unset("leaseOwner").unset("leaseExpiresAt").set("finishedAt", now);
+        }
+        mongoTemplate.updateFirst(Query.query(Criteria.where("taskId").is(taskId)), update, BotTaskQueue.class);
     }
 
     private ChatWebSocketHandler.OpenClawTask convertToTask(BotTaskQueue dbTask) {
@@ -611,6 +1342,11 @@ public class PersistentTaskQueueService {
                     ? ChatWebSocketHandler.OpenClawTask.TaskType.valueOf(dbTask.getTaskType().name()) 
                     : ChatWebSocketHandler.OpenClawTask.TaskType.CHAT)
                 .flowchartInstanceId(dbTask.getFlowchartInstanceId())
+                .priority(priorityPolicy.resolve(dbTask.getTaskType(), dbTask.getPriority()))
+                .effectiveAt(priorityPolicy.effectiveAt(dbTask))
+                .attempts(dbTask.getAttempts())
+                .retryAt(dbTask.getRetryAt())
+                .lastError(dbTask.getLastError())
                 .build();
     }
 
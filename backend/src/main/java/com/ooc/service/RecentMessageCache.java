@@ -0,0 +1,227 @@
+package com.ooc.service;
+
+import com.ooc.config.ChatProperties;
+import com.ooc.dto.MessageCursor;
+import com.ooc.dto.MessagePage;
+import com.ooc.entity.ChatMessage;
+import com.ooc.entity.ChatRoom;
+import com.ooc.entity.User;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.IntFunction;
+
+/**
+ * 房间最近消息内存缓存
+ * 每个房间保留固定条数的最新消息（已补充头像），加入房间/重连时直接从内存返回，
+ * 未命中时从存储加载一次。长时间无访问的房间会被移除。
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class RecentMessageCache {
+
+    private final ChatProperties chatProperties;
+    private final AvatarCacheService avatarCacheService;
+    private final UserService userService;
+
+    // roomId -> 最近消息
+    private final Map<String, RoomTail> rooms = new ConcurrentHashMap<>();
+
+    /**
+     * 获取房间最近的消息
+     *
+     * @param loader 缓存未命中时从存储加载，参数为条数，返回按时间倒序的消息
+     */
+    public MessagePage getRecent(String roomId, int limit, IntFunction<List<ChatMessage>> loader) {
+        RoomTail tail = rooms.computeIfAbsent(roomId, k -> new RoomTail());
+        synchronized (tail) {
+            tail.touch();
+            if (!tail.loaded) {
+                load(roomId, tail, loader);
+            }
+
+            int count = Math.min(limit, tail.messages.size());
+            List<ChatMessage> page = new ArrayList<>(tail.messages.subList(tail.messages.size() - count, tail.messages.size()));
+            boolean hasMore = tail.messages.size() > count || tail.olderExists;
+
+            return MessagePage.builder()
+                    .messages(page.stream().map(ChatMessage::getMessage).toList())
+                    .olderCursor(page.isEmpty() ? null : MessageCursor.of(page.get(0)).encode())
+                    .newerCursor(page.isEmpty() ? null : MessageCursor.of(page.get(page.size() - 1)).encode())
+                    .hasMore(hasMore)
+                    .build();
+        }
+    }
+
+    private void load(String roomId, RoomTail tail, IntFunction<List<ChatMessage>> loader) {
+        int capacity = capacity();
+        List<ChatMessage> newestFirst = loader.apply(capacity + 1);
+        tail.olderExists = newestFirst.size() > capacity;
+
+        List<ChatMessage> chronological = new ArrayList<>(newestFirst.subList(0, Math.min(capacity, newestFirst.size())));
+        Collections.reverse(chronological);
+        for (ChatMessage doc : chronological) {
+            tail.messages.add(enriched(doc, doc.getMessage()));
+        }
+        tail.loaded = true;
+        log.debug("[RecentMessageCache] Loaded {} messages for room {} from storage", tail.messages.size(), roomId);
+    }
+
+    /**
+     * 新消息写入存储后调用
+     */
+    public void onMessageAdded(ChatMessage doc) {
+        RoomTail tail = rooms.get(doc.getRoomId());
+        if (tail == null) {
+            return;
+        }
+        synchronized (tail) {
+            // 尚未加载的房间会在加载时从存储读到这条消息
+            if (!tail.loaded) {
+                return;
+            }
+            tail.touch();
+            if (replace(tail, doc.getMessage())) {
+                return;
+            }
+            tail.messages.add(enriched(doc, doc.getMessage()));
+            while (tail.messages.size() > capacity()) {
+                tail.messages.remove(0);
+                tail.olderExists = true;
+            }
+        }
+    }
+
+    /**
+     * 消息更新（如流式消息完成）写入存储后调用
+     */
+    public void onMessageUpdated(String roomId, ChatRoom.Message message) {
+        RoomTail tail = rooms.get(roomId);
+        if (tail == null) {
+            return;
+        }
+        synchronized (tail) {
+            if (tail.loaded) {
+                replace(tail, message);
+            }
+        }
+    }
+
+    /**
+     * 移除房间缓存（房间删除时）
+     */
+    public void evictRoom(String roomId) {
+        rooms.remove(roomId);
+    }
+
+    private boolean replace(RoomTail tail, ChatRoom.Message message) {
+        // 从新往旧查找，被更新的通常是最近的流式消息
+        for (int i = tail.messages.size() - 1; i >= 0; i--) {
+            ChatMessage existing = tail.messages.get(i);
+            if (existing.getId().equals(message.getId())) {
+                tail.messages.set(i, enriched(existing, message));
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 定期移除长时间无访问的房间，并限制缓存的房间数
+     */
+    @Scheduled(fixedDelay = 60000)
+    public void evictIdleRooms() {
+        long idleBefore = System.currentTimeMillis() - chatProperties.getRecentMessages().getIdleEvictMs();
+        int evicted = 0;
+        Iterator<Map.Entry<String, RoomTail>> iterator = rooms.entrySet().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().getValue().lastAccess < idleBefore) {
+                iterator.remove();
+                evicted++;
+            }
+        }
+
+        int overflow = rooms.size() - chatProperties.getRecentMessages().getMaxRooms();
+        if (overflow > 0) {
+            List<String> leastRecent = rooms.entrySet().stream()
+                    .sorted(Comparator.comparingLong(e -> e.getValue().lastAccess))
+                    .limit(overflow)
+                    .map(Map.Entry::getKey)
+                    .toList();
+            leastRecent.forEach(rooms::remove);
+            evicted += leastRecent.size();
+        }
+
+        if (evicted > 0) {
+            log.info("[RecentMessageCache] Evicted {} idle rooms, {} rooms cached", evicted, rooms.size());
+        }
+    }
+
+    public int getCachedRoomCount() {
+        return rooms.size();
+    }
+
+    private int capacity() {
+        return Math.max(1, chatProperties.getRecentMessages().getSize());
+    }
+
+    /**
+     * 构造缓存条目，并为缺少头像的消息补充头像（旧消息可能没有保存 senderAvatar）
+     */
+    private ChatMessage enriched(ChatMessage doc, ChatRoom.Message message) {
+        return ChatMessage.builder()
+                .id(doc.getId())
+                .roomId(doc.getRoomId())
+                .timestamp(doc.getTimestamp())
+                .message(withAvatar(message))
+                .build();
+    }
+
+    private ChatRoom.Message withAvatar(ChatRoom.Message msg) {
+        if (msg.getSenderAvatar() != null && !msg.getSenderAvatar().isEmpty()) {
+            return msg;
+        }
+        String senderId = msg.getSenderId();
+
+        // 先尝试从缓存获取头像
+        String cachedAvatar = avatarCacheService.getAvatarFromCache(senderId);
+        if (cachedAvatar != null) {
+            return msg.toBuilder().senderAvatar(cachedAvatar).build();
+        }
+
+        // 缓存未命中，从数据库查询
+        try {
+            User msgUser = userService.getUserById(senderId);
+            if (msgUser != null && msgUser.getAvatar() != null) {
+                avatarCacheService.putAvatarInCache(senderId, msgUser.getAvatar());
+                return msg.toBuilder().senderAvatar(msgUser.getAvatar()).build();
+            }
+        } catch (Exception e) {
+            log.debug("Failed to get avatar for userId: {}", senderId);
+        }
+        return msg;
+    }
+
+    private static final class RoomTail {
+        // 按时间正序，最多 capacity 条，超出时丢弃最早的
+        private final List<ChatMessage> messages = new ArrayList<>();
+        private boolean loaded;
+        // 存储中是否还有比缓存更早的消息
+        private boolean olderExists;
+        private volatile long lastAccess = System.currentTimeMillis();
+
+        private void touch() {
+            lastAccess = System.currentTimeMillis();
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package com.ooc.service;
+
+import com.ooc.config.ChatProperties;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 单个会话的上下文窗口（按估算 token 数控制每次请求发送的历史）
+ * <ul>
+ *     <li>固定消息（如系统提示词）始终发送</li>
+ *     <li>最近的消息原样保留</li>
+ *     <li>超出预算时最早的消息折叠进滚动摘要（每条截断为一行），摘要超出上限时丢弃最早的行</li>
+ * </ul>
+ * 超出预算时一次折叠到预算的 3/4，避免之后每条消息都改变历史前缀；
+ * 折叠后保留的历史总是从用户消息开始。线程安全。
+ */
+public class SessionContextWindow {
+
+    static final String SUMMARY_HEADER = "以下是之前对话的摘要（较早的消息已省略）：";
+
+    private final ChatProperties.SessionContext settings;
+
+    private final List<Map<String, Object>> pinned = new ArrayList<>();
+    private final Deque<Entry> recent = new ArrayDeque<>();
+    private final Deque<Entry> summaryLines = new ArrayDeque<>();
+
+    private int pinnedTokens;
+    private int recentTokens;
+    private int summaryTokens;
+    private long foldedMessages;
+
+    private record Entry(Map<String, Object> message, String line, int tokens) {}
+
+    public SessionContextWindow(ChatProperties.SessionContext settings) {
+        this.settings = settings;
+    }
+
+    /**
+     * 添加始终发送、不参与折叠的消息
+     */
+    public synchronized void pin(Map<String, Object> message) {
+        pinned.add(message);
+        pinnedTokens += TokenEstimator.estimateMessage(message);
+    }
+
+    public synchronized void add(Map<String, Object> message) {
+        recent.addLast(new Entry(message, null, TokenEstimator.estimateMessage(message)));
+        recentTokens += recent.peekLast().tokens();
+        compact();
+    }
+
+    public synchronized void addAll(Collection<Map<String, Object>> messages) {
+        for (Map<String, Object> message : messages) {
+            recent.addLast(new Entry(message, null, TokenEstimator.estimateMessage(message)));
+            recentTokens += recent.peekLast().tokens();
+        }
+        compact();
+    }
+
+    /**
+     * 本次请求发送的消息：固定消息、摘要（system 角色）、最近消息
+     */
+    public synchronized List<Map<String, Object>> messages() {
+        List<Map<String, Object>> messages = new ArrayList<>(pinned.size() + recent.size() + 1);
+        messages.addAll(pinned);
+        String summary = summary();
+        if (summary != null) {
+            Map<String, Object> summaryMessage = new HashMap<>();
+            summaryMessage.put("role", "system");
+            summaryMessage.put("content", summary);
+            messages.add(summaryMessage);
+        }
+        recent.forEach(entry -> messages.add(entry.message()));
+        return messages;
+    }
+
+    /**
+     * 原样保留的最近消息（摘要需要由调用方放入系统提示词的接口使用）
+     */
+    public synchronized List<Map<String, Object>> recentMessages() {
+        List<Map<String, Object>> messages = new ArrayList<>(recent.size());
+        recent.forEach(entry -> messages.add(entry.message()));
+        return messages;
+    }
+
+    /**
+     * 更早对话的摘要；没有折叠过消息时返回 null
+     */
+    public synchronized String summary() {
+        if (summaryLines.isEmpty()) {
+            return null;
+        }
+        StringBuilder summary = new StringBuilder(SUMMARY_HEADER);
+        summaryLines.forEach(entry -> summary.append('\n').append(entry.line()));
+        return summary.toString();
+    }
+
+    /**
+     * 本次请求的估算 token 数
+     */
+    public synchronized int estimatedTokens() {
+        return total();
+    }
+
+    public synchronized int recentSize() {
+        return recent.size();
+    }
+
+    public synchronized long foldedMessages() {
+        return foldedMessages;
+    }
+
+    private int total() {
+        int summary = summaryLines.isEmpty()
+                ? 0
+                : summaryTokens + TokenEstimator.estimate(SUMMARY_HEADER) + TokenEstimator.MESSAGE_OVERHEAD;
+        return pinnedTokens + summary + recentTokens;
+    }
+
+    private void compact() {
+        int max = settings.getMaxTokens();
+        if (total() <= max) {
+            return;
+        }
+        // 先折叠到预算的 3/4，但保留最近的消息
+        int target = max / 4 * 3;
+        while (recent.size() > settings.getKeepRecentMessages() && total() > target) {
+            fold();
+        }
+        // 最近的消息本身超出预算时继续折叠，至少保留最后一条
+        while (recent.size() > 1 && total() > max) {
+            fold();
+        }
+        // 保留的历史从用户消息开始（部分接口要求第一条为用户消息）
+        while (recent.size() > 1 && !"user".equals(recent.peekFirst().message().get("role"))) {
+            fold();
+        }
+    }
+
+    private void fold() {
+        Entry oldest = recent.pollFirst();
+        recentTokens -= oldest.tokens();
+        foldedMessages++;
+
+        String line = summaryLine(oldest.message());
+        int tokens = TokenEstimator.estimate(line) + 1;
+        summaryLines.addLast(new Entry(null, line, tokens));
+        summaryTokens += tokens;
+        while (summaryTokens > settings.getSummaryMaxTokens() && summaryLines.size() > 1) {
+            summaryTokens -= summaryLines.pollFirst().tokens();
+        }
+    }
+
+    private String summaryLine(Map<String, Object> message) {
+        String role = "assistant".equals(message.get("role")) ? "助手" : "用户";
+        String text = textOf(message.get("content")).replaceAll("\\s+", " ").trim();
+        int maxChars = settings.getSummaryLineChars();
+        if (text.length() > maxChars) {
+            text = text.substring(0, maxChars) + "…";
+        }
+        return "- " + role + ": " + text;
+    }
+
+    private static String textOf(Object content) {
+        if (content == null) {
+            return "";
+        }
+        if (content instanceof Collection<?> blocks) {
+            StringBuilder text = new StringBuilder();
+            for (Object block : blocks) {
+                if (block instanceof Map<?, ?> map && map.get("text") instanceof String blockText) {
+                    text.append(blockText).append(' ');
+                }
+            }
+            return text.toString();
+        }
+        return content.toString();
+    }
+}
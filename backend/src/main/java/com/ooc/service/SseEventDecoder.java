@@ -0,0 +1,201 @@
+package com.ooc.service;
+
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import reactor.core.publisher.Flux;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 增量 server-sent events 解码器
+ * 直接处理响应字节：按行切分（支持 \n、\r\n、\r），合并同一事件的多行 data，遇到空行时回调事件的 data 字节。
+ * 事件和行可以在任意位置被拆分到多个缓冲区，未完整的部分保留到下一次 {@link #feed}。
+ * 内部缓冲区复用，解码过程不为每行或每个事件创建字符串。
+ * 每个流使用一个实例，非线程安全。
+ */
+public class SseEventDecoder {
+
+    /**
+     * 事件回调；data 字节只在回调期间有效
+     */
+    @FunctionalInterface
+    public interface Handler {
+        void onEvent(byte[] data, int offset, int length);
+    }
+
+    /**
+     * 将事件 data 转换为 0 个或多个结果
+     */
+    @FunctionalInterface
+    public interface EventMapper<T> {
+        void map(byte[] data, int offset, int length, List<T> out);
+    }
+
+    private static final byte[] DATA_FIELD = "data".getBytes(StandardCharsets.US_ASCII);
+
+    // 尚未处理的输入
+    private byte[] input = new byte[8192];
+    private int inputLength;
+    // 当前事件已合并的 data
+    private byte[] data = new byte[8192];
+    private int dataLength;
+    private boolean hasData;
+    // 上一个缓冲区以 \r 结尾，下一个缓冲区开头的 \n 属于同一个换行
+    private boolean skipLeadingLf;
+
+    /**
+     * 解码响应体：每个订阅使用独立的解码器，缓冲区读取后立即释放
+     */
+    public static <T> Flux<T> decode(Flux<DataBuffer> body, EventMapper<T> mapper) {
+        return Flux.defer(() -> {
+            SseEventDecoder decoder = new SseEventDecoder();
+            return body
+                    .concatMapIterable(buffer -> {
+                        List<T> out = new ArrayList<>(4);
+                        try {
+                            decoder.feed(buffer, (data, offset, length) -> mapper.map(data, offset, length, out));
+                        } finally {
+                            DataBufferUtils.release(buffer);
+                        }
+                        return out;
+                    })
+                    .concatWith(Flux.defer(() -> {
+                        List<T> out = new ArrayList<>(1);
+                        decoder.finish((data, offset, length) -> mapper.map(data, offset, length, out));
+                        return Flux.fromIterable(out);
+                    }));
+        });
+    }
+
+    /**
+     * 读取缓冲区中的全部字节（不释放缓冲区）
+     */
+    public void feed(DataBuffer buffer, Handler handler) {
+        int count = buffer.readableByteCount();
+        ensureInput(count);
+        buffer.read(input, inputLength, count);
+        inputLength += count;
+        drain(handler);
+    }
+
+    public void feed(byte[] bytes, int offset, int length, Handler handler) {
+        ensureInput(length);
+        System.arraycopy(bytes, offset, input, inputLength, length);
+        inputLength += length;
+        drain(handler);
+    }
+
+    /**
+     * 流结束：处理最后一行，并分发没有以空行结束的事件
+     */
+    public void finish(Handler handler) {
+        if (inputLength > 0) {
+            processLine(input, 0, inputLength, handler);
+            inputLength = 0;
+        }
+        dispatch(handler);
+    }
+
+    private void drain(Handler handler) {
+        int start = 0;
+        if (skipLeadingLf && inputLength > 0) {
+            if (input[0] == '\n') {
+                start = 1;
+            }
+            skipLeadingLf = false;
+        }
+        for (int i = start; i < inputLength; i++) {
+            byte b = input[i];
+            if (b != '\n' && b != '\r') {
+                continue;
+            }
+            processLine(input, start, i - start, handler);
+            if (b == '\r') {
+                if (i + 1 < inputLength) {
+                    if (input[i + 1] == '\n') {
+                        i++;
+                    }
+                } else {
+                    skipLeadingLf = true;
+                }
+            }
+            start = i + 1;
+        }
+        // 未完整的行移到缓冲区开头
+        int remaining = inputLength - start;
+        if (remaining > 0 && start > 0) {
+            System.arraycopy(input, start, input, 0, remaining);
+        }
+        inputLength = remaining;
+    }
+
+    private void processLine(byte[] line, int offset, int length, Handler handler) {
+        if (length == 0) {
+            dispatch(handler);
+            return;
+        }
+        // 注释行
+        if (line[offset] == ':') {
+            return;
+        }
+        int colon = -1;
+        for (int i = offset; i < offset + length; i++) {
+            if (line[i] == ':') {
+                colon = i;
+                break;
+            }
+        }
+        int nameEnd = colon >= 0 ? colon : offset + length;
+        if (!Arrays.equals(line, offset, nameEnd, DATA_FIELD, 0, DATA_FIELD.length)) {
+            // 只需要 data 字段，event、id、retry 忽略
+            return;
+        }
+        int valueStart = colon >= 0 ? colon + 1 : offset + length;
+        if (valueStart < offset + length && line[valueStart] == ' ') {
+            valueStart++;
+        }
+        int valueLength = offset + length - valueStart;
+        if (hasData) {
+            ensureData(1);
+            data[dataLength++] = '\n';
+        }
+        ensureData(valueLength);
+        System.arraycopy(line, valueStart, data, dataLength, valueLength);
+        dataLength += valueLength;
+        hasData = true;
+    }
+
+    private void dispatch(Handler handler) {
+        if (!hasData) {
+            return;
+        }
+        try {
+            handler.onEvent(data, 0, dataLength);
+        } finally {
+            dataLength = 0;
+            hasData = false;
+        }
+    }
+
+    private void ensureInput(int extra) {
+        if (inputLength + extra > input.length) {
+            input = Arrays.copyOf(input, Math.max(input.length * 2, inputLength + extra));
+        }
+    }
+
+    private void ensureData(int extra) {
+        if (dataLength + extra > data.length) {
+            data = Arrays.copyOf(data, Math.max(data.length * 2, dataLength + extra));
+        }
+    }
+
+    /**
+     * data 是否为给定的 ASCII 内容（用于识别 [DONE] 等结束标记，不创建字符串）
+     */
+    public static boolean dataEquals(byte[] data, int offset, int length, byte[] expected) {
+        return Arrays.equals(data, offset, offset + length, expected, 0, expected.length);
+    }
+}
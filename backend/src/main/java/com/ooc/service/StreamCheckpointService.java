@@ -0,0 +1,293 @@
+package com.ooc.service;
+
+import com.mongodb.client.result.UpdateResult;
+import com.ooc.config.ChatProperties;
+import com.ooc.entity.ChatMessage;
+import com.ooc.entity.ChatRoom;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.AggregationUpdate;
+import org.springframework.data.mongodb.core.aggregation.ConditionalOperators;
+import org.springframework.data.mongodb.core.aggregation.LiteralOperators;
+import org.springframework.data.mongodb.core.aggregation.StringOperators;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.Instant;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * 流式回复检查点
+ * 进行中的流式消息按固定间隔把新增内容追加到 chat_messages（$concat 只发送增量，不重写已保存的内容），
+ * 实例重启或崩溃时最多丢失一个间隔的内容。
+ * 检查点长时间未刷新的流式消息由任一实例标记为已中断，客户端看到中断前的部分内容。
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class StreamCheckpointService {
+
+    private final MongoTemplate mongoTemplate;
+    private final RecentMessageCache recentMessageCache;
+    private final ChatProperties chatProperties;
+
+    // messageId -> 本实例正在进行的流
+    private final Map<String, Checkpoint> active = new ConcurrentHashMap<>();
+
+    private final List<InterruptedListener> listeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * 流式消息的内容来源（只追加）
+     */
+    public interface Source {
+        int length();
+
+        /**
+         * 从 offset 开始的内容
+         */
+        String contentFrom(int offset);
+
+        /**
+         * 工具调用列表的版本，列表变化时递增
+         */
+        int toolCallVersion();
+
+        List<ChatRoom.Message.ToolCall> toolCalls();
+    }
+
+    /**
+     * 消息被标记为已中断
+     */
+    @FunctionalInterface
+    public interface InterruptedListener {
+        void onInterrupted(String roomId, ChatRoom.Message message);
+    }
+
+    private static final class Checkpoint {
+        final String roomId;
+        final String messageId;
+        final Source source;
+        int persistedChars;
+        int persistedToolVersion;
+        long lastWriteMs = System.currentTimeMillis();
+
+        Checkpoint(String roomId, String messageId, Source source) {
+            this.roomId = roomId;
+            this.messageId = messageId;
+            this.source = source;
+        }
+    }
+
+    public void registerInterruptedListener(InterruptedListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * 开始为已保存的流式消息写检查点
+     */
+    public void track(String roomId, String messageId, Source source) {
+        if (chatProperties.getStreamCheckpoint().isEnabled()) {
+            active.put(messageId, new Checkpoint(roomId, messageId, source));
+        }
+    }
+
+    /**
+     * 停止写检查点（随后由调用方写入最终消息）
+     */
+    public void untrack(String messageId) {
+        active.remove(messageId);
+    }
+
+    /**
+     * 流在完成前被取消：写入剩余内容并标记为已中断
+     */
+    public void interrupt(String messageId) {
+        Checkpoint checkpoint = active.remove(messageId);
+        if (checkpoint == null) {
+            return;
+        }
+        synchronized (checkpoint) {
+            write(checkpoint, System.currentTimeMillis(), true);
+        }
+        markInterrupted(checkpoint.roomId, Query.query(Criteria.where("_id").is(messageId)
+                .and("message.isStreaming").is(true)));
+    }
+
+    public int activeCount() {
+        return active.size();
+    }
+
+    @Scheduled(fixedDelayString = "${chat.stream-checkpoint.interval-ms:2000}")
+    public void checkpointActiveStreams() {
+        long now = System.currentTimeMillis();
+        for (Checkpoint checkpoint : active.values()) {
+            synchronized (checkpoint) {
+                if (active.get(checkpoint.messageId) == checkpoint) {
+                    write(checkpoint, now, false);
+                }
+            }
+        }
+    }
+
+    /**
+     * 追加新增内容；没有变化时只在心跳间隔到期后刷新检查点时间
+     */
+    private void write(Checkpoint checkpoint, long now, boolean force) {
+        int length = checkpoint.source.length();
+        int toolVersion = checkpoint.source.toolCallVersion();
+        boolean hasContent = length > checkpoint.persistedChars;
+        boolean hasTools = toolVersion != checkpoint.persistedToolVersion;
+        if (!hasContent && !hasTools && !force
+                && now - checkpoint.lastWriteMs < chatProperties.getStreamCheckpoint().getHeartbeatMs()) {
+            return;
+        }
+
+        AggregationUpdate update = AggregationUpdate.update()
+                .set("checkpointedChars").toValue(length)
+                .set("checkpointedAt").toValue(new Date(now));
+        if (hasContent) {
+            // 内容作为字面量追加，避免以 $ 开头的文本被当作字段引用
+            update.set("message.content").toValueOf(StringOperators.Concat
+                    .valueOf(ConditionalOperators.ifNull("message.content").then(""))
+                    .concatValueOf(LiteralOperators.Literal.asLiteral(
+                            checkpoint.source.contentFrom(checkpoint.persistedChars))));
+        }
+        if (hasTools) {
+            update.set("message.toolCalls").toValueOf(LiteralOperators.Literal.asLiteral(
+                    mongoTemplate.getConverter().convertToMongoType(checkpoint.source.toolCalls())));
+        }
+
+        try {
+            UpdateResult result = mongoTemplate.updateFirst(offsetQuery(checkpoint), update, ChatMessage.class);
+            if (result.getMatchedCount() == 0) {
+                resync(checkpoint);
+                return;
+            }
+            checkpoint.persistedChars = length;
+            checkpoint.persistedToolVersion = toolVersion;
+            checkpoint.lastWriteMs = now;
+        } catch (Exception e) {
+            // 下一个间隔重试；偏移条件保证已写入的部分不会重复追加
+            log.warn("Failed to checkpoint streaming message {}: {}", checkpoint.messageId, e.getMessage());
+        }
+    }
+
+    /**
+     * 按已保存的偏移匹配：上一次写入实际成功但未收到结果时，本次不会重复追加
+     */
+    private static Query offsetQuery(Checkpoint checkpoint) {
+        Criteria criteria = Criteria.where("_id").is(checkpoint.messageId).and("message.isStreaming").is(true);
+        if (checkpoint.persistedChars == 0) {
+            criteria.and("checkpointedChars").in(0, null);
+        } else {
+            criteria.and("checkpointedChars").is(checkpoint.persistedChars);
+        }
+        return Query.query(criteria);
+    }
+
+    /**
+     * 偏移不匹配：消息已结束或被标记为中断时停止检查点，否则从数据库中的偏移继续
+     */
+    private void resync(Checkpoint checkpoint) {
+        Query query = Query.query(Criteria.where("_id").is(checkpoint.messageId));
+        query.fields().include("checkpointedChars").include("message.isStreaming");
+        ChatMessage stored = mongoTemplate.findOne(query, ChatMessage.class);
+        if (stored == null || stored.getMessage() == null || !stored.getMessage().isStreaming()) {
+            log.debug("Streaming message {} is no longer streaming, stop checkpointing", checkpoint.messageId);
+            active.remove(checkpoint.messageId, checkpoint);
+            return;
+        }
+        int persisted = stored.getCheckpointedChars() != null ? stored.getCheckpointedChars() : 0;
+        log.warn("Checkpoint offset of message {} is {} (expected {}), resuming from stored offset",
+                checkpoint.messageId, persisted, checkpoint.persistedChars);
+        checkpoint.persistedChars = Math.min(persisted, checkpoint.source.length());
+        // 工具调用下次整体写入
+        checkpoint.persistedToolVersion = -1;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void reconcileOnStartup() {
+        reconcileInterruptedStreams();
+    }
+
+    /**
+     * 将检查点过期的流式消息标记为已中断（实例重启或崩溃后不会再有人完成它们）
+     *
+     * @return 标记的消息数
+     */
+    @Scheduled(fixedDelayString = "${chat.stream-checkpoint.reconcile-interval-ms:60000}",
+            initialDelayString = "${chat.stream-checkpoint.reconcile-interval-ms:60000}")
+    public int reconcileInterruptedStreams() {
+        ChatProperties.StreamCheckpoint settings = chatProperties.getStreamCheckpoint();
+        if (!settings.isEnabled()) {
+            return 0;
+        }
+        Instant cutoff = Instant.now().minusMillis(settings.getStaleMs());
+        // 没有检查点的消息（升级前创建或第一次检查点前中断）按创建时间判断
+        Query query = Query.query(Criteria.where("message.isStreaming").is(true)
+                        .orOperator(
+                                Criteria.where("checkpointedAt").lt(cutoff),
+                                Criteria.where("checkpointedAt").exists(false).and("timestamp").lt(cutoff)))
+                .limit(Math.max(1, settings.getReconcileBatchSize()));
+        query.fields().include("_id").include("roomId").include("checkpointedAt");
+
+        int count = 0;
+        try {
+            for (ChatMessage stale : mongoTemplate.find(query, ChatMessage.class)) {
+                if (active.containsKey(stale.getId())) {
+                    continue;
+                }
+                // 条件包含读取到的检查点时间：期间被其他实例刷新的流不会被误标记
+                Criteria criteria = Criteria.where("_id").is(stale.getId()).and("message.isStreaming").is(true);
+                criteria = stale.getCheckpointedAt() != null
+                        ? criteria.and("checkpointedAt").is(stale.getCheckpointedAt())
+                        : criteria.and("checkpointedAt").exists(false);
+                if (markInterrupted(stale.getRoomId(), Query.query(criteria))) {
+                    count++;
+                }
+            }
+        } catch (Exception e) {
+            log.error("Failed to reconcile interrupted streaming messages: {}", e.getMessage(), e);
+        }
+        if (count > 0) {
+            log.info("Marked {} interrupted streaming messages", count);
+        }
+        return count;
+    }
+
+    private boolean markInterrupted(String roomId, Query query) {
+        ChatMessage updated = mongoTemplate.findAndModify(query,
+                new Update()
+                        .set("message.isStreaming", false)
+                        .set("message.interrupted", true)
+                        .set("checkpointedAt", Instant.now()),
+                FindAndModifyOptions.options().returnNew(true),
+                ChatMessage.class);
+        if (updated == null || updated.getMessage() == null) {
+            return false;
+        }
+        ChatRoom.Message message = updated.getMessage();
+        recentMessageCache.onMessageUpdated(roomId, message);
+        for (InterruptedListener listener : listeners) {
+            try {
+                listener.onInterrupted(roomId, message);
+            } catch (Exception e) {
+                log.warn("Interrupted stream listener failed for message {}: {}", message.getId(), e.getMessage());
+            }
+        }
+        log.info("Streaming message {} in room {} marked as interrupted (content length: {})",
+                message.getId(), roomId, message.getContent() != null ? message.getContent().length() : 0);
+        return true;
+    }
+}
@@ -0,0 +1,139 @@
+package com.ooc.service;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 用流式解析器从 JSON 中提取少量字段，不构建 JsonNode 树
+ * 路径写法如 {@code choices[0].delta.content}；与任何路径无关的对象和数组直接跳过，全部字段找到后停止解析。
+ * 实例不可变，可在多个线程间共享。
+ */
+public class StreamingJsonExtractor {
+
+    private final JsonFactory jsonFactory;
+    // 每个路径的各级：String 为字段名，Integer 为数组下标
+    private final Object[][] paths;
+    private final int maxDepth;
+
+    public StreamingJsonExtractor(JsonFactory jsonFactory, String... paths) {
+        this.jsonFactory = jsonFactory;
+        this.paths = new Object[paths.length][];
+        int depth = 0;
+        for (int i = 0; i < paths.length; i++) {
+            this.paths[i] = parsePath(paths[i]);
+            depth = Math.max(depth, this.paths[i].length);
+        }
+        this.maxDepth = depth;
+    }
+
+    /**
+     * 提取各路径上的标量值（按构造时的路径顺序，不存在或不是标量时为 null）
+     *
+     * @throws IOException JSON 格式错误
+     */
+    public String[] extract(byte[] json, int offset, int length) throws IOException {
+        String[] values = new String[paths.length];
+        Object[] current = new Object[maxDepth];
+        try (JsonParser parser = jsonFactory.createParser(json, offset, length)) {
+            JsonToken token = parser.nextToken();
+            if (token == JsonToken.START_OBJECT || token == JsonToken.START_ARRAY) {
+                walk(parser, token, 0, current, values, new int[]{0});
+            }
+        }
+        return values;
+    }
+
+    /**
+     * @param found 已找到的字段数（全部找到后停止）
+     * @return 是否已找到全部字段
+     */
+    private boolean walk(JsonParser parser, JsonToken container, int depth, Object[] current,
+                         String[] values, int[] found) throws IOException {
+        int index = 0;
+        JsonToken token;
+        while ((token = parser.nextToken()) != null
+                && token != JsonToken.END_OBJECT && token != JsonToken.END_ARRAY) {
+            if (container == JsonToken.START_OBJECT) {
+                // token 为字段名
+                if (depth < maxDepth) {
+                    current[depth] = parser.currentName();
+                }
+                token = parser.nextToken();
+            } else if (depth < maxDepth) {
+                current[depth] = index;
+            }
+            index++;
+
+            if (token == JsonToken.START_OBJECT || token == JsonToken.START_ARRAY) {
+                if (depth + 1 < maxDepth && hasPathBelow(current, depth + 1)) {
+                    if (walk(parser, token, depth + 1, current, values, found)) {
+                        return true;
+                    }
+                } else {
+                    parser.skipChildren();
+                }
+            } else if (token.isScalarValue()) {
+                int path = pathAt(current, depth + 1);
+                if (path >= 0 && values[path] == null && token != JsonToken.VALUE_NULL) {
+                    values[path] = parser.getValueAsString();
+                    if (++found[0] == values.length) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 是否有路径以当前前缀开头且更深
+     */
+    private boolean hasPathBelow(Object[] current, int length) {
+        for (Object[] path : paths) {
+            if (path.length > length && prefixMatches(path, current, length)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private int pathAt(Object[] current, int length) {
+        for (int i = 0; i < paths.length; i++) {
+            if (paths[i].length == length && prefixMatches(paths[i], current, length)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean prefixMatches(Object[] path, Object[] current, int length) {
+        for (int i = 0; i < length; i++) {
+            if (!path[i].equals(current[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static Object[] parsePath(String path) {
+        List<Object> segments = new ArrayList<>();
+        for (String part : path.split("\\.")) {
+            int bracket = part.indexOf('[');
+            String name = bracket >= 0 ? part.substring(0, bracket) : part;
+            if (!name.isEmpty()) {
+                segments.add(name);
+            }
+            while (bracket >= 0) {
+                int close = part.indexOf(']', bracket);
+                segments.add(Integer.parseInt(part.substring(bracket + 1, close)));
+                bracket = part.indexOf('[', close);
+            }
+        }
+        return segments.toArray();
+    }
+}
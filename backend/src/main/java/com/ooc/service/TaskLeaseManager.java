@@ -0,0 +1,262 @@
+package com.ooc.service;
+
+import com.mongodb.client.result.DeleteResult;
+import com.mongodb.client.result.UpdateResult;
+import com.ooc.config.ChatProperties;
+import com.ooc.entity.BotTaskQueue;
+import com.ooc.entity.BotTaskRoomLease;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Component;
+
+import java.net.InetAddress;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.Set;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+/**
+ * 任务执行租约
+ * 多个后端实例共享 bot_task_queues 时，通过条件更新原子地认领任务：
+ * <ul>
+ *     <li>房间租约：同一房间-机器人组合同一时间只由一个实例执行，保证房间内任务串行</li>
+ *     <li>任务租约：任务从 PENDING 认领为 PROCESSING 时写入执行实例和到期时间，执行期间定期续约</li>
+ * </ul>
+ * 实例崩溃后不再续约，租约过期的任务由任一存活实例重置为 PENDING 后重新调度。
+ */
+@Slf4j
+@Component
+public class TaskLeaseManager {
+
+    private final MongoTemplate mongoTemplate;
+    private final String instanceId;
+    private final long leaseMs;
+
+    @Autowired
+    public TaskLeaseManager(MongoTemplate mongoTemplate, ChatProperties chatProperties) {
+        this(mongoTemplate, resolveInstanceId(chatProperties.getTaskQueue().getInstanceId()),
+                chatProperties.getTaskQueue().getLeaseMs());
+    }
+
+    TaskLeaseManager(MongoTemplate mongoTemplate, String instanceId, long leaseMs) {
+        this.mongoTemplate = mongoTemplate;
+        this.instanceId = instanceId;
+        this.leaseMs = leaseMs;
+        log.info("Task lease manager started as instance {} (lease {}ms)", instanceId, leaseMs);
+    }
+
+    private static String resolveInstanceId(String configured) {
+        if (configured != null && !configured.isBlank()) {
+            return configured;
+        }
+        String host;
+        try {
+            host = InetAddress.getLocalHost().getHostName();
+        } catch (Exception e) {
+            host = "unknown";
+        }
+        return host + "-" + UUID.randomUUID().toString().substring(0, 8);
+    }
+
+    public String getInstanceId() {
+        return instanceId;
+    }
+
+    public long getLeaseMs() {
+        return leaseMs;
+    }
+
+    private Instant expiry() {
+        return Instant.now().plusMillis(leaseMs);
+    }
+
+    // ========== 房间租约 ==========
+
+    /**
+     * 获取（或续约）房间-机器人组合的执行租约
+     *
+     * @return 是否持有租约；其他实例持有未过期的租约时返回 false
+     */
+    public boolean acquireRoom(String roomId, BotTaskQueue.BotType botType) {
+        String id = BotTaskRoomLease.idOf(roomId, botType);
+        Query query = Query.query(Criteria.where("_id").is(id)
+                .orOperator(Criteria.where("owner").is(instanceId), Criteria.where("expiresAt").lt(Instant.now())));
+        Update update = new Update()
+                .set("roomId", roomId)
+                .set("botType", botType)
+                .set("owner", instanceId)
+                .set("expiresAt", expiry());
+        try {
+            mongoTemplate.upsert(query, update, BotTaskRoomLease.class);
+            return true;
+        } catch (DuplicateKeyException e) {
+            // 文档存在但不满足条件：其他实例持有未过期的租约
+            return false;
+        }
+    }
+
+    /**
+     * 释放本实例持有的房间租约
+     */
+    public void releaseRoom(String roomId, BotTaskQueue.BotType botType) {
+        mongoTemplate.remove(Query.query(Criteria.where("_id").is(BotTaskRoomLease.idOf(roomId, botType))
+                .and("owner").is(instanceId)), BotTaskRoomLease.class);
+    }
+
+    /**
+     * 续约本实例持有的房间租约
+     *
+     * @param leaseIds {@link BotTaskRoomLease#idOf} 生成的租约ID
+     * @return 续约成功的数量（少于传入数量说明有租约已过期并被其他实例获取）
+     */
+    public long renewRooms(Collection<String> leaseIds) {
+        if (leaseIds.isEmpty()) {
+            return 0;
+        }
+        UpdateResult result = mongoTemplate.updateMulti(
+                Query.query(Criteria.where("_id").in(leaseIds).and("owner").is(instanceId)),
+                new Update().set("expiresAt", expiry()),
+                BotTaskRoomLease.class);
+        return result.getModifiedCount();
+    }
+
+    /**
+     * 本实例仍持有的房间租约（续约数量不足时用来找出已丢失的租约）
+     */
+    public Set<String> ownedRooms(Collection<String> leaseIds) {
+        if (leaseIds.isEmpty()) {
+            return Set.of();
+        }
+        Query query = Query.query(Criteria.where("_id").in(leaseIds).and("owner").is(instanceId));
+        query.fields().include("_id");
+        return mongoTemplate.find(query, BotTaskRoomLease.class).stream()
+                .map(BotTaskRoomLease::getId)
+                .collect(Collectors.toSet());
+    }
+
+    // ========== 任务租约 ==========
+
+    /**
+     * 认领待处理任务：仅当任务仍为 PENDING 时原子地改为 PROCESSING 并写入本实例的租约
+     *
+     * @return 是否认领成功（任务已被其他实例认领或已取消时返回 false）
+     */
+    public boolean claimTask(String taskId) {
+        Instant now = Instant.now();
+        BotTaskQueue claimed = mongoTemplate.findAndModify(
+                Query.query(Criteria.where("taskId").is(taskId).and("status").is(BotTaskQueue.TaskStatus.PENDING)),
+                new Update()
+                        .set("status", BotTaskQueue.TaskStatus.PROCESSING)
+                        .set("leaseOwner", instanceId)
+                        .set("leaseExpiresAt", now.plusMillis(leaseMs))
+                        .set("updatedAt", now),
+                FindAndModifyOptions.options().returnNew(true),
+                BotTaskQueue.class);
+        return claimed != null;
+    }
+
+    /**
+     * 续约本实例正在执行的任务
+     *
+     * @return 续约成功的数量
+     */
+    public long renewTasks(Collection<String> taskIds) {
+        if (taskIds.isEmpty()) {
+            return 0;
+        }
+        UpdateResult result = mongoTemplate.updateMulti(
+                Query.query(Criteria.where("taskId").in(taskIds)
+                        .and("status").is(BotTaskQueue.TaskStatus.PROCESSING)
+                        .and("leaseOwner").is(instanceId)),
+                new Update().set("leaseExpiresAt", expiry()),
+                BotTaskQueue.class);
+        return result.getModifiedCount();
+    }
+
+    /**
+     * 本实例仍在执行（状态为 PROCESSING 且租约属于本实例）的任务
+     */
+    public Set<String> ownedTasks(Collection<String> taskIds) {
+        if (taskIds.isEmpty()) {
+            return Set.of();
+        }
+        Query query = Query.query(Criteria.where("taskId").in(taskIds)
+                .and("status").is(BotTaskQueue.TaskStatus.PROCESSING)
+                .and("leaseOwner").is(instanceId));
+        query.fields().include("taskId");
+        return mongoTemplate.find(query, BotTaskQueue.class).stream()
+                .map(BotTaskQueue::getTaskId)
+                .collect(Collectors.toSet());
+    }
+
+    /**
+     * 取消尚未被认领的任务（任务可能在其他实例的内存队列中，该实例认领时会失败并丢弃）
+     *
+     * @return 是否取消成功
+     */
+    public boolean cancelPending(String taskId) {
+        Instant now = Instant.now();
+        UpdateResult result = mongoTemplate.updateFirst(
+                Query.query(Criteria.where("taskId").is(taskId).and("status").is(BotTaskQueue.TaskStatus.PENDING)),
+                new Update()
+                        .set("status", BotTaskQueue.TaskStatus.CANCELLED)
+                        .set("updatedAt", now)
+                        .set("finishedAt", now),
+                BotTaskQueue.class);
+        return result.getModifiedCount() > 0;
+    }
+
+    /**
+     * 回收租约已过期的处理中任务（执行实例已崩溃或失联），重置为 PENDING
+     * 没有租约字段的处理中任务（旧版本写入）同样回收。
+     *
+     * @return 回收的任务数
+     */
+    public long reclaimExpired() {
+        UpdateResult result = mongoTemplate.updateMulti(
+                Query.query(Criteria.where("status").is(BotTaskQueue.TaskStatus.PROCESSING)
+                        .orOperator(Criteria.where("leaseExpiresAt").lt(Instant.now()),
+                                Criteria.where("leaseExpiresAt").exists(false))),
+                resetToPending(),
+                BotTaskQueue.class);
+        if (result.getModifiedCount() > 0) {
+            log.warn("Reclaimed {} PROCESSING tasks with expired leases", result.getModifiedCount());
+        }
+        return result.getModifiedCount();
+    }
+
+    /**
+     * 启动时回收本实例ID名下的任务和房间租约（固定实例ID重启后无需等待租约过期）
+     *
+     * @return 回收的任务数
+     */
+    public long releaseOwned() {
+        UpdateResult result = mongoTemplate.updateMulti(
+                Query.query(Criteria.where("status").is(BotTaskQueue.TaskStatus.PROCESSING)
+                        .and("leaseOwner").is(instanceId)),
+                resetToPending(),
+                BotTaskQueue.class);
+        DeleteResult rooms = mongoTemplate.remove(Query.query(Criteria.where("owner").is(instanceId)),
+                BotTaskRoomLease.class);
+        if (result.getModifiedCount() > 0 || rooms.getDeletedCount() > 0) {
+            log.info("Released {} tasks and {} room leases left by a previous run of instance {}",
+                    result.getModifiedCount(), rooms.getDeletedCount(), instanceId);
+        }
+        return result.getModifiedCount();
+    }
+
+    private Update resetToPending() {
+        return new Update()
+                .set("status", BotTaskQueue.TaskStatus.PENDING)
+                .unset("leaseOwner")
+                .unset("leaseExpiresAt")
+                .set("updatedAt", Instant.now());
+    }
+}
@@ -0,0 +1,91 @@
+package com.ooc.service;
+
+import com.ooc.config.ChatProperties;
+import com.ooc.entity.BotTaskQueue;
+import com.ooc.websocket.ChatWebSocketHandler;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.util.Comparator;
+
+/**
+ * 任务优先级与老化
+ * 每个任务有一个有效排队时间 = 入队时间 + 优先级序号 × agingMs，同一房间内有效排队时间早的任务先执行。
+ * 因此高优先级任务会排到低优先级任务前面，但低优先级任务等待足够久后仍会先于新入队的任务执行（老化），
+ * 且任务间的相对顺序不随时间变化，可以直接持久化和排序。
+ */
+@Component
+@RequiredArgsConstructor
+public class TaskPriorityPolicy {
+
+    private final ChatProperties chatProperties;
+
+    /**
+     * 任务实际使用的优先级：入队时指定的优先级，否则为任务类型的默认优先级
+     */
+    public BotTaskQueue.TaskPriority resolve(BotTaskQueue.TaskType taskType, BotTaskQueue.TaskPriority requested) {
+        if (requested != null) {
+            return requested;
+        }
+        BotTaskQueue.TaskPriority configured = chatProperties.getTaskQueue().getDefaultPriority()
+                .get(taskType != null ? taskType : BotTaskQueue.TaskType.CHAT);
+        return configured != null ? configured : BotTaskQueue.TaskPriority.NORMAL;
+    }
+
+    public BotTaskQueue.TaskPriority resolve(ChatWebSocketHandler.OpenClawTask task) {
+        return resolve(toTaskType(task.getTaskType()), task.getPriority());
+    }
+
+    /**
+     * 根据入队时间和优先级计算有效排队时间
+     */
+    public Instant effectiveAt(Instant enqueuedAt, BotTaskQueue.TaskPriority priority) {
+        Instant base = enqueuedAt != null ? enqueuedAt : Instant.EPOCH;
+        return base.plusMillis(priority.ordinal() * chatProperties.getTaskQueue().getAgingMs());
+    }
+
+    /**
+     * 内存任务的有效排队时间（未记录时按创建时间和优先级计算）
+     */
+    public Instant effectiveAt(ChatWebSocketHandler.OpenClawTask task) {
+        return task.getEffectiveAt() != null ? task.getEffectiveAt() : effectiveAt(task.getCreatedAt(), resolve(task));
+    }
+
+    /**
+     * 数据库任务的有效排队时间（旧版本写入的任务没有该字段时按创建时间和优先级计算）
+     */
+    public Instant effectiveAt(BotTaskQueue dbTask) {
+        return dbTask.getEffectiveAt() != null
+                ? dbTask.getEffectiveAt()
+                : effectiveAt(dbTask.getCreatedAt(), resolve(dbTask.getTaskType(), dbTask.getPriority()));
+    }
+
+    /**
+     * 队列中下一个应执行的任务：有效排队时间最早的任务，相同时保持队列顺序
+     */
+    public PersistentTaskQueueService.TaskWrapper next(Iterable<PersistentTaskQueueService.TaskWrapper> queue) {
+        PersistentTaskQueueService.TaskWrapper best = null;
+        Instant bestAt = null;
+        for (PersistentTaskQueueService.TaskWrapper wrapper : queue) {
+            Instant at = effectiveAt(wrapper.task());
+            if (best == null || at.isBefore(bestAt)) {
+                best = wrapper;
+                bestAt = at;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * 待处理任务的执行顺序（稳定排序时相同有效排队时间保持原顺序）
+     */
+    public Comparator<BotTaskQueue> dbOrder() {
+        Comparator<BotTaskQueue> byEffectiveAt = Comparator.comparing(dbTask -> effectiveAt(dbTask));
+        return byEffectiveAt.thenComparing(BotTaskQueue::getPosition, Comparator.nullsLast(Comparator.naturalOrder()));
+    }
+
+    private static BotTaskQueue.TaskType toTaskType(ChatWebSocketHandler.OpenClawTask.TaskType taskType) {
+        return taskType != null ? BotTaskQueue.TaskType.valueOf(taskType.name()) : BotTaskQueue.TaskType.CHAT;
+    }
+}
@@ -0,0 +1,38 @@
+package com.ooc.service;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.stereotype.Component;
+
+/**
+ * 任务队列启动恢复状态
+ * 恢复在后台进行，不影响应用就绪：始终报告 UP，通过 state 等详情反映进度；
+ * 恢复失败时已恢复的房间照常调度，state=FAILED 并附带错误信息
+ */
+@Component
+@RequiredArgsConstructor
+public class TaskQueueRestoreHealthIndicator implements HealthIndicator {
+
+    private final PersistentTaskQueueService taskQueueService;
+
+    @Override
+    public Health health() {
+        PersistentTaskQueueService.RestoreStatus status = taskQueueService.getRestoreStatus();
+        Health.Builder builder = Health.up()
+                .withDetail("state", status.state())
+                .withDetail("resetToPending", status.resetToPending())
+                .withDetail("roomsRemaining", status.roomsRemaining())
+                .withDetail("restored", status.restored());
+        if (status.startedAt() != null) {
+            builder.withDetail("startedAt", status.startedAt());
+        }
+        if (status.finishedAt() != null) {
+            builder.withDetail("finishedAt", status.finishedAt());
+        }
+        if (status.error() != null) {
+            builder.withDetail("error", status.error());
+        }
+        return builder.build();
+    }
+}
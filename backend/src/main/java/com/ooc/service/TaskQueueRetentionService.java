@@ -0,0 +1,155 @@
+package com.ooc.service;
+
+import com.mongodb.bulk.BulkWriteResult;
+import com.ooc.config.ChatProperties;
+import com.ooc.entity.BotTaskQueue;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 已结束任务记录的保留与压缩
+ * 任务结束超过 payloadRetentionMs 后只保留审计摘要（截断内容、附件数量、发起人），移除附件数据，
+ * 同时写入 expireAt，记录在 recordRetentionMs 后由 TTL 索引删除。
+ * 压缩在后台分批执行，每批数量和每次批数都有上限；多个实例同时执行时按条件更新，不会重复压缩。
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class TaskQueueRetentionService {
+
+    static final List<BotTaskQueue.TaskStatus> FINISHED_STATUSES = List.of(
+            BotTaskQueue.TaskStatus.COMPLETED,
+            BotTaskQueue.TaskStatus.FAILED,
+            BotTaskQueue.TaskStatus.CANCELLED);
+
+    private final MongoTemplate mongoTemplate;
+    private final ChatProperties chatProperties;
+    private final MeterRegistry meterRegistry;
+
+    private final AtomicLong compacted = new AtomicLong();
+    private final AtomicLong runs = new AtomicLong();
+    private volatile Instant lastRunAt;
+    private volatile int lastRunBatches;
+    private volatile boolean backlogRemaining;
+
+    /**
+     * 压缩统计
+     *
+     * @param backlogRemaining 上一次执行达到批数上限，仍有待压缩的记录
+     */
+    public record Stats(
+            boolean enabled,
+            long runs,
+            long compacted,
+            Instant lastRunAt,
+            int lastRunBatches,
+            boolean backlogRemaining
+    ) {}
+
+    @Scheduled(fixedDelayString = "${chat.task-retention.interval-ms:60000}",
+            initialDelayString = "${chat.task-retention.interval-ms:60000}")
+    public void compactFinishedTasks() {
+        ChatProperties.TaskRetention retention = chatProperties.getTaskRetention();
+        if (!retention.isEnabled()) {
+            return;
+        }
+        Instant now = Instant.now();
+        Instant cutoff = now.minusMillis(retention.getPayloadRetentionMs());
+
+        int batches = 0;
+        long total = 0;
+        boolean more = false;
+        try {
+            while (batches < retention.getMaxBatchesPerRun()) {
+                int count = compactBatch(cutoff, now);
+                batches++;
+                total += count;
+                if (count < retention.getBatchSize()) {
+                    break;
+                }
+                more = batches == retention.getMaxBatchesPerRun();
+            }
+        } catch (Exception e) {
+            log.error("Failed to compact finished bot tasks: {}", e.getMessage(), e);
+        }
+
+        runs.incrementAndGet();
+        lastRunAt = now;
+        lastRunBatches = batches;
+        backlogRemaining = more;
+        if (total > 0) {
+            log.info("Compacted {} finished bot tasks in {} batches{}", total, batches,
+                    more ? " (backlog remaining)" : "");
+        }
+    }
+
+    /**
+     * 压缩一批结束时间早于 cutoff 的任务
+     *
+     * @return 本批读取的记录数（等于批大小时说明可能还有更多）
+     */
+    int compactBatch(Instant cutoff, Instant now) {
+        ChatProperties.TaskRetention retention = chatProperties.getTaskRetention();
+        // 旧版本记录没有 finishedAt，按 updatedAt 判断
+        Query query = Query.query(Criteria.where("status").in(FINISHED_STATUSES)
+                        .and("compactedAt").exists(false)
+                        .and("updatedAt").lt(cutoff))
+                .limit(Math.max(1, retention.getBatchSize()));
+        query.fields().include("content").include("attachments").include("finishedAt").include("updatedAt");
+        List<BotTaskQueue> batch = mongoTemplate.find(query, BotTaskQueue.class);
+        if (batch.isEmpty()) {
+            return 0;
+        }
+
+        BulkOperations ops = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, BotTaskQueue.class);
+        for (BotTaskQueue task : batch) {
+            Instant finishedAt = task.getFinishedAt() != null ? task.getFinishedAt() : task.getUpdatedAt();
+            Update update = new Update()
+                    .set("content", summarize(task.getContent(), retention.getSummaryChars()))
+                    .set("attachmentCount", task.getAttachments() != null ? task.getAttachments().size() : 0)
+                    .unset("attachments")
+                    .unset("userInfo.avatar")
+                    .set("finishedAt", finishedAt)
+                    .set("compactedAt", now);
+            if (retention.getRecordRetentionMs() > 0) {
+                update.set("expireAt", finishedAt.plusMillis(retention.getRecordRetentionMs()));
+            }
+            ops.updateOne(Query.query(Criteria.where("_id").is(task.getId()).and("compactedAt").exists(false)), update);
+        }
+        BulkWriteResult result = ops.execute();
+        compacted.addAndGet(result.getModifiedCount());
+        compactedCounter().increment(result.getModifiedCount());
+        return batch.size();
+    }
+
+    static String summarize(String content, int maxChars) {
+        if (content == null || content.length() <= maxChars) {
+            return content;
+        }
+        return content.substring(0, Math.max(0, maxChars)) + "…";
+    }
+
+    private Counter compactedCounter() {
+        return Counter.builder("ooc.task.queue.compacted")
+                .description("Finished bot task records compacted to summaries")
+                .register(meterRegistry);
+    }
+
+    public Stats getStats() {
+        return new Stats(chatProperties.getTaskRetention().isEnabled(), runs.get(), compacted.get(),
+                lastRunAt, lastRunBatches, backlogRemaining);
+    }
+}
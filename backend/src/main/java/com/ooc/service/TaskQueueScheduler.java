@@ -0,0 +1,212 @@
+package com.ooc.service;
+
+import com.ooc.config.ChatProperties;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 任务队列共享调度器
+ * 任务队列中所有延迟执行的动作（触发下一个任务、启动恢复等）都在这里执行，
+ * 线程数固定，随 Spring 容器关闭，关闭时先执行完已排期的任务。
+ * 租约续约在单独的线程上执行，不会排在恢复、同步等耗时动作之后导致租约过期。
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class TaskQueueScheduler {
+
+    private final ChatProperties chatProperties;
+    private final MeterRegistry meterRegistry;
+
+    private ScheduledThreadPoolExecutor executor;
+    private ScheduledExecutorService leaseRenewalExecutor;
+
+    private final AtomicLong scheduled = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    // 最近一次任务实际开始时间与计划时间的差（毫秒）
+    private final AtomicLong lastLagMs = new AtomicLong();
+    private final AtomicLong maxLagMs = new AtomicLong();
+
+    /**
+     * 调度器统计
+     *
+     * @param depth     已排期但尚未执行的任务数
+     * @param lastLagMs 最近一次执行相对计划时间的延迟
+     */
+    public record Stats(
+            int threads,
+            int active,
+            int depth,
+            long scheduled,
+            long completed,
+            long failed,
+            long rejected,
+            long lastLagMs,
+            long maxLagMs
+    ) {}
+
+    @PostConstruct
+    public void start() {
+        int threads = Math.max(1, chatProperties.getTaskQueue().getSchedulerThreads());
+        AtomicInteger threadIndex = new AtomicInteger();
+        ThreadFactory threadFactory = r -> {
+            Thread thread = new Thread(r, "task-queue-scheduler-" + threadIndex.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        executor = new ScheduledThreadPoolExecutor(threads, threadFactory);
+        // 取消的任务立即从队列移除，队列深度只反映真正待执行的任务
+        executor.setRemoveOnCancelPolicy(true);
+        // 关闭时仍执行已排期的延迟任务（排空）
+        executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(true);
+        leaseRenewalExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "task-lease-renewal");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        Gauge.builder("ooc.task.queue.scheduler.depth", executor, e -> e.getQueue().size())
+                .description("Scheduled task queue actions waiting to run")
+                .register(meterRegistry);
+        Gauge.builder("ooc.task.queue.scheduler.lag", lastLagMs, AtomicLong::get)
+                .description("Delay between planned and actual start of the last action")
+                .baseUnit("milliseconds")
+                .register(meterRegistry);
+        log.info("Task queue scheduler started with {} threads", threads);
+    }
+
+    /**
+     * 延迟执行
+     *
+     * @return 排期结果；调度器已关闭时返回 null
+     */
+    public ScheduledFuture<?> schedule(Runnable task, long delayMs) {
+        long dueAt = System.currentTimeMillis() + Math.max(0, delayMs);
+        try {
+            ScheduledFuture<?> future = executor.schedule(() -> run(task, dueAt), Math.max(0, delayMs), TimeUnit.MILLISECONDS);
+            scheduled.incrementAndGet();
+            return future;
+        } catch (RejectedExecutionException e) {
+            rejected.incrementAndGet();
+            log.warn("Task queue scheduler is shut down, dropping scheduled action");
+            return null;
+        }
+    }
+
+    /**
+     * 立即在调度线程上执行
+     */
+    public ScheduledFuture<?> execute(Runnable task) {
+        return schedule(task, 0);
+    }
+
+    /**
+     * 周期执行（上一次执行结束后再等待 intervalMs），用于租约续约、队列同步等后台动作
+     *
+     * @return 排期结果；调度器已关闭时返回 null
+     */
+    public ScheduledFuture<?> scheduleWithFixedDelay(Runnable task, long initialDelayMs, long intervalMs) {
+        long delayMs = Math.max(1, intervalMs);
+        // 计划时间 = 上一次执行结束时间 + 间隔，延迟统计反映调度线程的拥塞
+        AtomicLong dueAt = new AtomicLong(System.currentTimeMillis() + Math.max(0, initialDelayMs));
+        try {
+            ScheduledFuture<?> future = executor.scheduleWithFixedDelay(() -> {
+                        run(task, dueAt.get());
+                        dueAt.set(System.currentTimeMillis() + delayMs);
+                    },
+                    Math.max(0, initialDelayMs), delayMs, TimeUnit.MILLISECONDS);
+            scheduled.incrementAndGet();
+            return future;
+        } catch (RejectedExecutionException e) {
+            rejected.incrementAndGet();
+            log.warn("Task queue scheduler is shut down, dropping periodic action");
+            return null;
+        }
+    }
+
+    /**
+     * 在租约续约专用线程上周期执行（上一次执行结束后再等待 intervalMs）
+     *
+     * @return 排期结果；调度器已关闭时返回 null
+     */
+    public ScheduledFuture<?> scheduleLeaseRenewal(Runnable task, long intervalMs) {
+        long delayMs = Math.max(1, intervalMs);
+        try {
+            return leaseRenewalExecutor.scheduleWithFixedDelay(() -> {
+                try {
+                    task.run();
+                } catch (Exception e) {
+                    log.error("Task lease renewal failed: {}", e.getMessage(), e);
+                }
+            }, delayMs, delayMs, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            rejected.incrementAndGet();
+            log.warn("Task queue scheduler is shut down, dropping lease renewal");
+            return null;
+        }
+    }
+
+    private void run(Runnable task, long dueAt) {
+        long lag = Math.max(0, System.currentTimeMillis() - dueAt);
+        lastLagMs.set(lag);
+        maxLagMs.accumulateAndGet(lag, Math::max);
+        try {
+            task.run();
+            completed.incrementAndGet();
+        } catch (Exception e) {
+            failed.incrementAndGet();
+            log.error("Task queue scheduled action failed: {}", e.getMessage(), e);
+        }
+    }
+
+    public Stats getStats() {
+        return new Stats(
+                executor.getCorePoolSize(),
+                executor.getActiveCount(),
+                executor.getQueue().size(),
+                scheduled.get(),
+                completed.get(),
+                failed.get(),
+                rejected.get(),
+                lastLagMs.get(),
+                maxLagMs.get()
+        );
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        long timeoutMs = chatProperties.getTaskQueue().getShutdownTimeoutMs();
+        log.info("Shutting down task queue scheduler, draining {} scheduled actions", executor.getQueue().size());
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(timeoutMs, TimeUnit.MILLISECONDS)) {
+                List<Runnable> dropped = executor.shutdownNow();
+                log.warn("Task queue scheduler did not drain within {}ms, dropped {} actions", timeoutMs, dropped.size());
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        } finally {
+            // 排空期间仍在执行的任务需要续约，排空结束后再停止
+            leaseRenewalExecutor.shutdownNow();
+        }
+    }
+}
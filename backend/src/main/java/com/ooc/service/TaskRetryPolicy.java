@@ -0,0 +1,39 @@
+package com.ooc.service;
+
+import com.ooc.config.ChatProperties;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 任务重试策略：指数退避 + 随机抖动，限制最大重试次数
+ * 抖动让同时遇到会话繁忙的多个房间错开重试时间，避免同步冲击 Gateway。
+ */
+@Component
+@RequiredArgsConstructor
+public class TaskRetryPolicy {
+
+    private final ChatProperties chatProperties;
+
+    /**
+     * 第 attempt 次重试（从 1 开始）前的等待时间
+     *
+     * @return 等待毫秒数；超过最大重试次数时返回 -1
+     */
+    public long nextDelayMs(int attempt) {
+        return nextDelayMs(attempt, ThreadLocalRandom.current().nextDouble());
+    }
+
+    long nextDelayMs(int attempt, double random) {
+        ChatProperties.TaskQueue config = chatProperties.getTaskQueue();
+        if (attempt < 1 || attempt > config.getRetryMaxAttempts()) {
+            return -1;
+        }
+        long initial = Math.max(1, config.getRetryInitialBackoffMs());
+        long max = Math.max(initial, config.getRetryMaxBackoffMs());
+        long backoff = Math.min(initial << Math.min(attempt - 1, 20), max);
+        double jitter = 0.8 + random * 0.4;
+        return (long) (backoff * jitter);
+    }
+}
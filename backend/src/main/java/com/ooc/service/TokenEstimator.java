@@ -0,0 +1,74 @@
+package com.ooc.service;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * 本地 token 估算
+ * 不依赖具体模型的分词器：中日韩字符按每字 1 个 token，其他字符按每 4 个字符 1 个 token，
+ * 每条消息另加固定开销。结果偏保守，只用于上下文预算控制。
+ */
+public final class TokenEstimator {
+
+    /**
+     * 每条消息的结构开销（角色、分隔符等）
+     */
+    static final int MESSAGE_OVERHEAD = 4;
+
+    private TokenEstimator() {
+    }
+
+    public static int estimate(String text) {
+        if (text == null || text.isEmpty()) {
+            return 0;
+        }
+        int cjk = 0;
+        int other = 0;
+        for (int i = 0; i < text.length(); ) {
+            int codePoint = text.codePointAt(i);
+            if (isCjk(codePoint)) {
+                cjk++;
+            } else {
+                other++;
+            }
+            i += Character.charCount(codePoint);
+        }
+        return cjk + (other + 3) / 4;
+    }
+
+    /**
+     * 估算一条对话消息（content 为字符串或内容块列表）
+     */
+    public static int estimateMessage(Map<String, Object> message) {
+        return MESSAGE_OVERHEAD + estimateContent(message.get("content"));
+    }
+
+    private static int estimateContent(Object content) {
+        if (content == null) {
+            return 0;
+        }
+        if (content instanceof String text) {
+            return estimate(text);
+        }
+        if (content instanceof Collection<?> blocks) {
+            int total = 0;
+            for (Object block : blocks) {
+                if (block instanceof Map<?, ?> map && map.get("text") instanceof String text) {
+                    total += estimate(text);
+                } else {
+                    total += estimateContent(block);
+                }
+            }
+            return total;
+        }
+        return estimate(content.toString());
+    }
+
+    private static boolean isCjk(int codePoint) {
+        Character.UnicodeScript script = Character.UnicodeScript.of(codePoint);
+        return script == Character.UnicodeScript.HAN
+                || script == Character.UnicodeScript.HIRAGANA
+                || script == Character.UnicodeScript.KATAKANA
+                || script == Character.UnicodeScript.HANGUL;
+    }
+}
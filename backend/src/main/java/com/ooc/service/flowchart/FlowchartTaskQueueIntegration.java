@@ -89,7 +89,7 @@ public class FlowchartTaskQueueIntegration {
         String taskId = java.util.UUID.randomUUID().toString();
 
         // 计算队列位置
-        int position = taskQueueService.getQueueSize(roomId, BotTaskQueue.BotType.OPENCLAW);
+        int position = taskQueueService.nextPosition(roomId, BotTaskQueue.BotType.OPENCLAW);
 
         // 创建用户信息
         BotTaskQueue.UserInfo userInfo = BotTaskQueue.UserInfo.builder()
@@ -152,7 +152,7 @@ public class FlowchartTaskQueueIntegration {
         String taskId = java.util.UUID.randomUUID().toString();
 
         // 计算队列位置
-        int position = taskQueueService.getQueueSize(roomId, BotTaskQueue.BotType.OPENCLAW);
+        int position = taskQueueService.nextPosition(roomId, BotTaskQueue.BotType.OPENCLAW);
 
         // 创建数据库记录
         BotTaskQueue dbTask = BotTaskQueue.builder()
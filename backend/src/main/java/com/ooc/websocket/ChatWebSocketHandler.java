@@ -1,20 +1,25 @@
 package com.ooc.websocket;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.ooc.config.ChatProperties;
+import com.ooc.dto.MessagePage;
 import com.ooc.entity.ChatRoom;
 import com.ooc.entity.OocSession;
 import com.ooc.entity.User;
 import com.ooc.openclaw.OpenClawPluginService;
 import com.ooc.openclaw.OpenClawSessionState;
+import com.ooc.openclaw.ToolCallRecognizer;
 import com.ooc.service.AvatarCacheService;
+import com.ooc.service.BotReplyProvider;
+import com.ooc.service.BotStreamEvent;
 import com.ooc.service.ChatRoomService;
-import com.ooc.service.ClaudeCodePluginService;
-import com.ooc.service.KimiPluginService;
 import com.ooc.service.MentionService;
 import com.ooc.service.OocSessionService;
 import com.ooc.service.PersistentTaskQueueService;
+import com.ooc.service.StreamCheckpointService;
 import com.ooc.service.UserService;
 import com.ooc.entity.BotTaskQueue;
+import jakarta.annotation.PreDestroy;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.context.annotation.Lazy;
@@ -29,7 +34,6 @@ import java.time.Instant;
 import java.util.*;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.atomic.AtomicReference;
 
 @Slf4j
 @Component
@@ -39,14 +43,16 @@ public class ChatWebSocketHandler extends TextWebSocketHandler {
     private final ChatRoomService chatRoomService;
     private final OocSessionService oocSessionService;
     private final OpenClawPluginService openClawPluginService;
-    private final KimiPluginService kimiPluginService;
-    private final ClaudeCodePluginService claudeCodePluginService;
+    private final List<BotReplyProvider> botReplyProviders;
     private final UserService userService;
     private final AvatarCacheService avatarCacheService;
     private final ObjectMapper objectMapper;
     private final PersistentTaskQueueService taskQueueService;
     private final com.ooc.service.flowchart.FlowchartTaskQueueIntegration flowchartTaskQueueIntegration;
     private final WebSocketBroadcastService broadcastService;
+    private final ChatProperties chatProperties;
+    private final SessionOutboxRegistry outboxRegistry;
+    private final StreamCheckpointService streamCheckpointService;
 
     /**
      * 获取房间的有效项目列表（如果没有配置则返回群名作为默认项目）
@@ -68,12 +74,20 @@ public class ChatWebSocketHandler extends TextWebSocketHandler {
     @org.springframework.beans.factory.annotation.Autowired
     private MentionService mentionService;
 
+    // 机器人类型 -> 回复提供者（按枚举顺序触发）
+    private final Map<BotTaskQueue.BotType, BotReplyProvider> replyProviders = new EnumMap<>(BotTaskQueue.BotType.class);
+
     // session -> userInfo
     private final Map<WebSocketSession, WebSocketUserInfo> userInfoMap = new ConcurrentHashMap<>();
 
     // userId -> Set<WebSocketSession> (for notification)
     private final Map<String, Set<WebSocketSession>> userSessions = new ConcurrentHashMap<>();
 
+    // roomId -> 订阅该房间队列变化的会话（推送时只遍历该房间的订阅者）
+    private final Map<String, Set<WebSocketSession>> queueSubscribers = new ConcurrentHashMap<>();
+    // session -> 订阅队列变化的房间ID（每个会话最多订阅一个房间）
+    private final Map<WebSocketSession, String> queueSubscriptions = new ConcurrentHashMap<>();
+
     // ========== 队列系统 ==========
     // 使用 PersistentTaskQueueService 进行持久化队列管理
 
@@ -98,6 +112,13 @@ public class ChatWebSocketHandler extends TextWebSocketHandler {
 
         private String flowchartInstanceId; // 流程图实例ID（当 taskType 为 FLOWCHART 时有效）
 
+        private BotTaskQueue.TaskPriority priority; // 优先级，为空时按任务类型取默认值
+        private Instant effectiveAt; // 有效排队时间，队列按该时间先后执行
+
+        private Integer attempts; // 已重试次数
+        private Instant retryAt; // 重试等待截止时间，之前不会被调度
+        private String lastError; // 最近一次失败原因
+
         public enum TaskStatus {
             PENDING, PROCESSING, COMPLETED, FAILED
         }
@@ -113,13 +134,21 @@ public class ChatWebSocketHandler extends TextWebSocketHandler {
      */
     @jakarta.annotation.PostConstruct
     public void init() {
-        // 注册 OpenClaw 任务处理器
-        taskQueueService.registerTaskProcessor(BotTaskQueue.BotType.OPENCLAW, this::executeOpenClawTask);
-        // 注册 Kimi 任务处理器
-        taskQueueService.registerTaskProcessor(BotTaskQueue.BotType.KIMI, this::executeKimiTask);
-        // 注册 Claude 任务处理器
-        taskQueueService.registerTaskProcessor(BotTaskQueue.BotType.CLAUDE, this::executeClaudeTask);
-        log.info("Task processors registered for OPENCLAW, KIMI, and CLAUDE");
+        // 每个机器人类型使用同一条流式回复流水线
+        for (BotReplyProvider provider : botReplyProviders) {
+            replyProviders.put(provider.getBotType(), provider);
+            taskQueueService.registerTaskProcessor(provider.getBotType(), task -> executeBotTask(provider, task));
+        }
+        log.info("Task processors registered for {}", replyProviders.keySet());
+        // 队列变化推送给订阅的客户端
+        taskQueueService.registerQueueListener((roomId, botType, snapshot) -> pushQueueUpdate(roomId));
+        // 流式消息被标记为已中断（任务取消或实例重启）时结束客户端的流
+        streamCheckpointService.registerInterruptedListener((roomId, message) -> broadcastToRoom(roomId,
+                WebSocketMessage.builder()
+                        .type("stream_end")
+                        .roomId(roomId)
+                        .message(message)
+                        .build()));
     }
 
     /**
@@ -143,6 +172,57 @@ public class ChatWebSocketHandler extends TextWebSocketHandler {
         return taskQueueService.getRoomAllTaskQueues(roomId);
     }
 
+    /**
+     * 房间任务队列视图（REST 查询和 WebSocket 推送使用同一结构）
+     * 正在执行的任务在前，待处理任务按执行顺序排列
+     */
+    public Map<String, Object> getRoomQueueView(String roomId) {
+        List<Map<String, Object>> running = new ArrayList<>();
+        List<Map<String, Object>> pending = new ArrayList<>();
+        long version = 0;
+
+        // 合并所有机器人类型的任务
+        for (BotTaskQueue.BotType botType : BotTaskQueue.BotType.values()) {
+            PersistentTaskQueueService.QueueSnapshot snapshot = taskQueueService.getQueueSnapshot(roomId, botType);
+            version = Math.max(version, snapshot.version());
+            for (OpenClawTask task : snapshot.tasks()) {
+                Map<String, Object> taskMap = toQueueTaskView(task, botType);
+                if (task.getStatus() == OpenClawTask.TaskStatus.PROCESSING) {
+                    running.add(taskMap);
+                } else {
+                    pending.add(taskMap);
+                }
+            }
+        }
+        running.addAll(pending);
+
+        Map<String, Object> result = new HashMap<>();
+        result.put("roomId", roomId);
+        result.put("isProcessing", isRoomProcessing(roomId));
+        result.put("queueSize", running.size());
+        result.put("tasks", running);
+        result.put("version", version);
+        return result;
+    }
+
+    private Map<String, Object> toQueueTaskView(OpenClawTask task, BotTaskQueue.BotType botType) {
+        Map<String, Object> taskMap = new HashMap<>();
+        taskMap.put("taskId", task.getTaskId());
+        taskMap.put("status", task.getStatus().name());
+        taskMap.put("createdAt", task.getCreatedAt());
+        taskMap.put("senderName", task.getUserInfo() != null ? task.getUserInfo().getUserName() : "Unknown");
+        taskMap.put("content", task.getContent() != null ?
+                task.getContent().substring(0, Math.min(50, task.getContent().length())) + "..." : "");
+        taskMap.put("botType", botType.name());
+        taskMap.put("priority", task.getPriority() != null ? task.getPriority().name() : null);
+        taskMap.put("attempts", task.getAttempts() != null ? task.getAttempts() : 0);
+        boolean waitingRetry = task.getRetryAt() != null && task.getRetryAt().isAfter(Instant.now());
+        taskMap.put("waitingRetry", waitingRetry);
+        taskMap.put("retryAt", waitingRetry ? task.getRetryAt() : null);
+        taskMap.put("lastError", task.getLastError());
+        return taskMap;
+    }
+
     /**
      * 重新排序任务队列
      * @param roomId 房间ID
@@ -163,6 +243,13 @@ public class ChatWebSocketHandler extends TextWebSocketHandler {
         return taskQueueService.cancelTask(roomId, taskId, BotTaskQueue.BotType.OPENCLAW);
     }
 
+    /**
+     * 修改待处理任务的优先级
+     */
+    public boolean setTaskPriority(String roomId, String taskId, BotTaskQueue.TaskPriority priority) {
+        return taskQueueService.setTaskPriority(roomId, BotTaskQueue.BotType.OPENCLAW, taskId, priority);
+    }
+
     /**
      * 获取指定房间是否正在处理 OpenClaw 任务
      */
@@ -193,6 +280,8 @@ public class ChatWebSocketHandler extends TextWebSocketHandler {
         }
         // 从广播服务移除会话（所有房间）
         broadcastService.removeSession(session);
+        unsubscribeQueue(session);
+        outboxRegistry.remove(session);
     }
 
     @Override
@@ -214,6 +303,8 @@ public class ChatWebSocketHandler extends TextWebSocketHandler {
             case "typing" -> handleTyping(session, payload);
             case "leave" -> handleLeave(session, payload);
             case "ping" -> handlePing(session, payload);
+            case "queue_subscribe" -> handleQueueSubscribe(session, payload);
+            case "queue_unsubscribe" -> unsubscribeQueue(session);
         }
     }
 
@@ -276,61 +367,27 @@ public class ChatWebSocketHandler extends TextWebSocketHandler {
         }
 
         userSessions.computeIfAbsent(userId, k -> ConcurrentHashMap.newKeySet()).add(session);
+        outboxRegistry.setUserId(session, userId);
 
-        // 发送历史消息（只发送最新的10条）
-        chatRoomService.getChatRoom(roomId).ifPresent(room -> {
-            try {
-                List<ChatRoom.Message> allMessages = room.getMessages();
-                List<ChatRoom.Message> recentMessages = allMessages;
-
-                // 只取最近10条消息
-                if (allMessages != null && allMessages.size() > 10) {
-                    recentMessages = allMessages.subList(allMessages.size() - 10, allMessages.size());
-                }
-
-                // 为历史消息补充头像信息（旧消息可能没有保存 senderAvatar）
-                // 使用缓存避免重复查询数据库
-                List<ChatRoom.Message> enrichedMessages = recentMessages.stream()
-                        .map(msg -> {
-                            if (msg.getSenderAvatar() == null || msg.getSenderAvatar().isEmpty()) {
-                                String senderId = msg.getSenderId();
-                                
-                                // 先尝试从缓存获取头像
-                                String cachedAvatar = avatarCacheService.getAvatarFromCache(senderId);
-                                if (cachedAvatar != null) {
-                                    return msg.toBuilder().senderAvatar(cachedAvatar).build();
-                                }
-                                
-                                // 缓存未命中，从数据库查询
-                                try {
-                                    User msgUser = userService.getUserById(senderId);
-                                    if (msgUser != null && msgUser.getAvatar() != null) {
-                                        // 将头像存入缓存
-                                        avatarCacheService.putAvatarInCache(senderId, msgUser.getAvatar());
-                                        return msg.toBuilder().senderAvatar(msgUser.getAvatar()).build();
-                                    }
-                                } catch (Exception e) {
-                                    log.debug("Failed to get avatar for userId: {}", senderId);
-                                }
-                            }
-                            return msg;
-                        })
-                        .toList();
+        // 发送历史消息（只发送最新的10条，从房间最近消息缓存读取，消息已补充头像）
+        try {
+            MessagePage recentPage = chatRoomService.getRecentHistory(roomId, 10);
+            List<ChatRoom.Message> recentMessages = recentPage.getMessages();
 
-                log.info("Enriched {} messages with avatars from cache (cache size: {})", 
-                        enrichedMessages.size(), avatarCacheService.getCacheSize());
+            WebSocketMessage historyMsg = WebSocketMessage.builder()
+                    .type("history")
+                    .roomId(roomId)
+                    .messages(recentMessages)
+                    .hasMore(recentPage.isHasMore())
+                    .cursor(recentPage.getOlderCursor())
+                    .build();
+            outboxRegistry.send(session, historyMsg, objectMapper.writeValueAsString(historyMsg));
+        } catch (IOException e) {
+            log.error("Failed to send history", e);
+        }
 
-                WebSocketMessage historyMsg = WebSocketMessage.builder()
-                        .type("history")
-                        .roomId(roomId)
-                        .messages(enrichedMessages)
-                        .hasMore(allMessages != null && allMessages.size() > 10)
-                        .build();
-                session.sendMessage(new TextMessage(objectMapper.writeValueAsString(historyMsg)));
-            } catch (IOException e) {
-                log.error("Failed to send history", e);
-            }
-        });
+        // 历史中的流式消息只有已保存的内容，补发进行中的流
+        resumeStreams(session, roomId, payload.getStreams());
 
         broadcastToRoom(roomId, WebSocketMessage.builder()
                 .type("user_joined")
@@ -401,20 +458,16 @@ public class ChatWebSocketHandler extends TextWebSocketHandler {
         List<com.ooc.websocket.Attachment> attachments = payload.getAttachments();
         boolean hasAttachments = attachments != null && !attachments.isEmpty();
 
-        // 检查是否@OpenClaw（使用配置的机器人用户名）
-        String openclawUsername = openClawPluginService.getBotUsername();
-        boolean mentionedOpenClaw = content != null &&
-                content.toLowerCase().contains("@" + openclawUsername.toLowerCase());
-
-        // 检查是否@Kimi（使用配置的机器人用户名）
-        String kimiUsername = kimiPluginService.getBotUsername();
-        boolean mentionedKimi = content != null &&
-                content.toLowerCase().contains("@" + kimiUsername.toLowerCase());
-
-        // 检查是否@Claude（使用配置的机器人用户名）
-        String claudeUsername = claudeCodePluginService.getBotUsername();
-        boolean mentionedClaude = content != null &&
-                content.toLowerCase().contains("@" + claudeUsername.toLowerCase());
+        // 检查@了哪些机器人（使用配置的机器人用户名）
+        String lowerContent = content != null ? content.toLowerCase() : "";
+        List<BotReplyProvider> mentionedBots = new ArrayList<>();
+        for (BotReplyProvider provider : replyProviders.values()) {
+            if (lowerContent.contains("@" + provider.getBotUsername().toLowerCase())) {
+                mentionedBots.add(provider);
+            }
+        }
+        boolean mentionedOpenClaw = mentionedBots.stream()
+                .anyMatch(provider -> provider.getBotType() == BotTaskQueue.BotType.OPENCLAW);
 
         // 解析@提及
         MentionService.MentionParseResult mentionResult = mentionService.parseMentions(content != null ? content : "", roomId);
@@ -422,11 +475,12 @@ public class ChatWebSocketHandler extends TextWebSocketHandler {
         // 获取房间成员数（从广播服务获取）
         int memberCount = broadcastService.getRoomSessionCount(roomId);
 
-        log.info("Message received: room={}, sender={}, content={}, attachments={}, memberCount={}, mentionedOpenClaw={}, mentionedKimi={}, mentionedClaude={}, mentions={}",
+        log.info("Message received: room={}, sender={}, content={}, attachments={}, memberCount={}, mentionedBots={}, mentions={}",
                 roomId, userInfo.getUserName(),
                 content != null ? content.substring(0, Math.min(50, content.length())) : "",
                 hasAttachments ? attachments.size() : 0,
-                memberCount, mentionedOpenClaw, mentionedKimi, mentionedClaude, mentionResult.getMentions().size());
+                memberCount, mentionedBots.stream().map(BotReplyProvider::getBotType).toList(),
+                mentionResult.getMentions().size());
 
         // 打印附件详情
         if (hasAttachments) {
@@ -510,104 +564,71 @@ public class ChatWebSocketHandler extends TextWebSocketHandler {
                 .message(message)
                 .build());
 
-        // 决定是否触发 OpenClaw
-        boolean shouldTriggerOpenClaw = shouldTriggerOpenClaw(memberCount, mentionedOpenClaw);
-        log.info("OpenClaw trigger decision: shouldTrigger={}, memberCount={}, mentionedOpenClaw={}",
-                shouldTriggerOpenClaw, memberCount, mentionedOpenClaw);
-
-        if (shouldTriggerOpenClaw) {
-            triggerOpenClaw(roomId, content, attachments, userInfo, message.getId());
-        }
-
-        // 决定是否触发 Kimi
-        boolean shouldTriggerKimi = shouldTriggerKimi(memberCount, mentionedKimi);
-        log.info("Kimi trigger decision: shouldTrigger={}, memberCount={}, mentionedKimi={}",
-                shouldTriggerKimi, memberCount, mentionedKimi);
-
-        if (shouldTriggerKimi) {
-            triggerKimi(roomId, content, attachments, userInfo, message.getId());
-        }
-
-        // 决定是否触发 Claude Code
-        boolean shouldTriggerClaude = shouldTriggerClaude(memberCount, mentionedClaude);
-        log.info("Claude trigger decision: shouldTrigger={}, memberCount={}, mentionedClaude={}",
-                shouldTriggerClaude, memberCount, mentionedClaude);
-
-        if (shouldTriggerClaude) {
-            triggerClaude(roomId, content, attachments, userInfo, message.getId());
-        }
-    }
-
-    private boolean shouldTriggerOpenClaw(int memberCount, boolean mentionedOpenClaw) {
-        // 只有 @OpenClaw 时才触发回复
-        if (!mentionedOpenClaw) {
-            return false;
-        }
-        // 检查机器人是否启用
-        return openClawPluginService.isBotEnabled();
-    }
-
-    private boolean shouldTriggerKimi(int memberCount, boolean mentionedKimi) {
-        // 只有 @Kimi 时才触发回复
-        if (!mentionedKimi) {
-            return false;
-        }
-        // 检查机器人是否启用
-        return kimiPluginService.isBotEnabled();
-    }
-
-    private boolean shouldTriggerClaude(int memberCount, boolean mentionedClaude) {
-        // 只有 @Claude 时才触发回复
-        if (!mentionedClaude) {
-            return false;
+        // 决定是否触发各机器人：只有 @机器人 且机器人已启用时才触发回复
+        for (BotReplyProvider provider : mentionedBots) {
+            boolean shouldTrigger = provider.isBotEnabled();
+            log.info("{} trigger decision: shouldTrigger={}, memberCount={}",
+                    provider.getDisplayName(), shouldTrigger, memberCount);
+            if (shouldTrigger) {
+                triggerBot(provider, roomId, content, attachments, userInfo, message.getId());
+            }
         }
-        // 检查机器人是否启用
-        return claudeCodePluginService.isBotEnabled();
     }
 
+    // ========== 机器人流式回复流水线 ==========
 
-    private void triggerKimi(String roomId, String content, List<Attachment> attachments, WebSocketUserInfo userInfo, String sourceMessageId) {
-        log.info("Adding Kimi task to queue for room: {}, content: {}, attachments: {}",
+    /**
+     * 添加机器人任务到持久化队列，发送排队状态并尝试启动处理
+     */
+    private void triggerBot(BotReplyProvider provider, String roomId, String content, List<Attachment> attachments,
+                            WebSocketUserInfo userInfo, String sourceMessageId) {
+        BotTaskQueue.BotType botType = provider.getBotType();
+        log.info("Adding {} task to queue for room: {}, content: {}, attachments: {}",
+                provider.getDisplayName(),
                 roomId,
                 content != null ? content.substring(0, Math.min(50, content.length())) : "",
                 attachments != null ? attachments.size() : 0);
 
-        // 添加任务到持久化队列
-        String taskId = taskQueueService.addTask(roomId, content, attachments, userInfo, sourceMessageId, BotTaskQueue.BotType.KIMI);
-        int queueSize = taskQueueService.getQueueSize(roomId, BotTaskQueue.BotType.KIMI);
+        String taskId = taskQueueService.addTask(roomId, content, attachments, userInfo, sourceMessageId, botType);
+        int queueSize = taskQueueService.getQueueSize(roomId, botType);
 
-        log.info("Kimi task {} added to room {} queue. Queue size: {}", taskId, roomId, queueSize);
+        log.info("{} task {} added to room {} queue. Queue size: {}", provider.getDisplayName(), taskId, roomId, queueSize);
 
-        // 发送排队状态消息
-        sendKimiQueueStatusMessage(roomId, taskId, sourceMessageId, queueSize - 1);
+        sendQueueStatusMessage(provider, roomId, sourceMessageId, queueSize - 1);
 
-        // 尝试启动队列处理
-        taskQueueService.tryProcessNext(roomId, BotTaskQueue.BotType.KIMI);
+        taskQueueService.tryProcessNext(roomId, botType);
     }
 
     /**
-     * 执行 Kimi 任务（流式版本）
+     * 执行机器人任务（流式版本）
+     * 所有机器人共用：创建流式占位消息、获取房间会话、订阅回复流并广播增量，结束时收尾并通知队列。
+     * 订阅注册到队列服务，取消任务时由队列服务中断。
      */
-    private void executeKimiTask(OpenClawTask task) {
+    private void executeBotTask(BotReplyProvider provider, OpenClawTask task) {
         String roomId = task.getRoomId();
         String taskId = task.getTaskId();
-        log.info("Executing Kimi task {} for room {} (streaming)", taskId, roomId);
+        BotTaskQueue.BotType botType = provider.getBotType();
 
-        task.setStatus(OpenClawTask.TaskStatus.PROCESSING);
+        // 检查是否是流程图任务
+        if (task.getTaskType() == OpenClawTask.TaskType.FLOWCHART) {
+            log.info("Delegating flowchart task {} to FlowchartTaskQueueIntegration (instanceId={})",
+                    taskId, task.getFlowchartInstanceId());
+            flowchartTaskQueueIntegration.executeFlowchartTask(task);
+            return;
+        }
+
+        log.info("Executing {} task {} for room {} (streaming)", provider.getDisplayName(), taskId, roomId);
 
-        // 获取机器人配置
-        String botUsername = kimiPluginService.getBotUsername();
-        String botAvatarUrl = kimiPluginService.getBotAvatarUrl();
+        task.setStatus(OpenClawTask.TaskStatus.PROCESSING);
 
         // 创建流式消息 - 使用配置的机器人用户名和头像
         String streamingMessageId = UUID.randomUUID().toString();
-        AtomicReference<StringBuilder> contentBuilder = new AtomicReference<>(new StringBuilder());
-        AtomicReference<ChatRoom.Message> streamingMessage = new AtomicReference<>(
-            ChatRoom.Message.builder()
+        StreamAccumulator accumulator = new StreamAccumulator();
+        ChatRoom.Message streamingMessage = ChatRoom.Message.builder()
                 .id(streamingMessageId)
-                .senderId(kimiPluginService.getBotUsername())
-                .senderName(kimiPluginService.getBotUsername())
-                .senderAvatar(botAvatarUrl)
+                .senderId(provider.getBotUsername())
+                .senderName(provider.getBotUsername())
+                .senderAvatar(provider.getBotAvatarUrl())
                 .content("")
                 .timestamp(Instant.now())
                 .openclawMentioned(false)
@@ -615,202 +636,363 @@ public class ChatWebSocketHandler extends TextWebSocketHandler {
                 .isStreaming(true)
                 .toolCalls(new ArrayList<>())
                 .replyToMessageId(task.getSourceMessageId())
-                .build()
-        );
+                .build();
 
         try {
             // 保存初始消息到聊天室
-            chatRoomService.addMessage(roomId, streamingMessage.get());
+            chatRoomService.addMessage(roomId, streamingMessage);
 
             // 广播流式消息开始
-            ChatRoom.Message msg = streamingMessage.get();
-            log.info("[Kimi] Broadcasting stream_start with replyToMessageId: {} (task sourceMessageId: {})",
-                    msg.getReplyToMessageId(), task.getSourceMessageId());
+            log.info("[{}] Broadcasting stream_start with replyToMessageId: {} (task sourceMessageId: {})",
+                    provider.getDisplayName(), streamingMessage.getReplyToMessageId(), task.getSourceMessageId());
+            // 重放缓冲先于第一帧增量创建，重连的客户端可以从任意位置续传
+            openStreamReplay(roomId, streamingMessage, accumulator);
+            if (provider.parsesToolCallsFromContent()) {
+                // 随增量识别回复内容中的工具调用，完成时不再扫描完整内容
+                toolCallRecognizers.put(streamingMessageId, new ToolCallRecognizer());
+            }
             broadcastToRoom(roomId, WebSocketMessage.builder()
                     .type("stream_start")
                     .roomId(roomId)
-                    .message(msg)
+                    .message(streamingMessage)
                     .build());
         } catch (Exception e) {
-            log.error("Failed to initialize Kimi streaming message for task {}: {}", taskId, e.getMessage(), e);
+            log.error("Failed to initialize {} streaming message for task {}: {}",
+                    provider.getDisplayName(), taskId, e.getMessage(), e);
             task.setStatus(OpenClawTask.TaskStatus.FAILED);
             taskQueueService.markTaskFailed(taskId);
-            taskQueueService.onTaskComplete(roomId, BotTaskQueue.BotType.KIMI, taskId);
+            taskQueueService.onTaskComplete(roomId, botType, taskId);
             return;
         }
 
-        chatRoomService.getChatRoom(roomId).ifPresentOrElse(room -> {
-            try {
-                String kimiSessionId = room.getOpenClawSessions() != null ?
-                    room.getOpenClawSessions().stream()
-                            .filter(ChatRoom.OpenClawSession::isActive)
-                            .findFirst()
-                            .map(ChatRoom.OpenClawSession::getSessionId)
-                            .orElse(null) : null;
-
-            // 检查会话是否存活
-            if (kimiSessionId != null && !kimiPluginService.isSessionAlive(kimiSessionId)) {
-                log.info("Kimi session {} is not alive, will create new", kimiSessionId);
-                kimiSessionId = null;
-            }
-
-            final String finalSessionId = kimiSessionId;
+        Optional<ChatRoom> roomOpt = chatRoomService.getChatRoom(roomId);
+        if (roomOpt.isEmpty()) {
+            log.error("Chat room not found: {}", roomId);
+            task.setStatus(OpenClawTask.TaskStatus.FAILED);
+            taskQueueService.markTaskFailed(taskId);
+            taskQueueService.onTaskComplete(roomId, botType, taskId);
+            return;
+        }
+        ChatRoom room = roomOpt.get();
 
-            if (finalSessionId == null) {
-                // 创建新会话并发送流式消息
-                log.info("Creating new Kimi session for room: {}", roomId);
-                reactor.core.Disposable subscription = oocSessionService.getOrCreateSession(roomId, room.getName())
-                        .flatMap(oocSession -> {
-                            if (oocSession.getMessages().size() > 30) {
-                                return oocSessionService.summarizeAndCompact(oocSession)
-                                        .thenReturn(oocSession);
+        try {
+            BotReplyProvider.ReplyRequest request = new BotReplyProvider.ReplyRequest(
+                    task.getContent(),
+                    task.getAttachments(),
+                    task.getUserInfo().getUserId(),
+                    task.getUserInfo().getUserName(),
+                    room.getName(),
+                    getEffectiveProjects(room));
+
+            // 定期保存已生成的内容，实例重启时不会丢失整条回复
+            streamCheckpointService.track(roomId, streamingMessageId, accumulator);
+
+            reactor.core.Disposable subscription = resolveRoomSession(provider, roomId, room)
+                    .flatMapMany(sessionId -> provider.streamReply(sessionId, request))
+                    .doFinally(signal -> {
+                        closeStreamDeltas(streamingMessageId);
+                        // 任务被取消：保存已生成的部分并标记为中断
+                        if (signal == reactor.core.publisher.SignalType.CANCEL) {
+                            streamCheckpointService.interrupt(streamingMessageId);
+                        }
+                    })
+                    .subscribe(
+                            event -> handleBotStreamEvent(provider, roomId, streamingMessageId, accumulator, event, task),
+                            error -> onBotStreamFailure(provider, roomId, streamingMessageId, accumulator, error, task),
+                            () -> {
+                                log.info("{} streaming completed for task {}", provider.getDisplayName(), taskId);
+                                task.setStatus(OpenClawTask.TaskStatus.COMPLETED);
+                                taskQueueService.markTaskCompleted(taskId);
+                                finalizeBotStreamMessage(provider, roomId, streamingMessageId, accumulator, task);
+                                taskQueueService.onTaskComplete(roomId, botType, taskId);
                             }
-                            return reactor.core.publisher.Mono.just(oocSession);
-                        })
-                        .flatMap(oocSession -> {
-                            List<Map<String, Object>> context = convertToContext(oocSession);
-                            log.info("Creating Kimi session with {} context messages", context.size());
-                            return kimiPluginService.createSession("ooc-" + roomId, context);
-                        })
-                        .flatMapMany(newSession -> {
-                            chatRoomService.updateOpenClawSession(roomId, newSession.sessionId());
-                            log.info("Kimi session created: {}", newSession.sessionId());
-                            return kimiPluginService.sendMessageStream(
-                                    newSession.sessionId(),
-                                    task.getContent(),
-                                    task.getAttachments(),
-                                    task.getUserInfo().getUserId(),
-                                    task.getUserInfo().getUserName(),
-                                    room.getName());
-                        })
-                        .subscribe(
-                                event -> handleKimiStreamEvent(roomId, streamingMessageId, contentBuilder, streamingMessage, event, task),
-                                error -> {
-                                    log.error("Kimi streaming error in task {}", taskId, error);
-                                    task.setStatus(OpenClawTask.TaskStatus.FAILED);
-                                    taskQueueService.markTaskFailed(taskId);
-                                    handleKimiStreamError(roomId, streamingMessageId, contentBuilder.get().toString(), error.getMessage(), task);
-                                    taskQueueService.onTaskComplete(roomId, BotTaskQueue.BotType.KIMI, taskId);
-                                },
-                                () -> {
-                                    log.info("Kimi streaming completed for task {}", taskId);
-                                    task.setStatus(OpenClawTask.TaskStatus.COMPLETED);
-                                    taskQueueService.markTaskCompleted(taskId);
-                                    finalizeKimiStreamMessage(roomId, streamingMessageId, contentBuilder.get().toString(), task);
-                                    taskQueueService.onTaskComplete(roomId, BotTaskQueue.BotType.KIMI, taskId);
-                                }
-                        );
-                taskQueueService.registerTaskSubscription(taskId, subscription);
-            } else {
-                // 使用现有会话发送流式消息
-                log.info("Using existing Kimi session: {}", finalSessionId);
-                reactor.core.Disposable subscription = kimiPluginService.sendMessageStream(
-                                finalSessionId,
-                                task.getContent(),
-                                task.getAttachments(),
-                                task.getUserInfo().getUserId(),
-                                task.getUserInfo().getUserName(),
-                                room.getName())
-                        .subscribe(
-                                event -> handleKimiStreamEvent(roomId, streamingMessageId, contentBuilder, streamingMessage, event, task),
-                                error -> {
-                                    log.error("Kimi streaming error in task {}", taskId, error);
-                                    task.setStatus(OpenClawTask.TaskStatus.FAILED);
-                                    taskQueueService.markTaskFailed(taskId);
-                                    handleKimiStreamError(roomId, streamingMessageId, contentBuilder.get().toString(), error.getMessage(), task);
-                                    taskQueueService.onTaskComplete(roomId, BotTaskQueue.BotType.KIMI, taskId);
-                                },
-                                () -> {
-                                    log.info("Kimi streaming completed for task {}", taskId);
-                                    task.setStatus(OpenClawTask.TaskStatus.COMPLETED);
-                                    taskQueueService.markTaskCompleted(taskId);
-                                    finalizeKimiStreamMessage(roomId, streamingMessageId, contentBuilder.get().toString(), task);
-                                    taskQueueService.onTaskComplete(roomId, BotTaskQueue.BotType.KIMI, taskId);
-                                }
-                        );
-                taskQueueService.registerTaskSubscription(taskId, subscription);
-            }
-            } catch (Exception e) {
-                log.error("Error in Kimi task execution for task {}: {}", taskId, e.getMessage(), e);
-                task.setStatus(OpenClawTask.TaskStatus.FAILED);
-                taskQueueService.markTaskFailed(taskId);
-                handleKimiStreamError(roomId, streamingMessageId, contentBuilder.get().toString(), e.getMessage(), task);
-                taskQueueService.onTaskComplete(roomId, BotTaskQueue.BotType.KIMI, taskId);
-            }
-        }, () -> {
-            log.error("Chat room not found: {}", roomId);
+                    );
+            // 注册订阅以便后续取消
+            taskQueueService.registerTaskSubscription(taskId, subscription);
+        } catch (Exception e) {
+            log.error("Error in {} task execution for task {}: {}", provider.getDisplayName(), taskId, e.getMessage(), e);
             task.setStatus(OpenClawTask.TaskStatus.FAILED);
             taskQueueService.markTaskFailed(taskId);
-            taskQueueService.onTaskComplete(roomId, BotTaskQueue.BotType.KIMI, taskId);
-        });
+            handleBotStreamError(provider, roomId, streamingMessageId, accumulator.content(), e.getMessage(), task);
+            taskQueueService.onTaskComplete(roomId, botType, taskId);
+        }
+    }
+
+    /**
+     * 获取房间当前的机器人会话；没有或已失效时用 OOC 会话历史创建新会话并记录到房间
+     */
+    private reactor.core.publisher.Mono<String> resolveRoomSession(BotReplyProvider provider, String roomId, ChatRoom room) {
+        String sessionId = room.getOpenClawSessions() != null ?
+                room.getOpenClawSessions().stream()
+                        .filter(ChatRoom.OpenClawSession::isActive)
+                        .findFirst()
+                        .map(ChatRoom.OpenClawSession::getSessionId)
+                        .orElse(null) : null;
+
+        // 检查会话是否存活
+        if (sessionId != null && provider.isSessionAlive(sessionId)) {
+            log.info("[{} Session] Room {} using existing session: {}", provider.getDisplayName(), roomId, sessionId);
+            return reactor.core.publisher.Mono.just(sessionId);
+        }
+        if (sessionId != null) {
+            log.info("{} session {} is not alive, will create new", provider.getDisplayName(), sessionId);
+        }
+
+        log.info("Creating new {} session for room: {}", provider.getDisplayName(), roomId);
+        return oocSessionService.getOrCreateSession(roomId, room.getName())
+                .flatMap(oocSession -> {
+                    if (oocSession.getMessages().size() > 30) {
+                        return oocSessionService.summarizeAndCompact(oocSession)
+                                .thenReturn(oocSession);
+                    }
+                    return reactor.core.publisher.Mono.just(oocSession);
+                })
+                .flatMap(oocSession -> {
+                    List<Map<String, Object>> context = convertToContext(oocSession);
+                    log.info("Creating {} session with {} context messages", provider.getDisplayName(), context.size());
+                    return provider.openSession(roomId, context);
+                })
+                .doOnNext(newSessionId -> {
+                    chatRoomService.updateOpenClawSession(roomId, newSessionId);
+                    log.info("{} session created: {}", provider.getDisplayName(), newSessionId);
+                });
     }
 
     /**
-     * 处理 Kimi 流式事件
+     * 处理机器人流式事件
      */
-    private void handleKimiStreamEvent(String roomId, String messageId,
-            AtomicReference<StringBuilder> contentBuilder,
-            AtomicReference<ChatRoom.Message> streamingMessage,
-            KimiPluginService.StreamEvent event,
+    private void handleBotStreamEvent(BotReplyProvider provider, String roomId, String messageId,
+            StreamAccumulator accumulator,
+            BotStreamEvent event,
             OpenClawTask task) {
 
-        log.debug("Kimi stream event for task {}: type={}, contentLength={}",
+        // 关键验证：确保事件被路由到正确的房间
+        if (!roomId.equals(task.getRoomId())) {
+            log.error("[CROSS-ROOM ERROR] Event routed to wrong room! Expected: {}, Task's room: {}. Discarding event.",
+                    roomId, task.getRoomId());
+            return;
+        }
+
+        // 检查任务是否被取消
+        if (taskQueueService.isTaskCancelled(task.getTaskId())) {
+            log.info("Task {} has been cancelled, stopping stream processing", task.getTaskId());
+            return;
+        }
+
+        log.debug("{} stream event for task {}: type={}, contentLength={}, toolName={}, totalBuilderLength={}",
+                provider.getDisplayName(),
                 task.getTaskId(),
                 event.type(),
-                event.content() != null ? event.content().length() : 0);
+                event.content() != null ? event.content().length() : 0,
+                event.toolName(),
+                accumulator.length());
 
         if ("message".equals(event.type())) {
             if (event.content() != null && !event.content().isEmpty()) {
-                // 追加内容
-                contentBuilder.get().append(event.content());
-                String currentContent = contentBuilder.get().toString();
+                // 追加内容（只追加增量，完整内容在工具事件或完成时才生成）
+                accumulator.append(event.content());
+
+                log.debug("Appending {} content for task {}: newChars={}, totalChars={}, seq={}",
+                        provider.getDisplayName(), task.getTaskId(),
+                        event.content().length(), accumulator.length(), event.seq());
+
+                // 广播增量更新（按时间窗口合并，每帧记录到重放缓冲并分配连续的 seq）
+                streamDeltas(messageId, (seq, content) -> broadcastStreamDelta(roomId, messageId, content))
+                        .add(event.seq(), event.content());
+
+                recognizeToolCalls(provider, roomId, messageId, accumulator, event.content(), task);
+            } else {
+                log.warn("Received empty content in message event for task {}", task.getTaskId());
+            }
+        } else if ("tool_start".equals(event.type())) {
+            // 新工具调用开始
+            String toolId = event.toolCallId() != null ? event.toolCallId() : UUID.randomUUID().toString();
+            String toolName = event.toolName() != null ? event.toolName() : "unknown";
+            String toolInput = event.toolInput() != null ? event.toolInput() : "";
+
+            // 先发送已合并的增量，保证前端在工具事件之前收到
+            flushStreamDeltas(messageId);
+            ToolCallRecognizer recognizer = toolCallRecognizers.get(messageId);
+            if (recognizer != null) {
+                recognizer.expectTool(toolName);
+            }
+
+            // 记录工具调用在内容中的位置
+            int position = accumulator.length();
+
+            log.info("Tool call started for task {}: id={}, name={}, position={}, room={}",
+                    task.getTaskId(), toolId, toolName, position, roomId);
+
+            // 添加到当前消息的工具调用列表
+            accumulator.addToolCall(ChatRoom.Message.ToolCall.builder()
+                    .id(toolId)
+                    .name(toolName)
+                    .description(toolInput)
+                    .status("running")
+                    .timestamp(Instant.now())
+                    .position(position)
+                    .build());
+
+            // 广播工具调用开始事件 - 包含完整消息内容，方便前端直接更新
+            log.info("Broadcasting tool_start event to room {}: tool={}", roomId, toolName);
+            broadcastToolEvent(provider, roomId, messageId, accumulator, accumulator.toolCalls(), task, "tool_start");
+
+        } else if ("tool_delta".equals(event.type())) {
+            // 工具参数更新（可选，如果需要实时更新参数）
+            log.debug("Tool delta for task {}: {}", task.getTaskId(), event.content());
 
-                log.debug("Appending Kimi content for task {}: newChars={}, totalChars={}",
-                        task.getTaskId(),
-                        event.content().length(), currentContent.length());
+        } else if ("tool_result".equals(event.type())) {
+            // 工具执行完成 - 更新工具调用状态
+            String toolCallId = event.toolCallId();
+            String result = event.content();
+            boolean isError = event.isError();
 
-                // 更新消息内容
-                ChatRoom.Message updatedMsg = streamingMessage.get().toBuilder()
-                        .content(currentContent)
+            log.info("Tool result received for task {}: toolCallId={}, isError={}", task.getTaskId(), toolCallId, isError);
+            flushStreamDeltas(messageId);
+
+            // 更新消息中的工具调用状态，根据错误状态设置正确的状态值
+            String status = isError ? "failed" : "completed";
+            boolean found = accumulator.updateToolCall(toolCallId, tc -> {
+                log.info("Updated tool call {} to {} status", tc.getName(), status);
+                return tc.toBuilder()
+                        .status(status)
+                        .result(result)
                         .build();
-                streamingMessage.set(updatedMsg);
+            });
 
-                // 广播增量更新
-                broadcastToRoom(roomId, WebSocketMessage.builder()
-                        .type("stream_delta")
-                        .roomId(roomId)
-                        .message(ChatRoom.Message.builder()
-                                .id(messageId)
-                                .content(event.content())
-                                .delta(true)
-                                .replyToMessageId(task.getSourceMessageId())
-                                .build())
-                        .build());
+            if (found) {
+                // 广播工具调用完成事件到前端 - 包含完整消息内容
+                log.info("Broadcasting tool_result event to room {}: tool={}, status={}", roomId, toolCallId, isError ? "error" : "completed");
+                broadcastToolEvent(provider, roomId, messageId, accumulator, accumulator.toolCalls(), task, "tool_result");
+            } else {
+                log.warn("Tool result received but toolCallId {} not found in message {}. Available tool calls: {}",
+                        toolCallId, messageId,
+                        accumulator.toolCalls().stream().map(tc -> tc.getId()).toList());
             }
+
         } else if ("done".equals(event.type())) {
-            log.info("Kimi stream done event received for task {}", task.getTaskId());
+            // 流结束，在 onComplete 中处理
+            log.info("{} stream done event received for task {}", provider.getDisplayName(), task.getTaskId());
         } else if ("error".equals(event.type())) {
-            log.error("Kimi stream error for task {}: {}", task.getTaskId(), event.content());
+            log.error("{} stream error for task {}: {}", provider.getDisplayName(), task.getTaskId(), event.content());
+        }
+    }
+
+    /**
+     * 将增量交给工具调用识别器；回复内容的 Tools used 列表中出现新工具且没有流式工具事件时立即广播
+     */
+    private void recognizeToolCalls(BotReplyProvider provider, String roomId, String messageId,
+                                    StreamAccumulator accumulator, String delta, OpenClawTask task) {
+        ToolCallRecognizer recognizer = toolCallRecognizers.get(messageId);
+        if (recognizer == null || recognizer.append(delta).isEmpty() || !accumulator.toolCalls().isEmpty()) {
+            return;
+        }
+        flushStreamDeltas(messageId);
+        broadcastToolEvent(provider, roomId, messageId, accumulator, recognizer.listedToolCalls(), task, "tool_result");
+    }
+
+    /**
+     * 广播工具事件（携带当前完整内容和工具调用列表）
+     */
+    private void broadcastToolEvent(BotReplyProvider provider, String roomId, String messageId,
+                                    StreamAccumulator accumulator, List<ChatRoom.Message.ToolCall> toolCalls,
+                                    OpenClawTask task, String type) {
+        StreamReplayBuffer replay = streamReplayBuffers.get(messageId);
+        broadcastToRoom(roomId, WebSocketMessage.builder()
+                .type(type)
+                .roomId(roomId)
+                // 携带的完整内容截至该 seq（调用前已发送合并中的增量）
+                .seq(replay != null ? replay.lastSeq() : null)
+                .message(ChatRoom.Message.builder()
+                        .id(messageId)
+                        .senderId(provider.getBotUsername())
+                        .senderName(provider.getBotUsername())
+                        .senderAvatar(provider.getBotAvatarUrl())
+                        .content(accumulator.content())
+                        .toolCalls(toolCalls)
+                        .isToolCall(true)
+                        .isStreaming(true)
+                        .fromOpenClaw(true)
+                        .replyToMessageId(task.getSourceMessageId())
+                        .timestamp(Instant.now())
+                        .build())
+                .build());
+    }
+
+    /**
+     * 流式请求失败
+     * 机器人认为可重试且尚未输出任何内容时按退避策略重新排队（不阻塞当前线程），否则标记任务失败
+     */
+    private void onBotStreamFailure(BotReplyProvider provider, String roomId, String streamingMessageId,
+                                    StreamAccumulator accumulator, Throwable error, OpenClawTask task) {
+        String taskId = task.getTaskId();
+        log.error("{} streaming error in task {}", provider.getDisplayName(), taskId, error);
+        if (provider.isRetryable(error) && accumulator.length() == 0 && accumulator.toolCalls().isEmpty()) {
+            long delayMs = taskQueueService.retryTask(roomId, provider.getBotType(), task, String.valueOf(error.getMessage()));
+            if (delayMs >= 0) {
+                handleBotStreamRetry(provider, roomId, streamingMessageId, task, delayMs);
+                return;
+            }
         }
+        task.setStatus(OpenClawTask.TaskStatus.FAILED);
+        taskQueueService.markTaskFailed(taskId);
+        handleBotStreamError(provider, roomId, streamingMessageId, accumulator.content(), error.getMessage(), task);
+        taskQueueService.onTaskComplete(roomId, provider.getBotType(), taskId);
+    }
+
+    /**
+     * 任务将重试：结束本次的流式占位消息，提示重试时间
+     */
+    private void handleBotStreamRetry(BotReplyProvider provider, String roomId, String messageId, OpenClawTask task, long delayMs) {
+        closeStreamDeltas(messageId);
+        streamCheckpointService.untrack(messageId);
+
+        ChatRoom.Message retryMsg = ChatRoom.Message.builder()
+                .id(messageId)
+                .senderId(provider.getBotUsername())
+                .senderName(provider.getBotUsername())
+                .content(String.format("*(%s 会话繁忙，%d 秒后自动重试，第 %d 次)*",
+                        provider.getDisplayName(), Math.max(1, Math.round(delayMs / 1000.0)), task.getAttempts()))
+                .timestamp(Instant.now())
+                .openclawMentioned(false)
+                .fromOpenClaw(true)
+                .isStreaming(false)
+                .replyToMessageId(task.getSourceMessageId())
+                .build();
+
+        chatRoomService.updateMessage(roomId, retryMsg);
+        broadcastToRoom(roomId, WebSocketMessage.builder()
+                .type("stream_end")
+                .roomId(roomId)
+                .message(retryMsg)
+                .build());
     }
 
     /**
-     * 处理 Kimi 流式错误
+     * 处理流式错误：保留已输出的内容并附上错误信息
      */
-    private void handleKimiStreamError(String roomId, String messageId, String partialContent, String error, OpenClawTask task) {
+    private void handleBotStreamError(BotReplyProvider provider, String roomId, String messageId, String partialContent,
+                                      String error, OpenClawTask task) {
+        // stream_end 之前发送剩余的增量
+        closeStreamDeltas(messageId);
+        streamCheckpointService.untrack(messageId);
+
+        // 更新消息为错误状态 - senderAvatar 为 null，让前端显示默认机器人头像
         ChatRoom.Message errorMsg = ChatRoom.Message.builder()
                 .id(messageId)
-                .senderId(kimiPluginService.getBotUsername())
-                .senderName(kimiPluginService.getBotUsername())
+                .senderId(provider.getBotUsername())
+                .senderName(provider.getBotUsername())
                 .content(partialContent + "\n\n[错误: " + error + "]")
                 .timestamp(Instant.now())
                 .openclawMentioned(false)
                 .fromOpenClaw(true)
                 .isStreaming(false)
+                .replyToMessageId(task.getSourceMessageId())
                 .build();
 
         chatRoomService.updateMessage(roomId, errorMsg);
 
+        // 广播错误完成
         broadcastToRoom(roomId, WebSocketMessage.builder()
                 .type("stream_end")
                 .roomId(roomId)
@@ -819,65 +1001,99 @@ public class ChatWebSocketHandler extends TextWebSocketHandler {
     }
 
     /**
-     * 完成 Kimi 流式消息
+     * 完成流式消息：保存最终内容到聊天室和 OOC 会话，广播 stream_end
      */
-    private void finalizeKimiStreamMessage(String roomId, String messageId, String finalContent, OpenClawTask task) {
-        log.info("Finalizing Kimi stream message for task {}: contentLength={}, isNull={}, isEmpty={}",
-                task.getTaskId(),
-                finalContent != null ? finalContent.length() : -1,
-                finalContent == null,
-                finalContent != null ? finalContent.isEmpty() : "N/A");
+    private void finalizeBotStreamMessage(BotReplyProvider provider, String roomId, String messageId,
+                                          StreamAccumulator accumulator, OpenClawTask task) {
+        // stream_end 之前发送剩余的增量，停止检查点后写入最终内容
+        ToolCallRecognizer recognizer = toolCallRecognizers.remove(messageId);
+        closeStreamDeltas(messageId);
+        streamCheckpointService.untrack(messageId);
+
+        String finalContent = accumulator.content();
+        List<ChatRoom.Message.ToolCall> toolCalls = accumulator.toolCalls();
+
+        // 详细日志：记录内容状态以便诊断
+        log.info("Finalizing {} stream message for task {}: contentLength={}, isBlank={}, toolCalls={}",
+                provider.getDisplayName(), task.getTaskId(), finalContent.length(), finalContent.isBlank(), toolCalls.size());
+
+        // 如果内容为空，设置为提示文本
+        if (finalContent.isEmpty()) {
+            log.warn("{} stream message finalized with empty content for task {}, setting placeholder text",
+                    provider.getDisplayName(), task.getTaskId());
+            finalContent = "*(" + provider.getDisplayName() + " 无回复)*";
+        } else if (finalContent.isBlank()) {
+            // 内容只包含空白字符，保留原始内容但记录警告
+            log.warn("Stream message finalized with blank content (whitespace only) for task {}, content will be preserved", task.getTaskId());
+        }
 
-        if (finalContent == null || finalContent.isEmpty()) {
-            log.warn("Kimi stream message finalized with empty content for task {}, setting placeholder text", task.getTaskId());
-            finalContent = "*(Kimi 无回复)*";
+        if (recognizer != null) {
+            // 使用流式过程中收集的工具调用（如果有），否则使用从内容中识别的工具，再填充 Tool details
+            // 内容已在流式过程中逐段识别，这里只处理最后一行
+            recognizer.complete();
+            toolCalls = recognizer.enrich(toolCalls.isEmpty() ? recognizer.toolCalls() : toolCalls);
+            if (!toolCalls.isEmpty()) {
+                toolCalls.forEach(tc -> log.info("  Tool: {} - result length={}", tc.getName(),
+                        tc.getResult() != null ? tc.getResult().length() : 0));
+            }
         }
 
+        // 创建最终消息 - senderAvatar 为 null，让前端显示默认机器人头像
         ChatRoom.Message finalMsg = ChatRoom.Message.builder()
                 .id(messageId)
-                .senderId(kimiPluginService.getBotUsername())
-                .senderName(kimiPluginService.getBotUsername())
+                .senderId(provider.getBotUsername())
+                .senderName(provider.getBotUsername())
                 .content(finalContent)
                 .timestamp(Instant.now())
                 .openclawMentioned(false)
                 .fromOpenClaw(true)
                 .isStreaming(false)
+                .isToolCall(!toolCalls.isEmpty())
+                .toolCalls(toolCalls)
                 .replyToMessageId(task.getSourceMessageId())
                 .build();
 
+        // 保存到 OOC 会话
         oocSessionService.addMessage(roomId, OocSession.SessionMessage.builder()
                 .id(UUID.randomUUID().toString())
-                .senderId(kimiPluginService.getBotUsername())
-                .senderName(kimiPluginService.getBotUsername())
+                .senderId(provider.getBotUsername())
+                .senderName(provider.getBotUsername())
                 .content(finalContent)
                 .timestamp(Instant.now())
                 .fromOpenClaw(true)
                 .build());
 
+        // 更新聊天室消息
         chatRoomService.updateMessage(roomId, finalMsg);
 
+        // 广播流结束
         broadcastToRoom(roomId, WebSocketMessage.builder()
                 .type("stream_end")
                 .roomId(roomId)
                 .message(finalMsg)
                 .build());
 
-        log.info("Kimi stream message finalized for task {}, content length: {}",
-                task.getTaskId(), finalContent.length());
+        if (provider.sendsOverMessage()) {
+            sendOverMessage(roomId, task.getSourceMessageId());
+        }
+
+        log.info("{} stream message finalized for task {}, content length: {}, toolCalls: {}",
+                provider.getDisplayName(), task.getTaskId(), finalContent.length(), toolCalls.size());
     }
 
     /**
-     * 发送 Kimi 排队状态消息
+     * 发送排队状态消息
      */
-    private void sendKimiQueueStatusMessage(String roomId, String taskId, String sourceMessageId, int position) {
+    private void sendQueueStatusMessage(BotReplyProvider provider, String roomId, String sourceMessageId, int position) {
         String statusText = position == 0
-                ? "🤖 Kimi 任务已加入队列，正在准备处理..."
-                : String.format("🤖 Kimi 任务已加入队列，当前排第 %d 位...", position + 1);
+                ? String.format("🤖 %s 任务已加入队列，正在准备处理...", provider.getDisplayName())
+                : String.format("🤖 %s 任务已加入队列，当前排第 %d 位...", provider.getDisplayName(), position + 1);
 
+        // senderAvatar 为 null，让前端显示默认机器人头像
         ChatRoom.Message message = ChatRoom.Message.builder()
                 .id(UUID.randomUUID().toString())
-                .senderId(kimiPluginService.getBotUsername())
-                .senderName(kimiPluginService.getBotUsername())
+                .senderId(provider.getBotUsername())
+                .senderName(provider.getBotUsername())
                 .content(statusText)
                 .timestamp(Instant.now())
                 .openclawMentioned(false)
@@ -892,1189 +1108,16 @@ public class ChatWebSocketHandler extends TextWebSocketHandler {
                 .build());
     }
 
-    // ========== Claude Code 任务处理 ==========
-
-    private void triggerClaude(String roomId, String content, List<Attachment> attachments, WebSocketUserInfo userInfo, String sourceMessageId) {
-        log.info("Adding Claude task to queue for room: {}, content: {}, attachments: {}",
-                roomId,
-                content != null ? content.substring(0, Math.min(50, content.length())) : "",
-                attachments != null ? attachments.size() : 0);
-
-        // 添加任务到持久化队列
-        String taskId = taskQueueService.addTask(roomId, content, attachments, userInfo, sourceMessageId, BotTaskQueue.BotType.CLAUDE);
-        int queueSize = taskQueueService.getQueueSize(roomId, BotTaskQueue.BotType.CLAUDE);
-
-        log.info("Claude task {} added to room {} queue. Queue size: {}", taskId, roomId, queueSize);
-
-        // 发送排队状态消息
-        sendClaudeQueueStatusMessage(roomId, taskId, sourceMessageId, queueSize - 1);
-
-        // 尝试启动队列处理
-        taskQueueService.tryProcessNext(roomId, BotTaskQueue.BotType.CLAUDE);
-    }
-
     /**
-     * 执行 Claude 任务（流式版本）
+     * 发送任务失败消息
      */
-    private void executeClaudeTask(OpenClawTask task) {
-        String roomId = task.getRoomId();
-        String taskId = task.getTaskId();
-
-        log.info("Executing Claude task {} for room {} (streaming)", taskId, roomId);
-
-        task.setStatus(OpenClawTask.TaskStatus.PROCESSING);
-
-        // 获取机器人信息
-        String botUsername = claudeCodePluginService.getBotUsername();
-        String botAvatarUrl = claudeCodePluginService.getBotAvatarUrl();
-
-        // 创建流式消息占位符
-        String streamingMessageId = UUID.randomUUID().toString();
-        ChatRoom.Message streamingMessage = ChatRoom.Message.builder()
-                .id(streamingMessageId)
-                .senderId(claudeCodePluginService.getBotUsername())
-                .senderName(claudeCodePluginService.getBotUsername())
-                .senderAvatar(botAvatarUrl)
-                .content("") // 初始为空
-                .timestamp(Instant.now())
-                .openclawMentioned(false)
-                .fromOpenClaw(true)
-                .isStreaming(true) // 标记为流式消息
-                .replyToMessageId(task.getSourceMessageId())
-                .build();
-
-        try {
-            // 保存到数据库并广播
-            chatRoomService.addMessage(roomId, streamingMessage);
-            log.info("[Claude] Broadcasting stream_start with replyToMessageId: {} (task sourceMessageId: {})",
-                    streamingMessage.getReplyToMessageId(), task.getSourceMessageId());
-            broadcastToRoom(roomId, WebSocketMessage.builder()
-                    .type("stream_start")
-                    .roomId(roomId)
-                    .message(streamingMessage)
-                    .build());
-        } catch (Exception e) {
-            log.error("Failed to initialize Claude streaming message for task {}: {}", taskId, e.getMessage(), e);
-            task.setStatus(OpenClawTask.TaskStatus.FAILED);
-            taskQueueService.onTaskComplete(roomId, BotTaskQueue.BotType.CLAUDE, taskId);
-            return;
-        }
-
-        // 使用 AtomicReference 来累积内容
-        AtomicReference<StringBuilder> contentBuilder = new AtomicReference<>(new StringBuilder());
-
-        try {
-            // 获取或创建会话
-            Optional<ChatRoom> roomOpt = chatRoomService.getChatRoom(roomId);
-            if (roomOpt.isEmpty()) {
-                throw new RuntimeException("Room not found: " + roomId);
-            }
-
-            ChatRoom room = roomOpt.get();
-
-            // 检查现有会话
-            String claudeSessionId = room.getOpenClawSessions() != null ?
-                    room.getOpenClawSessions().stream()
-                            .filter(ChatRoom.OpenClawSession::isActive)
-                            .findFirst()
-                            .map(ChatRoom.OpenClawSession::getSessionId)
-                            .orElse(null)
-                    : null;
-
-            if (claudeSessionId != null && !claudeCodePluginService.isSessionAlive(claudeSessionId)) {
-                log.info("Claude session {} is not alive, will create new", claudeSessionId);
-                claudeSessionId = null;
-            }
-
-            final String finalSessionId = claudeSessionId;
-
-            // 获取房间名称
-            String roomName = chatRoomService.getChatRoom(roomId)
-                    .map(ChatRoom::getName)
-                    .orElse("聊天室");
-
-            if (finalSessionId == null) {
-                // 创建新会话
-                log.info("Creating new Claude session for room: {}", roomId);
-
-                // 使用 oocSessionService 获取或创建会话并构建上下文
-                reactor.core.Disposable subscription = oocSessionService.getOrCreateSession("ooc-" + roomId, roomId)
-                        .flatMap(oocSession -> {
-                            if (oocSession.getMessages().size() > 30) {
-                                return oocSessionService.summarizeAndCompact(oocSession)
-                                        .thenReturn(oocSession);
-                            }
-                            return reactor.core.publisher.Mono.just(oocSession);
-                        })
-                        .flatMap(oocSession -> {
-                            List<Map<String, Object>> context = convertToContext(oocSession);
-                            log.info("Creating Claude session with {} context messages", context.size());
-                            return claudeCodePluginService.createSession("ooc-" + roomId, context);
-                        })
-                        .flatMapMany(newSession -> {
-                            chatRoomService.updateOpenClawSession(roomId, newSession.sessionId());
-                            log.info("Claude session created: {}", newSession.sessionId());
-                            return claudeCodePluginService.sendMessageStream(
-                                    newSession.sessionId(),
-                                    task.getContent(),
-                                    task.getAttachments(),
-                                    task.getUserInfo().getUserId(),
-                                    task.getUserInfo().getUserName(),
-                                    roomName
-                            );
-                        })
-                        .subscribe(
-                                event -> handleClaudeStreamEvent(roomId, streamingMessageId, contentBuilder, streamingMessage, event, task),
-                                error -> {
-                                    log.error("Claude streaming error in task {}", taskId, error);
-                                    task.setStatus(OpenClawTask.TaskStatus.FAILED);
-                                    taskQueueService.markTaskFailed(taskId);
-                                    handleClaudeStreamError(roomId, streamingMessageId, contentBuilder.get().toString(), error.getMessage(), task);
-                                    taskQueueService.onTaskComplete(roomId, BotTaskQueue.BotType.CLAUDE, taskId);
-                                },
-                                () -> {
-                                    log.info("Claude streaming completed for task {}", taskId);
-                                    task.setStatus(OpenClawTask.TaskStatus.COMPLETED);
-                                    taskQueueService.markTaskCompleted(taskId);
-                                    finalizeClaudeStreamMessage(roomId, streamingMessageId, contentBuilder.get().toString(), task);
-                                    taskQueueService.onTaskComplete(roomId, BotTaskQueue.BotType.CLAUDE, taskId);
-                                }
-                        );
-                taskQueueService.registerTaskSubscription(taskId, subscription);
-            } else {
-                // 使用现有会话
-                log.info("Using existing Claude session: {}", finalSessionId);
-                reactor.core.Disposable subscription = claudeCodePluginService.sendMessageStream(
-                                finalSessionId,
-                                task.getContent(),
-                                task.getAttachments(),
-                                task.getUserInfo().getUserId(),
-                                task.getUserInfo().getUserName(),
-                                roomName
-                        )
-                        .subscribe(
-                                event -> handleClaudeStreamEvent(roomId, streamingMessageId, contentBuilder, streamingMessage, event, task),
-                                error -> {
-                                    log.error("Claude streaming error in task {}", taskId, error);
-                                    task.setStatus(OpenClawTask.TaskStatus.FAILED);
-                                    taskQueueService.markTaskFailed(taskId);
-                                    handleClaudeStreamError(roomId, streamingMessageId, contentBuilder.get().toString(), error.getMessage(), task);
-                                    taskQueueService.onTaskComplete(roomId, BotTaskQueue.BotType.CLAUDE, taskId);
-                                },
-                                () -> {
-                                    log.info("Claude streaming completed for task {}", taskId);
-                                    task.setStatus(OpenClawTask.TaskStatus.COMPLETED);
-                                    taskQueueService.markTaskCompleted(taskId);
-                                    finalizeClaudeStreamMessage(roomId, streamingMessageId, contentBuilder.get().toString(), task);
-                                    taskQueueService.onTaskComplete(roomId, BotTaskQueue.BotType.CLAUDE, taskId);
-                                }
-                        );
-                taskQueueService.registerTaskSubscription(taskId, subscription);
-            }
-        } catch (Exception e) {
-            log.error("Error executing Claude task {}", taskId, e);
-            task.setStatus(OpenClawTask.TaskStatus.FAILED);
-            taskQueueService.markTaskFailed(taskId);
-            taskQueueService.onTaskComplete(roomId, BotTaskQueue.BotType.CLAUDE, taskId);
-        }
-    }
-
-    /**
-     * 处理 Claude 流式事件
-     */
-    private void handleClaudeStreamEvent(String roomId, String messageId,
-                                          AtomicReference<StringBuilder> contentBuilder,
-                                          ChatRoom.Message streamingMessage,
-                                          ClaudeCodePluginService.StreamEvent event,
-                                          OpenClawTask task) {
-
-        log.debug("Claude stream event for task {}: type={}, contentLength={}",
-                task.getTaskId(), event.type(),
-                event.content() != null ? event.content().length() : 0);
-
-        switch (event.type()) {
-            case "message" -> {
-                if (event.content() != null) {
-                    contentBuilder.get().append(event.content());
-
-                    log.debug("Appending Claude content for task {}: newChars={}, totalChars={}",
-                            task.getTaskId(), event.content().length(), contentBuilder.get().length());
-
-                    // 创建增量更新消息
-                    ChatRoom.Message deltaMessage = ChatRoom.Message.builder()
-                            .id(messageId)
-                            .senderId(claudeCodePluginService.getBotUsername())
-                            .senderName(claudeCodePluginService.getBotUsername())
-                            .senderAvatar(claudeCodePluginService.getBotAvatarUrl())
-                            .content(event.content()) // 只发送增量内容
-                            .timestamp(Instant.now())
-                            .openclawMentioned(false)
-                            .fromOpenClaw(true)
-                            .isStreaming(true)
-                            .delta(true) // 标记为增量更新
-                            .replyToMessageId(task.getSourceMessageId())
-                            .build();
-
-                    // 广播增量更新
-                    broadcastToRoom(roomId, WebSocketMessage.builder()
-                            .type("stream_delta")
-                            .roomId(roomId)
-                            .message(deltaMessage)
-                            .build());
-                }
-            }
-            case "done" -> log.info("Claude stream done event received for task {}", task.getTaskId());
-            case "error" -> log.error("Claude stream error for task {}: {}", task.getTaskId(), event.content());
-        }
-    }
-
-    /**
-     * 处理 Claude 流式错误
-     */
-    private void handleClaudeStreamError(String roomId, String messageId, String partialContent, String error, OpenClawTask task) {
-        ChatRoom.Message errorMsg = ChatRoom.Message.builder()
-                .id(messageId)
-                .senderId(claudeCodePluginService.getBotUsername())
-                .senderName(claudeCodePluginService.getBotUsername())
-                .senderAvatar(claudeCodePluginService.getBotAvatarUrl())
-                .content(partialContent + "\n\n*(Claude 回复出错: " + error + " )*")
-                .timestamp(Instant.now())
-                .openclawMentioned(false)
-                .fromOpenClaw(true)
-                .isStreaming(false)
-                .build();
-
-        chatRoomService.updateMessage(roomId, errorMsg);
-
-        broadcastToRoom(roomId, WebSocketMessage.builder()
-                .type("stream_end")
-                .roomId(roomId)
-                .message(errorMsg)
-                .build());
-    }
-
-    /**
-     * 完成 Claude 流式消息
-     */
-    private void finalizeClaudeStreamMessage(String roomId, String messageId, String finalContent, OpenClawTask task) {
-        log.info("Finalizing Claude stream message for task {}: contentLength={}, isNull={}, isEmpty={}",
-                task.getTaskId(),
-                finalContent != null ? finalContent.length() : 0,
-                finalContent == null,
-                finalContent != null && finalContent.isEmpty());
-
-        // 如果内容为空，设置一个占位符
-        if (finalContent == null || finalContent.isEmpty()) {
-            log.warn("Claude stream message finalized with empty content for task {}, setting placeholder text", task.getTaskId());
-            finalContent = "*(Claude 无回复)*";
-        }
-
-        ChatRoom.Message finalMsg = ChatRoom.Message.builder()
-                .id(messageId)
-                .senderId(claudeCodePluginService.getBotUsername())
-                .senderName(claudeCodePluginService.getBotUsername())
-                .senderAvatar(claudeCodePluginService.getBotAvatarUrl())
-                .content(finalContent)
-                .timestamp(Instant.now())
-                .openclawMentioned(false)
-                .fromOpenClaw(true)
-                .isStreaming(false)
-                .replyToMessageId(task.getSourceMessageId())
-                .build();
-
-        ChatRoom.Message saveMsg = ChatRoom.Message.builder()
-                .id(messageId)
-                .senderId(claudeCodePluginService.getBotUsername())
-                .senderName(claudeCodePluginService.getBotUsername())
-                .senderAvatar(claudeCodePluginService.getBotAvatarUrl())
-                .content(finalContent)
-                .timestamp(Instant.now())
-                .fromOpenClaw(true)
-                .toolCalls(null)
-                .build();
-
-        chatRoomService.updateMessage(roomId, saveMsg);
-
-        broadcastToRoom(roomId, WebSocketMessage.builder()
-                .type("stream_end")
-                .roomId(roomId)
-                .message(finalMsg)
-                .build());
-
-        log.info("Claude stream message finalized for task {}, content length: {}",
-                task.getTaskId(), finalContent.length());
-    }
-
-    /**
-     * 发送 Claude 排队状态消息
-     */
-    private void sendClaudeQueueStatusMessage(String roomId, String taskId, String sourceMessageId, int position) {
-        String statusText = position == 0
-                ? "🤖 Claude 任务已加入队列，正在准备处理..."
-                : String.format("🤖 Claude 任务已加入队列，当前排第 %d 位...", position + 1);
-
-        ChatRoom.Message message = ChatRoom.Message.builder()
-                .id(UUID.randomUUID().toString())
-                .senderId(claudeCodePluginService.getBotUsername())
-                .senderName(claudeCodePluginService.getBotUsername())
-                .content(statusText)
-                .timestamp(Instant.now())
-                .openclawMentioned(false)
-                .fromOpenClaw(true)
-                .replyToMessageId(sourceMessageId)
-                .build();
-
-        chatRoomService.addMessage(roomId, message);
-        broadcastToRoom(roomId, WebSocketMessage.builder()
-                .type("message")
-                .message(message)
-                .build());
-    }
-
-    private void triggerOpenClaw(String roomId, String content, List<Attachment> attachments, WebSocketUserInfo userInfo, String sourceMessageId) {
-        log.info("Adding OpenClaw task to queue for room: {}, content: {}, attachments: {}",
-                roomId,
-                content != null ? content.substring(0, Math.min(50, content.length())) : "",
-                attachments != null ? attachments.size() : 0);
-
-        // 添加任务到持久化队列
-        String taskId = taskQueueService.addTask(roomId, content, attachments, userInfo, sourceMessageId, BotTaskQueue.BotType.OPENCLAW);
-        int queueSize = taskQueueService.getQueueSize(roomId, BotTaskQueue.BotType.OPENCLAW);
-
-        log.info("OpenClaw task {} added to room {} queue. Queue size: {}", taskId, roomId, queueSize);
-
-        // 发送排队状态消息
-        sendQueueStatusMessage(roomId, taskId, sourceMessageId, queueSize - 1);
-
-        // 尝试启动队列处理
-        taskQueueService.tryProcessNext(roomId, BotTaskQueue.BotType.OPENCLAW);
-    }
-
-    /**
-     * 执行 OpenClaw 任务（流式版本）
-     */
-    private void executeOpenClawTask(OpenClawTask task) {
-        String roomId = task.getRoomId();
-        String taskId = task.getTaskId();
-        
-        // 检查是否是流程图任务
-        if (task.getTaskType() == OpenClawTask.TaskType.FLOWCHART) {
-            log.info("Delegating flowchart task {} to FlowchartTaskQueueIntegration (instanceId={})", 
-                    taskId, task.getFlowchartInstanceId());
-            flowchartTaskQueueIntegration.executeFlowchartTask(task);
-            return;
-        }
-        
-        log.info("Executing OpenClaw task {} for room {} (streaming)", taskId, roomId);
-
-        task.setStatus(OpenClawTask.TaskStatus.PROCESSING);
-
-        // 获取机器人配置
-        String botUsername = openClawPluginService.getBotUsername();
-        String botAvatarUrl = openClawPluginService.getBotAvatarUrl();
-
-        // 创建流式消息 - 使用配置的机器人用户名和头像
-        String streamingMessageId = UUID.randomUUID().toString();
-        AtomicReference<StringBuilder> contentBuilder = new AtomicReference<>(new StringBuilder());
-        AtomicReference<ChatRoom.Message> streamingMessage = new AtomicReference<>(
-            ChatRoom.Message.builder()
-                .id(streamingMessageId)
-                .senderId(openClawPluginService.getBotUsername())
-                .senderName(openClawPluginService.getBotUsername())
-                .senderAvatar(botAvatarUrl)
-                .content("")
-                .timestamp(Instant.now())
-                .openclawMentioned(false)
-                .fromOpenClaw(true)
-                .isStreaming(true)
-                .toolCalls(new ArrayList<>())
-                .replyToMessageId(task.getSourceMessageId())
-                .build()
-        );
-
-        try {
-            // 保存初始消息到聊天室
-            chatRoomService.addMessage(roomId, streamingMessage.get());
-
-            // 广播流式消息开始
-            ChatRoom.Message msg = streamingMessage.get();
-            log.info("[OpenClaw] Broadcasting stream_start with replyToMessageId: {} (task sourceMessageId: {})",
-                    msg.getReplyToMessageId(), task.getSourceMessageId());
-            broadcastToRoom(roomId, WebSocketMessage.builder()
-                    .type("stream_start")
-                    .roomId(roomId)
-                    .message(msg)
-                    .build());
-        } catch (Exception e) {
-            log.error("Failed to initialize streaming message for task {}: {}", taskId, e.getMessage(), e);
-            task.setStatus(OpenClawTask.TaskStatus.FAILED);
-            taskQueueService.markTaskFailed(taskId);
-            taskQueueService.onTaskComplete(roomId, BotTaskQueue.BotType.OPENCLAW, taskId);
-            return;
-        }
-
-        chatRoomService.getChatRoom(roomId).ifPresentOrElse(room -> {
-            try {
-                String openClawSessionId = room.getOpenClawSessions() != null ?
-                    room.getOpenClawSessions().stream()
-                            .filter(ChatRoom.OpenClawSession::isActive)
-                            .findFirst()
-                            .map(ChatRoom.OpenClawSession::getSessionId)
-                            .orElse(null) : null;
-
-            // 检查会话是否存活
-            if (openClawSessionId != null && !openClawPluginService.isSessionAlive(openClawSessionId)) {
-                log.info("OpenClaw session {} is not alive, will create new", openClawSessionId);
-                openClawSessionId = null;
-            }
-
-            final String finalSessionId = openClawSessionId;
-
-            // 添加详细日志，确保每个房间使用独立的 session
-            log.info("[OpenClaw Session] Room {} using session: {}", roomId, finalSessionId != null ? finalSessionId : "(new session will be created)");
-
-            if (finalSessionId == null) {
-                // 创建新会话并发送流式消息
-                // 使用固定的 room-based session ID，避免 OpenClaw 路由问题
-                String roomBasedSessionId = "ooc-" + roomId;
-                log.info("Creating new OpenClaw session for room: {} with fixed sessionId: {}", roomId, roomBasedSessionId);
-                reactor.core.Disposable subscription = oocSessionService.getOrCreateSession(roomId, room.getName())
-                        .flatMap(oocSession -> {
-                            if (oocSession.getMessages().size() > 30) {
-                                return oocSessionService.summarizeAndCompact(oocSession)
-                                        .thenReturn(oocSession);
-                            }
-                            return reactor.core.publisher.Mono.just(oocSession);
-                        })
-                        .flatMap(oocSession -> {
-                            List<Map<String, Object>> context = convertToContext(oocSession);
-                            log.info("Creating OpenClaw session with {} context messages", context.size());
-                            // 使用固定的 room-based session ID
-                            return openClawPluginService.createSession(roomBasedSessionId, context);
-                        })
-                        .flatMapMany(newSession -> {
-                            // 使用 room-based session ID，不使用 OpenClaw 返回的 UUID
-                            chatRoomService.updateOpenClawSession(roomId, roomBasedSessionId);
-                            log.info("OpenClaw session created: {} (using room-based ID)", roomBasedSessionId);
-                            return openClawPluginService.sendMessageStream(
-                                    roomBasedSessionId,
-                                    task.getContent(),
-                                    task.getAttachments(),
-                                    task.getUserInfo().getUserId(),
-                                    task.getUserInfo().getUserName(),
-                                    room.getName(),
-                                    getEffectiveProjects(room));
-                        })
-                        .subscribe(
-                                event -> handleOpenClawStreamEvent(roomId, streamingMessageId, contentBuilder, streamingMessage, event, task),
-                                error -> {
-                                    log.error("OpenClaw streaming error in task {}", taskId, error);
-                                    // 检查是否是 SESSION_BUSY 错误，如果是则重新入队
-                                    if (error.getMessage() != null && error.getMessage().contains("SESSION_BUSY")) {
-                                        log.warn("Task {} received SESSION_BUSY, will requeue and retry", taskId);
-                                        task.setStatus(OpenClawTask.TaskStatus.PENDING);
-                                        taskQueueService.markTaskFailed(taskId); // 标记当前任务失败
-                                        // 重新添加任务到队列
-                                        taskQueueService.addTask(roomId, task.getContent(), task.getAttachments(), 
-                                                task.getUserInfo(), task.getSourceMessageId(), BotTaskQueue.BotType.OPENCLAW);
-                                        // 延迟一点再试
-                                        try {
-                                            Thread.sleep(500);
-                                        } catch (InterruptedException e) {
-                                            Thread.currentThread().interrupt();
-                                        }
-                                        taskQueueService.onTaskComplete(roomId, BotTaskQueue.BotType.OPENCLAW, taskId);
-                                    } else {
-                                        task.setStatus(OpenClawTask.TaskStatus.FAILED);
-                                        taskQueueService.markTaskFailed(taskId);
-                                        handleOpenClawStreamError(roomId, streamingMessageId, contentBuilder.get().toString(), error.getMessage(), task);
-                                        taskQueueService.onTaskComplete(roomId, BotTaskQueue.BotType.OPENCLAW, taskId);
-                                    }
-                                },
-                                () -> {
-                                    log.info("OpenClaw streaming completed for task {}", taskId);
-                                    task.setStatus(OpenClawTask.TaskStatus.COMPLETED);
-                                    taskQueueService.markTaskCompleted(taskId);
-                                    finalizeOpenClawStreamMessage(roomId, streamingMessageId, contentBuilder.get().toString(), task, streamingMessage.get().getToolCalls());
-                                    taskQueueService.onTaskComplete(roomId, BotTaskQueue.BotType.OPENCLAW, taskId);
-                                }
-                        );
-                // 注册订阅以便后续取消
-                taskQueueService.registerTaskSubscription(taskId, subscription);
-            } else {
-                // 使用现有会话发送流式消息
-                // 标准化为 room-based session ID
-                String roomBasedSessionId = "ooc-" + roomId;
-                if (!roomBasedSessionId.equals(finalSessionId)) {
-                    log.info("Converting session ID from {} to room-based ID: {}", finalSessionId, roomBasedSessionId);
-                    chatRoomService.updateOpenClawSession(roomId, roomBasedSessionId);
-                }
-                log.info("Using existing OpenClaw session: {} (room-based)", roomBasedSessionId);
-                reactor.core.Disposable subscription = openClawPluginService.sendMessageStream(
-                                roomBasedSessionId,
-                                task.getContent(),
-                                task.getAttachments(),
-                                task.getUserInfo().getUserId(),
-                                task.getUserInfo().getUserName(),
-                                room.getName(),
-                                getEffectiveProjects(room))
-                        .subscribe(
-                                event -> handleOpenClawStreamEvent(roomId, streamingMessageId, contentBuilder, streamingMessage, event, task),
-                                error -> {
-                                    log.error("OpenClaw streaming error in task {}", taskId, error);
-                                    task.setStatus(OpenClawTask.TaskStatus.FAILED);
-                                    taskQueueService.markTaskFailed(taskId);
-                                    handleOpenClawStreamError(roomId, streamingMessageId, contentBuilder.get().toString(), error.getMessage(), task);
-                                    taskQueueService.onTaskComplete(roomId, BotTaskQueue.BotType.OPENCLAW, taskId);
-                                },
-                                () -> {
-                                    log.info("OpenClaw streaming completed for task {}", taskId);
-                                    task.setStatus(OpenClawTask.TaskStatus.COMPLETED);
-                                    taskQueueService.markTaskCompleted(taskId);
-                                    finalizeOpenClawStreamMessage(roomId, streamingMessageId, contentBuilder.get().toString(), task, streamingMessage.get().getToolCalls());
-                                    taskQueueService.onTaskComplete(roomId, BotTaskQueue.BotType.OPENCLAW, taskId);
-                                }
-                        );
-                // 注册订阅以便后续取消
-                taskQueueService.registerTaskSubscription(taskId, subscription);
-            }
-            } catch (Exception e) {
-                log.error("Error in OpenClaw task execution for task {}: {}", taskId, e.getMessage(), e);
-                task.setStatus(OpenClawTask.TaskStatus.FAILED);
-                taskQueueService.markTaskFailed(taskId);
-                handleOpenClawStreamError(roomId, streamingMessageId, contentBuilder.get().toString(), e.getMessage(), task);
-                taskQueueService.onTaskComplete(roomId, BotTaskQueue.BotType.OPENCLAW, taskId);
-            }
-        }, () -> {
-            log.error("Chat room not found: {}", roomId);
-            task.setStatus(OpenClawTask.TaskStatus.FAILED);
-            taskQueueService.markTaskFailed(taskId);
-            taskQueueService.onTaskComplete(roomId, BotTaskQueue.BotType.OPENCLAW, taskId);
-        });
-    }
-
-    /**
-     * 处理 OpenClaw 流式事件
-     */
-    private void handleOpenClawStreamEvent(String roomId, String messageId,
-            AtomicReference<StringBuilder> contentBuilder,
-            AtomicReference<ChatRoom.Message> streamingMessage,
-            OpenClawPluginService.StreamEvent event,
-            OpenClawTask task) {
-
-        // 关键验证：确保事件被路由到正确的房间
-        if (!roomId.equals(task.getRoomId())) {
-            log.error("[CROSS-ROOM ERROR] Event routed to wrong room! Expected: {}, Task's room: {}. Discarding event.",
-                    roomId, task.getRoomId());
-            return;
-        }
-
-        // 检查任务是否被取消
-        if (taskQueueService.isTaskCancelled(task.getTaskId())) {
-            log.info("Task {} has been cancelled, stopping stream processing", task.getTaskId());
-            return;
-        }
-
-        log.info("OpenClaw stream event for task {}: type={}, contentLength={}, toolName={}, totalBuilderLength={}",
-                task.getTaskId(),
-                event.type(),
-                event.content() != null ? event.content().length() : 0,
-                event.toolName(),
-                contentBuilder.get().length());
-
-        if ("message".equals(event.type())) {
-            if (event.content() != null && !event.content().isEmpty()) {
-                // 追加内容
-                contentBuilder.get().append(event.content());
-                String currentContent = contentBuilder.get().toString();
-
-                log.info("Appending OpenClaw content for task {}: newChars={}, totalChars={}, seq={}",
-                        task.getTaskId(),
-                        event.content().length(), currentContent.length(), event.seq());
-
-                // 更新消息内容
-                ChatRoom.Message updatedMsg = streamingMessage.get().toBuilder()
-                        .content(currentContent)
-                        .build();
-                streamingMessage.set(updatedMsg);
-
-                // 广播增量更新（包含序列号用于前端排序）
-                broadcastToRoom(roomId, WebSocketMessage.builder()
-                        .type("stream_delta")
-                        .roomId(roomId)
-                        .seq(event.seq())
-                        .message(ChatRoom.Message.builder()
-                                .id(messageId)
-                                .content(event.content())
-                                .delta(true)
-                                .replyToMessageId(task.getSourceMessageId())
-                                .build())
-                        .build());
-            } else {
-                log.warn("Received empty content in message event for task {}", task.getTaskId());
-            }
-        } else if ("tool_start".equals(event.type())) {
-            // 新工具调用开始
-            String toolId = event.messageId() != null ? event.messageId() : UUID.randomUUID().toString();
-            String toolName = event.toolName() != null ? event.toolName() : "unknown";
-            String toolInput = event.toolInput() != null ? event.toolInput() : "";
-
-            // 记录工具调用在内容中的位置
-            int position = contentBuilder.get().length();
-
-            log.info("Tool call started for task {}: id={}, name={}, position={}, room={}", 
-                    task.getTaskId(), toolId, toolName, position, roomId);
-
-            // 创建工具调用记录
-            ChatRoom.Message.ToolCall toolCall = ChatRoom.Message.ToolCall.builder()
-                    .id(toolId)
-                    .name(toolName)
-                    .description(toolInput)
-                    .status("running")
-                    .timestamp(Instant.now())
-                    .position(position)
-                    .build();
-
-            // 添加到当前消息的工具调用列表
-            List<ChatRoom.Message.ToolCall> currentToolCalls = new ArrayList<>(streamingMessage.get().getToolCalls());
-            currentToolCalls.add(toolCall);
-
-            ChatRoom.Message updatedMsg = streamingMessage.get().toBuilder()
-                    .toolCalls(currentToolCalls)
-                    .isToolCall(true)
-                    .build();
-            streamingMessage.set(updatedMsg);
-
-            // 广播工具调用开始事件 - 包含完整消息内容，方便前端直接更新
-            log.info("Broadcasting tool_start event to room {}: tool={}", roomId, toolName);
-            broadcastToRoom(roomId, WebSocketMessage.builder()
-                    .type("tool_start")
-                    .roomId(roomId)
-                    .message(ChatRoom.Message.builder()
-                            .id(messageId)
-                            .senderId(openClawPluginService.getBotUsername())
-                            .senderName(openClawPluginService.getBotUsername())
-                            .senderAvatar(openClawPluginService.getBotAvatarUrl())
-                            .content(contentBuilder.get().toString())
-                            .toolCalls(currentToolCalls)
-                            .isToolCall(true)
-                            .isStreaming(true)
-                            .fromOpenClaw(true)
-                            .replyToMessageId(task.getSourceMessageId())
-                            .timestamp(Instant.now())
-                            .build())
-                    .build());
-
-        } else if ("tool_delta".equals(event.type())) {
-            // 工具参数更新（可选，如果需要实时更新参数）
-            log.debug("Tool delta for task {}: {}", task.getTaskId(), event.content());
-
-        } else if ("tool_result".equals(event.type())) {
-            // 工具执行完成 - 更新工具调用状态
-            String toolCallId = event.messageId();
-            String result = event.content();
-            boolean isError = event.isError();
-            
-            log.info("Tool result received for task {}: toolCallId={}, isError={}", task.getTaskId(), toolCallId, isError);
-            
-            // 更新消息中的工具调用状态
-            List<ChatRoom.Message.ToolCall> currentToolCalls = new ArrayList<>(streamingMessage.get().getToolCalls());
-            boolean found = false;
-            
-            for (int i = 0; i < currentToolCalls.size(); i++) {
-                ChatRoom.Message.ToolCall tc = currentToolCalls.get(i);
-                if (tc.getId().equals(toolCallId)) {
-                    // 根据错误状态设置正确的状态值
-                    String status = isError ? "failed" : "completed";
-                    currentToolCalls.set(i, tc.toBuilder()
-                            .status(status)
-                            .result(result)
-                            .build());
-                    found = true;
-                    log.info("Updated tool call {} to {} status", tc.getName(), status);
-                    break;
-                }
-            }
-            
-            if (found) {
-                ChatRoom.Message updatedMsg = streamingMessage.get().toBuilder()
-                        .toolCalls(currentToolCalls)
-                        .build();
-                streamingMessage.set(updatedMsg);
-
-                // 广播工具调用完成事件到前端 - 包含完整消息内容
-                log.info("Broadcasting tool_result event to room {}: tool={}, status={}", roomId, toolCallId, isError ? "error" : "completed");
-                broadcastToRoom(roomId, WebSocketMessage.builder()
-                        .type("tool_result")
-                        .roomId(roomId)
-                        .message(ChatRoom.Message.builder()
-                                .id(messageId)
-                                .senderId(openClawPluginService.getBotUsername())
-                                .senderName(openClawPluginService.getBotUsername())
-                                .senderAvatar(openClawPluginService.getBotAvatarUrl())
-                                .content(contentBuilder.get().toString())
-                                .toolCalls(currentToolCalls)
-                                .isToolCall(true)
-                                .isStreaming(true)
-                                .fromOpenClaw(true)
-                                .replyToMessageId(task.getSourceMessageId())
-                                .timestamp(Instant.now())
-                                .build())
-                        .build());
-                log.info("Tool result broadcast completed for room {}: tool={}", roomId, toolCallId);
-            } else {
-                log.warn("Tool result received but toolCallId {} not found in message {}. Available tool calls: {}", 
-                        toolCallId, messageId, 
-                        currentToolCalls.stream().map(tc -> tc.getId()).toList());
-            }
-
-        } else if ("done".equals(event.type())) {
-            // 流结束，在 onComplete 中处理
-            log.info("Stream done event received for task {}", task.getTaskId());
-        } else if ("error".equals(event.type())) {
-            log.error("Stream error for task {}: {}", task.getTaskId(), event.content());
-        }
-    }
-
-    /**
-     * 处理流式错误
-     */
-    private void handleOpenClawStreamError(String roomId, String messageId, String partialContent, String error, OpenClawTask task) {
-        // 更新消息为错误状态 - senderAvatar 为 null，让前端显示默认机器人头像
-        ChatRoom.Message errorMsg = ChatRoom.Message.builder()
-                .id(messageId)
-                .senderId(openClawPluginService.getBotUsername())
-                .senderName(openClawPluginService.getBotUsername())
-                .content(partialContent + "\n\n[错误: " + error + "]")
-                .timestamp(Instant.now())
-                .openclawMentioned(false)
-                .fromOpenClaw(true)
-                .isStreaming(false)
-                .build();
-
-        chatRoomService.updateMessage(roomId, errorMsg);
-
-        // 广播错误完成
-        broadcastToRoom(roomId, WebSocketMessage.builder()
-                .type("stream_end")
-                .roomId(roomId)
-                .message(errorMsg)
-                .build());
-    }
-
-    /**
-     * 完成流式消息
-     */
-    private void finalizeOpenClawStreamMessage(String roomId, String messageId, String finalContent, OpenClawTask task, List<ChatRoom.Message.ToolCall> streamingToolCalls) {
-        // 详细日志：记录内容状态以便诊断
-        log.info("Finalizing stream message for task {}: contentLength={}, isNull={}, isEmpty={}, isBlank={}, toolCalls={}",
-                task.getTaskId(),
-                finalContent != null ? finalContent.length() : -1,
-                finalContent == null,
-                finalContent != null ? finalContent.isEmpty() : "N/A",
-                finalContent != null ? finalContent.isBlank() : "N/A",
-                streamingToolCalls != null ? streamingToolCalls.size() : 0);
-
-        // 如果内容为空，设置为提示文本
-        if (finalContent == null || finalContent.isEmpty()) {
-            log.warn("Stream message finalized with empty content for task {}, setting placeholder text", task.getTaskId());
-            finalContent = "*(OpenClaw 无回复)*";
-        } else if (finalContent.isBlank()) {
-            // 内容只包含空白字符，保留原始内容但记录警告
-            log.warn("Stream message finalized with blank content (whitespace only) for task {}, content will be preserved", task.getTaskId());
-        }
-
-        // 使用流式过程中收集的工具调用（如果有），否则从内容解析
-        List<ChatRoom.Message.ToolCall> toolCalls = (streamingToolCalls != null && !streamingToolCalls.isEmpty())
-                ? streamingToolCalls
-                : parseToolCalls(finalContent);
-
-        // 从内容中解析 Tool details 并填充到工具调用中
-        toolCalls = enrichToolCallsWithDetails(finalContent, toolCalls);
-
-        log.info("finalizeOpenClawStreamMessage: parsed {} tool calls for task {}", toolCalls.size(), task.getTaskId());
-        if (!toolCalls.isEmpty()) {
-            toolCalls.forEach(tc -> log.info("  Tool: {} - result length={}", tc.getName(),
-                    tc.getResult() != null ? tc.getResult().length() : 0));
-        }
-
-        // 创建最终消息 - senderAvatar 为 null，让前端显示默认机器人头像
-        ChatRoom.Message finalMsg = ChatRoom.Message.builder()
-                .id(messageId)
-                .senderId(openClawPluginService.getBotUsername())
-                .senderName(openClawPluginService.getBotUsername())
-                .content(finalContent)
-                .timestamp(Instant.now())
-                .openclawMentioned(false)
-                .fromOpenClaw(true)
-                .isStreaming(false)
-                .isToolCall(!toolCalls.isEmpty())
-                .toolCalls(toolCalls)
-                .replyToMessageId(task.getSourceMessageId())
-                .build();
-
-        // 保存到 OOC 会话
-        oocSessionService.addMessage(roomId, OocSession.SessionMessage.builder()
-                .id(UUID.randomUUID().toString())
-                .senderId(openClawPluginService.getBotUsername())
-                .senderName(openClawPluginService.getBotUsername())
-                .content(finalContent)
-                .timestamp(Instant.now())
-                .fromOpenClaw(true)
-                .build());
-
-        // 更新聊天室消息
-        System.out.println("DEBUG: About to update message " + messageId + " with content length: " + finalContent.length());
-        chatRoomService.updateMessage(roomId, finalMsg);
-        System.out.println("DEBUG: Message update called for " + messageId);
-
-        // 广播流结束
-        broadcastToRoom(roomId, WebSocketMessage.builder()
-                .type("stream_end")
-                .roomId(roomId)
-                .message(finalMsg)
-                .build());
-
-        // 发送 over 消息
-        sendOverMessage(roomId, task.getSourceMessageId());
-
-        log.info("Stream message finalized for task {}, content length: {}, toolCalls: {}",
-                task.getTaskId(), finalContent.length(), toolCalls.size());
-    }
-
-    /**
-     * 从内容中解析工具调用
-     */
-    private List<ChatRoom.Message.ToolCall> parseToolCalls(String content) {
-        List<ChatRoom.Message.ToolCall> toolCalls = new ArrayList<>();
-
-        if (content == null) {
-            log.debug("parseToolCalls: content is null");
-            return toolCalls;
-        }
-
-        // 检查是否有 Tools used 部分（支持多种格式）
-        String toolsMarker = "**Tools used:**";
-        int toolsStart = content.indexOf(toolsMarker);
-
-        if (toolsStart == -1) {
-            // 尝试其他可能的格式
-            toolsMarker = "Tools used:";
-            toolsStart = content.indexOf(toolsMarker);
-        }
-        
-        // 尝试中文格式
-        if (toolsStart == -1) {
-            toolsMarker = "**使用的工具：**";
-            toolsStart = content.indexOf(toolsMarker);
-        }
-
-        if (toolsStart == -1) {
-            log.debug("parseToolCalls: no Tools used section found in content of length {}", content.length());
-            // 尝试从内容中直接检测工具调用（备选方案）
-            return detectToolsFromContent(content);
-        }
-
-        log.info("parseToolCalls: found Tools used section at index {}", toolsStart);
-
-        int toolsEnd = content.length();
-        int searchStart = toolsStart + toolsMarker.length();
-
-        // 查找 Tools used 部分的结束位置（下一个双换行或章节标题）
-        int nextDoubleNewline = content.indexOf("\n\n", searchStart);
-        int nextSection = content.indexOf("**", searchStart);
-
-        if (nextDoubleNewline != -1 && (nextSection == -1 || nextDoubleNewline < nextSection)) {
-            toolsEnd = nextDoubleNewline;
-        } else if (nextSection != -1) {
-            toolsEnd = nextSection;
-        }
-
-        String toolsSection = content.substring(toolsStart, Math.min(toolsEnd, content.length()));
-        log.debug("parseToolCalls: tools section length = {}", toolsSection.length());
-        log.debug("parseToolCalls: tools section content: {}", toolsSection);
-
-        String[] toolLines = toolsSection.split("\n");
-
-        for (String line : toolLines) {
-            line = line.trim();
-            // 支持多种格式：- `tool_name`: description 或 - tool_name: description
-            if (line.startsWith("- ") || line.startsWith("• ") || line.startsWith("* ")) {
-                String toolName = null;
-                String description = "";
-
-                // 尝试格式：- `tool_name`: description
-                if (line.contains("`")) {
-                    int nameStart = line.indexOf("`") + 1;
-                    int nameEnd = line.indexOf("`", nameStart);
-                    if (nameEnd > nameStart) {
-                        toolName = line.substring(nameStart, nameEnd);
-                        int descStart = line.indexOf(":", nameEnd);
-                        if (descStart != -1 && descStart + 1 < line.length()) {
-                            description = line.substring(descStart + 1).trim();
-                        }
-                    }
-                } else {
-                    // 尝试格式：- tool_name: description
-                    int colonIndex = line.indexOf(":");
-                    int spaceAfterPrefix = line.indexOf(" ");
-                    if (spaceAfterPrefix > 0 && colonIndex > spaceAfterPrefix) {
-                        toolName = line.substring(spaceAfterPrefix + 1, colonIndex).trim();
-                        if (toolName.contains(" ") && !toolName.matches("[a-z_]+")) {
-                            // 如果名称包含空格且不像工具名，可能不是有效的工具名
-                            toolName = null;
-                        } else {
-                            description = line.substring(colonIndex + 1).trim();
-                        }
-                    }
-                }
-
-                if (toolName != null && !toolName.isEmpty()) {
-                    // 清理工具名（去除可能的标点符号）
-                    toolName = toolName.replaceAll("[：:]$", "").trim();
-                    log.info("parseToolCalls: found tool '{}' with description '{}'", toolName, description);
-                    toolCalls.add(ChatRoom.Message.ToolCall.builder()
-                            .id(UUID.randomUUID().toString())
-                            .name(toolName)
-                            .description(description)
-                            .status("completed")
-                            .timestamp(Instant.now())
-                            .build());
-                }
-            }
-        }
-
-        log.info("parseToolCalls: total {} tools found", toolCalls.size());
-        return toolCalls;
-    }
-    
-    /**
-     * 从内容中直接检测工具调用（备选方案）
-     * 用于当标准格式解析失败时
-     */
-    private List<ChatRoom.Message.ToolCall> detectToolsFromContent(String content) {
-        List<ChatRoom.Message.ToolCall> toolCalls = new ArrayList<>();
-        
-        // 常见工具名称列表
-        String[] commonTools = {
-            "memory_search", "read", "write", "edit", "exec", 
-            "web_search", "web_fetch", "weather", "browser", 
-            "canvas", "nodes", "cron", "message", "gateway",
-            "sessions_spawn", "tts", "github", "gh", "ordercli",
-            "openhue", "sonoscli", "eightctl", "gifgrep", "gemini",
-            "blogwatcher", "blucli", "healthcheck", "himalaya",
-            "nano-pdf", "obsidian", "openai-whisper", "skill-creator",
-            "songsee", "video-frames", "wacli", "1password", "gog"
-        };
-        
-        for (String toolName : commonTools) {
-            // 检查内容中是否包含工具名称（作为独立单词）
-            String pattern = "\\b" + toolName + "\\b";
-            if (content.toLowerCase().matches(".*" + pattern + ".*")) {
-                // 检查是否已经添加过
-                boolean alreadyAdded = toolCalls.stream()
-                    .anyMatch(tc -> tc.getName().equalsIgnoreCase(toolName));
-                if (!alreadyAdded) {
-                    log.info("detectToolsFromContent: detected tool '{}' from content", toolName);
-                    toolCalls.add(ChatRoom.Message.ToolCall.builder()
-                            .id(UUID.randomUUID().toString())
-                            .name(toolName)
-                            .description("从消息内容中检测到的工具调用")
-                            .status("completed")
-                            .timestamp(Instant.now())
-                            .build());
-                }
-            }
-        }
-        
-        if (!toolCalls.isEmpty()) {
-            log.info("detectToolsFromContent: total {} tools detected", toolCalls.size());
-        }
-        return toolCalls;
-    }
-
-    /**
-     * 从内容中解析 Tool details 并填充到工具调用中
-     */
-    private List<ChatRoom.Message.ToolCall> enrichToolCallsWithDetails(String content, List<ChatRoom.Message.ToolCall> toolCalls) {
-        if (content == null || toolCalls == null || toolCalls.isEmpty()) {
-            return toolCalls;
-        }
-
-        // 查找 **Tool details:** 部分
-        String detailsMarker = "**Tool details:**";
-        int detailsStart = content.indexOf(detailsMarker);
-
-        if (detailsStart == -1) {
-            // 尝试其他可能的格式
-            detailsMarker = "Tool details:";
-            detailsStart = content.indexOf(detailsMarker);
-        }
-        
-        // 尝试中文格式
-        if (detailsStart == -1) {
-            detailsMarker = "**工具详情：**";
-            detailsStart = content.indexOf(detailsMarker);
-        }
-        
-        // 尝试从 Tools used 部分之后查找工具详情
-        if (detailsStart == -1) {
-            // 如果没有明确的 Tool details 标记，尝试从 Tools used 部分之后解析
-            String toolsMarker = "**Tools used:**";
-            int toolsStart = content.indexOf(toolsMarker);
-            if (toolsStart == -1) {
-                toolsMarker = "Tools used:";
-                toolsStart = content.indexOf(toolsMarker);
-            }
-            if (toolsStart != -1) {
-                // 从 Tools used 之后开始查找工具详情
-                detailsStart = toolsStart;
-                detailsMarker = toolsMarker;
-            }
-        }
-
-        if (detailsStart == -1) {
-            log.debug("enrichToolCallsWithDetails: no Tool details section found");
-            return toolCalls;
-        }
-
-        log.info("enrichToolCallsWithDetails: found Tool details section at index {}", detailsStart);
-
-        // 提取 Tool details 部分（到下一个 ** 章节或文件结束）
-        int detailsContentStart = detailsStart + detailsMarker.length();
-        int nextSection = content.indexOf("**", detailsContentStart);
-        int detailsEnd = (nextSection != -1) ? nextSection : content.length();
-        String detailsSection = content.substring(detailsContentStart, detailsEnd).trim();
-        
-        log.debug("enrichToolCallsWithDetails: details section length = {}", detailsSection.length());
-
-        // 为每个工具调用查找对应的详细输出
-        for (ChatRoom.Message.ToolCall toolCall : toolCalls) {
-            String toolName = toolCall.getName();
-            if (toolName == null || toolName.isEmpty()) continue;
-
-            // 查找工具名开头的行（支持多种格式）
-            String[] possibleHeaders = {
-                "- `" + toolName + "`:",
-                "- " + toolName + ":",
-                "• `" + toolName + "`:",
-                "• " + toolName + ":",
-                "`" + toolName + "`",
-                toolName + ":"
-            };
-            
-            int toolHeaderIndex = -1;
-            String matchedHeader = null;
-            
-            for (String header : possibleHeaders) {
-                toolHeaderIndex = detailsSection.indexOf(header);
-                if (toolHeaderIndex != -1) {
-                    matchedHeader = header;
-                    break;
-                }
-            }
-
-            if (toolHeaderIndex == -1) continue;
-
-            // 找到工具内容开始的位置（工具名之后）
-            int contentStart = toolHeaderIndex + matchedHeader.length();
-            // 跳过冒号和空白
-            while (contentStart < detailsSection.length() &&
-                   (detailsSection.charAt(contentStart) == ':' ||
-                    Character.isWhitespace(detailsSection.charAt(contentStart)))) {
-                contentStart++;
-            }
-
-            // 查找下一个工具的开始位置
-            String remaining = detailsSection.substring(contentStart);
-            String[] lines = remaining.split("\n");
-            StringBuilder toolResult = new StringBuilder();
-
-            for (int i = 0; i < lines.length; i++) {
-                String line = lines[i];
-                // 检查是否是下一个工具的开始
-                if (i > 0 && (line.startsWith("- `") || line.startsWith("- ") ||
-                    line.startsWith("• `") || line.startsWith("• "))) {
-                    // 这可能是下一个工具，停止收集
-                    boolean isNextTool = false;
-                    for (ChatRoom.Message.ToolCall otherTool : toolCalls) {
-                        if (otherTool != toolCall && otherTool.getName() != null) {
-                            String otherName = otherTool.getName();
-                            if (line.contains("`" + otherName + "`") || 
-                                line.startsWith("- " + otherName + ":") ||
-                                line.startsWith("• " + otherName + ":")) {
-                                isNextTool = true;
-                                break;
-                            }
-                        }
-                    }
-                    if (isNextTool) break;
-                }
-                if (i > 0) toolResult.append("\n");
-                toolResult.append(line);
-            }
-
-            String result = toolResult.toString().trim();
-            if (!result.isEmpty()) {
-                // 如果结果包含代码块，提取代码块内容
-                if (result.contains("```")) {
-                    int codeStart = result.indexOf("```");
-                    int codeEnd = result.indexOf("```", codeStart + 3);
-                    if (codeEnd > codeStart) {
-                        // 提取代码块内容（包括语言标识）
-                        String codeBlock = result.substring(codeStart, codeEnd + 3);
-                        toolCall.setResult(codeBlock);
-                    } else {
-                        toolCall.setResult(result);
-                    }
-                } else {
-                    toolCall.setResult(result);
-                }
-                log.info("enrichToolCallsWithDetails: set result for tool '{}' (length={})",
-                        toolName, result.length());
-            }
-        }
-
-        return toolCalls;
-    }
-
-    /**
-     * 发送排队状态消息
-     */
-    private void sendQueueStatusMessage(String roomId, String taskId, String sourceMessageId, int position) {
-        String statusText = position == 0
-                ? "🤖 OpenClaw 任务已加入队列，正在准备处理..."
-                : String.format("🤖 OpenClaw 任务已加入队列，当前排第 %d 位...", position + 1);
-
-        // senderAvatar 为 null，让前端显示默认机器人头像
-        ChatRoom.Message message = ChatRoom.Message.builder()
-                .id(UUID.randomUUID().toString())
-                .senderId(openClawPluginService.getBotUsername())
-                .senderName(openClawPluginService.getBotUsername())
-                .content(statusText)
-                .timestamp(Instant.now())
-                .openclawMentioned(false)
-                .fromOpenClaw(true)
-                .replyToMessageId(sourceMessageId)
-                .build();
-
-        chatRoomService.addMessage(roomId, message);
-        broadcastToRoom(roomId, WebSocketMessage.builder()
-                .type("message")
-                .message(message)
-                .build());
-    }
-
-    /**
-     * 发送任务失败消息
-     */
-    private void sendTaskFailedMessage(String roomId, OpenClawTask task, String error) {
-        // senderAvatar 为 null，让前端显示默认机器人头像
-        ChatRoom.Message message = ChatRoom.Message.builder()
-                .id(UUID.randomUUID().toString())
-                .senderId(openClawPluginService.getBotUsername())
-                .senderName(openClawPluginService.getBotUsername())
-                .content("❌ 任务执行失败: " + (error != null ? error : "未知错误"))
+    private void sendTaskFailedMessage(String roomId, OpenClawTask task, String error) {
+        // senderAvatar 为 null，让前端显示默认机器人头像
+        ChatRoom.Message message = ChatRoom.Message.builder()
+                .id(UUID.randomUUID().toString())
+                .senderId(openClawPluginService.getBotUsername())
+                .senderName(openClawPluginService.getBotUsername())
+                .content("❌ 任务执行失败: " + (error != null ? error : "未知错误"))
                 .timestamp(Instant.now())
                 .openclawMentioned(false)
                 .fromOpenClaw(true)
@@ -2198,6 +1241,7 @@ public class ChatWebSocketHandler extends TextWebSocketHandler {
     }
 
     private void handleLeave(WebSocketSession session, WebSocketMessage payload) {
+        unsubscribeQueue(session);
         WebSocketUserInfo userInfo = userInfoMap.remove(session);
         if (userInfo == null) return;
 
@@ -2211,63 +1255,271 @@ public class ChatWebSocketHandler extends TextWebSocketHandler {
                 .build());
     }
 
+    /**
+     * 订阅当前房间的任务队列变化，订阅后立即发送一次当前队列
+     */
+    private void handleQueueSubscribe(WebSocketSession session, WebSocketMessage payload) {
+        WebSocketUserInfo userInfo = userInfoMap.get(session);
+        if (userInfo == null || payload.getRoomId() == null || !payload.getRoomId().equals(userInfo.getRoomId())) {
+            log.warn("Session {} tried to subscribe to queue of room {} without joining it", session.getId(), payload.getRoomId());
+            return;
+        }
+        subscribeQueue(session, userInfo.getRoomId());
+        sendQueueUpdate(session, WebSocketMessage.builder()
+                .type("queue_update")
+                .roomId(userInfo.getRoomId())
+                .queue(getRoomQueueView(userInfo.getRoomId()))
+                .build());
+    }
+
+    private void subscribeQueue(WebSocketSession session, String roomId) {
+        queueSubscriptions.compute(session, (s, previousRoomId) -> {
+            if (previousRoomId != null && !previousRoomId.equals(roomId)) {
+                removeQueueSubscriber(previousRoomId, s);
+            }
+            queueSubscribers.compute(roomId, (k, sessions) -> {
+                if (sessions == null) {
+                    sessions = ConcurrentHashMap.newKeySet();
+                }
+                sessions.add(s);
+                return sessions;
+            });
+            return roomId;
+        });
+    }
+
+    private void unsubscribeQueue(WebSocketSession session) {
+        String roomId = queueSubscriptions.remove(session);
+        if (roomId != null) {
+            removeQueueSubscriber(roomId, session);
+        }
+    }
+
+    /**
+     * 从房间的订阅者集合移除会话，没有订阅者时移除房间条目
+     */
+    private void removeQueueSubscriber(String roomId, WebSocketSession session) {
+        queueSubscribers.computeIfPresent(roomId, (k, sessions) -> {
+            sessions.remove(session);
+            return sessions.isEmpty() ? null : sessions;
+        });
+    }
+
+    /**
+     * 将房间最新的队列视图推送给订阅该房间的会话（无订阅者时不构建视图）
+     */
+    private void pushQueueUpdate(String roomId) {
+        Set<WebSocketSession> sessions = queueSubscribers.get(roomId);
+        if (sessions == null) {
+            return;
+        }
+        WebSocketMessage message = null;
+        for (WebSocketSession session : sessions) {
+            WebSocketUserInfo userInfo = userInfoMap.get(session);
+            // 会话已切换到其他房间时取消订阅
+            if (userInfo == null || !roomId.equals(userInfo.getRoomId())) {
+                if (queueSubscriptions.remove(session, roomId)) {
+                    removeQueueSubscriber(roomId, session);
+                }
+                continue;
+            }
+            if (message == null) {
+                message = WebSocketMessage.builder()
+                        .type("queue_update")
+                        .roomId(roomId)
+                        .queue(getRoomQueueView(roomId))
+                        .build();
+            }
+            sendQueueUpdate(session, message);
+        }
+    }
+
+    private void sendQueueUpdate(WebSocketSession session, WebSocketMessage message) {
+        try {
+            outboxRegistry.send(session, message, objectMapper.writeValueAsString(message));
+        } catch (Exception e) {
+            log.debug("Failed to send queue update to session {}: {}", session.getId(), e.getMessage());
+        }
+    }
+
     private void handlePing(WebSocketSession session, WebSocketMessage payload) {
         // 心跳检测，回复 pong
         try {
-            if (session.isOpen()) {
-                session.sendMessage(new TextMessage("{\"type\":\"pong\"}"));
-            }
-        } catch (IOException e) {
+            outboxRegistry.send(session, "pong", null, "{\"type\":\"pong\"}");
+        } catch (Exception e) {
             log.debug("Failed to send pong to session {}", session.getId());
         }
     }
 
+    // ========== 流式增量合并 ==========
+
+    // messageId -> 该流的增量合并器
+    private final Map<String, StreamDeltaCoalescer> streamDeltaCoalescers = new ConcurrentHashMap<>();
+
+    // messageId -> 该流的工具调用识别器（从回复内容解析工具调用的机器人）
+    private final Map<String, ToolCallRecognizer> toolCallRecognizers = new ConcurrentHashMap<>();
+
+    private final ScheduledExecutorService streamDeltaScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "stream-delta-flush");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * 获取流的增量合并器，第一次调用时使用 sink 创建
+     */
+    private StreamDeltaCoalescer streamDeltas(String messageId, StreamDeltaCoalescer.Sink sink) {
+        return streamDeltaCoalescers.computeIfAbsent(messageId, id -> new StreamDeltaCoalescer(
+                streamDeltaScheduler,
+                chatProperties.getStreamDeltas().getFlushIntervalMs(),
+                chatProperties.getStreamDeltas().getFlushChars(),
+                sink));
+    }
+
+    /**
+     * 立即发送流中已合并的增量（工具事件之前调用）
+     */
+    private void flushStreamDeltas(String messageId) {
+        StreamDeltaCoalescer coalescer = streamDeltaCoalescers.get(messageId);
+        if (coalescer != null) {
+            coalescer.flush();
+        }
+    }
+
+    /**
+     * 发送剩余增量并移除合并器和重放缓冲（流结束或取消时调用，可重复调用）
+     */
+    private void closeStreamDeltas(String messageId) {
+        StreamDeltaCoalescer coalescer = streamDeltaCoalescers.remove(messageId);
+        if (coalescer != null) {
+            coalescer.close();
+        }
+        streamReplayBuffers.remove(messageId);
+        toolCallRecognizers.remove(messageId);
+    }
+
+    // ========== 流式重连续传 ==========
+
+    // messageId -> 该流最近发送的增量帧
+    private final Map<String, StreamReplayBuffer> streamReplayBuffers = new ConcurrentHashMap<>();
+
+    private void openStreamReplay(String roomId, ChatRoom.Message streamingMessage, StreamAccumulator accumulator) {
+        streamReplayBuffers.put(streamingMessage.getId(), new StreamReplayBuffer(roomId, streamingMessage, accumulator,
+                chatProperties.getStreamDeltas().getReplayFrames(),
+                chatProperties.getStreamDeltas().getReplayChars()));
+    }
+
+    /**
+     * 广播一帧合并后的增量（由合并器按顺序调用，seq 在流内连续）
+     */
+    private void broadcastStreamDelta(String roomId, String messageId, String content) {
+        StreamReplayBuffer replay = streamReplayBuffers.get(messageId);
+        if (replay == null) {
+            // 流已结束，最终内容由 stream_end 携带
+            return;
+        }
+        broadcastToRoom(roomId, streamDeltaMessage(roomId, replay, replay.append(content)));
+    }
+
+    private static WebSocketMessage streamDeltaMessage(String roomId, StreamReplayBuffer replay, StreamReplayBuffer.Frame frame) {
+        return WebSocketMessage.builder()
+                .type("stream_delta")
+                .roomId(roomId)
+                .seq(frame.seq())
+                .message(ChatRoom.Message.builder()
+                        .id(replay.getMessageId())
+                        .content(frame.content())
+                        .delta(true)
+                        .replyToMessageId(replay.getReplyToMessageId())
+                        .build())
+                .build();
+    }
+
+    /**
+     * 向加入房间的会话补发进行中的流
+     * 客户端上报了 seq 且缺口仍在重放缓冲内时只补发缺失的增量帧，否则发送截至当前的内容快照（stream_resume）。
+     * 补发期间到达的实时增量可能先于补发帧，前端按 seq 去重排序。
+     *
+     * @param lastSeqs messageId -> 客户端最后收到的 seq，首次加入时为 null
+     */
+    private void resumeStreams(WebSocketSession session, String roomId, Map<String, Integer> lastSeqs) {
+        for (StreamReplayBuffer replay : streamReplayBuffers.values()) {
+            if (!roomId.equals(replay.getRoomId())) {
+                continue;
+            }
+            Integer lastSeq = lastSeqs != null ? lastSeqs.get(replay.getMessageId()) : null;
+            List<StreamReplayBuffer.Frame> missing = lastSeq != null ? replay.framesAfter(lastSeq) : null;
+            try {
+                if (missing != null) {
+                    for (StreamReplayBuffer.Frame frame : missing) {
+                        WebSocketMessage delta = streamDeltaMessage(roomId, replay, frame);
+                        outboxRegistry.send(session, delta, objectMapper.writeValueAsString(delta));
+                    }
+                    log.debug("Resumed stream {} for session {} from seq {}: {} frames",
+                            replay.getMessageId(), session.getId(), lastSeq, missing.size());
+                } else {
+                    StreamReplayBuffer.Snapshot snapshot = replay.snapshot();
+                    WebSocketMessage resume = WebSocketMessage.builder()
+                            .type("stream_resume")
+                            .roomId(roomId)
+                            .seq(snapshot.seq())
+                            .message(snapshot.message())
+                            .build();
+                    outboxRegistry.send(session, resume, objectMapper.writeValueAsString(resume));
+                    log.debug("Resumed stream {} for session {} with snapshot at seq {} (client seq: {})",
+                            replay.getMessageId(), session.getId(), snapshot.seq(), lastSeq);
+                }
+            } catch (IOException e) {
+                log.error("Failed to resume stream {} for session {}", replay.getMessageId(), session.getId(), e);
+            }
+        }
+    }
+
+    @PreDestroy
+    public void shutdownStreamDeltaScheduler() {
+        streamDeltaScheduler.shutdownNow();
+    }
+
     public void broadcastToRoom(String roomId, WebSocketMessage message, WebSocketSession... exclude) {
         // 双重验证：只广播给确实在该房间的 session
         // 防止用户快速切换房间时，消息串到其他房间
-        Set<WebSocketSession> validSessions = new HashSet<>();
-        Set<WebSocketSession> excludeSet = new HashSet<>(java.util.Arrays.asList(exclude));
-
+        // 直接迭代房间会话的只读视图，不加锁也不复制
+        String payload = null;
+        int queuedCount = 0;
         for (WebSocketSession session : broadcastService.getRoomSessions(roomId)) {
-            if (excludeSet.contains(session)) {
+            if (WebSocketBroadcastService.isExcluded(session, exclude)) {
                 continue;
             }
             WebSocketUserInfo userInfo = userInfoMap.get(session);
             // 关键验证：session 必须在 userInfoMap 中，且 roomId 匹配
-            if (userInfo != null && roomId.equals(userInfo.getRoomId())) {
-                validSessions.add(session);
-            } else {
+            if (userInfo == null || !roomId.equals(userInfo.getRoomId())) {
                 log.warn("[CROSS-ROOM FILTER] Session {} is in roomSessions[{}] but userInfo says room={}. Skipping.",
                         session.getId(), roomId, userInfo != null ? userInfo.getRoomId() : "null");
                 // 清理过期的 session 注册
                 broadcastService.removeRoomSession(roomId, session);
+                continue;
             }
-        }
-
-        if (validSessions.isEmpty()) {
-            log.debug("[Broadcast] No valid sessions to broadcast to room: {}", roomId);
-            return;
-        }
 
-        // 直接发送给验证过的 sessions
-        try {
-            String payload = objectMapper.writeValueAsString(message);
-            int sentCount = 0;
-            for (WebSocketSession s : validSessions) {
+            // 有接收者时才序列化，放入发送队列，由各自的发送任务异步发送
+            if (payload == null) {
                 try {
-                    if (s.isOpen()) {
-                        s.sendMessage(new TextMessage(payload));
-                        sentCount++;
-                    }
-                } catch (IOException e) {
-                    log.error("[Broadcast] Failed to send message to session {}: {}", s.getId(), e.getMessage());
+                    payload = objectMapper.writeValueAsString(message);
+                } catch (Exception e) {
+                    log.error("[Broadcast] Failed to serialize message: {}", e.getMessage(), e);
+                    return;
                 }
             }
-            log.info("[Broadcast] Message type='{}' broadcasted to {}/{} sessions in room {}",
-                    message.getType(), sentCount, validSessions.size(), roomId);
-        } catch (Exception e) {
-            log.error("[Broadcast] Failed to serialize message: {}", e.getMessage(), e);
+            if (outboxRegistry.send(session, message, payload)) {
+                queuedCount++;
+            }
+        }
+
+        if (payload == null) {
+            log.debug("[Broadcast] No valid sessions to broadcast to room: {}", roomId);
+            return;
         }
+        log.info("[Broadcast] Message type='{}' queued to {} sessions in room {}",
+                message.getType(), queuedCount, roomId);
     }
 
     /**
@@ -2370,13 +1622,8 @@ public class ChatWebSocketHandler extends TextWebSocketHandler {
         try {
             String payload = objectMapper.writeValueAsString(notification);
             for (WebSocketSession s : sessions) {
-                if (s.isOpen()) {
-                    try {
-                        s.sendMessage(new TextMessage(payload));
-                        log.debug("Sent notification to user {}", userId);
-                    } catch (IOException e) {
-                        log.error("Failed to send notification to user {}", userId, e);
-                    }
+                if (outboxRegistry.send(s, notification.getType(), null, payload)) {
+                    log.debug("Queued notification to user {}", userId);
                 }
             }
         } catch (Exception e) {
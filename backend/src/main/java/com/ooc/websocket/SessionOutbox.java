@@ -0,0 +1,268 @@
+package com.ooc.websocket;
+
+import com.ooc.config.ChatProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 单个 WebSocket 会话的发送队列
+ * 广播线程只负责入队，由独立的发送任务按顺序发送，慢客户端不会阻塞房间内其他人和产生消息的线程。
+ * 队列超出字符上限或发送卡住超过时间上限时，按 {@link ChatProperties.OverflowPolicy} 处理。
+ */
+@Slf4j
+public class SessionOutbox {
+
+    private static final String STREAM_DELTA = "stream_delta";
+    // 携带完整内容的帧，可以覆盖同一条消息之前的增量
+    private static final Set<String> FULL_STATE_TYPES = Set.of("tool_start", "tool_result", "stream_resume", "stream_end");
+
+    private record Frame(String type, String messageId, String payload) {
+        boolean isDelta() {
+            return STREAM_DELTA.equals(type);
+        }
+    }
+
+    /**
+     * 会话发送统计
+     */
+    public record Stats(String sessionId, String userId, int queuedMessages, long queuedChars,
+                        long sent, long droppedDeltas, long coalescedDeltas, long slowSends, boolean disconnected) {
+        public boolean isThrottled() {
+            return droppedDeltas > 0 || coalescedDeltas > 0 || slowSends > 0 || disconnected;
+        }
+    }
+
+    private final WebSocketSession session;
+    private final ChatProperties.Outbound config;
+    private final Executor executor;
+
+    private final Deque<Frame> queue = new ArrayDeque<>();
+    private long queuedChars;
+    private boolean draining;
+    private boolean closed;
+
+    // 当前发送开始时间，0 表示没有正在进行的发送
+    private volatile long sendStartedAt;
+    private volatile String userId;
+    private volatile boolean disconnected;
+
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong droppedDeltas = new AtomicLong();
+    private final AtomicLong coalescedDeltas = new AtomicLong();
+    private final AtomicLong slowSends = new AtomicLong();
+
+    public SessionOutbox(WebSocketSession session, ChatProperties.Outbound config, Executor executor) {
+        this.session = session;
+        this.config = config;
+        this.executor = executor;
+    }
+
+    /**
+     * 消息入队，不阻塞调用方
+     *
+     * @param type      消息类型，用于慢客户端处理（识别可丢弃的增量）
+     * @param messageId 流式消息ID，可为 null
+     * @return 是否入队（被丢弃或会话已关闭时返回 false）
+     */
+    public boolean offer(String type, String messageId, String payload) {
+        Frame frame = new Frame(type, messageId, payload);
+        boolean startDrain;
+        synchronized (this) {
+            if (closed) {
+                return false;
+            }
+            boolean stalled = isSendStalled();
+            if (stalled || queuedChars + payload.length() > config.getBufferSizeLimit()) {
+                if (!makeRoom(frame, stalled)) {
+                    return false;
+                }
+            }
+            queue.addLast(frame);
+            queuedChars += payload.length();
+            startDrain = !draining;
+            draining = true;
+        }
+        if (startDrain) {
+            executor.execute(this::drain);
+        }
+        return true;
+    }
+
+    /**
+     * 按策略为新消息腾出空间，调用方持有锁
+     *
+     * @return 新消息是否可以入队
+     */
+    private boolean makeRoom(Frame incoming, boolean stalled) {
+        ChatProperties.OverflowPolicy policy = config.getOverflowPolicy();
+        if (policy == ChatProperties.OverflowPolicy.DISCONNECT) {
+            disconnect(stalled ? "send stalled" : "buffer full");
+            return false;
+        }
+
+        if (policy == ChatProperties.OverflowPolicy.COALESCE) {
+            coalesceSupersededDeltas(incoming);
+            if (!stalled && fits(incoming)) {
+                return true;
+            }
+        }
+
+        // 丢弃增量：新来的增量直接丢弃，其他消息则从最早的增量开始移除
+        if (incoming.isDelta()) {
+            countDropped(1);
+            return false;
+        }
+        int dropped = 0;
+        Iterator<Frame> iterator = queue.iterator();
+        while ((stalled || !fits(incoming)) && iterator.hasNext()) {
+            Frame frame = iterator.next();
+            if (frame.isDelta()) {
+                iterator.remove();
+                queuedChars -= frame.payload().length();
+                dropped++;
+            }
+        }
+        countDropped(dropped);
+        if (fits(incoming)) {
+            return true;
+        }
+        // 只剩不可丢弃的消息仍然放不下，客户端已无法跟上
+        disconnect("buffer full of non-droppable messages");
+        return false;
+    }
+
+    /**
+     * 移除被后续完整状态帧覆盖的增量：从队尾向前扫描，遇到完整状态帧后，
+     * 同一条消息在它之前的增量都不再需要
+     */
+    private void coalesceSupersededDeltas(Frame incoming) {
+        Set<String> superseded = new HashSet<>();
+        if (incoming.messageId() != null && FULL_STATE_TYPES.contains(incoming.type())) {
+            superseded.add(incoming.messageId());
+        }
+        int removed = 0;
+        Iterator<Frame> iterator = queue.descendingIterator();
+        while (iterator.hasNext()) {
+            Frame frame = iterator.next();
+            if (frame.messageId() == null) {
+                continue;
+            }
+            if (FULL_STATE_TYPES.contains(frame.type())) {
+                superseded.add(frame.messageId());
+            } else if (frame.isDelta() && superseded.contains(frame.messageId())) {
+                iterator.remove();
+                queuedChars -= frame.payload().length();
+                removed++;
+            }
+        }
+        if (removed > 0) {
+            long total = coalescedDeltas.addAndGet(removed);
+            log.debug("[Outbox] Coalesced {} superseded deltas for session {} (total {})", removed, session.getId(), total);
+        }
+    }
+
+    private boolean fits(Frame incoming) {
+        return queuedChars + incoming.payload().length() <= config.getBufferSizeLimit();
+    }
+
+    private boolean isSendStalled() {
+        long startedAt = sendStartedAt;
+        return startedAt > 0 && System.currentTimeMillis() - startedAt > config.getSendTimeLimitMs();
+    }
+
+    private void countDropped(int count) {
+        if (count > 0) {
+            long total = droppedDeltas.addAndGet(count);
+            if (total == count) {
+                log.warn("[Outbox] Session {} (user {}) is falling behind, dropping stream deltas", session.getId(), userId);
+            }
+        }
+    }
+
+    /**
+     * 断开慢客户端，调用方持有锁
+     */
+    private void disconnect(String reason) {
+        log.warn("[Outbox] Disconnecting slow session {} (user {}): {}, queued={} chars={}",
+                session.getId(), userId, reason, queue.size(), queuedChars);
+        disconnected = true;
+        closeQueue();
+        // 关闭连接可能阻塞，不在广播线程上执行
+        executor.execute(() -> {
+            try {
+                session.close(CloseStatus.SESSION_NOT_RELIABLE);
+            } catch (Exception e) {
+                log.debug("[Outbox] Failed to close session {}: {}", session.getId(), e.getMessage());
+            }
+        });
+    }
+
+    private void drain() {
+        while (true) {
+            Frame frame;
+            synchronized (this) {
+                frame = queue.pollFirst();
+                if (frame == null) {
+                    draining = false;
+                    return;
+                }
+                queuedChars -= frame.payload().length();
+            }
+
+            if (!session.isOpen()) {
+                close();
+                return;
+            }
+
+            long startedAt = System.currentTimeMillis();
+            sendStartedAt = startedAt;
+            try {
+                session.sendMessage(new TextMessage(frame.payload()));
+                sent.incrementAndGet();
+            } catch (Exception e) {
+                log.error("[Outbox] Failed to send message to session {}: {}", session.getId(), e.getMessage());
+            } finally {
+                sendStartedAt = 0;
+                long elapsed = System.currentTimeMillis() - startedAt;
+                if (elapsed > config.getSendTimeLimitMs()) {
+                    slowSends.incrementAndGet();
+                    log.warn("[Outbox] Slow send to session {} (user {}): type={} took {}ms",
+                            session.getId(), userId, frame.type(), elapsed);
+                }
+            }
+        }
+    }
+
+    /**
+     * 会话关闭时调用，丢弃未发送的消息
+     */
+    public synchronized void close() {
+        closeQueue();
+    }
+
+    private void closeQueue() {
+        closed = true;
+        queue.clear();
+        queuedChars = 0;
+        draining = false;
+    }
+
+    public void setUserId(String userId) {
+        this.userId = userId;
+    }
+
+    public synchronized Stats getStats() {
+        return new Stats(session.getId(), userId, queue.size(), queuedChars,
+                sent.get(), droppedDeltas.get(), coalescedDeltas.get(), slowSends.get(), disconnected);
+    }
+}
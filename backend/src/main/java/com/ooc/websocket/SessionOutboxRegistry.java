@@ -0,0 +1,91 @@
+package com.ooc.websocket;
+
+import com.ooc.config.ChatProperties;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * WebSocket 会话发送队列注册表
+ * 所有发往客户端的消息都经过这里，保证同一会话的消息按顺序发送且不会并发调用 sendMessage。
+ * 发送任务运行在虚拟线程上，阻塞在慢连接上不会占用平台线程。
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class SessionOutboxRegistry {
+
+    private final ChatProperties chatProperties;
+
+    private final Map<WebSocketSession, SessionOutbox> outboxes = new ConcurrentHashMap<>();
+
+    private final ExecutorService sendExecutor = Executors.newVirtualThreadPerTaskExecutor();
+
+    /**
+     * 发送 WebSocket 消息
+     */
+    public boolean send(WebSocketSession session, WebSocketMessage message, String payload) {
+        String messageId = message.getMessage() != null ? message.getMessage().getId() : null;
+        return send(session, message.getType(), messageId, payload);
+    }
+
+    /**
+     * 发送已序列化的消息
+     *
+     * @param type      消息类型
+     * @param messageId 流式消息ID，可为 null
+     */
+    public boolean send(WebSocketSession session, String type, String messageId, String payload) {
+        if (!session.isOpen()) {
+            return false;
+        }
+        return outbox(session).offer(type, messageId, payload);
+    }
+
+    /**
+     * 记录会话所属用户（用于统计）
+     */
+    public void setUserId(WebSocketSession session, String userId) {
+        outbox(session).setUserId(userId);
+    }
+
+    /**
+     * 会话关闭时移除发送队列
+     */
+    public void remove(WebSocketSession session) {
+        SessionOutbox outbox = outboxes.remove(session);
+        if (outbox != null) {
+            outbox.close();
+        }
+    }
+
+    /**
+     * 所有会话的发送统计，被限流的会话排在前面
+     */
+    public List<SessionOutbox.Stats> getStats() {
+        return outboxes.values().stream()
+                .map(SessionOutbox::getStats)
+                .sorted(Comparator.comparing(SessionOutbox.Stats::isThrottled).reversed()
+                        .thenComparing(SessionOutbox.Stats::queuedChars, Comparator.reverseOrder()))
+                .toList();
+    }
+
+    private SessionOutbox outbox(WebSocketSession session) {
+        return outboxes.computeIfAbsent(session,
+                s -> new SessionOutbox(s, chatProperties.getOutbound(), sendExecutor));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        sendExecutor.shutdownNow();
+    }
+}
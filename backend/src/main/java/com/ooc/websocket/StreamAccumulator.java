@@ -0,0 +1,105 @@
+package com.ooc.websocket;
+
+import com.ooc.entity.ChatRoom;
+import com.ooc.service.StreamCheckpointService;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.UnaryOperator;
+
+/**
+ * 流式消息累加器
+ * 每个增量只追加到缓冲区，开销与增量大小成正比；完整内容只在确实需要时
+ * （工具事件、完成、出错、快照）才生成字符串，且两次追加之间最多生成一次。
+ */
+public class StreamAccumulator implements StreamCheckpointService.Source {
+
+    private final StringBuilder buffer = new StringBuilder();
+    private final List<ChatRoom.Message.ToolCall> toolCalls = new ArrayList<>();
+
+    // 最近一次生成的完整内容，追加后失效
+    private String materialized = "";
+    private boolean dirty;
+    // 工具调用列表变化时递增
+    private int toolCallVersion;
+
+    public synchronized void append(String delta) {
+        if (delta == null || delta.isEmpty()) {
+            return;
+        }
+        buffer.append(delta);
+        dirty = true;
+    }
+
+    /**
+     * 当前内容长度，不生成字符串
+     */
+    @Override
+    public synchronized int length() {
+        return buffer.length();
+    }
+
+    /**
+     * 当前完整内容
+     */
+    public synchronized String content() {
+        if (dirty) {
+            materialized = buffer.toString();
+            dirty = false;
+        }
+        return materialized;
+    }
+
+    /**
+     * 从 offset 开始的内容（检查点只写入新增部分）
+     */
+    @Override
+    public synchronized String contentFrom(int offset) {
+        return buffer.substring(offset);
+    }
+
+    /**
+     * 前 length 个字符（重连快照只包含已广播的部分）
+     */
+    public synchronized String contentTo(int length) {
+        if (length >= buffer.length()) {
+            return content();
+        }
+        return buffer.substring(0, length);
+    }
+
+    public synchronized void addToolCall(ChatRoom.Message.ToolCall toolCall) {
+        toolCalls.add(toolCall);
+        toolCallVersion++;
+    }
+
+    /**
+     * 按 ID 更新工具调用
+     *
+     * @return 是否找到该工具调用
+     */
+    public synchronized boolean updateToolCall(String toolCallId, UnaryOperator<ChatRoom.Message.ToolCall> updater) {
+        for (int i = 0; i < toolCalls.size(); i++) {
+            ChatRoom.Message.ToolCall tc = toolCalls.get(i);
+            if (tc.getId().equals(toolCallId)) {
+                toolCalls.set(i, updater.apply(tc));
+                toolCallVersion++;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public synchronized int toolCallVersion() {
+        return toolCallVersion;
+    }
+
+    /**
+     * 工具调用列表的副本，可安全放入广播消息
+     */
+    @Override
+    public synchronized List<ChatRoom.Message.ToolCall> toolCalls() {
+        return new ArrayList<>(toolCalls);
+    }
+}
@@ -0,0 +1,104 @@
+package com.ooc.websocket;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 流式增量合并器
+ * 将一个流在时间窗口内收到的多个增量合并成一帧 stream_delta 发送，
+ * 帧率只取决于合并间隔，与模型输出 token 的速度无关。
+ * 合并后的帧使用本批第一个增量的 seq，保持前端按 seq 排序的语义；
+ * 工具事件和流结束前需调用 {@link #flush()}，保证增量先于这些事件到达。
+ */
+@Slf4j
+public class StreamDeltaCoalescer {
+
+    /**
+     * 发送一帧合并后的增量
+     */
+    @FunctionalInterface
+    public interface Sink {
+        void send(Integer seq, String content);
+    }
+
+    private final ScheduledExecutorService scheduler;
+    private final long intervalMs;
+    private final int maxChars;
+    private final Sink sink;
+
+    private final StringBuilder pending = new StringBuilder();
+    private Integer pendingSeq;
+    private Integer lastSeq;
+    private ScheduledFuture<?> scheduledFlush;
+    private boolean closed;
+
+    public StreamDeltaCoalescer(ScheduledExecutorService scheduler, long intervalMs, int maxChars, Sink sink) {
+        this.scheduler = scheduler;
+        this.intervalMs = intervalMs;
+        this.maxChars = maxChars;
+        this.sink = sink;
+    }
+
+    /**
+     * 添加一个增量，达到字符阈值时立即发送，否则在合并间隔结束时发送
+     */
+    public synchronized void add(Integer seq, String delta) {
+        if (delta == null || delta.isEmpty()) {
+            return;
+        }
+        if (closed) {
+            sink.send(seq, delta);
+            return;
+        }
+        // seq 回退时不能并入当前批次，否则会打乱前端的排序
+        if (seq != null && lastSeq != null && seq < lastSeq) {
+            flush();
+        }
+        if (pending.isEmpty()) {
+            pendingSeq = seq;
+        }
+        pending.append(delta);
+        if (seq != null) {
+            lastSeq = seq;
+        }
+
+        if (intervalMs <= 0 || pending.length() >= maxChars) {
+            flush();
+        } else if (scheduledFlush == null) {
+            scheduledFlush = scheduler.schedule(this::flush, intervalMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * 立即发送已合并的增量
+     */
+    public synchronized void flush() {
+        if (scheduledFlush != null) {
+            scheduledFlush.cancel(false);
+            scheduledFlush = null;
+        }
+        if (pending.isEmpty()) {
+            return;
+        }
+        String content = pending.toString();
+        Integer seq = pendingSeq;
+        pending.setLength(0);
+        pendingSeq = null;
+        try {
+            sink.send(seq, content);
+        } catch (Exception e) {
+            log.error("Failed to send coalesced stream delta: {}", e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 发送剩余增量并停止合并，之后的增量直接发送
+     */
+    public synchronized void close() {
+        flush();
+        closed = true;
+    }
+}
@@ -0,0 +1,109 @@
+package com.ooc.websocket;
+
+import com.ooc.entity.ChatRoom;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 流式消息重放缓冲
+ * 为一个进行中的流保存最近发送的 stream_delta 帧（按帧数和字符数限制），
+ * 帧的 seq 由服务端按发送顺序从 0 连续分配。重连的客户端带上最后收到的 seq，
+ * 只补发缺失的帧；缺口已被淘汰时改为发送一个内容快照，重连开销与缺口大小成正比。
+ */
+public class StreamReplayBuffer {
+
+    public record Frame(int seq, String content) {}
+
+    /**
+     * 快照：截至 seq 的完整内容和工具调用
+     */
+    public record Snapshot(int seq, ChatRoom.Message message) {}
+
+    private final String roomId;
+    private final ChatRoom.Message streamingMessage;
+    private final StreamAccumulator accumulator;
+    private final int maxFrames;
+    private final int maxChars;
+
+    private final ArrayDeque<Frame> frames = new ArrayDeque<>();
+    private int bufferedChars;
+    private int nextSeq;
+    // 已发送帧的总字符数，即累加器中已广播的前缀长度
+    private int sentChars;
+
+    public StreamReplayBuffer(String roomId, ChatRoom.Message streamingMessage, StreamAccumulator accumulator,
+                              int maxFrames, int maxChars) {
+        this.roomId = roomId;
+        this.streamingMessage = streamingMessage;
+        this.accumulator = accumulator;
+        this.maxFrames = Math.max(1, maxFrames);
+        this.maxChars = Math.max(1, maxChars);
+    }
+
+    public String getRoomId() {
+        return roomId;
+    }
+
+    public String getMessageId() {
+        return streamingMessage.getId();
+    }
+
+    public String getReplyToMessageId() {
+        return streamingMessage.getReplyToMessageId();
+    }
+
+    /**
+     * 记录一帧即将广播的增量并分配 seq，超出限制时淘汰最早的帧（至少保留最新一帧）
+     */
+    public synchronized Frame append(String content) {
+        Frame frame = new Frame(nextSeq++, content);
+        frames.addLast(frame);
+        bufferedChars += content.length();
+        sentChars += content.length();
+        while (frames.size() > 1 && (frames.size() > maxFrames || bufferedChars > maxChars)) {
+            bufferedChars -= frames.removeFirst().content().length();
+        }
+        return frame;
+    }
+
+    /**
+     * 最后一帧的 seq，还没有帧时为 -1
+     */
+    public synchronized int lastSeq() {
+        return nextSeq - 1;
+    }
+
+    /**
+     * lastSeq 之后的帧；缺口中有帧已被淘汰时返回 null（需要发送快照）
+     */
+    public synchronized List<Frame> framesAfter(int lastSeq) {
+        if (lastSeq >= nextSeq - 1) {
+            return List.of();
+        }
+        if (lastSeq < -1 || frames.isEmpty() || frames.peekFirst().seq() > lastSeq + 1) {
+            return null;
+        }
+        List<Frame> missing = new ArrayList<>(nextSeq - 1 - lastSeq);
+        for (Frame frame : frames) {
+            if (frame.seq() > lastSeq) {
+                missing.add(frame);
+            }
+        }
+        return missing;
+    }
+
+    /**
+     * 截至最后一帧的内容快照
+     * 累加器可能已包含尚未合并发送的增量，快照只取已广播的前缀，之后的帧不会与快照重复
+     */
+    public synchronized Snapshot snapshot() {
+        return new Snapshot(nextSeq - 1, streamingMessage.toBuilder()
+                .content(accumulator.contentTo(sentChars))
+                .toolCalls(accumulator.toolCalls())
+                .isToolCall(!accumulator.toolCalls().isEmpty())
+                .isStreaming(true)
+                .build());
+    }
+}
@@ -5,15 +5,9 @@ import com.ooc.entity.ChatRoom;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
-import org.springframework.web.socket.TextMessage;
 import org.springframework.web.socket.WebSocketSession;
 
-import java.io.IOException;
-import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashSet;
-import java.util.Iterator;
-import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
@@ -28,115 +22,93 @@ import java.util.concurrent.ConcurrentHashMap;
 public class WebSocketBroadcastService {
 
     private final ObjectMapper objectMapper;
+    private final SessionOutboxRegistry outboxRegistry;
 
-    // roomId -> Set<WebSocketSession>
+    // roomId -> Set<WebSocketSession>，集合为并发集合，广播时直接迭代，无需加锁或复制
     private final Map<String, Set<WebSocketSession>> roomSessions = new ConcurrentHashMap<>();
 
-    // 用于保护 session 注册/移除操作的全局锁
-    private final Object sessionLock = new Object();
-    
-    // session -> roomId 映射，用于快速反向查找和验证
+    // session -> roomId 映射，用于快速反向查找和验证；每个 session 同一时间只属于一个房间
     private final Map<WebSocketSession, String> sessionToRoomMap = new ConcurrentHashMap<>();
 
     /**
      * 注册房间会话（由 ChatWebSocketHandler 调用）
-     * 会先确保 session 从所有其他房间移除，防止串房间
-     * 使用同步锁确保线程安全
+     * 会先将 session 从之前所在的房间移除，防止串房间。
+     * 同一 session 的注册/移除通过 sessionToRoomMap.compute 串行执行，
+     * 房间集合的修改通过 roomSessions.compute 按房间加锁，不同房间之间互不竞争。
      */
     public void registerRoomSession(String roomId, WebSocketSession session) {
-        synchronized (sessionLock) {
-            // 先确保 session 不在任何其他房间（防止串房间）
-            removeSessionFromAllRoomsInternal(session);
-
-            roomSessions.computeIfAbsent(roomId, k -> ConcurrentHashMap.newKeySet()).add(session);
-            // 更新反向映射
-            sessionToRoomMap.put(session, roomId);
-            log.info("[SessionRegistry] Registered session {} to room {}", session.getId(), roomId);
-
-            // 记录当前 session 的所有房间（用于调试）
-            logSessionRooms(session, roomId);
-        }
+        sessionToRoomMap.compute(session, (s, previousRoomId) -> {
+            // 先确保 session 不在之前的房间（防止串房间）
+            if (previousRoomId != null && !previousRoomId.equals(roomId)) {
+                removeFromRoom(previousRoomId, s);
+                log.info("[SessionRegistry] Removed session {} from room {} before re-registering",
+                        s.getId(), previousRoomId);
+            }
+            addToRoom(roomId, s);
+            return roomId;
+        });
+        log.info("[SessionRegistry] Registered session {} to room {}", session.getId(), roomId);
     }
 
-    /**
-     * 记录 session 当前所在的房间（调试用）
-     */
-    private void logSessionRooms(WebSocketSession session, String currentRoomId) {
-        if (!log.isDebugEnabled()) return;
-
-        List<String> rooms = new ArrayList<>();
-        for (Map.Entry<String, Set<WebSocketSession>> entry : roomSessions.entrySet()) {
-            if (entry.getValue().contains(session)) {
-                rooms.add(entry.getKey());
+    private void addToRoom(String roomId, WebSocketSession session) {
+        roomSessions.compute(roomId, (k, sessions) -> {
+            if (sessions == null) {
+                sessions = ConcurrentHashMap.newKeySet();
             }
-        }
-        log.debug("[SessionRegistry] Session {} is now in rooms: {} (current: {})",
-                session.getId(), rooms, currentRoomId);
+            sessions.add(session);
+            return sessions;
+        });
     }
 
     /**
-     * 从所有房间移除指定 session（内部方法，调用方必须持有 sessionLock）
+     * 从房间集合移除 session，房间空了则移除房间条目
+     *
+     * @return 是否确实移除了
      */
-    private void removeSessionFromAllRoomsInternal(WebSocketSession session) {
-        Iterator<Map.Entry<String, Set<WebSocketSession>>> iterator = roomSessions.entrySet().iterator();
-        while (iterator.hasNext()) {
-            Map.Entry<String, Set<WebSocketSession>> entry = iterator.next();
-            String otherRoomId = entry.getKey();
-            Set<WebSocketSession> sessions = entry.getValue();
-            if (sessions.remove(session)) {
-                log.info("[SessionRegistry] Removed session {} from room {} before re-registering",
-                        session.getId(), otherRoomId);
-                // 如果房间空了，安全地移除该房间条目
-                if (sessions.isEmpty()) {
-                    iterator.remove();
-                    log.debug("[SessionRegistry] Removed empty room: {}", otherRoomId);
-                }
+    private boolean removeFromRoom(String roomId, WebSocketSession session) {
+        boolean[] removed = new boolean[1];
+        roomSessions.computeIfPresent(roomId, (k, sessions) -> {
+            removed[0] = sessions.remove(session);
+            if (sessions.isEmpty()) {
+                log.debug("[SessionRegistry] Removed empty room: {}", roomId);
+                return null;
             }
-        }
-        // 清除反向映射
-        sessionToRoomMap.remove(session);
+            return sessions;
+        });
+        return removed[0];
     }
 
     /**
-     * 从所有房间移除指定 session（公共方法，使用同步锁）
+     * 从所有房间移除指定 session
+     * 通过反向映射找到 session 所在的房间，开销与房间总数无关
      */
     public void removeSessionFromAllRooms(WebSocketSession session) {
-        synchronized (sessionLock) {
-            removeSessionFromAllRoomsInternal(session);
-        }
+        sessionToRoomMap.computeIfPresent(session, (s, roomId) -> {
+            if (removeFromRoom(roomId, s)) {
+                log.info("[SessionRegistry] Removed session {} from room {}", s.getId(), roomId);
+            }
+            return null;
+        });
     }
 
     /**
      * 移除房间会话（由 ChatWebSocketHandler 调用）
      */
     public void removeRoomSession(String roomId, WebSocketSession session) {
-        synchronized (sessionLock) {
-            Set<WebSocketSession> sessions = roomSessions.get(roomId);
-            if (sessions != null) {
-                boolean removed = sessions.remove(session);
-                if (removed) {
-                    log.info("[SessionRegistry] Removed session {} from room {}", session.getId(), roomId);
-                }
-                if (sessions.isEmpty()) {
-                    roomSessions.remove(roomId);
-                    log.debug("[SessionRegistry] Removed empty room: {}", roomId);
-                }
-            }
-            // 清除反向映射
-            String currentRoom = sessionToRoomMap.get(session);
-            if (roomId.equals(currentRoom)) {
-                sessionToRoomMap.remove(session);
+        sessionToRoomMap.compute(session, (s, currentRoomId) -> {
+            if (removeFromRoom(roomId, s)) {
+                log.info("[SessionRegistry] Removed session {} from room {}", s.getId(), roomId);
             }
-        }
+            // 只有反向映射指向该房间时才清除
+            return roomId.equals(currentRoomId) ? null : currentRoomId;
+        });
     }
 
     /**
      * 移除会话（当连接关闭时）- 从所有房间移除
      */
     public void removeSession(WebSocketSession session) {
-        synchronized (sessionLock) {
-            removeSessionFromAllRoomsInternal(session);
-        }
+        removeSessionFromAllRooms(session);
     }
 
     /**
@@ -146,25 +118,24 @@ public class WebSocketBroadcastService {
         // 确保消息包含 roomId
         message.setRoomId(roomId);
 
-        Set<WebSocketSession> excludeSet = new HashSet<>(java.util.Arrays.asList(exclude));
-
-        // 获取该房间的 sessions 快照（避免在迭代时修改）
-        Set<WebSocketSession> sessions;
-        synchronized (sessionLock) {
-            sessions = roomSessions.getOrDefault(roomId, Collections.emptySet());
-            // 创建副本以避免在发送过程中被修改
-            sessions = new HashSet<>(sessions);
+        Set<WebSocketSession> sessions = roomSessions.get(roomId);
+        if (sessions == null || sessions.isEmpty()) {
+            log.debug("[Broadcast] No WebSocket sessions for room: {}", roomId);
+            return;
         }
 
-        if (sessions.isEmpty()) {
-            log.debug("[Broadcast] No WebSocket sessions for room: {}", roomId);
+        String payload;
+        try {
+            payload = objectMapper.writeValueAsString(message);
+        } catch (Exception e) {
+            log.error("[Broadcast] Failed to serialize message: {}", e.getMessage(), e);
             return;
         }
 
-        // 严格检查：验证每个 session 是否确实只属于目标房间
-        Set<WebSocketSession> validSessions = new HashSet<>();
+        // 直接迭代并发集合（弱一致），放入各 session 的发送队列，慢客户端不会阻塞其他人
+        int queuedCount = 0;
         for (WebSocketSession s : sessions) {
-            if (excludeSet.contains(s)) {
+            if (isExcluded(s, exclude)) {
                 continue;
             }
             if (!s.isOpen()) {
@@ -172,7 +143,7 @@ public class WebSocketBroadcastService {
                 continue;
             }
 
-            // 双重检查：通过反向映射验证 session 是否确实注册在目标房间
+            // 严格检查：通过反向映射验证 session 是否确实注册在目标房间
             String registeredRoom = sessionToRoomMap.get(s);
             if (!roomId.equals(registeredRoom)) {
                 log.error("[CROSS-ROOM ALERT] Session {} is registered in room {} but being broadcasted to room {}. " +
@@ -180,30 +151,21 @@ public class WebSocketBroadcastService {
                 continue;
             }
 
-            validSessions.add(s);
-        }
-
-        if (validSessions.isEmpty()) {
-            log.debug("[Broadcast] No valid sessions to broadcast to room: {}", roomId);
-            return;
+            if (outboxRegistry.send(s, message, payload)) {
+                queuedCount++;
+            }
         }
+        log.info("[Broadcast] Message type='{}' queued to {} sessions in room {}",
+                message.getType(), queuedCount, roomId);
+    }
 
-        try {
-            String payload = objectMapper.writeValueAsString(message);
-            int sentCount = 0;
-            for (WebSocketSession s : validSessions) {
-                try {
-                    s.sendMessage(new TextMessage(payload));
-                    sentCount++;
-                } catch (IOException e) {
-                    log.error("[Broadcast] Failed to send message to session {}: {}", s.getId(), e.getMessage());
-                }
+    static boolean isExcluded(WebSocketSession session, WebSocketSession[] exclude) {
+        for (WebSocketSession excluded : exclude) {
+            if (excluded == session) {
+                return true;
             }
-            log.info("[Broadcast] Message type='{}' broadcasted to {}/{} sessions in room {}",
-                    message.getType(), sentCount, validSessions.size(), roomId);
-        } catch (Exception e) {
-            log.error("[Broadcast] Failed to serialize message: {}", e.getMessage(), e);
         }
+        return false;
     }
 
     /**
@@ -232,11 +194,11 @@ public class WebSocketBroadcastService {
     }
 
     /**
-     * 获取房间的所有 WebSocket 会话（用于外部验证）
+     * 获取房间的所有 WebSocket 会话（用于外部验证和广播）
+     * 返回只读视图，不复制；迭代是弱一致的，可与注册/移除并发进行
      */
     public Set<WebSocketSession> getRoomSessions(String roomId) {
-        Set<WebSocketSession> sessions = roomSessions.getOrDefault(roomId, Collections.emptySet());
-        // 返回副本以避免外部修改
-        return new HashSet<>(sessions);
+        Set<WebSocketSession> sessions = roomSessions.get(roomId);
+        return sessions != null ? Collections.unmodifiableSet(sessions) : Collections.emptySet();
     }
 }
@@ -25,5 +25,8 @@ public class WebSocketMessage {
     private List<ChatRoom.Message> messages;
     private List<com.ooc.websocket.Attachment> attachments; // 附件列表
     private Boolean hasMore; // 是否还有更多历史消息
-    private Integer seq; // 序列号，用于流式消息排序
+    private String cursor; // 历史消息游标，用于继续加载更早的消息
+    private Integer seq; // 序列号，服务端按流分配的增量帧序号，用于排序和重连续传
+    private java.util.Map<String, Integer> streams; // 重连时各流式消息最后收到的 seq（join）
+    private java.util.Map<String, Object> queue; // 任务队列视图（queue_update）
 }
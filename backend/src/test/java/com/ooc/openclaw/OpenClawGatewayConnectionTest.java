@@ -0,0 +1,83 @@
+package com.ooc.openclaw;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.io.IOException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.*;
+
+class OpenClawGatewayConnectionTest {
+
+    private WebSocketSession openSession() {
+        WebSocketSession session = mock(WebSocketSession.class);
+        when(session.isOpen()).thenReturn(true);
+        return session;
+    }
+
+    @Test
+    void connect_ShouldBecomeReadyOnlyAfterHandshakeConfirmed() {
+        OpenClawGatewayConnection connection = new OpenClawGatewayConnection(0);
+        assertThat(connection.getState()).isEqualTo(OpenClawGatewayConnection.State.IDLE);
+
+        assertThat(connection.beginConnect()).isTrue();
+        // 同一时间只允许一个连接尝试
+        assertThat(connection.beginConnect()).isFalse();
+
+        connection.attach(openSession(), "conn-1");
+        assertThat(connection.isReady()).isFalse();
+
+        connection.getReady().complete(null);
+        connection.connectSucceeded();
+
+        assertThat(connection.isReady()).isTrue();
+        assertThat(connection.getState()).isEqualTo(OpenClawGatewayConnection.State.READY);
+    }
+
+    @Test
+    void connectFailed_ShouldEnterBackoffUntilRetryTime() {
+        OpenClawGatewayConnection connection = new OpenClawGatewayConnection(0);
+        connection.beginConnect();
+
+        connection.connectFailed("refused", 60000);
+
+        assertThat(connection.getState()).isEqualTo(OpenClawGatewayConnection.State.BACKOFF);
+        assertThat(connection.getReconnectAttempts()).isEqualTo(1);
+        assertThat(connection.canConnectNow()).isFalse();
+        assertThat(connection.getStats().lastError()).isEqualTo("refused");
+    }
+
+    @Test
+    void disconnected_ShouldIgnoreStaleSession() {
+        OpenClawGatewayConnection connection = new OpenClawGatewayConnection(0);
+        WebSocketSession current = openSession();
+        connection.beginConnect();
+        connection.attach(current, "conn-1");
+        connection.getReady().complete(null);
+        connection.connectSucceeded();
+
+        assertThat(connection.disconnected(openSession(), "old", 0)).isFalse();
+        assertThat(connection.isReady()).isTrue();
+
+        assertThat(connection.disconnected(current, "closed", 0)).isTrue();
+        assertThat(connection.isReady()).isFalse();
+    }
+
+    @Test
+    void send_ShouldCountFramesAndFailWhenClosed() throws Exception {
+        OpenClawGatewayConnection connection = new OpenClawGatewayConnection(3);
+        assertThatThrownBy(() -> connection.send("x")).isInstanceOf(IOException.class);
+
+        WebSocketSession session = openSession();
+        connection.beginConnect();
+        connection.attach(session, "conn-1");
+        connection.send("payload");
+
+        verify(session).sendMessage(new TextMessage("payload"));
+        assertThat(connection.getStats().framesSent()).isEqualTo(1);
+        assertThat(connection.getStats().index()).isEqualTo(3);
+    }
+}
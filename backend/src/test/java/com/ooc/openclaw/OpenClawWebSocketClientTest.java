@@ -0,0 +1,213 @@
+package com.ooc.openclaw;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketHandler;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.*;
+
+class OpenClawWebSocketClientTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private OpenClawWebSocketClient client;
+    private WebSocketSession socket;
+    private OpenClawGatewayConnection connection;
+    private WebSocketHandler gateway;
+
+    /**
+     * 记录回调的 handler，结束时完成 outcome（null 表示正常完成）
+     */
+    static class RecordingHandler implements OpenClawWebSocketClient.ResponseHandler {
+        final List<String> chunks = new CopyOnWriteArrayList<>();
+        final CompletableFuture<String> outcome = new CompletableFuture<>();
+
+        @Override
+        public void onTextChunk(String text, int seq) {
+            chunks.add(text);
+        }
+
+        @Override
+        public void onToolStart(String toolName, String toolCallId, Map<String, Object> args, int seq) {
+        }
+
+        @Override
+        public void onToolUpdate(String toolCallId, Object partialResult, int seq) {
+        }
+
+        @Override
+        public void onToolResult(String toolCallId, Object result, boolean isError, int seq) {
+        }
+
+        @Override
+        public void onComplete() {
+            outcome.complete(null);
+        }
+
+        @Override
+        public void onError(String error) {
+            outcome.complete(error == null ? "" : error);
+        }
+
+        String await() throws Exception {
+            return outcome.get(2, TimeUnit.SECONDS);
+        }
+    }
+
+    @BeforeEach
+    void setUp() {
+        OpenClawProperties properties = new OpenClawProperties();
+        properties.setRequestTimeoutSeconds(0);
+        properties.setCompletionGraceMs(200);
+        properties.getPool().setSize(1);
+        properties.getPool().setPrewarm(false);
+        properties.getPool().setReconnectInitialBackoffMs(600000);
+        properties.getPool().setReconnectMaxBackoffMs(600000);
+        client = new OpenClawWebSocketClient(properties, objectMapper);
+        client.initPool();
+
+        // 不建立真实连接：挂上模拟的 WebSocket 会话并标记握手完成
+        socket = mock(WebSocketSession.class);
+        when(socket.isOpen()).thenReturn(true);
+        connection = client.pooledConnection(0);
+        connection.beginConnect();
+        connection.attach(socket, "conn-0");
+        connection.getReady().complete(null);
+        connection.connectSucceeded();
+        gateway = client.newGatewayHandler(connection);
+    }
+
+    @AfterEach
+    void tearDown() {
+        client.shutdown();
+    }
+
+    private RecordingHandler send(String sessionId) {
+        RecordingHandler handler = new RecordingHandler();
+        client.sendMessage(sessionId, "hello", null, handler);
+        return handler;
+    }
+
+    /**
+     * 最近一次发出的 chat.send 请求ID
+     */
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    private String lastRequestId() throws Exception {
+        ArgumentCaptor<WebSocketMessage> captor = ArgumentCaptor.forClass(WebSocketMessage.class);
+        verify(socket, atLeastOnce()).sendMessage(captor.capture());
+        List<WebSocketMessage> sent = captor.getAllValues();
+        String payload = ((TextMessage) sent.get(sent.size() - 1)).getPayload();
+        return objectMapper.readTree(payload).path("id").asText();
+    }
+
+    private void receive(String json) throws Exception {
+        gateway.handleMessage(socket, new TextMessage(json.replace('\'', '"')));
+    }
+
+    /**
+     * 宽限期到期后先回调 handler 再释放会话锁，等待释放完成
+     */
+    private void awaitSessionsReleased() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 2000;
+        while (!connection.getActiveSessions().isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertThat(connection.getActiveSessions()).isEmpty();
+    }
+
+    @Test
+    void normalClose_ShouldFailAllActiveRequestsOnSharedConnection() throws Exception {
+        RecordingHandler first = send("ooc-room1");
+        RecordingHandler second = send("ooc-room2");
+
+        gateway.afterConnectionClosed(socket, CloseStatus.NORMAL);
+
+        assertThat(first.await()).contains("closed by gateway");
+        assertThat(second.await()).contains("closed by gateway");
+        assertThat(connection.getActiveSessions()).isEmpty();
+        // 会话锁已释放：再次请求不会因 SESSION_BUSY 被拒绝（连接在退避中，因此以连接失败结束）
+        assertThat(send("ooc-room1").await()).doesNotContain("SESSION_BUSY");
+    }
+
+    @Test
+    void replacedSocket_CloseOrErrorShouldNotFailRequestsOnCurrentSocket() throws Exception {
+        RecordingHandler handler = send("ooc-room1");
+        // 已被替换的旧连接（如握手超时后放弃的）迟到的关闭和传输错误
+        WebSocketSession staleSocket = mock(WebSocketSession.class);
+
+        gateway.handleTransportError(staleSocket, new java.io.IOException("reset"));
+        gateway.afterConnectionClosed(staleSocket, CloseStatus.NORMAL);
+
+        assertThat(handler.outcome).isNotDone();
+        assertThat(connection.getActiveSessions()).containsExactly("ooc-room1");
+        assertThat(connection.getSession()).isSameAs(socket);
+    }
+
+    @Test
+    void close_ShouldKeepTerminalOutcomeSeenWithinGraceWindow() throws Exception {
+        RecordingHandler completed = send("ooc-room1");
+        RecordingHandler running = send("ooc-room2");
+
+        receive("{'type':'event','event':'chat','payload':{'sessionKey':'agent:main:ooc-room1','state':'final'}}");
+        gateway.afterConnectionClosed(socket, CloseStatus.NORMAL);
+
+        // 已收到 final 的请求正常完成，其余请求失败
+        assertThat(completed.await()).isNull();
+        assertThat(running.await()).isNotNull();
+    }
+
+    @Test
+    void terminalEvent_ShouldStillRouteLateEventsWithinGraceWindow() throws Exception {
+        RecordingHandler handler = send("ooc-room1");
+        receive("{'type':'res','id':'" + lastRequestId() + "','ok':true,'payload':{'runId':'run-1'}}");
+
+        receive("{'type':'event','event':'agent.run.completed','payload':{'runId':'run-1'}}");
+        // 终止事件之后乱序到达的尾部帧（不带 sessionKey，按 runId 路由）
+        receive("{'type':'event','event':'agent','payload':{'runId':'run-1','seq':7,'stream':'assistant','data':{'delta':'tail'}}}");
+        assertThat(handler.outcome).isNotDone();
+
+        assertThat(handler.await()).isNull();
+        assertThat(handler.chunks).containsExactly("tail");
+    }
+
+    @Test
+    void terminalEvent_WithUnknownRunIdShouldNotCompleteRequest() throws Exception {
+        RecordingHandler handler = send("ooc-room1");
+        receive("{'type':'res','id':'" + lastRequestId() + "','ok':true,'payload':{'runId':'run-1'}}");
+
+        // 子代理的运行：runId 未记录，不能推断为主请求的完成
+        receive("{'type':'event','event':'agent.run.completed','payload':{'runId':'subagent-run'}}");
+        Thread.sleep(400);
+        assertThat(handler.outcome).isNotDone();
+
+        receive("{'type':'event','event':'agent.run.completed','payload':{'runId':'run-1'}}");
+        assertThat(handler.await()).isNull();
+    }
+
+    @Test
+    void rejectedChatSend_ShouldFailRequestAndReleaseSession() throws Exception {
+        RecordingHandler handler = send("ooc-room1");
+
+        receive("{'type':'res','id':'" + lastRequestId() + "','ok':false,'error':'agent unavailable'}");
+
+        assertThat(handler.await()).isEqualTo("agent unavailable");
+        awaitSessionsReleased();
+        // 会话锁已释放，下一个请求可以立即发送
+        RecordingHandler next = send("ooc-room1");
+        assertThat(next.outcome).isNotDone();
+        assertThat(connection.getActiveSessions()).containsExactly("ooc-room1");
+    }
+}
@@ -0,0 +1,129 @@
+package com.ooc.openclaw;
+
+import com.ooc.entity.ChatRoom;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ToolCallRecognizerTest {
+
+    private static final String REPLY = """
+            已查询天气并写入文件。
+
+            **Tools used:**
+            - `web_search`: 搜索北京天气
+            - `write`: 保存结果
+
+            **Tool details:**
+            - `web_search`:
+            ```json
+            {"city": "北京", "temp": 21}
+            ```
+            - `write`: wrote 2 lines
+            done
+            """;
+
+    private static List<ChatRoom.Message.ToolCall> feedInChunks(ToolCallRecognizer recognizer, String content, int size) {
+        List<ChatRoom.Message.ToolCall> published = new ArrayList<>();
+        for (int i = 0; i < content.length(); i += size) {
+            published.addAll(recognizer.append(content.substring(i, Math.min(content.length(), i + size))));
+        }
+        published.addAll(recognizer.complete());
+        return published;
+    }
+
+    @Test
+    void append_ShouldPublishListedToolsAsTheyArrive() {
+        ToolCallRecognizer recognizer = new ToolCallRecognizer();
+
+        assertThat(recognizer.append("**Tools used:**\n- `read`: 读取配置")).isEmpty();
+        // 换行后该行才完整
+        assertThat(recognizer.append("\n- `exec`"))
+                .extracting(ChatRoom.Message.ToolCall::getName).containsExactly("read");
+        assertThat(recognizer.complete())
+                .extracting(ChatRoom.Message.ToolCall::getName).containsExactly("exec");
+        assertThat(recognizer.hasToolsSection()).isTrue();
+    }
+
+    @Test
+    void recognizer_ShouldGiveSameResultForAnyChunking() {
+        for (int size : new int[]{1, 3, 7, REPLY.length()}) {
+            ToolCallRecognizer recognizer = new ToolCallRecognizer();
+            List<ChatRoom.Message.ToolCall> published = feedInChunks(recognizer, REPLY, size);
+
+            assertThat(published).extracting(ChatRoom.Message.ToolCall::getName)
+                    .containsExactly("web_search", "write");
+            List<ChatRoom.Message.ToolCall> toolCalls = recognizer.enrich(recognizer.toolCalls());
+            assertThat(toolCalls).extracting(ChatRoom.Message.ToolCall::getDescription)
+                    .containsExactly("搜索北京天气", "保存结果");
+            assertThat(toolCalls.get(0).getResult())
+                    .isEqualTo("```json\n{\"city\": \"北京\", \"temp\": 21}\n```");
+            assertThat(toolCalls.get(1).getResult()).isEqualTo("wrote 2 lines\ndone");
+        }
+    }
+
+    @Test
+    void toolsSection_ShouldEndAtBlankLine() {
+        ToolCallRecognizer recognizer = new ToolCallRecognizer();
+        feedInChunks(recognizer, "Tools used:\n- read: 读取\n\n- write: 不是列表项\n", 5);
+
+        assertThat(recognizer.toolCalls()).extracting(ChatRoom.Message.ToolCall::getName).containsExactly("read");
+    }
+
+    @Test
+    void enrich_ShouldUseToolsSectionWhenThereIsNoDetailsMarker() {
+        ToolCallRecognizer recognizer = new ToolCallRecognizer();
+        feedInChunks(recognizer, "**Tools used:**\n- `read`: config.yml\n  line 2\n- `exec`: ls\n", 4);
+
+        List<ChatRoom.Message.ToolCall> toolCalls = recognizer.enrich(recognizer.toolCalls());
+
+        assertThat(toolCalls.get(0).getResult()).isEqualTo("config.yml\n  line 2");
+        assertThat(toolCalls.get(1).getResult()).isEqualTo("ls");
+    }
+
+    @Test
+    void enrich_ShouldMatchExpectedStreamedToolNames() {
+        ToolCallRecognizer recognizer = new ToolCallRecognizer();
+        recognizer.expectTool("browser_open");
+        feedInChunks(recognizer, "结果如下\n**Tool details:**\n- browser_open: 页面标题 OK\n", 6);
+
+        List<ChatRoom.Message.ToolCall> streamed = List.of(ChatRoom.Message.ToolCall.builder()
+                .id("t1").name("browser_open").status("completed").build());
+
+        assertThat(recognizer.enrich(streamed).get(0).getResult()).isEqualTo("页面标题 OK");
+    }
+
+    @Test
+    void detectedToolCalls_ShouldMatchWholeWordsAcrossChunks() {
+        ToolCallRecognizer recognizer = new ToolCallRecognizer();
+        feedInChunks(recognizer, "I used Web_Search, then nano-pdf and memory_read; readme and GitHub", 2);
+
+        assertThat(recognizer.hasToolsSection()).isFalse();
+        // "read" 以 _ 为边界匹配；"readme" 和 "github" 中的 "gh" 不匹配
+        assertThat(recognizer.toolCalls()).extracting(ChatRoom.Message.ToolCall::getName)
+                .containsExactly("read", "web_search", "github", "nano-pdf");
+    }
+
+    @Test
+    void detectedToolCalls_ShouldHandleVeryLongWords() {
+        ToolCallRecognizer recognizer = new ToolCallRecognizer();
+        feedInChunks(recognizer, "x".repeat(10_000) + "_exec " + "y".repeat(10_000) + "exec", 512);
+
+        assertThat(recognizer.detectedToolCalls()).extracting(ChatRoom.Message.ToolCall::getName)
+                .containsExactly("exec");
+    }
+
+    @Test
+    void parser_ShouldDelegateToRecognizer() {
+        OpenClawResponseParser parser = new OpenClawResponseParser();
+
+        List<ChatRoom.Message.ToolCall> toolCalls = parser.enrichToolCallsWithDetails(REPLY, parser.parseToolCalls(REPLY));
+
+        assertThat(toolCalls).extracting(ChatRoom.Message.ToolCall::getName).containsExactly("web_search", "write");
+        assertThat(toolCalls.get(1).getResult()).isEqualTo("wrote 2 lines\ndone");
+        assertThat(parser.detectToolsFromContent("no tools here")).isEmpty();
+    }
+}
@@ -0,0 +1,126 @@
+package com.ooc.service;
+
+import com.ooc.config.ChatProperties;
+import com.ooc.entity.BotUserConfig;
+import com.ooc.entity.User;
+import com.ooc.repository.UserRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class BotRegistryServiceTest {
+
+    @Mock
+    private UserRepository userRepository;
+
+    private ChatProperties properties;
+    private BotRegistryService botRegistryService;
+
+    @BeforeEach
+    void setUp() {
+        properties = new ChatProperties();
+        botRegistryService = new BotRegistryService(userRepository, properties);
+    }
+
+    @Test
+    void getEnabledBot_ShouldLoadBotsOnceAndIndexByType() {
+        // Given
+        User disabledKimi = bot("kimi-old", "kimi", false);
+        User kimi = bot("kimi", "kimi", true);
+        User openclaw = bot("openclaw", "openclaw", true);
+        when(userRepository.findByIsBotTrue()).thenReturn(List.of(disabledKimi, kimi, openclaw));
+
+        // When & Then
+        assertThat(botRegistryService.getEnabledBot("kimi")).contains(kimi);
+        assertThat(botRegistryService.getEnabledBotConfig("openclaw"))
+                .map(BotUserConfig::getGatewayUrl).contains("http://openclaw");
+        assertThat(botRegistryService.getEnabledBot("claude-code")).isEmpty();
+        verify(userRepository, times(1)).findByIsBotTrue();
+        verify(userRepository, never()).findAll();
+    }
+
+    @Test
+    void invalidate_ShouldReloadOnNextAccess() {
+        // Given
+        when(userRepository.findByIsBotTrue())
+                .thenReturn(List.of())
+                .thenReturn(List.of(bot("kimi", "kimi", true)));
+        assertThat(botRegistryService.getEnabledBot("kimi")).isEmpty();
+
+        // When
+        botRegistryService.invalidate();
+
+        // Then
+        assertThat(botRegistryService.getEnabledBot("kimi")).isPresent();
+        verify(userRepository, times(2)).findByIsBotTrue();
+    }
+
+    @Test
+    void getEnabledBotConfig_ShouldSkipEnabledBotsWithoutConfig() {
+        // Given
+        User withoutConfig = bot("kimi-empty", "kimi", true);
+        withoutConfig.setBotConfig(null);
+        User kimi = bot("kimi", "kimi", true);
+        when(userRepository.findByIsBotTrue()).thenReturn(List.of(withoutConfig, kimi));
+
+        // When & Then
+        assertThat(botRegistryService.getEnabledBot("kimi")).contains(withoutConfig);
+        assertThat(botRegistryService.getEnabledBotConfig("kimi")).contains(kimi.getBotConfig());
+    }
+
+    @Test
+    void invalidate_DuringLoadShouldNotPublishStaleSnapshot() {
+        // Given: 加载过程中管理端修改了机器人
+        when(userRepository.findByIsBotTrue())
+                .thenAnswer(invocation -> {
+                    botRegistryService.invalidate();
+                    return List.of();
+                })
+                .thenReturn(List.of(bot("kimi", "kimi", true)));
+
+        // When
+        assertThat(botRegistryService.getEnabledBot("kimi")).isEmpty();
+
+        // Then: 变更前加载的结果没有被缓存，下次访问重新加载
+        assertThat(botRegistryService.getEnabledBot("kimi")).isPresent();
+        assertThat(botRegistryService.getEnabledBot("kimi")).isPresent();
+        verify(userRepository, times(2)).findByIsBotTrue();
+    }
+
+    @Test
+    void snapshot_ShouldReloadAfterTtl() throws Exception {
+        // Given: 其他实例的修改不会通知本实例
+        properties.getBotRegistry().setTtlMs(50);
+        when(userRepository.findByIsBotTrue())
+                .thenReturn(List.of())
+                .thenReturn(List.of(bot("kimi", "kimi", true)));
+        assertThat(botRegistryService.getEnabledBot("kimi")).isEmpty();
+        assertThat(botRegistryService.getEnabledBot("kimi")).isEmpty();
+
+        // When
+        Thread.sleep(100);
+
+        // Then
+        assertThat(botRegistryService.getEnabledBot("kimi")).isPresent();
+        verify(userRepository, times(2)).findByIsBotTrue();
+    }
+
+    private User bot(String username, String botType, boolean enabled) {
+        return User.builder()
+                .id(username + "-id")
+                .username(username)
+                .isBot(true)
+                .botType(botType)
+                .enabled(enabled)
+                .botConfig(BotUserConfig.builder().gatewayUrl("http://" + botType).build())
+                .build();
+    }
+}
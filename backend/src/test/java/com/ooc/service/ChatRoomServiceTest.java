@@ -1,23 +1,30 @@
 package com.ooc.service;
 
+import com.ooc.dto.MessageCursor;
+import com.ooc.dto.MessagePage;
+import com.ooc.entity.ChatMessage;
 import com.ooc.entity.ChatRoom;
+import com.ooc.repository.ChatMessageRepository;
 import com.ooc.repository.ChatRoomRepository;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.domain.Pageable;
 
 import java.time.Instant;
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Optional;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.*;
 
 @ExtendWith(MockitoExtension.class)
@@ -26,6 +33,12 @@ class ChatRoomServiceTest {
     @Mock
     private ChatRoomRepository chatRoomRepository;
 
+    @Mock
+    private ChatMessageRepository chatMessageRepository;
+
+    @Mock
+    private RecentMessageCache recentMessageCache;
+
     @InjectMocks
     private ChatRoomService chatRoomService;
 
@@ -154,34 +167,46 @@ class ChatRoomServiceTest {
                 .senderId(USER_ID)
                 .timestamp(Instant.now())
                 .build();
-        
-        ChatRoom room = ChatRoom.builder()
-                .id(ROOM_ID)
-                .name("Test Room")
-                .messages(new ArrayList<>())
-                .memberIds(new HashSet<>(Arrays.asList(USER_ID)))
-                .build();
-        
-        when(chatRoomRepository.findById(ROOM_ID)).thenReturn(Optional.of(room));
-        when(chatRoomRepository.save(any(ChatRoom.class))).thenReturn(room);
+
+        when(chatRoomRepository.existsById(ROOM_ID)).thenReturn(true);
 
         // When
-        ChatRoom result = chatRoomService.addMessage(ROOM_ID, message);
+        ChatRoom.Message result = chatRoomService.addMessage(ROOM_ID, message);
 
         // Then
-        assertThat(result.getMessages()).hasSize(1);
-        assertThat(result.getMessages().get(0).getContent()).isEqualTo("Test message");
+        ArgumentCaptor<ChatMessage> captor = ArgumentCaptor.forClass(ChatMessage.class);
+        verify(chatMessageRepository).save(captor.capture());
+        assertThat(captor.getValue().getId()).isEqualTo("msg123");
+        assertThat(captor.getValue().getRoomId()).isEqualTo(ROOM_ID);
+        assertThat(captor.getValue().getMessage().getContent()).isEqualTo("Test message");
+        assertThat(result.getContent()).isEqualTo("Test message");
+        // 房间文档不会被重写
+        verify(chatRoomRepository, never()).save(any(ChatRoom.class));
+    }
+
+    @Test
+    void addMessage_WithNonExistingRoom_ShouldThrowException() {
+        // Given
+        ChatRoom.Message message = ChatRoom.Message.builder().id("msg123").content("Test message").build();
+        when(chatRoomRepository.existsById(ROOM_ID)).thenReturn(false);
+
+        // When & Then
+        assertThatThrownBy(() -> chatRoomService.addMessage(ROOM_ID, message))
+                .isInstanceOf(RuntimeException.class)
+                .hasMessage("Chat room not found");
+        verify(chatMessageRepository, never()).save(any(ChatMessage.class));
     }
 
     @Test
     void updateMessage_WithExistingMessage_ShouldUpdateContent() {
         // Given
         String messageId = "msg123";
+        Instant createdAt = Instant.now().minusSeconds(60);
         ChatRoom.Message existingMessage = ChatRoom.Message.builder()
                 .id(messageId)
                 .content("Old content")
                 .senderId(USER_ID)
-                .timestamp(Instant.now())
+                .timestamp(createdAt)
                 .build();
         
         ChatRoom.Message updatedMessage = ChatRoom.Message.builder()
@@ -190,22 +215,64 @@ class ChatRoomServiceTest {
                 .senderId(USER_ID)
                 .timestamp(Instant.now())
                 .build();
-        
-        ChatRoom room = ChatRoom.builder()
-                .id(ROOM_ID)
-                .name("Test Room")
-                .messages(new ArrayList<>(Arrays.asList(existingMessage)))
-                .memberIds(new HashSet<>(Arrays.asList(USER_ID)))
-                .build();
-        
-        when(chatRoomRepository.findById(ROOM_ID)).thenReturn(Optional.of(room));
-        when(chatRoomRepository.save(any(ChatRoom.class))).thenReturn(room);
+
+        when(chatMessageRepository.findByIdAndRoomId(messageId, ROOM_ID))
+                .thenReturn(Optional.of(ChatMessage.of(ROOM_ID, existingMessage)));
+
+        // When
+        ChatRoom.Message result = chatRoomService.updateMessage(ROOM_ID, updatedMessage);
+
+        // Then
+        ArgumentCaptor<ChatMessage> captor = ArgumentCaptor.forClass(ChatMessage.class);
+        verify(chatMessageRepository).save(captor.capture());
+        assertThat(captor.getValue().getMessage().getContent()).isEqualTo("Updated content");
+        // 排序时间戳保持为写入时间
+        assertThat(captor.getValue().getTimestamp()).isEqualTo(createdAt);
+        assertThat(result.getContent()).isEqualTo("Updated content");
+        verify(chatRoomRepository, never()).findById(ROOM_ID);
+    }
+
+    @Test
+    void getMessages_ShouldReturnChronologicalOrder() {
+        // Given
+        Instant now = Instant.now();
+        ChatRoom.Message older = ChatRoom.Message.builder().id("m1").content("first").timestamp(now.minusSeconds(10)).build();
+        ChatRoom.Message newer = ChatRoom.Message.builder().id("m2").content("second").timestamp(now).build();
+        when(chatMessageRepository.findByRoomIdOrderByTimestampDescIdDesc(eq(ROOM_ID), any(Pageable.class)))
+                .thenReturn(Arrays.asList(ChatMessage.of(ROOM_ID, newer), ChatMessage.of(ROOM_ID, older)));
 
         // When
-        ChatRoom result = chatRoomService.updateMessage(ROOM_ID, updatedMessage);
+        List<ChatRoom.Message> result = chatRoomService.getMessages(ROOM_ID, 0, 10);
 
         // Then
-        assertThat(result.getMessages().get(0).getContent()).isEqualTo("Updated content");
+        assertThat(result).extracting(ChatRoom.Message::getId).containsExactly("m1", "m2");
+    }
+
+    @Test
+    void getMessageHistory_WithCursor_ShouldFetchSinglePageBeforeCursor() {
+        // Given
+        Instant now = Instant.ofEpochMilli(System.currentTimeMillis());
+        String cursor = new MessageCursor(now, "m3").encode();
+        ChatRoom.Message m2 = ChatRoom.Message.builder().id("m2").timestamp(now.minusSeconds(1)).build();
+        ChatRoom.Message m1 = ChatRoom.Message.builder().id("m1").timestamp(now.minusSeconds(2)).build();
+        ChatRoom.Message m0 = ChatRoom.Message.builder().id("m0").timestamp(now.minusSeconds(3)).build();
+        when(chatMessageRepository.findPageBefore(eq(ROOM_ID), eq(now), eq("m3"), any(Pageable.class)))
+                .thenReturn(Arrays.asList(ChatMessage.of(ROOM_ID, m2), ChatMessage.of(ROOM_ID, m1), ChatMessage.of(ROOM_ID, m0)));
+
+        // When
+        MessagePage page = chatRoomService.getMessageHistory(ROOM_ID, cursor, "before", 2);
+
+        // Then
+        assertThat(page.getMessages()).extracting(ChatRoom.Message::getId).containsExactly("m1", "m2");
+        assertThat(page.isHasMore()).isTrue();
+        assertThat(MessageCursor.decode(page.getOlderCursor()).id()).isEqualTo("m1");
+        assertThat(MessageCursor.decode(page.getNewerCursor()).id()).isEqualTo("m2");
+    }
+
+    @Test
+    void getMessageHistory_WithInvalidCursor_ShouldThrowIllegalArgument() {
+        assertThatThrownBy(() -> chatRoomService.getMessageHistory(ROOM_ID, "bm90LWEtY3Vyc29y", "before", 20))
+                .isInstanceOf(IllegalArgumentException.class);
     }
 
     @Test
@@ -215,6 +282,8 @@ class ChatRoomServiceTest {
 
         // Then
         verify(chatRoomRepository).deleteById(ROOM_ID);
+        verify(chatMessageRepository).deleteByRoomId(ROOM_ID);
+        verify(recentMessageCache).evictRoom(ROOM_ID);
     }
 
     @Test
@@ -0,0 +1,84 @@
+package com.ooc.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class DeficitRoundRobinTest {
+
+    private final DeficitRoundRobin<String> drr = new DeficitRoundRobin<>(1);
+    // 每个房间的待执行任务代价，队首在前
+    private final Map<String, List<Integer>> backlog = new HashMap<>();
+
+    private int headCost(String room) {
+        List<Integer> tasks = backlog.get(room);
+        return tasks == null || tasks.isEmpty() ? -1 : tasks.get(0);
+    }
+
+    /**
+     * 模拟执行：选中后立即完成并重新加入轮询
+     */
+    private List<String> drain(int count) {
+        List<String> order = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            String room = drr.select(r -> true, this::headCost);
+            if (room == null) {
+                break;
+            }
+            order.add(room);
+            backlog.get(room).remove(0);
+            drr.activate(room);
+        }
+        return order;
+    }
+
+    @Test
+    void select_ShouldAlternateBetweenRoomsWithEqualCosts() {
+        backlog.put("a", new ArrayList<>(List.of(1, 1, 1)));
+        backlog.put("b", new ArrayList<>(List.of(1)));
+        drr.activate("a");
+        drr.activate("b");
+
+        // 单个房间的积压不会阻塞其他房间
+        assertThat(drain(10)).containsExactly("a", "b", "a", "a");
+    }
+
+    @Test
+    void select_ShouldMakeExpensiveTasksWaitForMoreRounds() {
+        backlog.put("flow", new ArrayList<>(List.of(4)));
+        backlog.put("chat", new ArrayList<>(List.of(1, 1, 1, 1)));
+        drr.activate("flow");
+        drr.activate("chat");
+
+        List<String> order = drain(10);
+
+        assertThat(order).hasSize(5);
+        assertThat(order.indexOf("flow")).isGreaterThan(0);
+    }
+
+    @Test
+    void select_ShouldSkipIneligibleRoomsWithoutLosingThem() {
+        backlog.put("a", new ArrayList<>(List.of(1)));
+        backlog.put("b", new ArrayList<>(List.of(1)));
+        drr.activate("a");
+        drr.activate("b");
+
+        assertThat(drr.select(r -> r.equals("b"), this::headCost)).isEqualTo("b");
+        assertThat(drr.select(r -> false, this::headCost)).isNull();
+        assertThat(drr.size()).isEqualTo(1);
+        assertThat(drr.select(r -> true, this::headCost)).isEqualTo("a");
+    }
+
+    @Test
+    void select_ShouldDropEmptyRooms() {
+        drr.activate("empty");
+
+        assertThat(drr.select(r -> true, this::headCost)).isNull();
+        assertThat(drr.size()).isZero();
+    }
+}
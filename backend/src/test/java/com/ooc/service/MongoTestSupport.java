@@ -0,0 +1,34 @@
+package com.ooc.service;
+
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import org.junit.jupiter.api.BeforeAll;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.testcontainers.containers.MongoDBContainer;
+
+/**
+ * 直接使用 MongoTemplate 的服务测试的公共基类
+ * 所有子类共享同一个 MongoDB 容器和客户端（第一次使用时启动，JVM 退出时由 Testcontainers 清理），
+ * 每个测试类使用自己的数据库，在 setUp 中清空用到的集合。
+ * 子类需要自行标注 {@code @DisabledIfEnvironmentVariable(named = "CI", matches = "true")}。
+ */
+abstract class MongoTestSupport {
+
+    private static MongoDBContainer mongoDBContainer;
+    private static MongoClient client;
+
+    @BeforeAll
+    static synchronized void startMongo() {
+        if (client == null) {
+            // 启动成功后才记录，启动失败时后续测试类会重新尝试并报告真实原因
+            MongoDBContainer container = new MongoDBContainer("mongo:7");
+            container.start();
+            mongoDBContainer = container;
+            client = MongoClients.create(container.getReplicaSetUrl());
+        }
+    }
+
+    protected static MongoTemplate mongoTemplate(String database) {
+        return new MongoTemplate(client, database);
+    }
+}
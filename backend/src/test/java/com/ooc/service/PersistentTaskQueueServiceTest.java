@@ -0,0 +1,332 @@
+package com.ooc.service;
+
+import com.ooc.config.ChatProperties;
+import com.ooc.entity.BotTaskQueue;
+import com.ooc.entity.BotTaskRoomLease;
+import com.ooc.repository.BotTaskQueueRepository;
+import com.ooc.websocket.ChatWebSocketHandler;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.DisabledIfEnvironmentVariable;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import reactor.core.Disposable;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@DisabledIfEnvironmentVariable(named = "CI", matches = "true")
+class PersistentTaskQueueServiceTest extends MongoTestSupport {
+
+    private static final String INSTANCE_ID = "test-instance";
+    private static final BotTaskQueue.BotType BOT = BotTaskQueue.BotType.KIMI;
+
+    private MongoTemplate mongoTemplate;
+    private ChatProperties properties;
+    private TaskQueueScheduler scheduler;
+    private TaskLeaseManager leaseManager;
+    private PersistentTaskQueueService service;
+
+    @BeforeEach
+    void setUp() {
+        mongoTemplate = mongoTemplate("task_queue_test");
+        mongoTemplate.dropCollection(BotTaskQueue.class);
+        mongoTemplate.dropCollection(BotTaskRoomLease.class);
+
+        properties = new ChatProperties();
+        properties.getTaskQueue().setNextTaskDelayMs(0);
+        properties.getTaskQueue().setCancelNextTaskDelayMs(0);
+        properties.getTaskQueue().setSyncIntervalMs(0);
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        scheduler = new TaskQueueScheduler(properties, meterRegistry);
+        scheduler.start();
+        leaseManager = new TaskLeaseManager(mongoTemplate, INSTANCE_ID, 30000);
+
+        // 服务用到的仓库方法直接读写测试数据库
+        BotTaskQueueRepository repository = mock(BotTaskQueueRepository.class);
+        when(repository.save(any(BotTaskQueue.class))).thenAnswer(invocation -> mongoTemplate.save(invocation.getArgument(0)));
+        when(repository.findByRoomIdAndBotTypeAndStatusInOrderByPositionAsc(any(), any(), anyList()))
+                .thenAnswer(invocation -> mongoTemplate.find(Query.query(Criteria.where("roomId").is(invocation.getArgument(0))
+                                .and("botType").is(invocation.getArgument(1))
+                                .and("status").in((List<?>) invocation.getArgument(2)))
+                        .with(Sort.by("position")), BotTaskQueue.class));
+
+        service = new PersistentTaskQueueService(repository, mongoTemplate, scheduler, leaseManager,
+                new TaskPriorityPolicy(properties), new TaskRetryPolicy(properties), properties, meterRegistry);
+    }
+
+    @AfterEach
+    void tearDown() {
+        scheduler.shutdown();
+    }
+
+    private String insertTask(String roomId, BotTaskQueue.TaskStatus status, int position, Instant createdAt) {
+        String taskId = UUID.randomUUID().toString();
+        mongoTemplate.insert(BotTaskQueue.builder()
+                .taskId(taskId)
+                .roomId(roomId)
+                .botType(BOT)
+                .content("backlog " + position)
+                .status(status)
+                .position(position)
+                .createdAt(createdAt)
+                .leaseOwner(status == BotTaskQueue.TaskStatus.PROCESSING ? INSTANCE_ID : null)
+                .build());
+        return taskId;
+    }
+
+    private String addTask(String roomId) {
+        return service.addTask(roomId, "hello", null, null, null, BOT);
+    }
+
+    /**
+     * 记录执行顺序的处理器，每个任务执行后立即完成
+     */
+    private List<String> recordProcessing(CountDownLatch processed) {
+        List<String> order = new CopyOnWriteArrayList<>();
+        service.registerTaskProcessor(BOT, task -> {
+            order.add(task.getTaskId());
+            service.markTaskCompleted(task.getTaskId());
+            service.onTaskComplete(task.getRoomId(), BOT, task.getTaskId());
+            processed.countDown();
+        });
+        return order;
+    }
+
+    private List<String> queuedTaskIds(String roomId) {
+        return service.getRoomTaskQueue(roomId, BOT).stream()
+                .map(ChatWebSocketHandler.OpenClawTask::getTaskId)
+                .toList();
+    }
+
+    @Test
+    void restore_ShouldKeepTasksAddedDuringRestoreBehindBacklog() throws Exception {
+        Instant hourAgo = Instant.now().minus(1, ChronoUnit.HOURS);
+        // 上次运行遗留的处理中任务，重启后重置为待处理并排在最前
+        String interrupted = insertTask("room-1", BotTaskQueue.TaskStatus.PROCESSING, 0, hourAgo);
+        String first = insertTask("room-1", BotTaskQueue.TaskStatus.PENDING, 1, hourAgo.plusSeconds(1));
+        String second = insertTask("room-1", BotTaskQueue.TaskStatus.PENDING, 2, hourAgo.plusSeconds(2));
+        CountDownLatch processed = new CountDownLatch(4);
+        List<String> order = recordProcessing(processed);
+
+        service.prepareRestore();
+        assertThat(service.getRestoreStatus().resetToPending()).isEqualTo(1);
+        assertThat(service.getRestoreStatus().roomsRemaining()).isEqualTo(1);
+
+        // 恢复完成前新加入的任务不会被调度
+        String added = addTask("room-1");
+        service.tryProcessNext("room-1", BOT);
+        assertThat(order).isEmpty();
+        assertThat(queuedTaskIds("room-1")).containsExactly(interrupted, first, second, added);
+
+        service.restoreQueues();
+
+        assertThat(processed.await(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(order).containsExactly(interrupted, first, second, added);
+        PersistentTaskQueueService.RestoreStatus status = service.getRestoreStatus();
+        assertThat(status.state()).isEqualTo(PersistentTaskQueueService.RestoreState.COMPLETED);
+        assertThat(status.restored()).isEqualTo(3);
+        assertThat(status.roomsRemaining()).isZero();
+    }
+
+    @Test
+    void restore_ShouldNotHoldBackRoomsWithoutBacklog() throws Exception {
+        insertTask("room-1", BotTaskQueue.TaskStatus.PENDING, 0, Instant.now().minus(1, ChronoUnit.HOURS));
+        CountDownLatch processed = new CountDownLatch(1);
+        List<String> order = recordProcessing(processed);
+        service.prepareRestore();
+
+        String other = addTask("room-2");
+        service.tryProcessNext("room-2", BOT);
+
+        assertThat(processed.await(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(order).containsExactly(other);
+    }
+
+    @Test
+    void renewLeases_ShouldAbortTasksWhoseLeaseWasTakenOver() throws Exception {
+        Disposable subscription = mock(Disposable.class);
+        CountDownLatch started = new CountDownLatch(1);
+        service.registerTaskProcessor(BOT, task -> {
+            service.registerTaskSubscription(task.getTaskId(), subscription);
+            started.countDown();
+        });
+        String taskId = addTask("room-1");
+        service.tryProcessNext("room-1", BOT);
+        assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+
+        // 续约不及时，租约过期后任务被其他实例回收并重新认领
+        mongoTemplate.updateFirst(Query.query(Criteria.where("taskId").is(taskId)),
+                new Update().set("leaseOwner", "other-instance"), BotTaskQueue.class);
+        service.renewLeases();
+
+        verify(subscription).dispose();
+        assertThat(service.isTaskCancelled(taskId)).isTrue();
+        assertThat(service.getCurrentProcessingTask("room-1", BOT)).isNull();
+        assertThat(service.getDispatcherStats().running()).isZero();
+        assertThat(leaseManager.ownedRooms(List.of(BotTaskRoomLease.idOf("room-1", BOT)))).isEmpty();
+        // 数据库记录属于新的执行实例，不被修改
+        BotTaskQueue dbTask = mongoTemplate.findOne(Query.query(Criteria.where("taskId").is(taskId)), BotTaskQueue.class);
+        assertThat(dbTask.getStatus()).isEqualTo(BotTaskQueue.TaskStatus.PROCESSING);
+        assertThat(dbTask.getLeaseOwner()).isEqualTo("other-instance");
+    }
+
+    @Test
+    void renewLeases_ShouldKeepTasksWithValidLeases() throws Exception {
+        Disposable subscription = mock(Disposable.class);
+        CountDownLatch started = new CountDownLatch(1);
+        service.registerTaskProcessor(BOT, task -> {
+            service.registerTaskSubscription(task.getTaskId(), subscription);
+            started.countDown();
+        });
+        String taskId = addTask("room-1");
+        service.tryProcessNext("room-1", BOT);
+        assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+
+        service.renewLeases();
+
+        assertThat(service.getCurrentProcessingTask("room-1", BOT)).isEqualTo(taskId);
+        assertThat(service.getDispatcherStats().running()).isEqualTo(1);
+        assertThat(service.isTaskCancelled(taskId)).isFalse();
+    }
+
+    /**
+     * 记录每次发布的快照
+     */
+    private List<PersistentTaskQueueService.QueueSnapshot> recordSnapshots(String roomId) {
+        List<PersistentTaskQueueService.QueueSnapshot> published = new CopyOnWriteArrayList<>();
+        service.registerQueueListener((changedRoomId, botType, snapshot) -> {
+            if (roomId.equals(changedRoomId)) {
+                published.add(snapshot);
+            }
+        });
+        return published;
+    }
+
+    private static List<String> taskIds(PersistentTaskQueueService.QueueSnapshot snapshot) {
+        return snapshot.tasks().stream().map(ChatWebSocketHandler.OpenClawTask::getTaskId).toList();
+    }
+
+    private static PersistentTaskQueueService.QueueSnapshot last(List<PersistentTaskQueueService.QueueSnapshot> published) {
+        return published.get(published.size() - 1);
+    }
+
+    /**
+     * 只记录开始执行的任务，由测试决定何时完成
+     */
+    private List<String> holdProcessing() {
+        List<String> started = new CopyOnWriteArrayList<>();
+        service.registerTaskProcessor(BOT, task -> started.add(task.getTaskId()));
+        return started;
+    }
+
+    private void awaitStarted(List<String> started, String taskId) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!started.contains(taskId) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertThat(started).contains(taskId);
+    }
+
+    private void complete(String taskId) {
+        service.markTaskCompleted(taskId);
+        service.onTaskComplete("room-1", BOT, taskId);
+    }
+
+    @Test
+    void snapshot_ShouldFollowEnqueueStartAndComplete() throws Exception {
+        List<PersistentTaskQueueService.QueueSnapshot> published = recordSnapshots("room-1");
+        List<String> started = holdProcessing();
+
+        String first = addTask("room-1");
+        String second = addTask("room-1");
+        assertThat(taskIds(last(published))).containsExactly(first, second);
+
+        service.tryProcessNext("room-1", BOT);
+        awaitStarted(started, first);
+        PersistentTaskQueueService.QueueSnapshot running = last(published);
+        assertThat(taskIds(running)).containsExactly(first, second);
+        assertThat(running.tasks().get(0).getStatus()).isEqualTo(ChatWebSocketHandler.OpenClawTask.TaskStatus.PROCESSING);
+        assertThat(running.tasks().get(1).getStatus()).isEqualTo(ChatWebSocketHandler.OpenClawTask.TaskStatus.PENDING);
+
+        complete(first);
+        awaitStarted(started, second);
+        assertThat(taskIds(last(published))).containsExactly(second);
+        assertThat(service.getQueueSnapshot("room-1", BOT)).isEqualTo(last(published));
+
+        complete(second);
+        assertThat(last(published).tasks()).isEmpty();
+        assertThat(service.getRoomTaskQueue("room-1", BOT)).isEmpty();
+        // 发布的版本号严格递增
+        assertThat(published).extracting(PersistentTaskQueueService.QueueSnapshot::version).isSorted().doesNotHaveDuplicates();
+    }
+
+    @Test
+    void snapshot_ShouldFollowCancelOfPendingAndRunningTasks() throws Exception {
+        List<PersistentTaskQueueService.QueueSnapshot> published = recordSnapshots("room-1");
+        List<String> started = holdProcessing();
+        String running = addTask("room-1");
+        String pending = addTask("room-1");
+        String last = addTask("room-1");
+        service.tryProcessNext("room-1", BOT);
+        awaitStarted(started, running);
+
+        assertThat(service.cancelTask("room-1", pending, BOT)).isTrue();
+        assertThat(taskIds(last(published))).containsExactly(running, last);
+
+        assertThat(service.cancelTask("room-1", running, BOT)).isTrue();
+        assertThat(taskIds(published.get(published.size() - 1))).doesNotContain(running, pending);
+        awaitStarted(started, last);
+        assertThat(taskIds(service.getQueueSnapshot("room-1", BOT))).containsExactly(last);
+    }
+
+    @Test
+    void snapshot_ShouldFollowReorder() {
+        List<PersistentTaskQueueService.QueueSnapshot> published = recordSnapshots("room-1");
+        String a = addTask("room-1");
+        String b = addTask("room-1");
+        String c = addTask("room-1");
+
+        assertThat(service.reorderQueue("room-1", BOT, List.of(c, a))).isTrue();
+
+        // c 和 a 互换位置，未参与重排的 b 保持不动
+        assertThat(taskIds(last(published))).containsExactly(c, b, a);
+        assertThat(service.getQueueSnapshot("room-1", BOT)).isEqualTo(last(published));
+    }
+
+    @Test
+    void snapshot_ShouldBeEvictedWhenRoomBecomesIdle() throws Exception {
+        List<String> started = holdProcessing();
+        String first = addTask("room-1");
+        String queued = addTask("room-2");
+        assertThat(service.cachedSnapshotCount()).isEqualTo(2);
+
+        service.tryProcessNext("room-1", BOT);
+        awaitStarted(started, first);
+        complete(first);
+        assertThat(service.cancelTask("room-2", queued, BOT)).isTrue();
+
+        assertThat(service.cachedSnapshotCount()).isZero();
+        // 读取空闲房间不会重新建立快照
+        assertThat(service.getRoomTaskQueue("room-1", BOT)).isEmpty();
+        assertThat(service.getRoomTaskQueue("room-3", BOT)).isEmpty();
+        assertThat(service.cachedSnapshotCount()).isZero();
+    }
+}
@@ -0,0 +1,119 @@
+package com.ooc.service;
+
+import com.ooc.config.ChatProperties;
+import com.ooc.dto.MessagePage;
+import com.ooc.entity.ChatMessage;
+import com.ooc.entity.ChatRoom;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntFunction;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.lenient;
+
+@ExtendWith(MockitoExtension.class)
+class RecentMessageCacheTest {
+
+    private static final String ROOM_ID = "room123";
+
+    @Mock
+    private AvatarCacheService avatarCacheService;
+
+    @Mock
+    private UserService userService;
+
+    private ChatProperties chatProperties;
+    private RecentMessageCache cache;
+
+    @BeforeEach
+    void setUp() {
+        chatProperties = new ChatProperties();
+        chatProperties.getRecentMessages().setSize(3);
+        cache = new RecentMessageCache(chatProperties, avatarCacheService, userService);
+        lenient().when(avatarCacheService.getAvatarFromCache(anyString())).thenReturn("avatar.png");
+    }
+
+    @Test
+    void getRecent_ShouldLoadFromStorageOnlyOnce() {
+        // Given
+        Instant now = Instant.now();
+        AtomicInteger loads = new AtomicInteger();
+        IntFunction<List<ChatMessage>> loader = count -> {
+            loads.incrementAndGet();
+            return List.of(doc("m2", now), doc("m1", now.minusSeconds(1)));
+        };
+
+        // When
+        cache.getRecent(ROOM_ID, 10, loader);
+        MessagePage page = cache.getRecent(ROOM_ID, 10, loader);
+
+        // Then
+        assertThat(loads.get()).isEqualTo(1);
+        assertThat(page.getMessages()).extracting(ChatRoom.Message::getId).containsExactly("m1", "m2");
+        assertThat(page.getMessages()).extracting(ChatRoom.Message::getSenderAvatar).containsOnly("avatar.png");
+        assertThat(page.isHasMore()).isFalse();
+    }
+
+    @Test
+    void onMessageAdded_ShouldAppendAndDropOldestBeyondCapacity() {
+        // Given
+        Instant now = Instant.now();
+        cache.getRecent(ROOM_ID, 10, count -> new ArrayList<>());
+
+        // When
+        for (int i = 0; i < 5; i++) {
+            cache.onMessageAdded(doc("m" + i, now.plusSeconds(i)));
+        }
+        MessagePage page = cache.getRecent(ROOM_ID, 10, count -> List.of());
+
+        // Then
+        assertThat(page.getMessages()).extracting(ChatRoom.Message::getId).containsExactly("m2", "m3", "m4");
+        assertThat(page.isHasMore()).isTrue();
+        assertThat(page.getOlderCursor()).isNotNull();
+    }
+
+    @Test
+    void onMessageUpdated_ShouldReplaceCachedMessage() {
+        // Given
+        Instant now = Instant.now();
+        cache.getRecent(ROOM_ID, 10, count -> List.of(doc("m1", now)));
+
+        // When
+        cache.onMessageUpdated(ROOM_ID, ChatRoom.Message.builder().id("m1").content("done").senderId("u1").build());
+        MessagePage page = cache.getRecent(ROOM_ID, 10, count -> List.of());
+
+        // Then
+        assertThat(page.getMessages()).extracting(ChatRoom.Message::getContent).containsExactly("done");
+    }
+
+    @Test
+    void evictIdleRooms_ShouldRemoveIdleRooms() {
+        // Given
+        chatProperties.getRecentMessages().setIdleEvictMs(-1);
+        cache.getRecent(ROOM_ID, 10, count -> List.of());
+
+        // When
+        cache.evictIdleRooms();
+
+        // Then
+        assertThat(cache.getCachedRoomCount()).isZero();
+    }
+
+    private ChatMessage doc(String id, Instant timestamp) {
+        return ChatMessage.of(ROOM_ID, ChatRoom.Message.builder()
+                .id(id)
+                .content("content " + id)
+                .senderId("u1")
+                .timestamp(timestamp)
+                .build());
+    }
+}
@@ -0,0 +1,95 @@
+package com.ooc.service;
+
+import com.ooc.config.ChatProperties;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SessionContextWindowTest {
+
+    private ChatProperties.SessionContext settings;
+
+    @BeforeEach
+    void setUp() {
+        settings = new ChatProperties.SessionContext();
+        settings.setMaxTokens(200);
+        settings.setKeepRecentMessages(4);
+        settings.setSummaryMaxTokens(60);
+        settings.setSummaryLineChars(20);
+    }
+
+    private static Map<String, Object> message(String role, String content) {
+        return Map.of("role", role, "content", content);
+    }
+
+    @Test
+    void estimate_ShouldCountCjkPerCharAndOtherTextPerFourChars() {
+        assertThat(TokenEstimator.estimate("你好世界")).isEqualTo(4);
+        assertThat(TokenEstimator.estimate("abcdefgh")).isEqualTo(2);
+        assertThat(TokenEstimator.estimate("abc")).isEqualTo(1);
+        assertThat(TokenEstimator.estimateMessage(Map.of("role", "user",
+                "content", List.of(Map.of("type", "text", "text", "你好")))))
+                .isEqualTo(TokenEstimator.MESSAGE_OVERHEAD + 2);
+    }
+
+    @Test
+    void add_ShouldKeepAllMessagesWithinBudget() {
+        SessionContextWindow window = new SessionContextWindow(settings);
+        window.pin(message("system", "prompt"));
+        window.add(message("user", "hello"));
+        window.add(message("assistant", "hi"));
+
+        assertThat(window.messages()).hasSize(3);
+        assertThat(window.summary()).isNull();
+        assertThat(window.foldedMessages()).isZero();
+    }
+
+    @Test
+    void add_ShouldFoldOldestMessagesIntoSummaryWhenOverBudget() {
+        SessionContextWindow window = new SessionContextWindow(settings);
+        window.pin(message("system", "prompt"));
+        for (int i = 0; i < 20; i++) {
+            window.add(message(i % 2 == 0 ? "user" : "assistant", "第" + i + "条消息，内容比较长一些"));
+        }
+
+        assertThat(window.estimatedTokens()).isLessThanOrEqualTo(settings.getMaxTokens());
+        assertThat(window.foldedMessages()).isPositive();
+        assertThat(window.recentSize()).isGreaterThanOrEqualTo(settings.getKeepRecentMessages() - 1);
+
+        List<Map<String, Object>> messages = window.messages();
+        assertThat(messages.get(0).get("content")).isEqualTo("prompt");
+        assertThat((String) messages.get(1).get("content")).startsWith(SessionContextWindow.SUMMARY_HEADER);
+        // 最后一条消息原样保留，保留的历史从用户消息开始
+        assertThat(messages.get(messages.size() - 1).get("content")).isEqualTo("第19条消息，内容比较长一些");
+        assertThat(window.recentMessages().get(0).get("role")).isEqualTo("user");
+    }
+
+    @Test
+    void summary_ShouldDropOldestLinesWhenOverSummaryBudget() {
+        SessionContextWindow window = new SessionContextWindow(settings);
+        for (int i = 0; i < 60; i++) {
+            window.add(message(i % 2 == 0 ? "user" : "assistant", "第" + i + "条消息，内容比较长一些"));
+        }
+
+        String summary = window.summary();
+        assertThat(summary).doesNotContain("第0条");
+        assertThat(TokenEstimator.estimate(summary))
+                .isLessThanOrEqualTo(settings.getSummaryMaxTokens() + TokenEstimator.estimate(SessionContextWindow.SUMMARY_HEADER));
+    }
+
+    @Test
+    void add_ShouldKeepLatestMessageEvenWhenItAloneExceedsBudget() {
+        SessionContextWindow window = new SessionContextWindow(settings);
+        window.add(message("user", "短消息"));
+        window.add(message("assistant", "回复"));
+        window.add(message("user", "长".repeat(500)));
+
+        assertThat(window.recentSize()).isEqualTo(1);
+        assertThat(window.recentMessages().get(0).get("content")).isEqualTo("长".repeat(500));
+        assertThat(window.summary()).contains("短消息");
+    }
+}
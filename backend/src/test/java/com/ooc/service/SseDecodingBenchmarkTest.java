@@ -0,0 +1,125 @@
+package com.ooc.service;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * 流式响应解码的分配量微基准
+ * 对比原实现（按行生成字符串、去掉 "data: " 前缀、readTree 构建整棵树）与 SseEventDecoder + StreamingJsonExtractor，
+ * 用当前线程的分配字节数衡量，预热后取多次迭代的平均值。
+ */
+@Slf4j
+class SseDecodingBenchmarkTest {
+
+    private static final int EVENTS = 2000;
+    private static final int BUFFER_SIZE = 512;
+    private static final int WARMUP_ITERATIONS = 30;
+    private static final int MEASURED_ITERATIONS = 50;
+    private static final byte[] SSE_DONE = "[DONE]".getBytes(StandardCharsets.US_ASCII);
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final StreamingJsonExtractor extractor =
+            new StreamingJsonExtractor(new JsonFactory(), "choices[0].delta.content");
+
+    private static byte[] kimiStream() {
+        StringBuilder stream = new StringBuilder();
+        for (int i = 0; i < EVENTS; i++) {
+            stream.append("data: {\"id\":\"chatcmpl-8f3a\",\"object\":\"chat.completion.chunk\",\"created\":1760000000,")
+                    .append("\"model\":\"kimi-k2.5\",\"choices\":[{\"index\":0,\"delta\":{\"content\":\"词")
+                    .append(i % 10)
+                    .append("\"},\"finish_reason\":null}],\"usage\":null}\n\n");
+        }
+        stream.append("data: [DONE]\n\n");
+        return stream.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 原实现：字符串按行切分，每个 data 构建 JsonNode 树
+     */
+    private long decodeWithReadTree(byte[] stream) throws Exception {
+        long chars = 0;
+        for (String line : new String(stream, StandardCharsets.UTF_8).split("\n")) {
+            if (!line.startsWith("data: ")) {
+                continue;
+            }
+            String data = line.substring(6);
+            if ("[DONE]".equals(data)) {
+                break;
+            }
+            JsonNode delta = objectMapper.readTree(data).get("choices").get(0).get("delta");
+            if (delta != null && delta.has("content")) {
+                chars += delta.get("content").asText().length();
+            }
+        }
+        return chars;
+    }
+
+    private long decodeStreaming(byte[] stream) {
+        long[] chars = {0};
+        SseEventDecoder decoder = new SseEventDecoder();
+        SseEventDecoder.Handler handler = (data, offset, length) -> {
+            if (SseEventDecoder.dataEquals(data, offset, length, SSE_DONE)) {
+                return;
+            }
+            try {
+                String content = extractor.extract(data, offset, length)[0];
+                if (content != null) {
+                    chars[0] += content.length();
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        };
+        for (int i = 0; i < stream.length; i += BUFFER_SIZE) {
+            decoder.feed(stream, i, Math.min(BUFFER_SIZE, stream.length - i), handler);
+        }
+        decoder.finish(handler);
+        return chars[0];
+    }
+
+    @FunctionalInterface
+    private interface Decoder {
+        long decode(byte[] stream) throws Exception;
+    }
+
+    private static long allocatedPerIteration(com.sun.management.ThreadMXBean threads, Decoder decoder, byte[] stream)
+            throws Exception {
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            decoder.decode(stream);
+        }
+        long before = threads.getCurrentThreadAllocatedBytes();
+        for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+            decoder.decode(stream);
+        }
+        return (threads.getCurrentThreadAllocatedBytes() - before) / MEASURED_ITERATIONS;
+    }
+
+    @Test
+    void streamingDecoder_ShouldAllocateLessThanHalfOfReadTree() throws Exception {
+        assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assumeTrue(threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled());
+
+        byte[] stream = kimiStream();
+        assertThat(decodeStreaming(stream)).isEqualTo(decodeWithReadTree(stream)).isEqualTo(EVENTS * 2L);
+
+        long readTree = allocatedPerIteration(threads, this::decodeWithReadTree, stream);
+        long streaming = allocatedPerIteration(threads, this::decodeStreaming, stream);
+        String summary = String.format("SSE decoding, %d events: readTree %d bytes/stream, streaming %d bytes/stream",
+                EVENTS, readTree, streaming);
+        log.info(summary);
+
+        assertThat(streaming).as(summary).isLessThan(readTree / 2);
+    }
+}
@@ -0,0 +1,101 @@
+package com.ooc.service;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import reactor.core.publisher.Flux;
+import reactor.test.StepVerifier;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SseEventDecoderTest {
+
+    private static final String STREAM = ": keep-alive\r\n"
+            + "data: {\"choices\":[{\"index\":0,\"delta\":{\"content\":\"你好\"}}]}\r\n\r\n"
+            + "event: chunk\n"
+            + "id: 2\n"
+            + "data: {\"a\":1,\n"
+            + "data: \"choices\":[{\"delta\":{\"content\":\"多行\"}}]}\n\n"
+            + "data:[DONE]\r\r"
+            + "data: tail";
+
+    private static List<String> decode(byte[] bytes, int chunkSize) {
+        SseEventDecoder decoder = new SseEventDecoder();
+        List<String> events = new ArrayList<>();
+        SseEventDecoder.Handler handler = (data, offset, length) ->
+                events.add(new String(data, offset, length, StandardCharsets.UTF_8));
+        for (int i = 0; i < bytes.length; i += chunkSize) {
+            decoder.feed(bytes, i, Math.min(chunkSize, bytes.length - i), handler);
+        }
+        decoder.finish(handler);
+        return events;
+    }
+
+    @Test
+    void feed_ShouldProduceSameEventsRegardlessOfBufferBoundaries() {
+        byte[] bytes = STREAM.getBytes(StandardCharsets.UTF_8);
+        List<String> expected = List.of(
+                "{\"choices\":[{\"index\":0,\"delta\":{\"content\":\"你好\"}}]}",
+                "{\"a\":1,\n\"choices\":[{\"delta\":{\"content\":\"多行\"}}]}",
+                "[DONE]",
+                "tail");
+
+        // 按 1 字节切分时 \r\n 和多字节字符都会被拆到两个缓冲区
+        for (int chunkSize : new int[]{1, 2, 3, 7, 64, bytes.length}) {
+            assertThat(decode(bytes, chunkSize)).as("chunk size %d", chunkSize).isEqualTo(expected);
+        }
+    }
+
+    @Test
+    void dataEquals_ShouldMatchExactBytes() {
+        byte[] done = "[DONE]".getBytes(StandardCharsets.US_ASCII);
+        byte[] data = "xx[DONE]".getBytes(StandardCharsets.US_ASCII);
+        assertThat(SseEventDecoder.dataEquals(data, 2, 6, done)).isTrue();
+        assertThat(SseEventDecoder.dataEquals(data, 1, 7, done)).isFalse();
+    }
+
+    @Test
+    void decode_ShouldMapEventsAndReleaseBuffers() {
+        DefaultDataBufferFactory factory = DefaultDataBufferFactory.sharedInstance;
+        byte[] bytes = STREAM.getBytes(StandardCharsets.UTF_8);
+        List<DataBuffer> buffers = new ArrayList<>();
+        for (int i = 0; i < bytes.length; i += 5) {
+            buffers.add(factory.wrap(Arrays.copyOfRange(bytes, i, Math.min(i + 5, bytes.length))));
+        }
+
+        Flux<String> events = SseEventDecoder.decode(Flux.fromIterable(buffers),
+                (data, offset, length, out) -> out.add(new String(data, offset, length, StandardCharsets.UTF_8)));
+
+        StepVerifier.create(events)
+                .expectNextCount(3)
+                .expectNext("tail")
+                .verifyComplete();
+    }
+
+    @Test
+    void extract_ShouldReadNestedFieldsWithoutOtherSubtrees() throws Exception {
+        StreamingJsonExtractor extractor = new StreamingJsonExtractor(new JsonFactory(), "type", "delta.text");
+        byte[] json = ("{\"type\":\"content_block_delta\",\"index\":0,\"meta\":{\"text\":\"no\"},"
+                + "\"delta\":{\"type\":\"text_delta\",\"text\":\"Hi\"}}").getBytes(StandardCharsets.UTF_8);
+
+        assertThat(extractor.extract(json, 0, json.length)).containsExactly("content_block_delta", "Hi");
+
+        byte[] stop = "{\"type\":\"message_stop\"}".getBytes(StandardCharsets.UTF_8);
+        assertThat(extractor.extract(stop, 0, stop.length)).containsExactly("message_stop", null);
+    }
+
+    @Test
+    void extract_ShouldFollowArrayIndexes() throws Exception {
+        StreamingJsonExtractor extractor = new StreamingJsonExtractor(new JsonFactory(), "a[1][0].b", "choices[0].delta.content");
+        byte[] json = "{\"x\":[1,{\"y\":2}],\"a\":[{\"b\":\"no\"},[{\"b\":\"yes\"}]],\"choices\":[{\"delta\":{}}]}"
+                .getBytes(StandardCharsets.UTF_8);
+
+        assertThat(extractor.extract(json, 0, json.length)).containsExactly("yes", null);
+    }
+}
@@ -0,0 +1,150 @@
+package com.ooc.service;
+
+import com.ooc.config.ChatProperties;
+import com.ooc.entity.ChatMessage;
+import com.ooc.entity.ChatRoom;
+import com.ooc.websocket.StreamAccumulator;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.DisabledIfEnvironmentVariable;
+import org.springframework.data.mongodb.core.MongoTemplate;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+@DisabledIfEnvironmentVariable(named = "CI", matches = "true")
+class StreamCheckpointServiceTest extends MongoTestSupport {
+
+    private MongoTemplate mongoTemplate;
+    private RecentMessageCache recentMessageCache;
+    private ChatProperties properties;
+    private StreamCheckpointService service;
+
+    @BeforeEach
+    void setUp() {
+        mongoTemplate = mongoTemplate("checkpoint_test");
+        mongoTemplate.dropCollection(ChatMessage.class);
+        recentMessageCache = mock(RecentMessageCache.class);
+        properties = new ChatProperties();
+        properties.getStreamCheckpoint().setStaleMs(60000);
+        service = new StreamCheckpointService(mongoTemplate, recentMessageCache, properties);
+    }
+
+    private String insertStreaming(Instant timestamp) {
+        String id = UUID.randomUUID().toString();
+        mongoTemplate.insert(ChatMessage.of("room-1", ChatRoom.Message.builder()
+                .id(id)
+                .senderId("kimi")
+                .senderName("kimi")
+                .content("")
+                .timestamp(timestamp)
+                .fromOpenClaw(true)
+                .isStreaming(true)
+                .build()));
+        return id;
+    }
+
+    private ChatMessage load(String id) {
+        return mongoTemplate.findById(id, ChatMessage.class);
+    }
+
+    @Test
+    void checkpoint_ShouldAppendOnlyNewContent() {
+        String id = insertStreaming(Instant.now());
+        StreamAccumulator accumulator = new StreamAccumulator();
+        service.track("room-1", id, accumulator);
+
+        accumulator.append("你好，");
+        service.checkpointActiveStreams();
+        accumulator.append("$price 是 {\"a\":1}");
+        service.checkpointActiveStreams();
+        // 没有新内容时不写入
+        service.checkpointActiveStreams();
+
+        ChatMessage stored = load(id);
+        assertThat(stored.getMessage().getContent()).isEqualTo("你好，$price 是 {\"a\":1}");
+        assertThat(stored.getCheckpointedChars()).isEqualTo(accumulator.length());
+        assertThat(stored.getCheckpointedAt()).isNotNull();
+        assertThat(stored.getMessage().isStreaming()).isTrue();
+    }
+
+    @Test
+    void checkpoint_ShouldPersistToolCallsWhenChanged() {
+        String id = insertStreaming(Instant.now());
+        StreamAccumulator accumulator = new StreamAccumulator();
+        service.track("room-1", id, accumulator);
+
+        accumulator.addToolCall(ChatRoom.Message.ToolCall.builder()
+                .id("t1").name("read_file").status("running").build());
+        service.checkpointActiveStreams();
+        accumulator.updateToolCall("t1", tc -> tc.toBuilder().status("completed").build());
+        service.checkpointActiveStreams();
+
+        assertThat(load(id).getMessage().getToolCalls())
+                .extracting(ChatRoom.Message.ToolCall::getStatus)
+                .containsExactly("completed");
+    }
+
+    @Test
+    void checkpoint_ShouldStopWhenMessageWasFinalized() {
+        String id = insertStreaming(Instant.now());
+        StreamAccumulator accumulator = new StreamAccumulator();
+        service.track("room-1", id, accumulator);
+        accumulator.append("partial");
+        service.checkpointActiveStreams();
+
+        // 其他路径写入了最终消息
+        ChatMessage stored = load(id);
+        stored.setMessage(stored.getMessage().toBuilder().content("final").isStreaming(false).build());
+        mongoTemplate.save(stored);
+
+        accumulator.append(" more");
+        service.checkpointActiveStreams();
+
+        assertThat(load(id).getMessage().getContent()).isEqualTo("final");
+        assertThat(service.activeCount()).isZero();
+    }
+
+    @Test
+    void interrupt_ShouldSaveRemainingContentAndMarkInterrupted() {
+        String id = insertStreaming(Instant.now());
+        StreamAccumulator accumulator = new StreamAccumulator();
+        List<String> notified = new ArrayList<>();
+        service.registerInterruptedListener((roomId, message) -> notified.add(message.getContent()));
+        service.track("room-1", id, accumulator);
+        accumulator.append("half an answer");
+
+        service.interrupt(id);
+
+        ChatRoom.Message message = load(id).getMessage();
+        assertThat(message.getContent()).isEqualTo("half an answer");
+        assertThat(message.isStreaming()).isFalse();
+        assertThat(message.isInterrupted()).isTrue();
+        assertThat(notified).containsExactly("half an answer");
+        verify(recentMessageCache).onMessageUpdated(eq("room-1"), any());
+    }
+
+    @Test
+    void reconcile_ShouldMarkOnlyStaleStreamsInterrupted() {
+        String stale = insertStreaming(Instant.now().minusSeconds(600));
+        String fresh = insertStreaming(Instant.now());
+        // 本实例仍在进行的流即使检查点过期也不处理
+        String local = insertStreaming(Instant.now().minusSeconds(600));
+        service.track("room-1", local, new StreamAccumulator());
+
+        assertThat(service.reconcileInterruptedStreams()).isEqualTo(1);
+
+        assertThat(load(stale).getMessage().isInterrupted()).isTrue();
+        assertThat(load(stale).getMessage().isStreaming()).isFalse();
+        assertThat(load(fresh).getMessage().isStreaming()).isTrue();
+        assertThat(load(local).getMessage().isStreaming()).isTrue();
+    }
+}
@@ -0,0 +1,198 @@
+package com.ooc.service;
+
+import com.ooc.entity.BotTaskQueue;
+import com.ooc.entity.BotTaskRoomLease;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.DisabledIfEnvironmentVariable;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * 多个实例（同一 JVM 内的多个 TaskLeaseManager）共享同一个数据库时的认领行为
+ */
+@DisabledIfEnvironmentVariable(named = "CI", matches = "true")
+class TaskLeaseManagerTest extends MongoTestSupport {
+
+    private MongoTemplate mongoTemplate;
+
+    @BeforeEach
+    void setUp() {
+        mongoTemplate = mongoTemplate("lease_test");
+        mongoTemplate.dropCollection(BotTaskQueue.class);
+        mongoTemplate.dropCollection(BotTaskRoomLease.class);
+    }
+
+    private String insertPendingTask(String roomId) {
+        String taskId = UUID.randomUUID().toString();
+        mongoTemplate.insert(BotTaskQueue.builder()
+                .taskId(taskId)
+                .roomId(roomId)
+                .botType(BotTaskQueue.BotType.OPENCLAW)
+                .content("hello")
+                .status(BotTaskQueue.TaskStatus.PENDING)
+                .position(0)
+                .build());
+        return taskId;
+    }
+
+    private BotTaskQueue load(String taskId) {
+        return mongoTemplate.findOne(Query.query(Criteria.where("taskId").is(taskId)), BotTaskQueue.class);
+    }
+
+    @Test
+    void claimTask_ShouldSucceedOnExactlyOneInstance() throws Exception {
+        String taskId = insertPendingTask("room-1");
+        List<TaskLeaseManager> instances = List.of(
+                new TaskLeaseManager(mongoTemplate, "a", 30000),
+                new TaskLeaseManager(mongoTemplate, "b", 30000),
+                new TaskLeaseManager(mongoTemplate, "c", 30000));
+
+        ExecutorService executor = Executors.newFixedThreadPool(instances.size());
+        try {
+            List<Future<Boolean>> results = executor.invokeAll(instances.stream()
+                    .map(instance -> (Callable<Boolean>) () -> instance.claimTask(taskId))
+                    .toList());
+            long claimed = 0;
+            for (Future<Boolean> result : results) {
+                if (result.get()) {
+                    claimed++;
+                }
+            }
+            assertThat(claimed).isEqualTo(1);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        BotTaskQueue task = load(taskId);
+        assertThat(task.getStatus()).isEqualTo(BotTaskQueue.TaskStatus.PROCESSING);
+        assertThat(task.getLeaseOwner()).isIn("a", "b", "c");
+        assertThat(task.getLeaseExpiresAt()).isNotNull();
+    }
+
+    @Test
+    void acquireRoom_ShouldBeExclusiveUntilReleased() {
+        TaskLeaseManager a = new TaskLeaseManager(mongoTemplate, "a", 30000);
+        TaskLeaseManager b = new TaskLeaseManager(mongoTemplate, "b", 30000);
+
+        assertThat(a.acquireRoom("room-1", BotTaskQueue.BotType.OPENCLAW)).isTrue();
+        // 持有者可以重复获取（续约）
+        assertThat(a.acquireRoom("room-1", BotTaskQueue.BotType.OPENCLAW)).isTrue();
+        assertThat(b.acquireRoom("room-1", BotTaskQueue.BotType.OPENCLAW)).isFalse();
+        // 不同房间、不同机器人互不影响
+        assertThat(b.acquireRoom("room-2", BotTaskQueue.BotType.OPENCLAW)).isTrue();
+        assertThat(b.acquireRoom("room-1", BotTaskQueue.BotType.KIMI)).isTrue();
+
+        // 非持有者释放无效
+        b.releaseRoom("room-1", BotTaskQueue.BotType.OPENCLAW);
+        assertThat(b.acquireRoom("room-1", BotTaskQueue.BotType.OPENCLAW)).isFalse();
+
+        a.releaseRoom("room-1", BotTaskQueue.BotType.OPENCLAW);
+        assertThat(b.acquireRoom("room-1", BotTaskQueue.BotType.OPENCLAW)).isTrue();
+    }
+
+    @Test
+    void crashedInstance_ShouldHaveTasksReclaimedAfterLeaseExpiry() throws Exception {
+        String taskId = insertPendingTask("room-1");
+        TaskLeaseManager crashed = new TaskLeaseManager(mongoTemplate, "crashed", 200);
+        TaskLeaseManager survivor = new TaskLeaseManager(mongoTemplate, "survivor", 30000);
+
+        assertThat(crashed.acquireRoom("room-1", BotTaskQueue.BotType.OPENCLAW)).isTrue();
+        assertThat(crashed.claimTask(taskId)).isTrue();
+
+        // 租约未过期前不会被回收
+        assertThat(survivor.reclaimExpired()).isZero();
+        assertThat(survivor.acquireRoom("room-1", BotTaskQueue.BotType.OPENCLAW)).isFalse();
+
+        Thread.sleep(400);
+
+        assertThat(survivor.reclaimExpired()).isEqualTo(1);
+        BotTaskQueue task = load(taskId);
+        assertThat(task.getStatus()).isEqualTo(BotTaskQueue.TaskStatus.PENDING);
+        assertThat(task.getLeaseOwner()).isNull();
+
+        assertThat(survivor.acquireRoom("room-1", BotTaskQueue.BotType.OPENCLAW)).isTrue();
+        assertThat(survivor.claimTask(taskId)).isTrue();
+        assertThat(load(taskId).getLeaseOwner()).isEqualTo("survivor");
+    }
+
+    @Test
+    void renewTasks_ShouldKeepRunningTaskFromBeingReclaimed() throws Exception {
+        String taskId = insertPendingTask("room-1");
+        TaskLeaseManager owner = new TaskLeaseManager(mongoTemplate, "owner", 300);
+        TaskLeaseManager other = new TaskLeaseManager(mongoTemplate, "other", 300);
+        owner.claimTask(taskId);
+
+        for (int i = 0; i < 4; i++) {
+            Thread.sleep(100);
+            assertThat(owner.renewTasks(List.of(taskId))).isEqualTo(1);
+            // 其他实例不能续约不属于自己的任务
+            assertThat(other.renewTasks(List.of(taskId))).isZero();
+        }
+
+        assertThat(other.reclaimExpired()).isZero();
+        assertThat(load(taskId).getStatus()).isEqualTo(BotTaskQueue.TaskStatus.PROCESSING);
+    }
+
+    @Test
+    void ownedLeases_ShouldExcludeLeasesTakenOverByAnotherInstance() throws Exception {
+        String kept = insertPendingTask("room-1");
+        String lost = insertPendingTask("room-2");
+        TaskLeaseManager slow = new TaskLeaseManager(mongoTemplate, "slow", 200);
+        TaskLeaseManager other = new TaskLeaseManager(mongoTemplate, "other", 30000);
+        slow.acquireRoom("room-1", BotTaskQueue.BotType.OPENCLAW);
+        slow.acquireRoom("room-2", BotTaskQueue.BotType.OPENCLAW);
+        slow.claimTask(kept);
+        slow.claimTask(lost);
+
+        // 续约不及时：room-2 的租约过期后被其他实例回收并重新认领
+        Thread.sleep(400);
+        slow.renewRooms(List.of(BotTaskRoomLease.idOf("room-1", BotTaskQueue.BotType.OPENCLAW)));
+        slow.renewTasks(List.of(kept));
+        other.reclaimExpired();
+        assertThat(other.acquireRoom("room-2", BotTaskQueue.BotType.OPENCLAW)).isTrue();
+        assertThat(other.claimTask(lost)).isTrue();
+
+        assertThat(slow.ownedTasks(List.of(kept, lost))).containsExactly(kept);
+        assertThat(slow.ownedRooms(List.of(
+                BotTaskRoomLease.idOf("room-1", BotTaskQueue.BotType.OPENCLAW),
+                BotTaskRoomLease.idOf("room-2", BotTaskQueue.BotType.OPENCLAW))))
+                .containsExactly(BotTaskRoomLease.idOf("room-1", BotTaskQueue.BotType.OPENCLAW));
+    }
+
+    @Test
+    void cancelPending_ShouldPreventLaterClaim() {
+        String taskId = insertPendingTask("room-1");
+        TaskLeaseManager a = new TaskLeaseManager(mongoTemplate, "a", 30000);
+        TaskLeaseManager b = new TaskLeaseManager(mongoTemplate, "b", 30000);
+
+        assertThat(a.cancelPending(taskId)).isTrue();
+        assertThat(b.claimTask(taskId)).isFalse();
+        assertThat(load(taskId).getStatus()).isEqualTo(BotTaskQueue.TaskStatus.CANCELLED);
+    }
+
+    @Test
+    void releaseOwned_ShouldResetOnlyOwnTasks() {
+        String mine = insertPendingTask("room-1");
+        String theirs = insertPendingTask("room-2");
+        TaskLeaseManager restarted = new TaskLeaseManager(mongoTemplate, "fixed-id", 30000);
+        TaskLeaseManager other = new TaskLeaseManager(mongoTemplate, "other", 30000);
+        restarted.claimTask(mine);
+        other.claimTask(theirs);
+
+        assertThat(new TaskLeaseManager(mongoTemplate, "fixed-id", 30000).releaseOwned()).isEqualTo(1);
+
+        assertThat(load(mine).getStatus()).isEqualTo(BotTaskQueue.TaskStatus.PENDING);
+        assertThat(load(theirs).getStatus()).isEqualTo(BotTaskQueue.TaskStatus.PROCESSING);
+    }
+}
@@ -0,0 +1,81 @@
+package com.ooc.service;
+
+import com.ooc.config.ChatProperties;
+import com.ooc.entity.BotTaskQueue;
+import com.ooc.websocket.ChatWebSocketHandler;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TaskPriorityPolicyTest {
+
+    private static final Instant T0 = Instant.parse("2026-01-01T00:00:00Z");
+
+    private TaskPriorityPolicy policy;
+
+    @BeforeEach
+    void setUp() {
+        ChatProperties properties = new ChatProperties();
+        properties.getTaskQueue().setAgingMs(60000);
+        policy = new TaskPriorityPolicy(properties);
+    }
+
+    private PersistentTaskQueueService.TaskWrapper task(String id, ChatWebSocketHandler.OpenClawTask.TaskType type,
+                                                        Instant createdAt, BotTaskQueue.TaskPriority priority) {
+        ChatWebSocketHandler.OpenClawTask task = ChatWebSocketHandler.OpenClawTask.builder()
+                .taskId(id)
+                .taskType(type)
+                .createdAt(createdAt)
+                .priority(priority)
+                .build();
+        return new PersistentTaskQueueService.TaskWrapper(id, task, BotTaskQueue.BotType.OPENCLAW);
+    }
+
+    @Test
+    void resolve_ShouldUseTaskTypeDefaultUnlessRequested() {
+        assertThat(policy.resolve(BotTaskQueue.TaskType.CHAT, null)).isEqualTo(BotTaskQueue.TaskPriority.NORMAL);
+        assertThat(policy.resolve(BotTaskQueue.TaskType.FLOWCHART, null)).isEqualTo(BotTaskQueue.TaskPriority.LOW);
+        assertThat(policy.resolve(BotTaskQueue.TaskType.FLOWCHART, BotTaskQueue.TaskPriority.HIGH))
+                .isEqualTo(BotTaskQueue.TaskPriority.HIGH);
+    }
+
+    @Test
+    void next_ShouldRunInteractiveChatBeforeEarlierFlowchart() {
+        var flowchart = task("flow", ChatWebSocketHandler.OpenClawTask.TaskType.FLOWCHART, T0, null);
+        var chat = task("chat", ChatWebSocketHandler.OpenClawTask.TaskType.CHAT, T0.plusSeconds(30), null);
+
+        assertThat(policy.next(List.of(flowchart, chat))).isSameAs(chat);
+    }
+
+    @Test
+    void next_ShouldLetAgedLowPriorityTaskOvertakeNewerWork() {
+        var flowchart = task("flow", ChatWebSocketHandler.OpenClawTask.TaskType.FLOWCHART, T0, null);
+        // LOW 比 NORMAL 晚一个老化周期；等待超过 60s 后先于新的对话任务执行
+        var chat = task("chat", ChatWebSocketHandler.OpenClawTask.TaskType.CHAT, T0.plusSeconds(61), null);
+
+        assertThat(policy.next(List.of(chat, flowchart))).isSameAs(flowchart);
+    }
+
+    @Test
+    void next_ShouldKeepQueueOrderForEqualEffectiveTime() {
+        var first = task("a", ChatWebSocketHandler.OpenClawTask.TaskType.CHAT, T0, null);
+        var second = task("b", ChatWebSocketHandler.OpenClawTask.TaskType.CHAT, T0, null);
+
+        assertThat(policy.next(List.of(first, second))).isSameAs(first);
+        assertThat(policy.next(List.of())).isNull();
+    }
+
+    @Test
+    void effectiveAt_ShouldPreferStoredValueOverComputed() {
+        var reordered = task("a", ChatWebSocketHandler.OpenClawTask.TaskType.FLOWCHART, T0, null);
+        reordered.task().setEffectiveAt(T0.minusSeconds(5));
+
+        assertThat(policy.effectiveAt(reordered.task())).isEqualTo(T0.minusSeconds(5));
+        assertThat(policy.effectiveAt(T0, BotTaskQueue.TaskPriority.HIGH)).isEqualTo(T0);
+        assertThat(policy.effectiveAt(T0, BotTaskQueue.TaskPriority.LOW)).isEqualTo(T0.plusSeconds(120));
+    }
+}
@@ -0,0 +1,112 @@
+package com.ooc.service;
+
+import com.ooc.config.ChatProperties;
+import com.ooc.entity.BotTaskQueue;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.DisabledIfEnvironmentVariable;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@DisabledIfEnvironmentVariable(named = "CI", matches = "true")
+class TaskQueueRetentionServiceTest extends MongoTestSupport {
+
+    private MongoTemplate mongoTemplate;
+    private ChatProperties properties;
+    private TaskQueueRetentionService service;
+
+    @BeforeEach
+    void setUp() {
+        mongoTemplate = mongoTemplate("retention_test");
+        mongoTemplate.dropCollection(BotTaskQueue.class);
+        properties = new ChatProperties();
+        properties.getTaskRetention().setSummaryChars(10);
+        properties.getTaskRetention().setBatchSize(2);
+        service = new TaskQueueRetentionService(mongoTemplate, properties, new SimpleMeterRegistry());
+    }
+
+    private String insertTask(BotTaskQueue.TaskStatus status, Instant updatedAt) {
+        String taskId = UUID.randomUUID().toString();
+        mongoTemplate.insert(BotTaskQueue.builder()
+                .taskId(taskId)
+                .roomId("room-1")
+                .botType(BotTaskQueue.BotType.OPENCLAW)
+                .content("a fairly long prompt that should be truncated")
+                .attachments(List.of(BotTaskQueue.Attachment.builder()
+                        .type("image")
+                        .content("aGVsbG8gd29ybGQ=")
+                        .build()))
+                .userInfo(BotTaskQueue.UserInfo.builder().userId("u1").userName("alice").avatar("data:...").build())
+                .status(status)
+                .updatedAt(updatedAt)
+                .build());
+        return taskId;
+    }
+
+    private BotTaskQueue load(String taskId) {
+        return mongoTemplate.findOne(Query.query(Criteria.where("taskId").is(taskId)), BotTaskQueue.class);
+    }
+
+    @Test
+    void compact_ShouldReplacePayloadWithSummaryAndScheduleExpiry() {
+        Instant old = Instant.now().minus(2, ChronoUnit.HOURS);
+        String taskId = insertTask(BotTaskQueue.TaskStatus.COMPLETED, old);
+
+        service.compactFinishedTasks();
+
+        BotTaskQueue task = load(taskId);
+        assertThat(task.getContent()).isEqualTo("a fairly l…");
+        assertThat(task.getAttachments()).isNull();
+        assertThat(task.getAttachmentCount()).isEqualTo(1);
+        assertThat(task.getUserInfo().getUserName()).isEqualTo("alice");
+        assertThat(task.getUserInfo().getAvatar()).isNull();
+        assertThat(task.getCompactedAt()).isNotNull();
+        assertThat(task.getExpireAt()).isEqualTo(task.getFinishedAt()
+                .plusMillis(properties.getTaskRetention().getRecordRetentionMs()));
+    }
+
+    @Test
+    void compact_ShouldLeaveActiveAndRecentTasksUntouched() {
+        Instant old = Instant.now().minus(2, ChronoUnit.HOURS);
+        String pending = insertTask(BotTaskQueue.TaskStatus.PENDING, old);
+        String recent = insertTask(BotTaskQueue.TaskStatus.FAILED, Instant.now());
+
+        service.compactFinishedTasks();
+
+        assertThat(load(pending).getAttachments()).hasSize(1);
+        assertThat(load(pending).getExpireAt()).isNull();
+        assertThat(load(recent).getCompactedAt()).isNull();
+    }
+
+    @Test
+    void compact_ShouldProcessBacklogInBoundedBatches() {
+        Instant old = Instant.now().minus(2, ChronoUnit.HOURS);
+        for (int i = 0; i < 5; i++) {
+            insertTask(BotTaskQueue.TaskStatus.CANCELLED, old);
+        }
+        properties.getTaskRetention().setMaxBatchesPerRun(2);
+
+        service.compactFinishedTasks();
+        assertThat(service.getStats().compacted()).isEqualTo(4);
+        assertThat(service.getStats().backlogRemaining()).isTrue();
+
+        service.compactFinishedTasks();
+        assertThat(service.getStats().compacted()).isEqualTo(5);
+        assertThat(service.getStats().backlogRemaining()).isFalse();
+    }
+
+    @Test
+    void summarize_ShouldKeepShortContent() {
+        assertThat(TaskQueueRetentionService.summarize("short", 10)).isEqualTo("short");
+        assertThat(TaskQueueRetentionService.summarize(null, 10)).isNull();
+    }
+}
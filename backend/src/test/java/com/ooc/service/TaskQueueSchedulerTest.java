@@ -0,0 +1,120 @@
+package com.ooc.service;
+
+import com.ooc.config.ChatProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TaskQueueSchedulerTest {
+
+    private TaskQueueScheduler scheduler;
+    private SimpleMeterRegistry meterRegistry;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        scheduler = new TaskQueueScheduler(new ChatProperties(), meterRegistry);
+        scheduler.start();
+    }
+
+    @AfterEach
+    void tearDown() {
+        scheduler.shutdown();
+    }
+
+    @Test
+    void schedule_ShouldRunTaskAndRecordStats() throws Exception {
+        CountDownLatch latch = new CountDownLatch(1);
+        scheduler.schedule(latch::countDown, 10);
+
+        assertThat(latch.await(2, TimeUnit.SECONDS)).isTrue();
+        // 统计在任务返回后更新
+        Thread.sleep(50);
+
+        TaskQueueScheduler.Stats stats = scheduler.getStats();
+        assertThat(stats.scheduled()).isEqualTo(1);
+        assertThat(stats.completed()).isEqualTo(1);
+        assertThat(stats.depth()).isZero();
+        assertThat(meterRegistry.find("ooc.task.queue.scheduler.depth").gauge()).isNotNull();
+    }
+
+    @Test
+    void failingTask_ShouldNotKillSchedulerThread() throws Exception {
+        scheduler.execute(() -> {
+            throw new IllegalStateException("boom");
+        });
+        CountDownLatch latch = new CountDownLatch(1);
+        scheduler.schedule(latch::countDown, 20);
+
+        assertThat(latch.await(2, TimeUnit.SECONDS)).isTrue();
+        assertThat(scheduler.getStats().failed()).isEqualTo(1);
+    }
+
+    @Test
+    void shutdown_ShouldDrainAlreadyScheduledActions() {
+        AtomicBoolean ran = new AtomicBoolean(false);
+        scheduler.schedule(() -> ran.set(true), 100);
+
+        scheduler.shutdown();
+
+        assertThat(ran).isTrue();
+        ScheduledFuture<?> afterShutdown = scheduler.schedule(() -> { }, 0);
+        assertThat((Object) afterShutdown).isNull();
+        assertThat(scheduler.getStats().rejected()).isEqualTo(1);
+    }
+
+    @Test
+    void periodicAction_ShouldReportLagWhenSchedulerThreadsAreBusy() throws Exception {
+        // 先占满所有调度线程，到期的周期任务只能在它们结束后执行
+        for (int i = 0; i < new ChatProperties().getTaskQueue().getSchedulerThreads(); i++) {
+            scheduler.execute(() -> sleep(300));
+        }
+        CountDownLatch ran = new CountDownLatch(1);
+        scheduler.scheduleWithFixedDelay(ran::countDown, 0, 60000);
+
+        assertThat(ran.await(2, TimeUnit.SECONDS)).isTrue();
+        assertThat(scheduler.getStats().lastLagMs()).isGreaterThanOrEqualTo(200);
+    }
+
+    @Test
+    void leaseRenewal_ShouldRunWhileSchedulerThreadsAreBusy() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        for (int i = 0; i < new ChatProperties().getTaskQueue().getSchedulerThreads(); i++) {
+            scheduler.execute(() -> {
+                try {
+                    release.await(2, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+        }
+        CountDownLatch renewed = new CountDownLatch(1);
+        AtomicReference<String> threadName = new AtomicReference<>();
+
+        scheduler.scheduleLeaseRenewal(() -> {
+            threadName.set(Thread.currentThread().getName());
+            renewed.countDown();
+        }, 20);
+
+        assertThat(renewed.await(1, TimeUnit.SECONDS)).isTrue();
+        assertThat(threadName.get()).isEqualTo("task-lease-renewal");
+        release.countDown();
+    }
+
+    private static void sleep(long ms) {
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
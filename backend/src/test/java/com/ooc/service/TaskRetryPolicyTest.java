@@ -0,0 +1,45 @@
+package com.ooc.service;
+
+import com.ooc.config.ChatProperties;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TaskRetryPolicyTest {
+
+    private TaskRetryPolicy policy;
+
+    @BeforeEach
+    void setUp() {
+        ChatProperties properties = new ChatProperties();
+        properties.getTaskQueue().setRetryMaxAttempts(4);
+        properties.getTaskQueue().setRetryInitialBackoffMs(1000);
+        properties.getTaskQueue().setRetryMaxBackoffMs(5000);
+        policy = new TaskRetryPolicy(properties);
+    }
+
+    @Test
+    void nextDelayMs_ShouldDoubleUntilCapped() {
+        // random = 0.5 时抖动系数为 1.0
+        assertThat(policy.nextDelayMs(1, 0.5)).isEqualTo(1000);
+        assertThat(policy.nextDelayMs(2, 0.5)).isEqualTo(2000);
+        assertThat(policy.nextDelayMs(3, 0.5)).isEqualTo(4000);
+        assertThat(policy.nextDelayMs(4, 0.5)).isEqualTo(5000);
+    }
+
+    @Test
+    void nextDelayMs_ShouldApplyJitterWithinTwentyPercent() {
+        assertThat(policy.nextDelayMs(2, 0.0)).isEqualTo(1600);
+        assertThat(policy.nextDelayMs(2, 0.999)).isBetween(2000L, 2400L);
+        for (int i = 0; i < 100; i++) {
+            assertThat(policy.nextDelayMs(1)).isBetween(800L, 1200L);
+        }
+    }
+
+    @Test
+    void nextDelayMs_ShouldStopAfterMaxAttempts() {
+        assertThat(policy.nextDelayMs(5, 0.5)).isEqualTo(-1);
+        assertThat(policy.nextDelayMs(0, 0.5)).isEqualTo(-1);
+    }
+}
@@ -4,9 +4,15 @@ import lombok.extern.slf4j.Slf4j;
 import org.junit.jupiter.api.Test;
 import org.springframework.web.socket.WebSocketSession;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.*;
@@ -20,7 +26,7 @@ public class CrossRoomIsolationTest {
     @Test
     public void testSessionIsolationBetweenRooms() {
         // 模拟 WebSocketBroadcastService 的行为
-        WebSocketBroadcastService broadcastService = new WebSocketBroadcastService(null);
+        WebSocketBroadcastService broadcastService = new WebSocketBroadcastService(null, null);
         
         // 模拟两个不同的 session（代表两个浏览器 tab）
         WebSocketSession session1 = mock(WebSocketSession.class);
@@ -54,7 +60,7 @@ public class CrossRoomIsolationTest {
     
     @Test
     public void testSessionSwitchingRooms() {
-        WebSocketBroadcastService broadcastService = new WebSocketBroadcastService(null);
+        WebSocketBroadcastService broadcastService = new WebSocketBroadcastService(null, null);
         
         WebSocketSession session = mock(WebSocketSession.class);
         when(session.getId()).thenReturn("session-switch");
@@ -79,6 +85,59 @@ public class CrossRoomIsolationTest {
         log.info("✅ Session switching rooms test passed!");
     }
     
+    @Test
+    public void testRemoveSessionClearsRoomAndReverseMapping() {
+        WebSocketBroadcastService broadcastService = new WebSocketBroadcastService(null, null);
+
+        WebSocketSession session = mock(WebSocketSession.class);
+        when(session.getId()).thenReturn("session-remove");
+
+        broadcastService.registerRoomSession("room-x", session);
+        broadcastService.removeSession(session);
+
+        assertFalse(broadcastService.getRoomSessions("room-x").contains(session));
+        assertNull(broadcastService.getSessionRoomId(session));
+        assertEquals(0, broadcastService.getRoomSessionCount("room-x"));
+    }
+
+    @Test
+    public void testConcurrentRoomSwitchingKeepsEachSessionInOneRoom() throws Exception {
+        WebSocketBroadcastService broadcastService = new WebSocketBroadcastService(null, null);
+        List<String> rooms = List.of("room-1", "room-2", "room-3", "room-4");
+        List<WebSocketSession> sessions = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            WebSocketSession session = mock(WebSocketSession.class);
+            when(session.getId()).thenReturn("session-" + i);
+            sessions.add(session);
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        CountDownLatch done = new CountDownLatch(sessions.size());
+        for (int i = 0; i < sessions.size(); i++) {
+            WebSocketSession session = sessions.get(i);
+            int offset = i;
+            executor.execute(() -> {
+                // 每个 session 在自己的线程上反复切换房间，不同 session 之间并发
+                for (int round = 0; round < 200; round++) {
+                    broadcastService.registerRoomSession(rooms.get((offset + round) % rooms.size()), session);
+                }
+                done.countDown();
+            });
+        }
+        assertTrue(done.await(30, TimeUnit.SECONDS));
+        executor.shutdown();
+
+        for (WebSocketSession session : sessions) {
+            String registeredRoom = broadcastService.getSessionRoomId(session);
+            long roomsContaining = rooms.stream()
+                    .filter(room -> broadcastService.getRoomSessions(room).contains(session))
+                    .count();
+            assertEquals(1, roomsContaining, "Session should be in exactly one room");
+            assertTrue(broadcastService.getRoomSessions(registeredRoom).contains(session),
+                    "Session should be in the room recorded by the reverse mapping");
+        }
+    }
+
     @Test
     public void testUserInfoImmutability() {
         // 测试 UserInfo 的拷贝
@@ -0,0 +1,109 @@
+package com.ooc.websocket;
+
+import com.ooc.config.ChatProperties;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class SessionOutboxTest {
+
+    private WebSocketSession session;
+    private ChatProperties.Outbound config;
+    // 手动执行的发送任务，用来模拟客户端暂时没有读取
+    private final List<Runnable> pendingTasks = new ArrayList<>();
+    private final Executor manualExecutor = pendingTasks::add;
+    private final List<String> delivered = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() throws Exception {
+        session = mock(WebSocketSession.class);
+        when(session.getId()).thenReturn("s1");
+        when(session.isOpen()).thenReturn(true);
+        doAnswer(invocation -> {
+            delivered.add(((TextMessage) invocation.getArgument(0)).getPayload());
+            return null;
+        }).when(session).sendMessage(any(TextMessage.class));
+
+        config = new ChatProperties.Outbound();
+        config.setBufferSizeLimit(10);
+    }
+
+    private void runPending() {
+        List<Runnable> tasks = new ArrayList<>(pendingTasks);
+        pendingTasks.clear();
+        tasks.forEach(Runnable::run);
+    }
+
+    @Test
+    void offer_ShouldDeliverInOrderFromDrainTask() {
+        SessionOutbox outbox = new SessionOutbox(session, config, manualExecutor);
+
+        outbox.offer("message", null, "a");
+        outbox.offer("message", null, "b");
+        assertThat(delivered).isEmpty();
+
+        runPending();
+
+        assertThat(delivered).containsExactly("a", "b");
+        assertThat(outbox.getStats().sent()).isEqualTo(2);
+    }
+
+    @Test
+    void dropDeltas_ShouldDropDeltasWhenBufferFull() {
+        config.setOverflowPolicy(ChatProperties.OverflowPolicy.DROP_DELTAS);
+        SessionOutbox outbox = new SessionOutbox(session, config, manualExecutor);
+
+        outbox.offer("stream_delta", "m1", "12345");
+        outbox.offer("stream_delta", "m1", "67890");
+        // 新增量放不下，直接丢弃
+        assertThat(outbox.offer("stream_delta", "m1", "x")).isFalse();
+        // 非增量消息通过移除最早的增量腾出空间
+        assertThat(outbox.offer("stream_end", "m1", "END")).isTrue();
+
+        runPending();
+
+        assertThat(delivered).containsExactly("67890", "END");
+        assertThat(outbox.getStats().droppedDeltas()).isEqualTo(2);
+        assertThat(outbox.getStats().isThrottled()).isTrue();
+    }
+
+    @Test
+    void coalesce_ShouldRemoveDeltasSupersededByFullStateFrame() {
+        config.setOverflowPolicy(ChatProperties.OverflowPolicy.COALESCE);
+        SessionOutbox outbox = new SessionOutbox(session, config, manualExecutor);
+
+        outbox.offer("stream_delta", "m1", "1234");
+        outbox.offer("stream_delta", "m2", "5678");
+        assertThat(outbox.offer("tool_start", "m1", "TOOL")).isTrue();
+
+        runPending();
+
+        assertThat(delivered).containsExactly("5678", "TOOL");
+        assertThat(outbox.getStats().coalescedDeltas()).isEqualTo(1);
+    }
+
+    @Test
+    void disconnect_ShouldCloseSessionWhenBufferFull() throws Exception {
+        config.setOverflowPolicy(ChatProperties.OverflowPolicy.DISCONNECT);
+        SessionOutbox outbox = new SessionOutbox(session, config, manualExecutor);
+
+        outbox.offer("message", null, "1234567890");
+        assertThat(outbox.offer("message", null, "x")).isFalse();
+
+        runPending();
+
+        verify(session).close(CloseStatus.SESSION_NOT_RELIABLE);
+        assertThat(delivered).isEmpty();
+        assertThat(outbox.getStats().disconnected()).isTrue();
+    }
+}
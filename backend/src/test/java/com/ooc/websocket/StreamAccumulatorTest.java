@@ -0,0 +1,39 @@
+package com.ooc.websocket;
+
+import com.ooc.entity.ChatRoom;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class StreamAccumulatorTest {
+
+    @Test
+    void content_ShouldMaterializeOnlyAfterAppend() {
+        StreamAccumulator accumulator = new StreamAccumulator();
+        accumulator.append("Hello");
+        accumulator.append(", ");
+        accumulator.append("world");
+
+        String first = accumulator.content();
+        assertThat(first).isEqualTo("Hello, world");
+        assertThat(accumulator.length()).isEqualTo(12);
+        // 没有新增量时复用同一个字符串
+        assertThat(accumulator.content()).isSameAs(first);
+
+        accumulator.append("!");
+        assertThat(accumulator.content()).isEqualTo("Hello, world!");
+    }
+
+    @Test
+    void updateToolCall_ShouldReplaceMatchingToolCall() {
+        StreamAccumulator accumulator = new StreamAccumulator();
+        accumulator.addToolCall(ChatRoom.Message.ToolCall.builder().id("t1").name("read").status("running").build());
+
+        boolean found = accumulator.updateToolCall("t1", tc -> tc.toBuilder().status("completed").build());
+        boolean missing = accumulator.updateToolCall("t2", tc -> tc);
+
+        assertThat(found).isTrue();
+        assertThat(missing).isFalse();
+        assertThat(accumulator.toolCalls()).extracting(ChatRoom.Message.ToolCall::getStatus).containsExactly("completed");
+    }
+}
@@ -0,0 +1,82 @@
+package com.ooc.websocket;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class StreamDeltaCoalescerTest {
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private final List<String> frames = new CopyOnWriteArrayList<>();
+    private final List<Integer> seqs = new CopyOnWriteArrayList<>();
+
+    @AfterEach
+    void tearDown() {
+        scheduler.shutdownNow();
+    }
+
+    private StreamDeltaCoalescer coalescer(long intervalMs, int maxChars) {
+        return new StreamDeltaCoalescer(scheduler, intervalMs, maxChars, (seq, content) -> {
+            seqs.add(seq);
+            frames.add(content);
+        });
+    }
+
+    @Test
+    void add_ShouldMergeDeltasWithinIntervalIntoOneFrame() throws Exception {
+        StreamDeltaCoalescer coalescer = coalescer(50, 4096);
+
+        coalescer.add(1, "Hel");
+        coalescer.add(2, "lo");
+        coalescer.add(3, "!");
+        assertThat(frames).isEmpty();
+
+        Thread.sleep(200);
+
+        assertThat(frames).containsExactly("Hello!");
+        // 合并帧使用本批第一个增量的 seq
+        assertThat(seqs).containsExactly(1);
+    }
+
+    @Test
+    void add_ShouldFlushImmediatelyWhenCharThresholdReached() {
+        StreamDeltaCoalescer coalescer = coalescer(60000, 4);
+
+        coalescer.add(1, "ab");
+        coalescer.add(2, "cd");
+        coalescer.add(3, "e");
+
+        assertThat(frames).containsExactly("abcd");
+        assertThat(seqs).containsExactly(1);
+    }
+
+    @Test
+    void close_ShouldFlushPendingAndSendLaterDeltasDirectly() {
+        StreamDeltaCoalescer coalescer = coalescer(60000, 4096);
+
+        coalescer.add(null, "a");
+        coalescer.add(null, "b");
+        coalescer.close();
+        coalescer.add(null, "c");
+
+        assertThat(frames).containsExactly("ab", "c");
+    }
+
+    @Test
+    void add_ShouldNotMergeAcrossSeqRegression() {
+        StreamDeltaCoalescer coalescer = coalescer(60000, 4096);
+
+        coalescer.add(5, "x");
+        coalescer.add(3, "y");
+        coalescer.flush();
+
+        assertThat(frames).containsExactly("x", "y");
+        assertThat(seqs).containsExactly(5, 3);
+    }
+}
@@ -0,0 +1,92 @@
+package com.ooc.websocket;
+
+import com.ooc.entity.ChatRoom;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class StreamReplayBufferTest {
+
+    private final StreamAccumulator accumulator = new StreamAccumulator();
+
+    private StreamReplayBuffer buffer(int maxFrames, int maxChars) {
+        return new StreamReplayBuffer("room-1", ChatRoom.Message.builder()
+                .id("m1")
+                .senderId("kimi")
+                .content("")
+                .isStreaming(true)
+                .replyToMessageId("src")
+                .build(), accumulator, maxFrames, maxChars);
+    }
+
+    private void send(StreamReplayBuffer buffer, String content) {
+        accumulator.append(content);
+        buffer.append(content);
+    }
+
+    @Test
+    void append_ShouldAssignContiguousSeqFromZero() {
+        StreamReplayBuffer buffer = buffer(16, 1024);
+        assertThat(buffer.lastSeq()).isEqualTo(-1);
+
+        assertThat(buffer.append("a").seq()).isZero();
+        assertThat(buffer.append("b").seq()).isEqualTo(1);
+        assertThat(buffer.lastSeq()).isEqualTo(1);
+    }
+
+    @Test
+    void framesAfter_ShouldReturnOnlyMissingFrames() {
+        StreamReplayBuffer buffer = buffer(16, 1024);
+        send(buffer, "Hel");
+        send(buffer, "lo");
+        send(buffer, " world");
+
+        assertThat(buffer.framesAfter(0)).extracting(StreamReplayBuffer.Frame::content)
+                .containsExactly("lo", " world");
+        assertThat(buffer.framesAfter(-1)).hasSize(3);
+        assertThat(buffer.framesAfter(2)).isEmpty();
+    }
+
+    @Test
+    void framesAfter_ShouldRequireSnapshotWhenGapWasEvicted() {
+        StreamReplayBuffer buffer = buffer(2, 1024);
+        send(buffer, "a");
+        send(buffer, "b");
+        send(buffer, "c");
+
+        // seq 0 已被淘汰，客户端只收到 seq 0 时仍可从 seq 1 续传
+        assertThat(buffer.framesAfter(0)).extracting(StreamReplayBuffer.Frame::seq).containsExactly(1, 2);
+        assertThat(buffer.framesAfter(-1)).isNull();
+    }
+
+    @Test
+    void append_ShouldEvictByCharsButKeepLatestFrame() {
+        StreamReplayBuffer buffer = buffer(16, 4);
+        send(buffer, "abc");
+        send(buffer, "defgh");
+
+        List<StreamReplayBuffer.Frame> frames = buffer.framesAfter(0);
+        assertThat(frames).extracting(StreamReplayBuffer.Frame::content).containsExactly("defgh");
+        assertThat(buffer.framesAfter(-1)).isNull();
+    }
+
+    @Test
+    void snapshot_ShouldExcludeContentNotYetBroadcast() {
+        StreamReplayBuffer buffer = buffer(16, 1024);
+        send(buffer, "Hello");
+        // 已追加到累加器但仍在合并中的增量
+        accumulator.append(", pending");
+        accumulator.addToolCall(ChatRoom.Message.ToolCall.builder().id("t1").name("search").build());
+
+        StreamReplayBuffer.Snapshot snapshot = buffer.snapshot();
+
+        assertThat(snapshot.seq()).isZero();
+        assertThat(snapshot.message().getId()).isEqualTo("m1");
+        assertThat(snapshot.message().getContent()).isEqualTo("Hello");
+        assertThat(snapshot.message().getReplyToMessageId()).isEqualTo("src");
+        assertThat(snapshot.message().getToolCalls()).hasSize(1);
+        assertThat(snapshot.message().isStreaming()).isTrue();
+    }
+}
@@ -12,10 +12,24 @@ export interface GetMessagesParams {
   before?: string
 }
 
+export interface GetMessageHistoryParams {
+  cursor?: string
+  direction?: 'before' | 'after'
+  size?: number
+}
+
+export interface MessagePage {
+  messages: Message[]
+  olderCursor?: string
+  newerCursor?: string
+  hasMore: boolean
+}
+
 export interface TaskQueueInfo {
   roomId: string
   isProcessing: boolean
   queueSize: number
+  version?: number
   tasks: {
     taskId: string
     status: string
@@ -61,6 +75,16 @@ export const chatRoomApi = {
     return apiClient.get<Message[]>(`/chat-rooms/${roomId}/messages${queryString ? '?' + queryString : ''}`)
   },
 
+  getMessageHistory: (roomId: string, params?: GetMessageHistoryParams) => {
+    const searchParams = new URLSearchParams()
+    if (params?.cursor) searchParams.append('cursor', params.cursor)
+    if (params?.direction) searchParams.append('direction', params.direction)
+    if (params?.size !== undefined) searchParams.append('size', params.size.toString())
+
+    const queryString = searchParams.toString()
+    return apiClient.get<MessagePage>(`/chat-rooms/${roomId}/messages/history${queryString ? '?' + queryString : ''}`)
+  },
+
   getTaskQueue: (roomId: string) =>
     apiClient.get<TaskQueueInfo>(`/chat-rooms/${roomId}/queue`),
 
@@ -1,7 +1,7 @@
 import { defineStore } from 'pinia'
 import { ref, computed } from 'vue'
 import type { ChatRoom, Message } from '@/types'
-import { chatRoomApi } from '@/api/chatRoom'
+import { chatRoomApi, type TaskQueueInfo } from '@/api/chatRoom'
 import { useAuthStore } from './auth'
 
 // 附件类型定义
@@ -22,8 +22,14 @@ export const useChatStore = defineStore('chat', () => {
   // 正在输入的用户
   const typingUsers = ref<Map<string, { name: string; timeout: number }>>(new Map())
   
+  // 任务队列（订阅后由服务端 queue_update 推送）
+  const taskQueue = ref<TaskQueueInfo | null>(null)
+  const queueSubscribed = ref(false)
+
   // 分页相关状态
   const hasMoreMessages = ref(false)
+  // 历史消息游标（由服务端返回，不透明）
+  const historyCursor = ref<string | null>(null)
   const loadingMore = ref(false)
 
   // 重连相关状态
@@ -203,7 +209,9 @@ export const useChatStore = defineStore('chat', () => {
 
       currentRoom.value = room || null
       messages.value = []
+      historyCursor.value = null
       typingUsers.value.clear()
+      taskQueue.value = null
     }
     
     // 构建 WebSocket URL
@@ -249,9 +257,16 @@ export const useChatStore = defineStore('chat', () => {
         type: 'join',
         roomId,
         userId: authStore.user?.id,
-        userName: authStore.user?.username
+        userName: authStore.user?.username,
+        // 重连时上报各流式消息已连续收到的 seq，服务端只补发缺失的增量
+        streams: streamResumePoints()
       }))
 
+      // 重连后恢复队列订阅
+      if (queueSubscribed.value) {
+        socket.send(JSON.stringify({ type: 'queue_subscribe', roomId }))
+      }
+
       // 启动心跳
       startHeartbeat()
     }
@@ -300,6 +315,7 @@ export const useChatStore = defineStore('chat', () => {
       isConnected.value = false
       currentRoom.value = null
       messages.value = []
+      historyCursor.value = null
       typingUsers.value.clear()
     }
   }
@@ -406,6 +422,21 @@ export const useChatStore = defineStore('chat', () => {
     }
   }
   
+  // 订阅当前房间的任务队列变化
+  function subscribeQueue() {
+    queueSubscribed.value = true
+    if (ws.value && ws.value.readyState === WebSocket.OPEN && currentRoom.value) {
+      ws.value.send(JSON.stringify({ type: 'queue_subscribe', roomId: currentRoom.value.id }))
+    }
+  }
+
+  function unsubscribeQueue() {
+    queueSubscribed.value = false
+    if (ws.value && ws.value.readyState === WebSocket.OPEN) {
+      ws.value.send(JSON.stringify({ type: 'queue_unsubscribe' }))
+    }
+  }
+
   // 发送正在输入状态
   function sendTyping() {
     if (ws.value && ws.value.readyState === WebSocket.OPEN) {
@@ -413,6 +444,38 @@ export const useChatStore = defineStore('chat', () => {
     }
   }
 
+  // 增量缓冲中从开头连续收到的最后一个 seq（没有收到任何增量时为 -1）
+  function contiguousSeq(buffer: Array<{seq: number; content: string; base?: boolean}>): number {
+    let last = -1
+    for (const d of [...buffer].sort((a, b) => a.seq - b.seq)) {
+      if (d.base) {
+        last = Math.max(last, d.seq)
+      } else if (d.seq === last + 1) {
+        last = d.seq
+      } else if (d.seq > last + 1) {
+        break
+      }
+    }
+    return last
+  }
+
+  function streamResumePoints(): Record<string, number> {
+    const points: Record<string, number> = {}
+    for (const m of messages.value) {
+      if (m.isStreaming && m.deltaBuffer) {
+        points[m.id] = contiguousSeq(m.deltaBuffer)
+      }
+    }
+    return points
+  }
+
+  // 以截至 seq 的累积内容为基准重建增量缓冲，保留 seq 更大的增量（可能先于快照到达）
+  function rebaseStreamContent(msg: Message, content: string, seq?: number) {
+    const newer = seq == null ? [] : (msg.deltaBuffer || []).filter(d => !d.base && d.seq > seq)
+    msg.deltaBuffer = [{ seq: seq ?? Number.MIN_SAFE_INTEGER, content, base: true }, ...newer]
+    msg.content = msg.deltaBuffer.map(d => d.content).join('')
+  }
+
   function handleMessage(data: any) {
     // 全局房间过滤：所有消息类型都必须验证 roomId
     if (data.roomId && data.roomId !== currentRoom.value?.id) {
@@ -442,6 +505,7 @@ export const useChatStore = defineStore('chat', () => {
             console.log('[WebSocket] history - no new messages, skipped')
           }
           hasMoreMessages.value = data.hasMore || false
+          historyCursor.value = data.cursor || null
           // 去重确保没有重复消息
           deduplicateMessages()
         }
@@ -508,6 +572,12 @@ export const useChatStore = defineStore('chat', () => {
               updatedMsg.deltaBuffer = [] as Array<{seq: number; content: string}>
             }
             
+            // 重连补发的增量可能已经收到或已包含在快照中
+            if (data.seq != null && updatedMsg.deltaBuffer.some(d => d.base ? d.seq >= data.seq : d.seq === data.seq)) {
+              console.log('[WebSocket] stream_delta - duplicate seq skipped:', data.seq)
+              break
+            }
+
             // 添加新的 delta 片段（使用 seq 或递增生成）
             const seq = data.seq ?? updatedMsg.deltaBuffer.length
             updatedMsg.deltaBuffer.push({
@@ -545,7 +615,8 @@ export const useChatStore = defineStore('chat', () => {
               updatedMsg.isToolCall = true
               // 同时更新内容（后端现在发送累积内容）
               if (data.message.content) {
-                updatedMsg.content = data.message.content
+                // 以累积内容为基准重建增量缓冲，慢连接被丢弃的增量不会影响之后的内容
+                rebaseStreamContent(updatedMsg, data.message.content, data.seq)
               }
               messages.value.splice(index, 1, updatedMsg)
               console.log('[WebSocket] tool_start - updated tool calls:', toolCalls.length)
@@ -571,6 +642,10 @@ export const useChatStore = defineStore('chat', () => {
             const toolCalls = data.message.toolCalls || []
             updatedMsg.toolCalls = toolCalls
             updatedMsg.isToolCall = toolCalls.length > 0
+            // 后端同样发送累积内容，作为增量缓冲的新基准
+            if (data.message.content) {
+              rebaseStreamContent(updatedMsg, data.message.content, data.seq)
+            }
             messages.value.splice(index, 1, updatedMsg)
             console.log('[WebSocket] tool_result - updated tool calls:', toolCalls.length)
           } else {
@@ -578,6 +653,27 @@ export const useChatStore = defineStore('chat', () => {
           }
         }
         break
+      case 'stream_resume':
+        // 重连后的流式内容快照（缺口超出服务端重放范围或首次加入时）
+        {
+          const index = messages.value.findIndex(m => m.id === data.message.id)
+          if (index !== -1) {
+            const updatedMsg = { ...messages.value[index] }
+            if (data.message.toolCalls && data.message.toolCalls.length > 0) {
+              updatedMsg.toolCalls = data.message.toolCalls
+              updatedMsg.isToolCall = true
+            }
+            updatedMsg.isStreaming = true
+            rebaseStreamContent(updatedMsg, data.message.content || '', data.seq)
+            messages.value.splice(index, 1, updatedMsg)
+          } else {
+            const resumedMsg = { ...data.message }
+            rebaseStreamContent(resumedMsg, data.message.content || '', data.seq)
+            messages.value.push(resumedMsg)
+          }
+          console.log('[WebSocket] stream_resume - snapshot at seq:', data.seq, 'message:', data.message.id)
+        }
+        break
       case 'stream_end':
         // 流式消息结束 - 只处理当前房间的消息
         // 严格过滤：不处理非当前房间的消息（移除兜底恢复逻辑防止串房间）
@@ -694,6 +790,12 @@ export const useChatStore = defineStore('chat', () => {
           isSystem: true
         } as Message)
         break
+      case 'queue_update':
+        // 任务队列变化 - 按版本号丢弃过期的推送
+        if (data.queue && (!taskQueue.value || (data.queue.version ?? 0) >= (taskQueue.value.version ?? 0))) {
+          taskQueue.value = data.queue
+        }
+        break
       case 'user_avatar_updated':
         // 用户头像更新 - 只处理当前房间的消息
         if (data.roomId && data.roomId !== currentRoom.value?.id) {
@@ -726,6 +828,23 @@ export const useChatStore = defineStore('chat', () => {
 
     loadingMore.value = true
     try {
+      // 优先使用服务端返回的游标
+      if (historyCursor.value) {
+        const response = await chatRoomApi.getMessageHistory(roomId, {
+          cursor: historyCursor.value,
+          direction: 'before',
+          size: 100
+        })
+        const page = response.data
+        if (page.messages.length > 0) {
+          messages.value.unshift(...page.messages)
+          deduplicateMessages()
+          historyCursor.value = page.olderCursor || null
+        }
+        hasMoreMessages.value = page.hasMore
+        return page.messages.length > 0
+      }
+
       // 获取最早一条消息的时间戳作为游标
       const oldestMessage = messages.value[0]
       const before = oldestMessage?.timestamp
@@ -812,12 +931,15 @@ export const useChatStore = defineStore('chat', () => {
     hasMoreMessages,
     loadingMore,
     typingUserList,
+    taskQueue,
     fetchRooms,
     createRoom,
     connect,
     disconnect,
     sendMessage,
     sendTyping,
+    subscribeQueue,
+    unsubscribeQueue,
     loadMoreMessages,
     updateRoomProjects
   }
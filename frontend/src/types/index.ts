@@ -45,6 +45,7 @@ export interface Message {
   isSystem?: boolean
   isToolCall?: boolean
   isStreaming?: boolean
+  interrupted?: boolean
   delta?: boolean
   replyToMessageId?: string
   toolCalls?: ToolCall[]
@@ -52,7 +53,7 @@ export interface Message {
   mentionAll?: boolean
   mentionHere?: boolean
   attachments?: Attachment[]
-  deltaBuffer?: Array<{seq: number; content: string}> // 流式消息片段缓冲区
+  deltaBuffer?: Array<{seq: number; content: string; base?: boolean}> // 流式消息片段缓冲区（base 为截至 seq 的累积内容）
 }
 
 export interface MentionRecord {